@@ -180,6 +180,12 @@ public class Connector extends LifecycleMBeanBase {
      */
     protected int maxParameterCount = 10000;
 
+    /**
+     * Should request parameters be parsed lazily, only decoding names and
+     * values when they are accessed? Defaults to false.
+     */
+    protected boolean lazyParameterParsing = false;
+
     /**
      * Maximum size of a POST which will be automatically parsed by the
      * container. 2MB by default.
@@ -401,6 +407,28 @@ public class Connector extends LifecycleMBeanBase {
     }
 
 
+    /**
+     * @return {@code true} if request parameters are parsed lazily
+     */
+    public boolean getLazyParameterParsing() {
+        return lazyParameterParsing;
+    }
+
+
+    /**
+     * Set whether request parameters should be parsed lazily. Lazy parsing
+     * records the position of each parameter when the parameters are parsed
+     * and decodes names and values when they are first accessed. This reduces
+     * the cost of parsing for requests with many parameters where the
+     * application only reads a few of them.
+     *
+     * @param lazyParameterParsing {@code true} to parse parameters lazily
+     */
+    public void setLazyParameterParsing(boolean lazyParameterParsing) {
+        this.lazyParameterParsing = lazyParameterParsing;
+    }
+
+
     /**
      * @return the maximum size of a POST which will be automatically
      * parsed by the container.
@@ -401,8 +401,9 @@ public class OutputBuffer extends Writer {
             return;
         }
 
+        int len = from.remaining();
         append(from);
-        bytesWritten += from.remaining();
+        bytesWritten += len;
 
         // if called from within flush(), then immediately flush
         // remaining bytes
@@ -759,6 +760,14 @@ public class OutputBuffer extends Writer {
         }
 
         int limit = bb.capacity();
+        if (from.isDirect() && from.remaining() >= limit) {
+            // Write direct buffers (e.g. cached static content) in a single
+            // call so the connector can pass them to the network without
+            // copying them in chunks
+            realWriteBytes(from.slice());
+            from.position(from.limit());
+            return;
+        }
         int fromLimit = from.limit();
         while (from.remaining() >= limit) {
             from.limit(from.position() + limit);
@@ -3158,8 +3158,9 @@ public class Request implements HttpServletRequest {
         Parameters parameters = coyoteRequest.getParameters();
         boolean success = false;
         try {
-            // Set this every time in case limit has been changed via JMX
+            // Set these every time in case they have been changed via JMX
             parameters.setLimit(getConnector().getMaxParameterCount());
+            parameters.setLazy(getConnector().getLazyParameterParsing());
 
             // getCharacterEncoding() may have been overridden to search for
             // hidden form field containing request encoding
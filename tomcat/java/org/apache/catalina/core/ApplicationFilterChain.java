@@ -292,6 +292,26 @@ public final class ApplicationFilterChain implements FilterChain {
     }
 
 
+    /**
+     * Replace the filters in this chain.
+     *
+     * @param filterConfigs The filters to execute, in order. The array is
+     *                      copied.
+     */
+    void setFilters(ApplicationFilterConfig[] filterConfigs) {
+        int len = filterConfigs.length;
+        if (filters.length < len) {
+            filters = new ApplicationFilterConfig[len];
+        } else {
+            for (int i = len; i < n; i++) {
+                filters[i] = null;
+            }
+        }
+        System.arraycopy(filterConfigs, 0, filters, 0, len);
+        n = len;
+    }
+
+
     /**
      * Release references to the filters and wrapper executed by this chain.
      */
@@ -16,6 +16,9 @@
  */
 package org.apache.catalina.core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.servlet.DispatcherType;
 import javax.servlet.Servlet;
 import javax.servlet.ServletRequest;
@@ -81,10 +84,10 @@ public final class ApplicationFilterFactory {
 
         // Acquire the filter mappings for this Context
         StandardContext context = (StandardContext) wrapper.getParent();
-        FilterMap filterMaps[] = context.findFilterMaps();
+        FilterChainCache filterChainCache = context.getFilterChainCache();
 
         // If there are no filter mappings, we are done
-        if ((filterMaps == null) || (filterMaps.length == 0))
+        if (filterChainCache.isEmpty())
             return filterChain;
 
         // Acquire the information we will need to match filter mappings
@@ -99,6 +102,32 @@ public final class ApplicationFilterFactory {
 
         String servletName = wrapper.getName();
 
+        filterChain.setFilters(filterChainCache.getFilters(servletName, dispatcher, requestPath));
+
+        // Return the completed filter chain
+        return filterChain;
+    }
+
+
+    /**
+     * Determine the filters that apply to a request by evaluating each of the
+     * filter mappings in turn. Path-mapped filters are added first followed by
+     * the filters that match on servlet name.
+     *
+     * @param context       The Context processing the request
+     * @param filterMaps    The filter mappings of the Context
+     * @param dispatcher    The dispatcher type of the request
+     * @param requestPath   The context relative path of the request
+     * @param servletName   The name of the servlet that will process the
+     *                      request
+     *
+     * @return The filters in the order in which they should be invoked
+     */
+    static ApplicationFilterConfig[] matchFilters(StandardContext context, FilterMap[] filterMaps,
+            DispatcherType dispatcher, String requestPath, String servletName) {
+
+        List<ApplicationFilterConfig> filters = new ArrayList<>();
+
         // Add the relevant path-mapped filters to this filter chain
         for (int i = 0; i < filterMaps.length; i++) {
             if (!matchDispatcher(filterMaps[i] ,dispatcher)) {
@@ -112,7 +141,7 @@ public final class ApplicationFilterFactory {
                 // FIXME - log configuration problem
                 continue;
             }
-            filterChain.addFilter(filterConfig);
+            addFilter(filters, filterConfig);
         }
 
         // Add filters that match on servlet name second
@@ -128,17 +157,28 @@ public final class ApplicationFilterFactory {
                 // FIXME - log configuration problem
                 continue;
             }
-            filterChain.addFilter(filterConfig);
+            addFilter(filters, filterConfig);
         }
 
-        // Return the completed filter chain
-        return filterChain;
+        return filters.toArray(new ApplicationFilterConfig[filters.size()]);
     }
 
 
     // -------------------------------------------------------- Private Methods
 
 
+    private static void addFilter(List<ApplicationFilterConfig> filters,
+            ApplicationFilterConfig filterConfig) {
+        // Prevent the same filter being added multiple times
+        for (ApplicationFilterConfig filter : filters) {
+            if (filter == filterConfig) {
+                return;
+            }
+        }
+        filters.add(filterConfig);
+    }
+
+
     /**
      * Return <code>true</code> if the context-relative request path
      * matches the requirements of the specified filter mapping;
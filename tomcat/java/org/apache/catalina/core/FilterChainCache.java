@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.DispatcherType;
+
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+/**
+ * Caches the filters that apply to a request for a Context so that the filter
+ * mappings do not have to be evaluated for every request.
+ * <p>
+ * Which URL pattern based filter mappings match a request path depends only on
+ * the exact match pattern (if any) that is equal to the path, the longest path
+ * prefix pattern that matches the path and the extension of the path (if an
+ * extension pattern exists for it). Those, along with the servlet name and the
+ * dispatcher type, form the cache key so the number of cache entries is
+ * bounded by the filter mappings rather than by the number of distinct request
+ * paths.
+ * <p>
+ * Instances are immutable snapshots of the filter mappings. The Context
+ * replaces its instance whenever the filter mappings or filter configurations
+ * change.
+ */
+final class FilterChainCache {
+
+    private static final ApplicationFilterConfig[] NO_FILTERS = new ApplicationFilterConfig[0];
+
+    private final StandardContext context;
+    private final FilterMap[] filterMaps;
+
+    // All URL patterns since any pattern can be an exact match
+    private final Set<String> exactPatterns = new HashSet<>();
+    // Path prefix patterns without the trailing "/*"
+    private final Set<String> prefixPatterns = new HashSet<>();
+    // Extension patterns without the leading "*."
+    private final Set<String> extensionPatterns = new HashSet<>();
+
+    private final ConcurrentMap<Key,ApplicationFilterConfig[]> filters = new ConcurrentHashMap<>();
+
+
+    FilterChainCache(StandardContext context, FilterMap[] filterMaps) {
+        this.context = context;
+        this.filterMaps = filterMaps;
+        for (FilterMap filterMap : filterMaps) {
+            for (String urlPattern : filterMap.getURLPatterns()) {
+                if (urlPattern == null) {
+                    continue;
+                }
+                exactPatterns.add(urlPattern);
+                if (urlPattern.endsWith("/*")) {
+                    prefixPatterns.add(urlPattern.substring(0, urlPattern.length() - 2));
+                } else if (urlPattern.startsWith("*.")) {
+                    extensionPatterns.add(urlPattern.substring(2));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return {@code true} if the Context has no filter mappings
+     */
+    boolean isEmpty() {
+        return filterMaps.length == 0;
+    }
+
+
+    /**
+     * Obtain the filters, in the order in which they should be invoked, for a
+     * request.
+     *
+     * @param servletName   The name of the servlet that will process the
+     *                      request
+     * @param dispatcher    The dispatcher type of the request
+     * @param requestPath   The context relative path of the request, may be
+     *                      {@code null}
+     *
+     * @return The filters for the request. The returned array must not be
+     *         modified.
+     */
+    ApplicationFilterConfig[] getFilters(String servletName, DispatcherType dispatcher,
+            String requestPath) {
+        if (filterMaps.length == 0) {
+            return NO_FILTERS;
+        }
+        Key key = new Key(servletName, dispatcher, getExactMatch(requestPath),
+                getPrefixMatch(requestPath), getExtensionMatch(requestPath));
+        ApplicationFilterConfig[] result = filters.get(key);
+        if (result == null) {
+            result = ApplicationFilterFactory.matchFilters(
+                    context, filterMaps, dispatcher, requestPath, servletName);
+            ApplicationFilterConfig[] existing = filters.putIfAbsent(key, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+
+    private String getExactMatch(String requestPath) {
+        if (requestPath == null || !exactPatterns.contains(requestPath)) {
+            return null;
+        }
+        return requestPath;
+    }
+
+
+    /*
+     * The longest prefix pattern that matches the path. Any shorter prefix
+     * pattern that matches the path also matches this pattern.
+     */
+    private String getPrefixMatch(String requestPath) {
+        if (requestPath == null || prefixPatterns.isEmpty()) {
+            return null;
+        }
+        if (prefixPatterns.contains(requestPath)) {
+            return requestPath;
+        }
+        int slash = requestPath.lastIndexOf('/');
+        while (slash >= 0) {
+            String prefix = requestPath.substring(0, slash);
+            if (prefixPatterns.contains(prefix)) {
+                return prefix;
+            }
+            slash = requestPath.lastIndexOf('/', slash - 1);
+        }
+        return null;
+    }
+
+
+    private String getExtensionMatch(String requestPath) {
+        if (requestPath == null || extensionPatterns.isEmpty()) {
+            return null;
+        }
+        int slash = requestPath.lastIndexOf('/');
+        int period = requestPath.lastIndexOf('.');
+        if (slash >= 0 && period > slash && period != requestPath.length() - 1) {
+            String extension = requestPath.substring(period + 1);
+            if (extensionPatterns.contains(extension)) {
+                return extension;
+            }
+        }
+        return null;
+    }
+
+
+    private static final class Key {
+
+        private final String servletName;
+        private final DispatcherType dispatcher;
+        private final String exactMatch;
+        private final String prefixMatch;
+        private final String extensionMatch;
+        private final int hashCode;
+
+        Key(String servletName, DispatcherType dispatcher, String exactMatch,
+                String prefixMatch, String extensionMatch) {
+            this.servletName = servletName;
+            this.dispatcher = dispatcher;
+            this.exactMatch = exactMatch;
+            this.prefixMatch = prefixMatch;
+            this.extensionMatch = extensionMatch;
+            int result = servletName == null ? 0 : servletName.hashCode();
+            result = 31 * result + dispatcher.hashCode();
+            result = 31 * result + (exactMatch == null ? 0 : exactMatch.hashCode());
+            result = 31 * result + (prefixMatch == null ? 0 : prefixMatch.hashCode());
+            result = 31 * result + (extensionMatch == null ? 0 : extensionMatch.hashCode());
+            hashCode = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return dispatcher == other.dispatcher && equals(servletName, other.servletName) &&
+                    equals(exactMatch, other.exactMatch) && equals(prefixMatch, other.prefixMatch) &&
+                    equals(extensionMatch, other.extensionMatch);
+        }
+
+        private static boolean equals(String s1, String s2) {
+            return s1 == null ? s2 == null : s1.equals(s2);
+        }
+    }
+}
@@ -393,6 +393,14 @@ public class StandardContext extends ContainerBase
      */
     private final ContextFilterMaps filterMaps = new ContextFilterMaps();
 
+    /**
+     * The filters that apply to requests, built from the filter mappings and
+     * filter configurations when first required and discarded whenever either
+     * of those changes.
+     */
+    private volatile FilterChainCache filterChainCache = null;
+    private final Object filterChainCacheLock = new Object();
+
     /**
      * Ignore annotations.
      */
@@ -2971,6 +2979,7 @@ public class StandardContext extends ContainerBase
         validateFilterMap(filterMap);
         // Add this filter mapping to our registered set
         filterMaps.add(filterMap);
+        resetFilterChainCache();
         fireContainerEvent("addFilterMap", filterMap);
     }
 
@@ -2990,6 +2999,7 @@ public class StandardContext extends ContainerBase
         validateFilterMap(filterMap);
         // Add this filter mapping to our registered set
         filterMaps.addBefore(filterMap);
+        resetFilterChainCache();
         fireContainerEvent("addFilterMap", filterMap);
     }
 
@@ -3936,6 +3946,7 @@ public class StandardContext extends ContainerBase
         synchronized (filterDefs) {
             filterDefs.remove(filterDef.getFilterName());
         }
+        resetFilterChainCache();
         fireContainerEvent("removeFilterDef", filterDef);
 
     }
@@ -3949,6 +3960,7 @@ public class StandardContext extends ContainerBase
     @Override
     public void removeFilterMap(FilterMap filterMap) {
         filterMaps.remove(filterMap);
+        resetFilterChainCache();
         // Inform interested listeners
         fireContainerEvent("removeFilterMap", filterMap);
     }
@@ -4541,6 +4553,7 @@ public class StandardContext extends ContainerBase
                 }
             }
         }
+        resetFilterChainCache();
 
         return ok;
     }
@@ -4566,6 +4579,7 @@ public class StandardContext extends ContainerBase
             }
             filterConfigs.clear();
         }
+        resetFilterChainCache();
         return true;
 
     }
@@ -4583,6 +4597,31 @@ public class StandardContext extends ContainerBase
     }
 
 
+    /**
+     * @return The cache of the filters that apply to requests for this Context
+     */
+    FilterChainCache getFilterChainCache() {
+        FilterChainCache result = filterChainCache;
+        if (result == null) {
+            synchronized (filterChainCacheLock) {
+                result = filterChainCache;
+                if (result == null) {
+                    result = new FilterChainCache(this, findFilterMaps());
+                    filterChainCache = result;
+                }
+            }
+        }
+        return result;
+    }
+
+
+    private void resetFilterChainCache() {
+        synchronized (filterChainCacheLock) {
+            filterChainCache = null;
+        }
+    }
+
+
     /**
      * Configure the set of instantiated application event listeners
      * for this Context.
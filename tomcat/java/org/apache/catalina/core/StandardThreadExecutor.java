@@ -25,6 +25,8 @@ import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleState;
 import org.apache.catalina.util.LifecycleMBeanBase;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.ExecutorTaskQueue;
+import org.apache.tomcat.util.threads.LockFreeTaskQueue;
 import org.apache.tomcat.util.threads.ResizableExecutor;
 import org.apache.tomcat.util.threads.TaskQueue;
 import org.apache.tomcat.util.threads.TaskThreadFactory;
@@ -95,7 +97,13 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
     protected long threadRenewalDelay =
         org.apache.tomcat.util.threads.Constants.DEFAULT_THREAD_RENEWAL_DELAY;
 
-    private TaskQueue taskqueue = null;
+    /**
+     * Use a lock-free task queue rather than the default
+     * {@link TaskQueue}.
+     */
+    protected boolean useLockFreeTaskQueue = false;
+
+    private ExecutorTaskQueue taskqueue = null;
     // ---------------------------------------------- Constructors
     public StandardThreadExecutor() {
         //empty constructor for the digester
@@ -120,7 +128,11 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
     @Override
     protected void startInternal() throws LifecycleException {
 
-        taskqueue = new TaskQueue(maxQueueSize);
+        if (useLockFreeTaskQueue) {
+            taskqueue = new LockFreeTaskQueue(maxQueueSize);
+        } else {
+            taskqueue = new TaskQueue(maxQueueSize);
+        }
         TaskThreadFactory tf = new TaskThreadFactory(namePrefix,daemon,getThreadPriority());
         executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), maxIdleTime, TimeUnit.MILLISECONDS,taskqueue, tf);
         executor.setThreadRenewalDelay(threadRenewalDelay);
@@ -175,7 +187,7 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
                 executor.execute(command);
             } catch (RejectedExecutionException rx) {
                 //there could have been contention around the queue
-                if (!((TaskQueue) executor.getQueue()).force(command)) {
+                if (!((ExecutorTaskQueue) executor.getQueue()).force(command)) {
                     throw new RejectedExecutionException(sm.getString("standardThreadExecutor.queueFull"));
                 }
             }
@@ -274,6 +286,14 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         return maxQueueSize;
     }
 
+    public boolean getUseLockFreeTaskQueue() {
+        return useLockFreeTaskQueue;
+    }
+
+    public void setUseLockFreeTaskQueue(boolean useLockFreeTaskQueue) {
+        this.useLockFreeTaskQueue = useLockFreeTaskQueue;
+    }
+
     public long getThreadRenewalDelay() {
         return threadRenewalDelay;
     }
@@ -0,0 +1,240 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.Executor;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.util.LifecycleMBeanBase;
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.ResizableExecutor;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+
+/**
+ * An executor that uses a new virtual thread for each task. The number of
+ * tasks that execute concurrently is limited by {@link #getMaxThreads()}.
+ * Requires Java 21 or later.
+ */
+public class StandardVirtualThreadExecutor extends LifecycleMBeanBase
+        implements Executor, ResizableExecutor {
+
+    protected static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    // ---------------------------------------------- Properties
+
+    /**
+     * Default name prefix for the thread name
+     */
+    protected String namePrefix = "tomcat-virt-";
+
+    /**
+     * max number of concurrently executing tasks
+     */
+    protected int maxThreads = 200;
+
+    /**
+     * The maximum number of elements that can queue up before we reject them
+     */
+    protected int maxQueueSize = Integer.MAX_VALUE;
+
+    /**
+     * The executor we use for this component
+     */
+    protected VirtualThreadExecutor executor = null;
+
+    /**
+     * the name of this thread pool
+     */
+    protected String name;
+
+    // ---------------------------------------------- Constructors
+    public StandardVirtualThreadExecutor() {
+        //empty constructor for the digester
+    }
+
+
+    // ---------------------------------------------- Public Methods
+
+    @Override
+    protected void initInternal() throws LifecycleException {
+        super.initInternal();
+        if (!JreCompat.isJre21Available()) {
+            throw new LifecycleException(sm.getString("standardVirtualThreadExecutor.noVirtualThreads"));
+        }
+    }
+
+
+    /**
+     * Start the component and implement the requirements
+     * of {@link org.apache.catalina.util.LifecycleBase#startInternal()}.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected void startInternal() throws LifecycleException {
+        executor = new VirtualThreadExecutor(namePrefix, maxThreads, maxQueueSize);
+        setState(LifecycleState.STARTING);
+    }
+
+
+    /**
+     * Stop the component and implement the requirements
+     * of {@link org.apache.catalina.util.LifecycleBase#stopInternal()}.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that needs to be reported
+     */
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        setState(LifecycleState.STOPPING);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        executor = null;
+    }
+
+
+    @Override
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        // Tasks are never blocked waiting for queue capacity
+        execute(command);
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if (executor != null) {
+            try {
+                executor.execute(command);
+            } catch (RejectedExecutionException rx) {
+                throw new RejectedExecutionException(sm.getString("standardThreadExecutor.queueFull"));
+            }
+        } else {
+            throw new IllegalStateException(sm.getString("standardThreadExecutor.notStarted"));
+        }
+    }
+
+    /**
+     * NO-OP. Virtual threads are not re-used so there are no threads to renew
+     * when a context is stopped.
+     */
+    public void contextStopping() {
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    @Override
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+        if (executor != null) {
+            executor.setMaxThreads(maxThreads);
+        }
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setMaxQueueSize(int size) {
+        this.maxQueueSize = size;
+        if (executor != null) {
+            executor.setMaxQueueSize(size);
+        }
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    // Statistics from the executor
+    @Override
+    public int getActiveCount() {
+        return (executor != null) ? executor.getActiveCount() : 0;
+    }
+
+    public long getCompletedTaskCount() {
+        return (executor != null) ? executor.getCompletedTaskCount() : 0;
+    }
+
+    public int getLargestPoolSize() {
+        return (executor != null) ? executor.getLargestPoolSize() : 0;
+    }
+
+    @Override
+    public int getPoolSize() {
+        return (executor != null) ? executor.getPoolSize() : 0;
+    }
+
+    public int getQueueSize() {
+        return (executor != null) ? executor.getQueueSize() : -1;
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        if (executor == null) {
+            return false;
+        }
+        setMaxThreads(maximumPoolSize);
+        return true;
+    }
+
+
+    @Override
+    public boolean resizeQueue(int capacity) {
+        if (executor == null) {
+            return false;
+        }
+        setMaxQueueSize(capacity);
+        return true;
+    }
+
+
+    @Override
+    protected String getDomainInternal() {
+        // No way to navigate to Engine. Needs to have domain set.
+        return null;
+    }
+
+    @Override
+    protected String getObjectNameKeyProperties() {
+        StringBuilder name = new StringBuilder("type=Executor,name=");
+        name.append(getName());
+        return name.toString();
+    }
+}
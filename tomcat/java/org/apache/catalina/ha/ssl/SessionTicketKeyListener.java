@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.ssl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.ha.CatalinaCluster;
+import org.apache.catalina.ha.ClusterListener;
+import org.apache.catalina.ha.ClusterMessage;
+import org.apache.catalina.ha.tcp.SimpleTcpCluster;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.AbsoluteOrder;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.apache.tomcat.util.net.SessionTicketKeyManager;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Shares the TLS session ticket keys of the connectors of the Service
+ * associated with the cluster between all the nodes of the cluster so that a
+ * session ticket issued by one node can be used to resume the TLS session on
+ * any other node. Keys are shared per TLS virtual host name and key rotation
+ * must be enabled for the TLS virtual host (see
+ * {@link SSLHostConfig#setSessionTicketKeyRotationInterval(int)}).
+ * <p>
+ * New keys are generated by a single node, the first member of the cluster
+ * in {@link AbsoluteOrder}, and sent to all other nodes. When a node joins
+ * the cluster, the node that was previously responsible for generating keys
+ * sends it the current keys.
+ * <p>
+ * The keys are sent in clear text unless the channel is configured with the
+ * EncryptInterceptor. The EncryptInterceptor should always be used with this
+ * listener unless the cluster traffic is otherwise protected.
+ * <p>
+ * Only supported by the OpenSSL based TLS implementations.
+ */
+public class SessionTicketKeyListener extends ClusterListener
+        implements LifecycleListener, SessionTicketKeyManager.Distributor {
+
+    private static final Log log = LogFactory.getLog(SessionTicketKeyListener.class);
+    private static final StringManager sm = StringManager.getManager(SessionTicketKeyListener.class);
+
+    private final Map<String,List<SSLHostConfig>> sslHostConfigs = new ConcurrentHashMap<>();
+
+
+    @Override
+    public void setCluster(CatalinaCluster cluster) {
+        if (this.cluster instanceof Lifecycle) {
+            ((Lifecycle) this.cluster).removeLifecycleListener(this);
+        }
+        super.setCluster(cluster);
+        if (cluster instanceof Lifecycle) {
+            ((Lifecycle) cluster).addLifecycleListener(this);
+        }
+    }
+
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+            start();
+        } else if (Lifecycle.BEFORE_STOP_EVENT.equals(event.getType())) {
+            stop();
+        } else if (SimpleTcpCluster.AFTER_MEMBERREGISTER_EVENT.equals(event.getType())) {
+            memberAdded((Member) event.getData());
+        }
+    }
+
+
+    protected void start() {
+        Service service = Container.getService(cluster.getContainer());
+        if (service == null) {
+            return;
+        }
+        for (Connector connector : service.findConnectors()) {
+            for (SSLHostConfig sslHostConfig : connector.getProtocolHandler().findSslHostConfigs()) {
+                if (sslHostConfig.getSessionTicketKeyRotationInterval() <= 0) {
+                    continue;
+                }
+                List<SSLHostConfig> list = sslHostConfigs.get(sslHostConfig.getHostName());
+                if (list == null) {
+                    list = new ArrayList<>();
+                    sslHostConfigs.put(sslHostConfig.getHostName(), list);
+                }
+                list.add(sslHostConfig);
+                sslHostConfig.getSessionTicketKeyManager().setDistributor(this);
+            }
+        }
+        if (sslHostConfigs.isEmpty()) {
+            log.warn(sm.getString("sessionTicketKeyListener.noHosts"));
+        }
+    }
+
+
+    protected void stop() {
+        for (List<SSLHostConfig> list : sslHostConfigs.values()) {
+            for (SSLHostConfig sslHostConfig : list) {
+                sslHostConfig.getSessionTicketKeyManager().setDistributor(null);
+            }
+        }
+        sslHostConfigs.clear();
+    }
+
+
+    protected void memberAdded(Member member) {
+        // Only the node that generated the keys before the new member joined
+        // sends them
+        List<Member> members = new ArrayList<>();
+        for (Member m : cluster.getMembers()) {
+            if (!m.equals(member)) {
+                members.add(m);
+            }
+        }
+        if (!isFirst(members)) {
+            return;
+        }
+        for (Map.Entry<String,List<SSLHostConfig>> entry : sslHostConfigs.entrySet()) {
+            byte[][] keys = entry.getValue().get(0).getSessionTicketKeyManager().getKeys();
+            if (keys.length > 0) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("sessionTicketKeyListener.sendToMember",
+                            entry.getKey(), member));
+                }
+                cluster.send(createMessage(entry.getKey(), keys), member);
+            }
+        }
+    }
+
+
+    @Override
+    public boolean isKeyGenerator(SSLHostConfig sslHostConfig) {
+        List<Member> members = new ArrayList<>();
+        for (Member m : cluster.getMembers()) {
+            members.add(m);
+        }
+        return isFirst(members);
+    }
+
+
+    @Override
+    public void keysRotated(SSLHostConfig sslHostConfig, byte[][] keys) {
+        String hostName = sslHostConfig.getHostName();
+        // Other connectors on this node with the same TLS virtual host
+        List<SSLHostConfig> list = sslHostConfigs.get(hostName);
+        if (list != null) {
+            for (SSLHostConfig other : list) {
+                if (other != sslHostConfig) {
+                    other.getSessionTicketKeyManager().setKeys(keys);
+                }
+            }
+        }
+        if (isKeyGenerator(sslHostConfig) && cluster.hasMembers()) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("sessionTicketKeyListener.send", hostName));
+            }
+            cluster.send(createMessage(hostName, keys));
+        }
+    }
+
+
+    @Override
+    public void messageReceived(ClusterMessage msg) {
+        SessionTicketKeyMessage message = (SessionTicketKeyMessage) msg;
+        List<SSLHostConfig> list = sslHostConfigs.get(message.getHostName());
+        if (list == null) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("sessionTicketKeyListener.unknownHost",
+                        message.getHostName(), message.getAddress()));
+            }
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("sessionTicketKeyListener.receive",
+                    message.getHostName(), message.getAddress()));
+        }
+        try {
+            for (SSLHostConfig sslHostConfig : list) {
+                sslHostConfig.getSessionTicketKeyManager().setKeys(message.getKeys());
+            }
+        } catch (IllegalArgumentException e) {
+            log.warn(sm.getString("sessionTicketKeyListener.invalidKeys",
+                    message.getHostName(), message.getAddress()), e);
+        }
+    }
+
+
+    @Override
+    public boolean accept(ClusterMessage msg) {
+        return msg instanceof SessionTicketKeyMessage;
+    }
+
+
+    private boolean isFirst(List<Member> members) {
+        Member local = cluster.getLocalMember();
+        if (local == null) {
+            return true;
+        }
+        for (Member member : members) {
+            if (AbsoluteOrder.comp.compare(member, local) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private SessionTicketKeyMessage createMessage(String hostName, byte[][] keys) {
+        SessionTicketKeyMessage message = new SessionTicketKeyMessage(hostName, keys,
+                "SessionTicketKeys#" + hostName + "#-" + System.currentTimeMillis());
+        message.setTimestamp(System.currentTimeMillis());
+        return message;
+    }
+}
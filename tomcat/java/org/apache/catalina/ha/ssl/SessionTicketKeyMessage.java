@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.ssl;
+
+import org.apache.catalina.ha.ClusterMessageBase;
+
+/**
+ * Carries the current session ticket keys for a TLS virtual host between
+ * cluster nodes.
+ */
+public class SessionTicketKeyMessage extends ClusterMessageBase {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String hostName;
+    private final byte[][] keys;
+    private final String uniqueId;
+
+
+    public SessionTicketKeyMessage(String hostName, byte[][] keys, String uniqueId) {
+        this.hostName = hostName;
+        this.keys = keys;
+        this.uniqueId = uniqueId;
+    }
+
+
+    public String getHostName() {
+        return hostName;
+    }
+
+
+    /**
+     * @return The session ticket keys, newest first
+     */
+    public byte[][] getKeys() {
+        return keys;
+    }
+
+
+    @Override
+    public String getUniqueId() {
+        return uniqueId;
+    }
+
+
+    @Override
+    public String toString() {
+        // Never include the keys
+        return "SessionTicketKeyMessage[hostName=" + hostName + ", keyCount=" +
+                (keys == null ? 0 : keys.length) + "]";
+    }
+}
@@ -473,6 +473,7 @@ public final class Mapper {
                 MappedWrapper[] newWrappers = new MappedWrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
                     context.wildcardWrappers = newWrappers;
+                    context.wildcardWrapperIndex = new MapElementIndex<>(newWrappers);
                     int slashCount = slashCount(newWrapper.name);
                     if (slashCount > context.nesting) {
                         context.nesting = slashCount;
@@ -488,6 +489,7 @@ public final class Mapper {
                     new MappedWrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
                     context.extensionWrappers = newWrappers;
+                    context.extensionWrapperIndex = new MapElementIndex<>(newWrappers);
                 }
             } else if (path.equals("/")) {
                 // Default wrapper
@@ -510,6 +512,7 @@ public final class Mapper {
                 MappedWrapper[] newWrappers = new MappedWrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
                     context.exactWrappers = newWrappers;
+                    context.exactWrapperIndex = new MapElementIndex<>(newWrappers);
                 }
             }
         }
@@ -561,6 +564,7 @@ public final class Mapper {
                         }
                     }
                     context.wildcardWrappers = newWrappers;
+                    context.wildcardWrapperIndex = new MapElementIndex<>(newWrappers);
                 }
             } else if (path.startsWith("*.")) {
                 // Extension wrapper
@@ -573,6 +577,7 @@ public final class Mapper {
                     new MappedWrapper[oldWrappers.length - 1];
                 if (removeMap(oldWrappers, newWrappers, name)) {
                     context.extensionWrappers = newWrappers;
+                    context.extensionWrapperIndex = new MapElementIndex<>(newWrappers);
                 }
             } else if (path.equals("/")) {
                 // Default wrapper
@@ -595,6 +600,7 @@ public final class Mapper {
                     new MappedWrapper[oldWrappers.length - 1];
                 if (removeMap(oldWrappers, newWrappers, name)) {
                     context.exactWrappers = newWrappers;
+                    context.exactWrapperIndex = new MapElementIndex<>(newWrappers);
                 }
             }
         }
@@ -779,43 +785,12 @@ public final class Mapper {
         // Context mapping
         ContextList contextList = mappedHost.contextList;
         MappedContext[] contexts = contextList.contexts;
-        int pos = find(contexts, uri);
-        if (pos == -1) {
-            return;
-        }
-
-        int lastSlash = -1;
-        int uriEnd = uri.getEnd();
-        int length = -1;
-        boolean found = false;
-        MappedContext context = null;
-        while (pos >= 0) {
-            context = contexts[pos];
-            if (uri.startsWith(context.name)) {
-                length = context.name.length();
-                if (uri.getLength() == length) {
-                    found = true;
-                    break;
-                } else if (uri.startsWithIgnoreCase("/", length)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (lastSlash == -1) {
-                lastSlash = nthSlash(uri, contextList.nesting + 1);
-            } else {
-                lastSlash = lastSlash(uri);
-            }
-            uri.setEnd(lastSlash);
-            pos = find(contexts, uri);
-        }
-        uri.setEnd(uriEnd);
+        MappedContext context =
+                findPrefix(contextList.index, contextList.nesting, uri);
 
-        if (!found) {
-            if (contexts[0].name.equals("")) {
+        if (context == null) {
+            if (contexts.length > 0 && contexts[0].name.equals("")) {
                 context = contexts[0];
-            } else {
-                context = null;
             }
         }
         if (context == null) {
@@ -874,15 +849,15 @@ public final class Mapper {
         path.setOffset(servletPath);
 
         // Rule 1 -- Exact Match
-        MappedWrapper[] exactWrappers = contextVersion.exactWrappers;
-        internalMapExactWrapper(exactWrappers, path, mappingData);
+        MapElementIndex<MappedWrapper> exactWrapperIndex = contextVersion.exactWrapperIndex;
+        internalMapExactWrapper(exactWrapperIndex, path, mappingData);
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
-        MappedWrapper[] wildcardWrappers = contextVersion.wildcardWrappers;
+        MapElementIndex<MappedWrapper> wildcardWrapperIndex = contextVersion.wildcardWrapperIndex;
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, contextVersion.nesting,
-                                       path, mappingData);
+            internalMapWildcardWrapper(wildcardWrapperIndex,
+                                       contextVersion.nesting, path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
                 if (buf[pathEnd - 1] == '/') {
@@ -917,10 +892,10 @@ public final class Mapper {
         }
 
         // Rule 3 -- Extension Match
-        MappedWrapper[] extensionWrappers = contextVersion.extensionWrappers;
+        MapElementIndex<MappedWrapper> extensionWrapperIndex = contextVersion.extensionWrapperIndex;
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
-            internalMapExtensionWrapper(extensionWrappers, path, mappingData,
-                    true);
+            internalMapExtensionWrapper(extensionWrapperIndex, path,
+                    mappingData, true);
         }
 
         // Rule 4 -- Welcome resources processing for servlets
@@ -940,13 +915,14 @@ public final class Mapper {
                     path.setOffset(servletPath);
 
                     // Rule 4a -- Welcome resources processing for exact macth
-                    internalMapExactWrapper(exactWrappers, path, mappingData);
+                    internalMapExactWrapper(exactWrapperIndex, path,
+                            mappingData);
 
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
                         internalMapWildcardWrapper
-                            (wildcardWrappers, contextVersion.nesting,
-                             path, mappingData);
+                            (wildcardWrapperIndex,
+                             contextVersion.nesting, path, mappingData);
                     }
 
                     // Rule 4c -- Welcome resources processing
@@ -957,8 +933,8 @@ public final class Mapper {
                         WebResource file =
                                 contextVersion.resources.getResource(pathStr);
                         if (file != null && file.isFile()) {
-                            internalMapExtensionWrapper(extensionWrappers, path,
-                                                        mappingData, true);
+                            internalMapExtensionWrapper(
+                                    extensionWrapperIndex, path, mappingData, true);
                             if (mappingData.wrapper == null
                                 && contextVersion.defaultWrapper != null) {
                                 mappingData.wrapper =
@@ -1003,8 +979,8 @@ public final class Mapper {
                     path.append(contextVersion.welcomeResources[i], 0,
                                 contextVersion.welcomeResources[i].length());
                     path.setOffset(servletPath);
-                    internalMapExtensionWrapper(extensionWrappers, path,
-                                                mappingData, false);
+                    internalMapExtensionWrapper(
+                            extensionWrapperIndex, path, mappingData, false);
                 }
 
                 path.setOffset(servletPath);
@@ -1064,9 +1040,9 @@ public final class Mapper {
     /**
      * Exact mapping.
      */
-    private final void internalMapExactWrapper
-        (MappedWrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        MappedWrapper wrapper = exactFind(wrappers, path);
+    private final void internalMapExactWrapper(MapElementIndex<MappedWrapper> index,
+            CharChunk path, MappingData mappingData) {
+        MappedWrapper wrapper = index.find(path);
         if (wrapper != null) {
             mappingData.requestPath.setString(wrapper.name);
             mappingData.wrapper = wrapper.object;
@@ -1089,63 +1065,43 @@ public final class Mapper {
      * Wildcard mapping.
      */
     private final void internalMapWildcardWrapper
-        (MappedWrapper[] wrappers, int nesting, CharChunk path,
+        (MapElementIndex<MappedWrapper> index, int nesting, CharChunk path,
          MappingData mappingData) {
+        MappedWrapper wrapper = findPrefix(index, nesting, path);
+        if (wrapper != null) {
+            setWildcardMappingData(wrapper, path, mappingData);
+        }
+    }
 
-        int pathEnd = path.getEnd();
 
-        int lastSlash = -1;
-        int length = -1;
-        int pos = find(wrappers, path);
-        if (pos != -1) {
-            boolean found = false;
-            while (pos >= 0) {
-                if (path.startsWith(wrappers[pos].name)) {
-                    length = wrappers[pos].name.length();
-                    if (path.getLength() == length) {
-                        found = true;
-                        break;
-                    } else if (path.startsWithIgnoreCase("/", length)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (lastSlash == -1) {
-                    lastSlash = nthSlash(path, nesting + 1);
-                } else {
-                    lastSlash = lastSlash(path);
-                }
-                path.setEnd(lastSlash);
-                pos = find(wrappers, path);
-            }
-            path.setEnd(pathEnd);
-            if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
-                }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
-                mappingData.matchType = MappingMatch.PATH;
-            }
-        }
+    private static void setWildcardMappingData(MappedWrapper wrapper, CharChunk path,
+            MappingData mappingData) {
+        int length = wrapper.name.length();
+        mappingData.wrapperPath.setString(wrapper.name);
+        if (path.getLength() > length) {
+            mappingData.pathInfo.setChars
+                (path.getBuffer(),
+                 path.getOffset() + length,
+                 path.getLength() - length);
+        }
+        mappingData.requestPath.setChars
+            (path.getBuffer(), path.getOffset(), path.getLength());
+        mappingData.wrapper = wrapper.object;
+        mappingData.jspWildCard = wrapper.jspWildCard;
+        mappingData.matchType = MappingMatch.PATH;
     }
 
 
     /**
      * Extension mappings.
      *
-     * @param wrappers          Set of wrappers to check for matches
+     * @param index             Index of the set of wrappers to check for
+     *                          matches
      * @param path              Path to map
      * @param mappingData       Mapping data for result
      * @param resourceExpected  Is this mapping expecting to find a resource
      */
-    private final void internalMapExtensionWrapper(MappedWrapper[] wrappers,
+    private final void internalMapExtensionWrapper(MapElementIndex<MappedWrapper> index,
             CharChunk path, MappingData mappingData, boolean resourceExpected) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
@@ -1168,7 +1124,7 @@ public final class Mapper {
             if (period >= 0) {
                 path.setOffset(period + 1);
                 path.setEnd(pathEnd);
-                MappedWrapper wrapper = exactFind(wrappers, path);
+                MappedWrapper wrapper = index.find(path);
                 if (wrapper != null
                         && (resourceExpected || !wrapper.resourceOnly)) {
                     mappingData.wrapperPath.setChars(buf, servletPath, pathEnd
@@ -1185,62 +1141,6 @@ public final class Mapper {
     }
 
 
-    /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final <T> int find(MapElement<T>[] map, CharChunk name) {
-        return find(map, name, name.getStart(), name.getEnd());
-    }
-
-
-    /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final <T> int find(MapElement<T>[] map, CharChunk name,
-                                  int start, int end) {
-
-        int a = 0;
-        int b = map.length - 1;
-
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
-
-        if (compare(name, start, end, map[0].name) < 0 ) {
-            return -1;
-        }
-        if (b == 0) {
-            return 0;
-        }
-
-        int i = 0;
-        while (true) {
-            i = (b + a) >>> 1;
-            int result = compare(name, start, end, map[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compare(name, start, end, map[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
-            }
-        }
-
-    }
-
     /**
      * Find a map element given its name in a sorted array of map elements.
      * This will return the index for the closest inferior or equal item in the
@@ -1362,23 +1262,6 @@ public final class Mapper {
         return null;
     }
 
-    /**
-     * Find a map element given its name in a sorted array of map elements. This
-     * will return the element that you were searching for. Otherwise it will
-     * return <code>null</code>.
-     */
-    private static final <T, E extends MapElement<T>> E exactFind(E[] map,
-            CharChunk name) {
-        int pos = find(map, name);
-        if (pos >= 0) {
-            E result = map[pos];
-            if (name.equals(result.name)) {
-                return result;
-            }
-        }
-        return null;
-    }
-
     /**
      * Find a map element given its name in a sorted array of map elements. This
      * will return the element that you were searching for. Otherwise it will
@@ -1399,32 +1282,35 @@ public final class Mapper {
 
 
     /**
-     * Compare given char chunk with String.
-     * Return -1, 0 or +1 if inferior, equal, or superior to the String.
+     * Find the map element with the longest name that matches the start of the
+     * given char chunk, where the match must end at a '/' or at the end of the
+     * char chunk. Names containing more than the given number of '/'
+     * characters are not considered.
      */
-    private static final int compare(CharChunk name, int start, int end,
-                                     String compareTo) {
-        int result = 0;
+    private static final <E extends MapElement<?>> E findPrefix(MapElementIndex<E> index,
+            int nesting, CharChunk name) {
         char[] c = name.getBuffer();
-        int len = compareTo.length();
-        if ((end - start) < len) {
-            len = end - start;
+        int start = name.getStart();
+        int end = name.getEnd();
+
+        E result = index.find(c, start, end);
+        if (result != null) {
+            return result;
         }
-        for (int i = 0; (i < len) && (result == 0); i++) {
-            if (c[i + start] > compareTo.charAt(i)) {
-                result = 1;
-            } else if (c[i + start] < compareTo.charAt(i)) {
-                result = -1;
-            }
+
+        int pos = nthSlash(name, nesting + 1);
+        if (pos == end) {
+            pos = lastSlash(name);
         }
-        if (result == 0) {
-            if (compareTo.length() > (end - start)) {
-                result = -1;
-            } else if (compareTo.length() < (end - start)) {
-                result = 1;
+        while (true) {
+            result = index.find(c, start, pos);
+            if (result != null || pos == start) {
+                return result;
             }
+            do {
+                pos--;
+            } while (pos > start && c[pos] != '/');
         }
-        return result;
     }
 
 
@@ -1576,6 +1462,84 @@ public final class Mapper {
     }
 
 
+    // ---------------------------------------------------- Index Inner Class
+
+
+    /**
+     * Hash index of the names of an array of map elements. Finding an element
+     * requires a single pass over the characters of the name regardless of the
+     * number of elements whereas a binary search of the sorted array compares
+     * the name with multiple elements. Indexes are immutable and, like the
+     * arrays they index, are replaced whenever an element is added or removed.
+     */
+    protected static final class MapElementIndex<E extends MapElement<?>> {
+
+        private final Object[] elements;
+        private final int[] hashes;
+        private final int mask;
+
+        public MapElementIndex(E[] map) {
+            // Keep the load factor at or below 0.5
+            int capacity = 2;
+            while (capacity < map.length * 2) {
+                capacity <<= 1;
+            }
+            elements = new Object[capacity];
+            hashes = new int[capacity];
+            mask = capacity - 1;
+            for (E element : map) {
+                // Same hash as String.hashCode() so the value cached by
+                // String can be used here
+                int hash = element.name.hashCode();
+                int i = spread(hash) & mask;
+                while (elements[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                elements[i] = element;
+                hashes[i] = hash;
+            }
+        }
+
+        public E find(CharChunk name) {
+            return find(name.getBuffer(), name.getStart(), name.getEnd());
+        }
+
+        @SuppressWarnings("unchecked")
+        public E find(char[] c, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + c[i];
+            }
+            int i = spread(hash) & mask;
+            Object element;
+            while ((element = elements[i]) != null) {
+                if (hashes[i] == hash && equals(((E) element).name, c, start, end)) {
+                    return (E) element;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean equals(String name, char[] c, int start, int end) {
+            int len = end - start;
+            if (name.length() != len) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (name.charAt(i) != c[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
     // ------------------------------------------------------- Host Inner Class
 
 
@@ -1657,6 +1621,7 @@ public final class Mapper {
     protected static final class ContextList {
 
         public final MappedContext[] contexts;
+        public final MapElementIndex<MappedContext> index;
         public final int nesting;
 
         public ContextList() {
@@ -1665,6 +1630,7 @@ public final class Mapper {
 
         private ContextList(MappedContext[] contexts, int nesting) {
             this.contexts = contexts;
+            this.index = new MapElementIndex<>(contexts);
             this.nesting = nesting;
         }
 
@@ -1713,6 +1679,12 @@ public final class Mapper {
         public MappedWrapper[] exactWrappers = new MappedWrapper[0];
         public MappedWrapper[] wildcardWrappers = new MappedWrapper[0];
         public MappedWrapper[] extensionWrappers = new MappedWrapper[0];
+        public MapElementIndex<MappedWrapper> exactWrapperIndex =
+                new MapElementIndex<>(exactWrappers);
+        public MapElementIndex<MappedWrapper> wildcardWrapperIndex =
+                new MapElementIndex<>(wildcardWrappers);
+        public MapElementIndex<MappedWrapper> extensionWrapperIndex =
+                new MapElementIndex<>(extensionWrappers);
         public int nesting = 0;
         private volatile boolean paused;
 
@@ -33,6 +33,7 @@ import java.io.Serializable;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
@@ -72,6 +73,7 @@ import org.apache.catalina.Context;
 import org.apache.catalina.Globals;
 import org.apache.catalina.WebResource;
 import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.connector.CoyoteOutputStream;
 import org.apache.catalina.connector.RequestFacade;
 import org.apache.catalina.connector.ResponseFacade;
 import org.apache.catalina.util.IOTools;
@@ -154,6 +156,12 @@ public class DefaultServlet extends HttpServlet {
 
     private static final Range IGNORE = new Range();
 
+    /*
+     * Used for gzip compressed variants of resources held by the resource
+     * cache.
+     */
+    private static final CompressionFormat GZIP_FORMAT = new CompressionFormat(".gz", "gzip");
+
     /**
      * MIME multipart separation string
      */
@@ -927,6 +935,37 @@ public class DefaultServlet extends HttpServlet {
             }
         }
 
+        // Otherwise serve a gzip compressed variant held by the resource cache
+        // if available
+        boolean usingCachedGzipVariant = false;
+        if (!usingPrecompressedVersion && !included && !isError &&
+                resource instanceof CachedResource &&
+                ((CachedResource) resource).isGzipVariantSupported()) {
+            CachedResource cachedResource = (CachedResource) resource;
+            ResponseUtil.addVaryFieldName(response, "accept-encoding");
+            // Only obtain, and possibly generate, the variant if the client
+            // will accept it
+            List<PrecompressedResource> gzipResources = Collections.singletonList(
+                    new PrecompressedResource(cachedResource, GZIP_FORMAT));
+            WebResource gzipVariant = null;
+            if (getBestPrecompressedResource(request, gzipResources) != null) {
+                gzipVariant = cachedResource.getGzipVariant();
+            }
+            if (gzipVariant != null) {
+                // The variant has its own ETag so a client may have cached it
+                // under that tag
+                if (!checkIfNoneMatch(request, response, gzipVariant)) {
+                    return;
+                }
+                response.addHeader("Content-Encoding", GZIP_FORMAT.encoding);
+                cachedResource.gzipVariantServed(gzipVariant);
+                resource = gzipVariant;
+                eTag = gzipVariant.getETag();
+                usingPrecompressedVersion = true;
+                usingCachedGzipVariant = true;
+            }
+        }
+
         ArrayList<Range> ranges = FULL;
         long contentLength = -1L;
 
@@ -1122,11 +1161,21 @@ public class DefaultServlet extends HttpServlet {
                                 // getContent() on other resource
                                 // implementations as that could trigger loading
                                 // the contents of a very large file into memory
+                                ByteBuffer resourceBuffer = null;
+                                if (resource instanceof CachedResource &&
+                                        ostream instanceof CoyoteOutputStream) {
+                                    // Content held off-heap can be written
+                                    // without being copied
+                                    resourceBuffer = ((CachedResource) resource).getContentBuffer();
+                                }
                                 byte[] resourceBody = null;
-                                if (resource instanceof CachedResource) {
+                                if (resourceBuffer == null &&
+                                        (resource instanceof CachedResource || usingCachedGzipVariant)) {
                                     resourceBody = resource.getContent();
                                 }
-                                if (resourceBody == null) {
+                                if (resourceBuffer != null) {
+                                    ((CoyoteOutputStream) ostream).write(resourceBuffer);
+                                } else if (resourceBody == null) {
                                     // Resource content not directly available,
                                     // use InputStream
                                     renderResult = resource.getInputStream();
@@ -19,11 +19,16 @@ package org.apache.catalina.valves.rewrite;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.tomcat.util.collections.ConcurrentCache;
+
 public class RewriteRule {
 
+    private static final Object NO_MATCH = new Object();
+
     protected RewriteCond[] conditions = new RewriteCond[0];
 
     protected ThreadLocal<Pattern> pattern = new ThreadLocal<>();
@@ -34,6 +39,21 @@ public class RewriteRule {
     protected String flagsString = null;
     protected boolean positive = true;
 
+    /*
+     * Literal prefix that any URL matched by this rule must start with or
+     * null if there is no such prefix.
+     */
+    private String literalPrefix = null;
+
+    /*
+     * Results of evaluating this rule for previously seen URLs. Only used
+     * for rules where the result depends only on the URL.
+     */
+    private ConcurrentCache<String,Object> cache = null;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder evaluationTime = new LongAdder();
+
     public void parse(Map<String, RewriteMap> maps) {
         // Parse the substitution
         if (!"-".equals(substitutionString)) {
@@ -52,6 +72,9 @@ public class RewriteRule {
             flags |= Pattern.CASE_INSENSITIVE;
         }
         Pattern.compile(patternString, flags);
+        if (positive && !isHost()) {
+            literalPrefix = literalPrefix(patternString, isNocase());
+        }
         // Parse conditions
         for (int i = 0; i < conditions.length; i++) {
             conditions[i].parse(maps);
@@ -86,6 +109,32 @@ public class RewriteRule {
      * @return <code>null</code> if no rewrite took place
      */
     public CharSequence evaluate(CharSequence url, Resolver resolver) {
+        long start = System.nanoTime();
+        CharSequence result;
+        ConcurrentCache<String,Object> cache = this.cache;
+        if (cache == null) {
+            result = evaluateInternal(url, resolver);
+        } else {
+            String key = url.toString();
+            Object cached = cache.get(key);
+            if (cached == null) {
+                result = evaluateInternal(key, resolver);
+                cache.put(key, result == null ? NO_MATCH : result.toString());
+            } else if (cached == NO_MATCH) {
+                result = null;
+            } else {
+                result = (String) cached;
+            }
+        }
+        evaluationTime.add(System.nanoTime() - start);
+        if (result != null) {
+            hitCount.increment();
+        }
+        return result;
+    }
+
+
+    private CharSequence evaluateInternal(CharSequence url, Resolver resolver) {
         Pattern pattern = this.pattern.get();
         if (pattern == null) {
             // Parse the pattern
@@ -147,6 +196,148 @@ public class RewriteRule {
     }
 
 
+    /**
+     * @return the literal prefix that any URL matched by this rule must start
+     *         with or <code>null</code> if the rule may match URLs that do not
+     *         share a common prefix. If the rule is case insensitive, so is
+     *         the comparison with the prefix.
+     */
+    public String getLiteralPrefix() {
+        return literalPrefix;
+    }
+
+
+    /**
+     * @return <code>true</code> if the result of evaluating the rule depends
+     *         only on the URL being evaluated
+     */
+    public boolean isCacheable() {
+        return conditions.length == 0 && !isHost() && !isEnv() && !isCookie() &&
+                (substitution == null || substitution.isRuleMatchOnly());
+    }
+
+
+    /**
+     * Configure the cache of evaluation results for this rule. The cache is
+     * only used if the rule is {@link #isCacheable() cacheable}.
+     *
+     * @param cacheSize The number of results to cache. Zero or less disables
+     *                  the cache.
+     */
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize > 0 && isCacheable()) {
+            cache = new ConcurrentCache<>(cacheSize);
+        } else {
+            cache = null;
+        }
+    }
+
+
+    /**
+     * @return the number of times this rule has matched
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+
+    /**
+     * @return the total time, in nanoseconds, spent evaluating this rule
+     */
+    public long getEvaluationTime() {
+        return evaluationTime.sum();
+    }
+
+
+    public void resetStatistics() {
+        hitCount.reset();
+        evaluationTime.reset();
+    }
+
+
+    /*
+     * Patterns are matched against the whole URL so any literal characters at
+     * the start of the pattern must also be at the start of the URL. Returns
+     * null if there is no such prefix.
+     */
+    static String literalPrefix(String pattern, boolean nocase) {
+        if (hasTopLevelAlternation(pattern)) {
+            return null;
+        }
+        StringBuilder prefix = new StringBuilder();
+        int pos = pattern.startsWith("^") ? 1 : 0;
+        int len = pattern.length();
+        while (pos < len) {
+            char c = pattern.charAt(pos);
+            int next = pos + 1;
+            if (c == '\\') {
+                if (next == len) {
+                    break;
+                }
+                c = pattern.charAt(next);
+                // Letters and digits introduce character classes, boundaries,
+                // back references, quotes etc.
+                if (c < 0x80 && Character.isLetterOrDigit(c)) {
+                    break;
+                }
+                next++;
+            } else if (".[]{}()*+?^$|".indexOf(c) >= 0) {
+                break;
+            }
+            // Case insensitive matching only folds ASCII characters
+            if (nocase && c >= 0x80) {
+                break;
+            }
+            // The character is optional or repeated if followed by a
+            // quantifier
+            if (next < len && "?*+{".indexOf(pattern.charAt(next)) >= 0) {
+                break;
+            }
+            prefix.append(c);
+            pos = next;
+        }
+        if (prefix.length() == 0) {
+            return null;
+        }
+        return prefix.toString();
+    }
+
+
+    private static boolean hasTopLevelAlternation(String pattern) {
+        int depth = 0;
+        int classDepth = 0;
+        int len = pattern.length();
+        for (int i = 0; i < len; i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                i++;
+                if (i < len && pattern.charAt(i) == 'Q') {
+                    // Everything up to \E (or the end) is quoted
+                    int end = pattern.indexOf("\\E", i + 1);
+                    if (end == -1) {
+                        return false;
+                    }
+                    i = end + 1;
+                }
+            } else if (c == '[') {
+                // Classes may be nested
+                classDepth++;
+            } else if (classDepth > 0) {
+                if (c == ']') {
+                    classDepth--;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
     /**
      * String representation.
      */
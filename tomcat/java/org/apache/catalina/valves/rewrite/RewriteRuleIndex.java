@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves.rewrite;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.tomcat.util.buf.Ascii;
+
+/**
+ * Identifies the rules that could match a given URL based on the literal
+ * prefix of each rule's pattern. Rules without a literal prefix (negated
+ * patterns, host rules, patterns starting with a wildcard etc.) are always
+ * candidates.
+ */
+final class RewriteRuleIndex {
+
+    private final RewriteRule[] rules;
+    private final BitSet always = new BitSet();
+    private final Node exact = new Node();
+    private final Node nocase = new Node();
+
+
+    RewriteRuleIndex(RewriteRule[] rules) {
+        this.rules = rules;
+        for (int i = 0; i < rules.length; i++) {
+            String prefix = rules[i].getLiteralPrefix();
+            if (prefix == null) {
+                always.set(i);
+            } else if (rules[i].isNocase()) {
+                nocase.add(prefix, 0, true).rules.set(i);
+            } else {
+                exact.add(prefix, 0, false).rules.set(i);
+            }
+        }
+    }
+
+
+    /**
+     * @param rules The rules currently configured
+     *
+     * @return {@code true} if this index was built for the given rules
+     */
+    boolean isFor(RewriteRule[] rules) {
+        return this.rules == rules;
+    }
+
+
+    /**
+     * @param url The URL to be rewritten
+     *
+     * @return The indexes of the rules that could match the given URL
+     */
+    BitSet getCandidates(CharSequence url) {
+        BitSet result = (BitSet) always.clone();
+        exact.collect(url, false, result);
+        nocase.collect(url, true, result);
+        return result;
+    }
+
+
+    private static final class Node {
+
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private final BitSet rules = new BitSet();
+
+        private Node add(String prefix, int pos, boolean nocase) {
+            if (pos == prefix.length()) {
+                return this;
+            }
+            char c = prefix.charAt(pos);
+            if (nocase) {
+                c = (char) Ascii.toLower(c);
+            }
+            Node child = find(c);
+            if (child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                keys[keys.length - 1] = c;
+                children = Arrays.copyOf(children, children.length + 1);
+                children[children.length - 1] = child;
+            }
+            return child.add(prefix, pos + 1, nocase);
+        }
+
+        private Node find(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private void collect(CharSequence url, boolean nocase, BitSet result) {
+            Node node = this;
+            int len = url.length();
+            for (int pos = 0; pos < len; pos++) {
+                char c = url.charAt(pos);
+                if (nocase && c < 0x80) {
+                    c = (char) Ascii.toLower(c);
+                }
+                node = node.find(c);
+                if (node == null) {
+                    return;
+                }
+                result.or(node.rules);
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
@@ -74,6 +75,20 @@ public class RewriteValve extends ValveBase {
     protected RewriteRule[] rules = null;
 
 
+    /**
+     * Index of the rules by literal prefix used to skip rules that cannot
+     * match the current URL.
+     */
+    private volatile RewriteRuleIndex ruleIndex = null;
+
+
+    /**
+     * The number of results to cache for each rule where the result depends
+     * only on the URL.
+     */
+    private int cacheSize = 1000;
+
+
     /**
      * If rewriting occurs, the whole request will be processed again.
      */
@@ -125,6 +140,52 @@ public class RewriteValve extends ValveBase {
     }
 
 
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Set the number of evaluation results cached for each rule where the
+     * result depends only on the URL being rewritten. The new value takes
+     * effect the next time the configuration is parsed.
+     *
+     * @param cacheSize The number of results to cache per rule. Zero or less
+     *                  disables caching.
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+
+    /**
+     * @return the number of matches and the total evaluation time for each
+     *         rule, in configuration order
+     */
+    public String[] getRuleStatistics() {
+        RewriteRule[] rules = this.rules;
+        if (rules == null) {
+            return new String[0];
+        }
+        String[] result = new String[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            result[i] = sm.getString("rewriteValve.ruleStatistics", rules[i].toString(),
+                    Long.valueOf(rules[i].getHitCount()),
+                    Long.valueOf(rules[i].getEvaluationTime() / 1000000));
+        }
+        return result;
+    }
+
+
+    public void resetStatistics() {
+        RewriteRule[] rules = this.rules;
+        if (rules != null) {
+            for (RewriteRule rule : rules) {
+                rule.resetStatistics();
+            }
+        }
+    }
+
+
     @Override
     protected void initInternal() throws LifecycleException {
         super.initInternal();
@@ -265,7 +326,9 @@ public class RewriteValve extends ValveBase {
         // Finish parsing the rules
         for (int i = 0; i < this.rules.length; i++) {
             this.rules[i].parse(maps);
+            this.rules[i].setCacheSize(cacheSize);
         }
+        ruleIndex = new RewriteRuleIndex(this.rules);
     }
 
     @Override
@@ -278,6 +341,7 @@ public class RewriteValve extends ValveBase {
         }
         maps.clear();
         rules = null;
+        ruleIndex = null;
     }
 
 
@@ -318,10 +382,27 @@ public class RewriteValve extends ValveBase {
             boolean done = false;
             boolean qsa = false;
             boolean qsd = false;
+            RewriteRuleIndex ruleIndex = this.ruleIndex;
+            if (ruleIndex != null && !ruleIndex.isFor(rules)) {
+                // Rules have been set directly
+                ruleIndex = null;
+            }
+            BitSet candidates = null;
+            CharSequence candidatesUrl = null;
             for (int i = 0; i < rules.length; i++) {
                 RewriteRule rule = rules[i];
                 CharSequence test = (rule.isHost()) ? host : urlDecoded;
-                CharSequence newtest = rule.evaluate(test, resolver);
+                if (ruleIndex != null && candidatesUrl != urlDecoded) {
+                    candidates = ruleIndex.getCandidates(urlDecoded);
+                    candidatesUrl = urlDecoded;
+                }
+                CharSequence newtest;
+                if (candidates == null || candidates.get(i)) {
+                    newtest = rule.evaluate(test, resolver);
+                } else {
+                    // The URL does not start with the rule's literal prefix
+                    newtest = null;
+                }
                 if (newtest != null && !test.equals(newtest.toString())) {
                     if (containerLog.isDebugEnabled()) {
                         containerLog.debug("Rewrote " + test + " as " + newtest
@@ -128,6 +128,24 @@ public class Substitution {
         this.elements = parseSubtitution(sub, maps);
     }
 
+    /**
+     * @return {@code true} if the result of the substitution depends only on
+     *         the rule pattern match and not on conditions, server variables,
+     *         maps or the URI character set
+     */
+    boolean isRuleMatchOnly() {
+        if (escapeBackReferences) {
+            return false;
+        }
+        for (SubstitutionElement element : elements) {
+            if (!(element instanceof StaticElement) &&
+                    !(element instanceof RewriteRuleBackReferenceElement)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private SubstitutionElement[] parseSubtitution(String sub, Map<String, RewriteMap> maps) {
 
         List<SubstitutionElement> elements = new ArrayList<>();
@@ -16,12 +16,16 @@
  */
 package org.apache.catalina.webresources;
 
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 import org.apache.catalina.WebResource;
 import org.apache.juli.logging.Log;
@@ -33,14 +37,10 @@ public class Cache {
     private static final Log log = LogFactory.getLog(Cache.class);
     protected static final StringManager sm = StringManager.getManager(Cache.class);
 
-    private static final long TARGET_FREE_PERCENT_GET = 5;
-    private static final long TARGET_FREE_PERCENT_BACKGROUND = 10;
-
     // objectMaxSize must be < maxSize/20
     private static final int OBJECT_MAX_SIZE_FACTOR = 20;
 
     private final StandardRoot root;
-    private final AtomicLong size = new AtomicLong(0);
 
     private long ttl = 5000;
     private long maxSize = 10 * 1024 * 1024;
@@ -49,9 +49,31 @@ public class Cache {
     private AtomicLong lookupCount = new AtomicLong(0);
     private AtomicLong hitCount = new AtomicLong(0);
 
+    private volatile boolean gzipVariants = false;
+    private volatile int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+    private String gzipMimeType = "text/html,text/xml,text/plain,text/css," +
+            "text/javascript,application/javascript,application/json,application/xml," +
+            "image/svg+xml";
+    private volatile String[] gzipMimeTypes = parseMimeTypes(gzipMimeType);
+
+    private AtomicLong gzipLookupCount = new AtomicLong(0);
+    private AtomicLong gzipHitCount = new AtomicLong(0);
+    private AtomicLong gzipBytesSaved = new AtomicLong(0);
+
+    private volatile boolean offHeap = false;
+    private AtomicLong offHeapSize = new AtomicLong(0);
+    private AtomicLong offHeapAllocationFailures = new AtomicLong(0);
+
     private final ConcurrentMap<String,CachedResource> resourceCache =
             new ConcurrentHashMap<>();
 
+    /*
+     * Determines which entries are evicted when the cache is full. The sizes
+     * of the entries are tracked by the policy.
+     */
+    private final TinyLfuPolicy<String,CachedResource> policy =
+            new TinyLfuPolicy<>(maxSize, this::evictCacheEntry);
+
     public Cache(StandardRoot root) {
         this.root = root;
     }
@@ -89,22 +111,8 @@ public class Cache {
                 // Even if the resource content larger than objectMaxSizeBytes
                 // there is still benefit in caching the resource metadata
 
-                long delta = cacheEntry.getSize();
-                size.addAndGet(delta);
-
-                if (size.get() > maxSize) {
-                    // Process resources unordered for speed. Trades cache
-                    // efficiency (younger entries may be evicted before older
-                    // ones) for speed since this is on the critical path for
-                    // request processing
-                    long targetSize = maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
-                    long newSize = evict(targetSize, resourceCache.values().iterator());
-                    if (newSize > maxSize) {
-                        // Unable to create sufficient space for this resource
-                        // Remove it from the cache
-                        removeCacheEntry(path);
-                        log.warn(sm.getString("cache.addFail", path, root.getContext().getName()));
-                    }
+                if (!addCacheEntry(path, cacheEntry)) {
+                    log.warn(sm.getString("cache.addFail", path, root.getContext().getName()));
                 }
             } else {
                 // Another thread added the entry to the cache
@@ -113,6 +121,7 @@ public class Cache {
             }
         } else {
             hitCount.incrementAndGet();
+            policy.recordAccess(path);
         }
 
         return cacheEntry;
@@ -147,22 +156,8 @@ public class Cache {
                 cacheEntry.validateResources(useClassLoaderResources);
 
                 // Content will not be cached but we still need metadata size
-                long delta = cacheEntry.getSize();
-                size.addAndGet(delta);
-
-                if (size.get() > maxSize) {
-                    // Process resources unordered for speed. Trades cache
-                    // efficiency (younger entries may be evicted before older
-                    // ones) for speed since this is on the critical path for
-                    // request processing
-                    long targetSize = maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
-                    long newSize = evict(targetSize, resourceCache.values().iterator());
-                    if (newSize > maxSize) {
-                        // Unable to create sufficient space for this resource
-                        // Remove it from the cache
-                        removeCacheEntry(path);
-                        log.warn(sm.getString("cache.addFail", path));
-                    }
+                if (!addCacheEntry(path, cacheEntry)) {
+                    log.warn(sm.getString("cache.addFail", path, root.getContext().getName()));
                 }
             } else {
                 // Another thread added the entry to the cache
@@ -171,31 +166,29 @@ public class Cache {
             }
         } else {
             hitCount.incrementAndGet();
+            policy.recordAccess(path);
         }
 
         return cacheEntry.getWebResources();
     }
 
     protected void backgroundProcess() {
-        // Create an ordered set of all cached resources with the least recently
-        // used first. This is a background process so we can afford to take the
-        // time to order the elements first
-        TreeSet<CachedResource> orderedResources =
-                new TreeSet<>(new EvictionOrder());
-        orderedResources.addAll(resourceCache.values());
-
-        Iterator<CachedResource> iter = orderedResources.iterator();
-
-        long targetSize =
-                maxSize * (100 - TARGET_FREE_PERCENT_BACKGROUND) / 100;
-        long newSize = evict(targetSize, iter);
-
-        if (newSize > targetSize) {
-            log.info(sm.getString("cache.backgroundEvictFail",
-                    Long.valueOf(TARGET_FREE_PERCENT_BACKGROUND),
-                    root.getContext().getName(),
-                    Long.valueOf(newSize / 1024)));
+        policy.maintenance();
+    }
+
+    /*
+     * Returns false if the entry can never fit in the cache. Otherwise, the
+     * entry may or may not be retained depending on the eviction policy.
+     */
+    private boolean addCacheEntry(String path, CachedResource cacheEntry) {
+        long entrySize = cacheEntry.getSize();
+        policy.add(path, cacheEntry, entrySize);
+        // Handle a concurrent call to removeCacheEntry() that completed
+        // before the entry was added to the policy
+        if (resourceCache.get(path) != cacheEntry) {
+            policy.remove(path, cacheEntry);
         }
+        return entrySize <= maxSize;
     }
 
     private boolean noCache(String path) {
@@ -210,27 +203,70 @@ public class Cache {
         return false;
     }
 
-    private long evict(long targetSize, Iterator<CachedResource> iter) {
-
-        long now = System.currentTimeMillis();
-
-        long newSize = size.get();
-
-        while (newSize > targetSize && iter.hasNext()) {
-            CachedResource resource = iter.next();
+    /*
+     * Called when a gzip compressed variant of the content is added to a cache
+     * entry so it is counted against the cache size.
+     */
+    void gzipVariantAdded(CachedResource cacheEntry, long delta) {
+        policy.updateWeight(cacheEntry.getWebappPath(), cacheEntry, delta);
+    }
 
-            // Don't expire anything that has been checked within the TTL
-            if (resource.getNextCheck() > now) {
-                continue;
+    boolean isGzipMimeType(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        int semicolon = mimeType.indexOf(';');
+        if (semicolon > -1) {
+            mimeType = mimeType.substring(0, semicolon);
+        }
+        mimeType = mimeType.trim().toLowerCase(Locale.ENGLISH);
+        for (String gzipMimeType : gzipMimeTypes) {
+            if (gzipMimeType.equals(mimeType)) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            // Remove the entry from the cache
-            removeCacheEntry(resource.getWebappPath());
+    void gzipLookup(boolean hit, long bytesSaved) {
+        gzipLookupCount.incrementAndGet();
+        if (hit) {
+            gzipHitCount.incrementAndGet();
+        }
+        if (bytesSaved > 0) {
+            gzipBytesSaved.addAndGet(bytesSaved);
+        }
+    }
 
-            newSize = size.get();
+    /*
+     * Allocates a direct buffer for the content of a cache entry. Returns null
+     * if the buffer could not be allocated in which case the content should be
+     * held on the heap.
+     */
+    ByteBuffer allocateOffHeap(int size) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.allocateDirect(size);
+        } catch (OutOfMemoryError e) {
+            // Direct memory (-XX:MaxDirectMemorySize) is exhausted
+            offHeapAllocationFailures.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("cache.offHeapAllocationFail", Integer.valueOf(size),
+                        root.getContext().getName()), e);
+            }
+            return null;
         }
+        offHeapSize.addAndGet(size);
+        return buffer;
+    }
 
-        return newSize;
+    /*
+     * Called once for each direct buffer allocated via allocateOffHeap() when
+     * the cache entry holding it leaves the cache. The buffer itself is freed
+     * by the garbage collector once any in progress writes have completed.
+     */
+    void offHeapReleased(int size) {
+        offHeapSize.addAndGet(-size);
     }
 
     void removeCacheEntry(String path) {
@@ -238,8 +274,14 @@ public class Cache {
         // once and the cache size is only updated (if required) once.
         CachedResource cachedResource = resourceCache.remove(path);
         if (cachedResource != null) {
-            long delta = cachedResource.getSize();
-            size.addAndGet(-delta);
+            policy.remove(path, cachedResource);
+            cachedResource.release();
+        }
+    }
+
+    private void evictCacheEntry(String path, CachedResource cachedResource) {
+        if (resourceCache.remove(path, cachedResource)) {
+            cachedResource.release();
         }
     }
 
@@ -259,6 +301,7 @@ public class Cache {
     public void setMaxSize(long maxSize) {
         // Internally bytes, externally kilobytes
         this.maxSize = maxSize * 1024;
+        policy.setMaximum(this.maxSize);
     }
 
     public long getLookupCount() {
@@ -269,6 +312,109 @@ public class Cache {
         return hitCount.get();
     }
 
+    /**
+     * Are gzip compressed variants of cached resources generated and cached
+     * for use when serving static content?
+     *
+     * @return {@code true} if compressed variants are cached
+     */
+    public boolean isGzipVariants() {
+        return gzipVariants;
+    }
+
+    public void setGzipVariants(boolean gzipVariants) {
+        this.gzipVariants = gzipVariants;
+    }
+
+    public int getGzipLevel() {
+        return gzipLevel;
+    }
+
+    /**
+     * Set the compression level used to generate gzip compressed variants.
+     * Changes only apply to variants generated after the change.
+     *
+     * @param gzipLevel The compression level, -1 (the zlib default) or 0 to 9
+     */
+    public void setGzipLevel(int gzipLevel) {
+        if (gzipLevel < Deflater.DEFAULT_COMPRESSION || gzipLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException(
+                    sm.getString("cache.invalidGzipLevel", Integer.valueOf(gzipLevel)));
+        }
+        this.gzipLevel = gzipLevel;
+    }
+
+    public String getGzipMimeType() {
+        return gzipMimeType;
+    }
+
+    /**
+     * Set the MIME types, as a comma separated list, of the resources for
+     * which gzip compressed variants are cached.
+     *
+     * @param gzipMimeType The MIME types
+     */
+    public void setGzipMimeType(String gzipMimeType) {
+        this.gzipMimeType = gzipMimeType;
+        this.gzipMimeTypes = parseMimeTypes(gzipMimeType);
+    }
+
+    public long getGzipLookupCount() {
+        return gzipLookupCount.get();
+    }
+
+    public long getGzipHitCount() {
+        return gzipHitCount.get();
+    }
+
+    /**
+     * @return The total number of bytes not written to clients because a
+     *         cached gzip compressed variant was used in place of the original
+     *         content
+     */
+    public long getGzipBytesSaved() {
+        return gzipBytesSaved.get();
+    }
+
+    /**
+     * Is the content of cached resources held in direct (off-heap) buffers?
+     * Content held in direct buffers does not contribute to the Java heap
+     * and may be written to the network without first being copied. Direct
+     * memory is limited by {@code -XX:MaxDirectMemorySize} and, if a buffer
+     * cannot be allocated, the content is held on the heap instead.
+     *
+     * @return {@code true} if content is held in direct buffers
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Configure where the content of cached resources is held. Changes only
+     * apply to content cached after the change.
+     *
+     * @param offHeap {@code true} to hold content in direct buffers
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @return The number of bytes of cached content currently held in direct
+     *         buffers
+     */
+    public long getOffHeapSize() {
+        return offHeapSize.get();
+    }
+
+    /**
+     * @return The number of times a direct buffer could not be allocated and
+     *         the content was held on the heap instead
+     */
+    public long getOffHeapAllocationFailures() {
+        return offHeapAllocationFailures.get();
+    }
+
     public void setObjectMaxSize(int objectMaxSize) {
         if (objectMaxSize * 1024L > Integer.MAX_VALUE) {
             log.warn(sm.getString("cache.objectMaxSizeTooBigBytes", Integer.valueOf(objectMaxSize)));
@@ -300,30 +446,27 @@ public class Cache {
     }
 
     public void clear() {
-        resourceCache.clear();
-        size.set(0);
+        for (Map.Entry<String,CachedResource> entry : resourceCache.entrySet()) {
+            if (resourceCache.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().release();
+            }
+        }
+        policy.clear();
     }
 
     public long getSize() {
-        return size.get() / 1024;
+        return policy.getWeight() / 1024;
     }
 
-    private static class EvictionOrder implements Comparator<CachedResource> {
-
-        @Override
-        public int compare(CachedResource cr1, CachedResource cr2) {
-            long nc1 = cr1.getNextCheck();
-            long nc2 = cr2.getNextCheck();
-
-            // Oldest resource should be first (so iterator goes from oldest to
-            // youngest.
-            if (nc1 == nc2) {
-                return 0;
-            } else if (nc1 > nc2) {
-                return -1;
-            } else {
-                return 1;
+    private static String[] parseMimeTypes(String mimeTypes) {
+        List<String> values = new ArrayList<>();
+        StringTokenizer tokens = new StringTokenizer(mimeTypes, ",");
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken().trim();
+            if (token.length() > 0) {
+                values.add(token.toLowerCase(Locale.ENGLISH));
             }
         }
+        return values.toArray(new String[values.size()]);
     }
 }
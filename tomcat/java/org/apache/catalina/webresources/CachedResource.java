@@ -17,6 +17,7 @@
 package org.apache.catalina.webresources;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.JarURLConnection;
@@ -24,10 +25,13 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
 import java.security.Permission;
 import java.security.cert.Certificate;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.catalina.WebResource;
 import org.apache.catalina.WebResourceRoot;
@@ -49,6 +53,9 @@ public class CachedResource implements WebResource {
     // based on profiler data.
     private static final long CACHE_ENTRY_SIZE = 500;
 
+    // Marks content that is not reduced in size by compression
+    private static final byte[] NO_GZIP_VARIANT = new byte[0];
+
     private final Cache cache;
     private final StandardRoot root;
     private final String webAppPath;
@@ -68,6 +75,11 @@ public class CachedResource implements WebResource {
     private volatile Boolean cachedExists = null;
     private volatile Boolean cachedIsVirtual = null;
     private volatile Long cachedContentLength = null;
+    private volatile byte[] cachedGzipContent = null;
+    private volatile ByteBuffer cachedContentBuffer = null;
+    private final AtomicBoolean released = new AtomicBoolean();
+    // Ensures the size of the direct buffer is only released once
+    private final AtomicBoolean contentBufferCounted = new AtomicBoolean();
 
 
     public CachedResource(Cache cache, StandardRoot root, String path, long ttl,
@@ -299,6 +311,10 @@ public class CachedResource implements WebResource {
 
     @Override
     public InputStream getInputStream() {
+        ByteBuffer buffer = getContentBuffer();
+        if (buffer != null) {
+            return new ByteBufferInputStream(buffer);
+        }
         byte[] content = getContent();
         if (content == null) {
             // Can't cache InputStreams
@@ -311,6 +327,13 @@ public class CachedResource implements WebResource {
     public byte[] getContent() {
         byte[] cachedContent = this.cachedContent;
         if (cachedContent == null) {
+            ByteBuffer buffer = getContentBuffer();
+            if (buffer != null) {
+                // Content held off-heap has to be copied for each caller
+                byte[] result = new byte[buffer.remaining()];
+                buffer.get(result);
+                return result;
+            }
             if (getContentLength() > objectMaxSizeBytes) {
                 return null;
             }
@@ -320,6 +343,156 @@ public class CachedResource implements WebResource {
         return cachedContent;
     }
 
+    /**
+     * Obtain the content of this resource held in a direct (off-heap) buffer.
+     * This allows the content to be written to the network without being
+     * copied. The buffer is populated on first use and is counted against the
+     * cache size in the same way as content held on the heap.
+     *
+     * @return A new read-only view of the content or {@code null} if off-heap
+     *         storage is not enabled, the content is too large to cache, a
+     *         direct buffer could not be allocated or the resource has no
+     *         content
+     */
+    public ByteBuffer getContentBuffer() {
+        ByteBuffer buffer = cachedContentBuffer;
+        if (buffer == null) {
+            if (!cache.isOffHeap() || cachedContent != null ||
+                    getContentLength() > objectMaxSizeBytes) {
+                return null;
+            }
+            synchronized (this) {
+                buffer = cachedContentBuffer;
+                if (buffer == null) {
+                    // Don't allocate direct memory for an entry that has
+                    // already left the cache
+                    if (released.get() || cachedContent != null) {
+                        return null;
+                    }
+                    byte[] content = webResource.getContent();
+                    if (content == null) {
+                        return null;
+                    }
+                    buffer = cache.allocateOffHeap(content.length);
+                    if (buffer == null) {
+                        // Fall back to holding the content on the heap
+                        cachedContent = content;
+                        return null;
+                    }
+                    buffer.put(content);
+                    buffer.flip();
+                    contentBufferCounted.set(true);
+                    cachedContentBuffer = buffer;
+                    // Handle a concurrent release() that did not see the
+                    // buffer
+                    if (released.get()) {
+                        releaseContentBuffer();
+                    }
+                }
+            }
+        }
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /*
+     * Called once this entry has left the cache. Any direct buffer is not
+     * freed explicitly since it may still be in use by a request. It is freed
+     * by the garbage collector.
+     *
+     * This is called by the cache's eviction listener so it must not block.
+     */
+    void release() {
+        if (released.compareAndSet(false, true)) {
+            releaseContentBuffer();
+        }
+    }
+
+    private void releaseContentBuffer() {
+        ByteBuffer buffer = cachedContentBuffer;
+        if (buffer != null && contentBufferCounted.compareAndSet(true, false)) {
+            cache.offHeapReleased(buffer.capacity());
+        }
+    }
+
+    /**
+     * @return {@code true} if compressed variants are enabled and this
+     *         resource is a file with a compressible MIME type whose content
+     *         can be cached, in which case {@link #getGzipVariant()} may
+     *         return a compressed variant
+     */
+    public boolean isGzipVariantSupported() {
+        return cache.isGzipVariants() && isFile() && getContentLength() <= objectMaxSizeBytes &&
+                cache.isGzipMimeType(getMimeType());
+    }
+
+    /**
+     * Obtain a gzip compressed variant of this resource. The variant is
+     * generated on first use and then held in the cache, and counted against
+     * the cache size, until this cache entry is evicted or invalidated.
+     * Callers should only request the variant if it is going to be used and
+     * should call {@link #gzipVariantServed(WebResource)} if it is.
+     *
+     * @return The compressed variant or {@code null} if compressed variants
+     *         are not supported for this resource or compression does not
+     *         reduce the size of the resource
+     */
+    public WebResource getGzipVariant() {
+        if (!isGzipVariantSupported()) {
+            return null;
+        }
+        byte[] gzipContent = cachedGzipContent;
+        boolean hit = true;
+        if (gzipContent == null) {
+            synchronized (this) {
+                gzipContent = cachedGzipContent;
+                if (gzipContent == null) {
+                    hit = false;
+                    gzipContent = gzip();
+                    cachedGzipContent = gzipContent;
+                }
+            }
+            // Update the cache size without holding the lock for this entry
+            // as the update may evict entries
+            if (!hit && gzipContent.length > 0) {
+                cache.gzipVariantAdded(this, gzipContent.length);
+            }
+        }
+        if (gzipContent == NO_GZIP_VARIANT) {
+            return null;
+        }
+        return new GzipVariant(this, gzipContent, hit);
+    }
+
+    /**
+     * Record, in the cache statistics, that a compressed variant obtained from
+     * {@link #getGzipVariant()} was used in place of this resource to respond
+     * to a request.
+     *
+     * @param gzipVariant The compressed variant
+     */
+    public void gzipVariantServed(WebResource gzipVariant) {
+        boolean hit = gzipVariant instanceof GzipVariant && ((GzipVariant) gzipVariant).hit;
+        cache.gzipLookup(hit, getContentLength() - gzipVariant.getContentLength());
+    }
+
+    private byte[] gzip() {
+        byte[] content = getContent();
+        if (content == null) {
+            return NO_GZIP_VARIANT;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (GZIPOutputStream gzip = new LevelGZIPOutputStream(baos, cache.getGzipLevel())) {
+            gzip.write(content);
+        } catch (IOException ioe) {
+            // Should never happen with a ByteArrayOutputStream
+            return NO_GZIP_VARIANT;
+        }
+        if (baos.size() >= content.length) {
+            return NO_GZIP_VARIANT;
+        }
+        return baos.toByteArray();
+    }
+
     @Override
     public long getCreation() {
         return webResource.getCreation();
@@ -407,10 +580,216 @@ public class CachedResource implements WebResource {
         if (getContentLength() <= objectMaxSizeBytes) {
             result += getContentLength();
         }
+        byte[] cachedGzipContent = this.cachedGzipContent;
+        if (cachedGzipContent != null) {
+            result += cachedGzipContent.length;
+        }
         return result;
     }
 
 
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            int skipped = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+        LevelGZIPOutputStream(ByteArrayOutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+
+
+    /*
+     * The gzip compressed content of a cached resource. Everything other than
+     * the content is obtained from the original resource.
+     */
+    private static class GzipVariant implements WebResource {
+
+        private final CachedResource resource;
+        private final byte[] content;
+        /*
+         * Was the content already held by the cache when this variant was
+         * obtained?
+         */
+        private final boolean hit;
+
+        GzipVariant(CachedResource resource, byte[] content, boolean hit) {
+            this.resource = resource;
+            this.content = content;
+            this.hit = hit;
+        }
+
+        @Override
+        public long getLastModified() {
+            return resource.getLastModified();
+        }
+
+        @Override
+        public String getLastModifiedHttp() {
+            return resource.getLastModifiedHttp();
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public boolean isVirtual() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isFile() {
+            return true;
+        }
+
+        @Override
+        public boolean delete() {
+            return false;
+        }
+
+        @Override
+        public String getName() {
+            return resource.getName();
+        }
+
+        @Override
+        public long getContentLength() {
+            return content.length;
+        }
+
+        @Override
+        public String getCanonicalPath() {
+            // Only exists in memory
+            return null;
+        }
+
+        @Override
+        public boolean canRead() {
+            return true;
+        }
+
+        @Override
+        public String getWebappPath() {
+            return resource.getWebappPath();
+        }
+
+        @Override
+        public String getETag() {
+            // Distinct from the identity representation
+            String eTag = resource.getETag();
+            if (eTag == null) {
+                return null;
+            }
+            if (eTag.endsWith("\"")) {
+                return eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+            }
+            return eTag + "-gzip";
+        }
+
+        @Override
+        public void setMimeType(String mimeType) {
+            resource.setMimeType(mimeType);
+        }
+
+        @Override
+        public String getMimeType() {
+            return resource.getMimeType();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public byte[] getContent() {
+            return content;
+        }
+
+        @Override
+        public long getCreation() {
+            return resource.getCreation();
+        }
+
+        @Override
+        public URL getURL() {
+            // Only exists in memory
+            return null;
+        }
+
+        @Override
+        public URL getCodeBase() {
+            return null;
+        }
+
+        @Override
+        public WebResourceRoot getWebResourceRoot() {
+            return resource.getWebResourceRoot();
+        }
+
+        @Override
+        public Certificate[] getCertificates() {
+            return null;
+        }
+
+        @Override
+        public Manifest getManifest() {
+            return null;
+        }
+    }
+
+
     private static class CachedResourceURLStreamHandler extends URLStreamHandler {
 
         private final URL resourceURL;
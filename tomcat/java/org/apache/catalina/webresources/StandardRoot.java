@@ -534,6 +534,49 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
         return cache.getObjectMaxSize();
     }
 
+    /**
+     * Should gzip compressed variants of cached static resources be generated
+     * and cached so they can be served to clients that accept gzip encoding
+     * without compressing the resource for every request?
+     *
+     * @param cacheGzipVariants {@code true} to cache compressed variants
+     */
+    public void setCacheGzipVariants(boolean cacheGzipVariants) {
+        cache.setGzipVariants(cacheGzipVariants);
+    }
+
+    public boolean isCacheGzipVariants() {
+        return cache.isGzipVariants();
+    }
+
+    public void setCacheGzipLevel(int cacheGzipLevel) {
+        cache.setGzipLevel(cacheGzipLevel);
+    }
+
+    public int getCacheGzipLevel() {
+        return cache.getGzipLevel();
+    }
+
+    public void setCacheGzipMimeType(String cacheGzipMimeType) {
+        cache.setGzipMimeType(cacheGzipMimeType);
+    }
+
+    public String getCacheGzipMimeType() {
+        return cache.getGzipMimeType();
+    }
+
+    public void setCacheOffHeap(boolean cacheOffHeap) {
+        cache.setOffHeap(cacheOffHeap);
+    }
+
+    public boolean isCacheOffHeap() {
+        return cache.isOffHeap();
+    }
+
+    Cache getCache() {
+        return cache;
+    }
+
     @Override
     public void setTrackLockedFiles(boolean trackLockedFiles) {
         this.trackLockedFiles = trackLockedFiles;
@@ -0,0 +1,578 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A size weighted W-TinyLFU admission and eviction policy.
+ * <p>
+ * New entries are added to a small LRU admission window. Entries that
+ * overflow the window become candidates for admission to the main space, a
+ * segmented LRU made up of a probation and a protected segment. A candidate is
+ * only admitted if it has been used more frequently than the entry that would
+ * be evicted to make space for it. Frequencies are estimated with a count-min
+ * sketch of 4-bit counters that are periodically halved so that the
+ * estimates favour recent history.
+ * <p>
+ * The policy only tracks keys, entries and weights. The entries themselves are
+ * held by the caller, typically in a concurrent map, and the caller is
+ * notified, without the policy lock held, when an entry is evicted. Accesses are recorded in a lossy buffer
+ * without locking and applied to the policy in batches so that reads never
+ * wait for the policy lock. All other operations are amortised O(1).
+ *
+ * @param <K> The type of key
+ * @param <V> The type of entry
+ */
+class TinyLfuPolicy<K,V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    // Must be a power of two
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 4;
+
+    private final BiConsumer<K,V> evictionListener;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicReferenceArray<K> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong readBufferWriteCount = new AtomicLong();
+    private volatile long readBufferReadCount = 0;
+
+    // All of the following are guarded by lock except where noted
+    private final Map<K,Node<K,V>> nodes = new HashMap<>();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final Node<K,V> window = new Node<>(null, null, 0);
+    private final Node<K,V> probation = new Node<>(null, null, 0);
+    private final Node<K,V> protectedSegment = new Node<>(null, null, 0);
+    // Entries evicted while holding the lock. The listener is notified once
+    // the lock has been released so it may safely take other locks.
+    private final List<Node<K,V>> evicted = new ArrayList<>();
+
+    private volatile long maximum;
+    private long windowMaximum;
+    private long protectedMaximum;
+    private long windowWeight = 0;
+    private long protectedWeight = 0;
+    // Written under lock but may be read without it
+    private volatile long weight = 0;
+
+
+    TinyLfuPolicy(long maximum, BiConsumer<K,V> evictionListener) {
+        this.evictionListener = evictionListener;
+        setMaximum(maximum);
+    }
+
+
+    /**
+     * @return The maximum total weight of the entries
+     */
+    long getMaximum() {
+        return maximum;
+    }
+
+
+    void setMaximum(long maximum) {
+        List<Node<K,V>> evictedNodes;
+        lock.lock();
+        try {
+            this.maximum = maximum;
+            windowMaximum = maximum * WINDOW_PERCENT / 100;
+            protectedMaximum = (maximum - windowMaximum) * PROTECTED_PERCENT / 100;
+            evict();
+        } finally {
+            evictedNodes = takeEvicted();
+            lock.unlock();
+        }
+        notifyEvicted(evictedNodes);
+    }
+
+
+    /**
+     * @return The total weight of the entries currently tracked by the policy
+     */
+    long getWeight() {
+        return weight;
+    }
+
+
+    /**
+     * Record an access to the entry with the given key. This never blocks and
+     * the access may be discarded if there is contention.
+     *
+     * @param key The key of the entry that was accessed
+     */
+    void recordAccess(K key) {
+        long writeCount = readBufferWriteCount.get();
+        long pending = writeCount - readBufferReadCount;
+        if (pending < READ_BUFFER_SIZE &&
+                readBufferWriteCount.compareAndSet(writeCount, writeCount + 1)) {
+            readBuffer.lazySet((int) (writeCount & READ_BUFFER_MASK), key);
+            pending++;
+        }
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD && lock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * Add an entry, evicting entries as necessary to keep the total weight
+     * within the maximum. The new entry may itself be evicted.
+     *
+     * @param key       The key of the entry
+     * @param value     The entry
+     * @param weight    The weight of the entry
+     */
+    void add(K key, V value, long weight) {
+        List<Node<K,V>> evictedNodes;
+        lock.lock();
+        try {
+            drainReadBuffer();
+            Node<K,V> node = nodes.get(key);
+            if (node != null) {
+                unlink(node);
+            }
+            node = new Node<>(key, value, weight);
+            nodes.put(key, node);
+            sketch.ensureCapacity(nodes.size());
+            sketch.increment(key);
+            node.queue = WINDOW;
+            linkLast(window, node);
+            windowWeight += weight;
+            this.weight += weight;
+            evict();
+        } finally {
+            evictedNodes = takeEvicted();
+            lock.unlock();
+        }
+        notifyEvicted(evictedNodes);
+    }
+
+
+    /**
+     * Adjust the weight of an entry.
+     *
+     * @param key       The key of the entry
+     * @param value     The entry
+     * @param delta     The change in weight
+     */
+    void updateWeight(K key, V value, long delta) {
+        List<Node<K,V>> evictedNodes;
+        lock.lock();
+        try {
+            Node<K,V> node = nodes.get(key);
+            if (node == null || node.value != value) {
+                return;
+            }
+            node.weight += delta;
+            if (node.queue == WINDOW) {
+                windowWeight += delta;
+            } else if (node.queue == PROTECTED) {
+                protectedWeight += delta;
+            }
+            weight += delta;
+            evict();
+        } finally {
+            evictedNodes = takeEvicted();
+            lock.unlock();
+        }
+        notifyEvicted(evictedNodes);
+    }
+
+
+    /**
+     * Stop tracking an entry. The eviction listener is not notified.
+     *
+     * @param key       The key of the entry
+     * @param value     The entry
+     */
+    void remove(K key, V value) {
+        lock.lock();
+        try {
+            Node<K,V> node = nodes.get(key);
+            if (node != null && node.value == value) {
+                nodes.remove(key);
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    void clear() {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            nodes.clear();
+            window.prev = window.next = window;
+            probation.prev = probation.next = probation;
+            protectedSegment.prev = protectedSegment.next = protectedSegment;
+            windowWeight = 0;
+            protectedWeight = 0;
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Apply any pending accesses and ensure the total weight is within the
+     * maximum.
+     */
+    void maintenance() {
+        List<Node<K,V>> evictedNodes;
+        lock.lock();
+        try {
+            drainReadBuffer();
+            evict();
+        } finally {
+            evictedNodes = takeEvicted();
+            lock.unlock();
+        }
+        notifyEvicted(evictedNodes);
+    }
+
+
+    private void drainReadBuffer() {
+        long readCount = readBufferReadCount;
+        long writeCount = readBufferWriteCount.get();
+        while (readCount < writeCount) {
+            int index = (int) (readCount & READ_BUFFER_MASK);
+            K key = readBuffer.get(index);
+            if (key == null) {
+                // Slot claimed but not yet written
+                break;
+            }
+            readBuffer.lazySet(index, null);
+            onAccess(key);
+            readCount++;
+        }
+        readBufferReadCount = readCount;
+    }
+
+
+    private void onAccess(K key) {
+        sketch.increment(key);
+        Node<K,V> node = nodes.get(key);
+        if (node == null) {
+            return;
+        }
+        if (node.queue == WINDOW) {
+            moveToLast(window, node);
+        } else if (node.queue == PROBATION) {
+            // Promote
+            unlinkNode(node);
+            node.queue = PROTECTED;
+            linkLast(protectedSegment, node);
+            protectedWeight += node.weight;
+            // Demote the least recently used protected entries if necessary
+            while (protectedWeight > protectedMaximum) {
+                Node<K,V> demoted = protectedSegment.next;
+                if (demoted == node) {
+                    break;
+                }
+                unlinkNode(demoted);
+                protectedWeight -= demoted.weight;
+                demoted.queue = PROBATION;
+                linkLast(probation, demoted);
+            }
+        } else {
+            moveToLast(protectedSegment, node);
+        }
+    }
+
+
+    private void evict() {
+        // Entries that overflow the window are candidates for the main space
+        while (windowWeight > windowMaximum && window.next != window) {
+            Node<K,V> candidate = window.next;
+            unlinkNode(candidate);
+            windowWeight -= candidate.weight;
+            boolean admit = true;
+            // Make space if required. Victims are taken from the least
+            // recently used end of the probation segment.
+            while (weight > maximum) {
+                Node<K,V> victim = first(probation);
+                if (victim == null) {
+                    victim = first(protectedSegment);
+                }
+                if (victim == null) {
+                    // Only window entries remain
+                    break;
+                }
+                if (candidate.weight > maximum || !admit(candidate.key, victim.key)) {
+                    admit = false;
+                    break;
+                }
+                evictNode(victim);
+            }
+            if (admit) {
+                candidate.queue = PROBATION;
+                linkLast(probation, candidate);
+            } else {
+                nodes.remove(candidate.key);
+                weight -= candidate.weight;
+                evicted.add(candidate);
+            }
+        }
+
+        // The maximum or the weights may have changed
+        while (weight > maximum) {
+            Node<K,V> victim = first(probation);
+            if (victim == null) {
+                victim = first(protectedSegment);
+            }
+            if (victim == null) {
+                victim = first(window);
+            }
+            if (victim == null) {
+                break;
+            }
+            evictNode(victim);
+        }
+    }
+
+
+    /*
+     * The candidate is only admitted if it is more popular than the victim.
+     * A small amount of randomness prevents an attacker from keeping popular
+     * entries out of the cache by artificially raising the frequency of the
+     * victim.
+     */
+    private boolean admit(K candidateKey, K victimKey) {
+        int victimFrequency = sketch.frequency(victimKey);
+        int candidateFrequency = sketch.frequency(candidateKey);
+        if (candidateFrequency > victimFrequency) {
+            return true;
+        } else if (candidateFrequency <= 5) {
+            return false;
+        }
+        return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+
+    private void evictNode(Node<K,V> node) {
+        nodes.remove(node.key);
+        unlink(node);
+        evicted.add(node);
+    }
+
+
+    private List<Node<K,V>> takeEvicted() {
+        if (evicted.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Node<K,V>> result = new ArrayList<>(evicted);
+        evicted.clear();
+        return result;
+    }
+
+
+    private void notifyEvicted(List<Node<K,V>> evictedNodes) {
+        for (Node<K,V> node : evictedNodes) {
+            evictionListener.accept(node.key, node.value);
+        }
+    }
+
+
+    private static <K,V> Node<K,V> first(Node<K,V> head) {
+        Node<K,V> first = head.next;
+        return first == head ? null : first;
+    }
+
+
+    /*
+     * Unlink the node from its segment and update the weights.
+     */
+    private void unlink(Node<K,V> node) {
+        unlinkNode(node);
+        if (node.queue == WINDOW) {
+            windowWeight -= node.weight;
+        } else if (node.queue == PROTECTED) {
+            protectedWeight -= node.weight;
+        }
+        weight -= node.weight;
+    }
+
+
+    private static <K,V> void unlinkNode(Node<K,V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+
+    private static <K,V> void linkLast(Node<K,V> head, Node<K,V> node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+
+    private static <K,V> void moveToLast(Node<K,V> head, Node<K,V> node) {
+        if (head.prev != node) {
+            unlinkNode(node);
+            linkLast(head, node);
+        }
+    }
+
+
+    /*
+     * An entry in one of the segments. The head of each segment is a sentinel
+     * node of a circular doubly linked list with the least recently used entry
+     * at head.next and the most recently used entry at head.prev.
+     */
+    private static class Node<K,V> {
+
+        private final K key;
+        private final V value;
+        private long weight;
+        private int queue;
+        private Node<K,V> prev;
+        private Node<K,V> next;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            prev = this;
+            next = this;
+        }
+    }
+
+
+    /*
+     * A count-min sketch with four 4-bit counters per entry, packed into longs.
+     * Counters saturate at 15 and all counters are halved once the number of
+     * increments reaches ten times the table size. Not thread safe.
+     */
+    static class FrequencySketch {
+
+        private static final long[] SEED = new long[] {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long ONE_MASK = 0x1111111111111111L;
+        private static final int MINIMUM_SIZE = 64;
+
+        private long[] table;
+        private int tableMask;
+        private int sampleSize;
+        private int size;
+
+        FrequencySketch() {
+            resize(MINIMUM_SIZE);
+        }
+
+        /*
+         * Grow the sketch, discarding the current counts, if it is too small
+         * for the given number of entries.
+         */
+        void ensureCapacity(int entries) {
+            if (entries > table.length) {
+                resize(Math.min(entries, 1 << 30));
+            }
+        }
+
+        int frequency(Object item) {
+            int hash = spread(item.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(Object item) {
+            int hash = spread(item.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                added |= incrementAt(index, start + i);
+            }
+            if (added && ++size >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            int count = 0;
+            for (int i = 0; i < table.length; i++) {
+                count += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = (size - (count >>> 2)) >>> 1;
+        }
+
+        private void resize(int entries) {
+            int length = Integer.highestOneBit(entries - 1) << 1;
+            table = new long[Math.max(length, MINIMUM_SIZE)];
+            tableMask = table.length - 1;
+            sampleSize = 10 * table.length;
+            size = 0;
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEED[i]) * SEED[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -661,6 +661,18 @@ public abstract class AbstractProcessor extends AbstractProcessorLight implement
     }
 
 
+    @Override
+    public long getAsyncTimeoutCheckTime(long now) {
+        long asyncTimeout = getAsyncTimeout();
+        if (asyncTimeout > 0) {
+            // timeoutAsync() requires the timeout to have been exceeded
+            return asyncStateMachine.getLastAsyncStart() + asyncTimeout + 1;
+        }
+        // Need to check periodically if the web application is still available
+        return now + Constants.DEFAULT_ASYNC_TIMEOUT_CHECK_INTERVAL;
+    }
+
+
     private void doTimeoutAsync() {
         // Avoid multiple timeouts
         setAsyncTimeout(-1);
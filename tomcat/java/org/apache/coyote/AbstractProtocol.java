@@ -2,8 +2,8 @@ package org.apache.coyote;
 
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
-import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -35,6 +35,7 @@ import org.apache.tomcat.util.net.AbstractEndpoint.Handler;
 import org.apache.tomcat.util.net.SocketEvent;
 import org.apache.tomcat.util.net.SocketWrapperBase;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.TimingWheel;
 
 public abstract class AbstractProtocol<S> implements ProtocolHandler, MBeanRegistration {
 
@@ -73,7 +74,14 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler, MBeanRegis
     private Handler<S> handler;
 
 
-    private final Set<Processor> waitingProcessors = Collections.newSetFromMap(new ConcurrentHashMap<Processor, Boolean>());
+    /*
+     * Processors waiting for an asynchronous event and the timeout scheduled
+     * to check each of them. The timeouts are processed once a second so a
+     * tick of 100ms is sufficient. A revolution of the wheel covers 102
+     * seconds.
+     */
+    private final Map<Processor,TimingWheel.Timeout> waitingProcessors = new ConcurrentHashMap<>();
+    private final TimingWheel asyncTimeouts = new TimingWheel(100, TimeUnit.MILLISECONDS, 1024);
 
     /**
      * Controller for the timeout scheduling.
@@ -233,6 +241,22 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler, MBeanRegis
         endpoint.setMaxThreads(maxThreads);
     }
 
+    public boolean getUseVirtualThreads() {
+        return endpoint.getUseVirtualThreads();
+    }
+
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        endpoint.setUseVirtualThreads(useVirtualThreads);
+    }
+
+    public boolean getUseLockFreeTaskQueue() {
+        return endpoint.getUseLockFreeTaskQueue();
+    }
+
+    public void setUseLockFreeTaskQueue(boolean useLockFreeTaskQueue) {
+        endpoint.setUseLockFreeTaskQueue(useLockFreeTaskQueue);
+    }
+
     public int getMaxConnections() {
         return endpoint.getMaxConnections();
     }
@@ -431,12 +455,73 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler, MBeanRegis
 
 
     public void addWaitingProcessor(Processor processor) {
-        waitingProcessors.add(processor);
+        TimingWheel.Timeout previous =
+                waitingProcessors.put(processor, scheduleAsyncTimeout(processor));
+        if (previous != null) {
+            previous.cancel();
+        }
     }
 
 
     public void removeWaitingProcessor(Processor processor) {
-        waitingProcessors.remove(processor);
+        TimingWheel.Timeout timeout = waitingProcessors.remove(processor);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+
+    /**
+     * @return The number of processors waiting for an asynchronous event that
+     *         have a scheduled timeout check
+     */
+    public int getAsyncTimeoutCount() {
+        return asyncTimeouts.getTimeoutCount();
+    }
+
+
+    /**
+     * @return The total time, in nanoseconds, spent checking waiting
+     *         processors for timeouts
+     */
+    public long getAsyncTimeoutProcessingTime() {
+        return asyncTimeouts.getAdvanceTime();
+    }
+
+
+    private TimingWheel.Timeout scheduleAsyncTimeout(Processor processor) {
+        long now = System.currentTimeMillis();
+        long delay = Math.max(0, processor.getAsyncTimeoutCheckTime(now) - now);
+        return asyncTimeouts.schedule(new AsyncTimeoutTask(processor), delay, TimeUnit.MILLISECONDS);
+    }
+
+
+    /*
+     * Executed by the async timeout thread when the timeout for a waiting
+     * processor expires.
+     */
+    private class AsyncTimeoutTask implements Runnable {
+
+        private final Processor processor;
+
+        AsyncTimeoutTask(Processor processor) {
+            this.processor = processor;
+        }
+
+        @Override
+        public void run() {
+            TimingWheel.Timeout timeout = waitingProcessors.get(processor);
+            if (timeout == null || !timeout.isExpired()) {
+                // No longer waiting or a new check has been scheduled
+                return;
+            }
+            processor.timeoutAsync(System.currentTimeMillis());
+            // Check again later if the processor is still waiting
+            TimingWheel.Timeout next = scheduleAsyncTimeout(processor);
+            if (!waitingProcessors.replace(processor, timeout, next)) {
+                next.cancel();
+            }
+        }
     }
 
 
@@ -662,10 +747,8 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler, MBeanRegis
                     new Runnable() {
                         @Override
                         public void run() {
-                            long now = System.currentTimeMillis();
-                            for (Processor processor : waitingProcessors) {
-                                processor.timeoutAsync(now);
-                            }
+                            // Only the processors that are due are checked
+                            asyncTimeouts.advance();
                         }
                     }, 1, 1, TimeUnit.SECONDS);
         }
@@ -718,7 +801,7 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler, MBeanRegis
         }
         stopAsyncTimeout();
         // Timeout any waiting processor
-        for (Processor processor : waitingProcessors) {
+        for (Processor processor : waitingProcessors.keySet()) {
             processor.timeoutAsync(-1);
         }
 
@@ -954,6 +1037,7 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler, MBeanRegis
                     // In keep-alive but between requests. OK to recycle processor. Continue to poll for the next request.
                     wrapper.setCurrentProcessor(null);
                     release(processor);
+                    wrapper.releaseIdleBuffers();
                     wrapper.registerReadInterest();
                 } else if (state == SocketState.SENDFILE) {
                     // Sendfile in progress. If it fails, the socket will be closed. If it works, the socket either be added to the
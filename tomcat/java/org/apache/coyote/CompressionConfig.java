@@ -25,10 +25,12 @@ import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.http.ResponseUtil;
 import org.apache.tomcat.util.http.parser.AcceptEncoding;
@@ -48,6 +50,13 @@ public class CompressionConfig {
     private int compressionMinSize = 2048;
     private boolean noCompressionStrongETag = true;
 
+    private volatile int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+    private volatile int deflateStrategy = Deflater.DEFAULT_STRATEGY;
+    private int deflateBufferSize = 8 * 1024;
+    private volatile int deflateFlushMode = Deflater.SYNC_FLUSH;
+    private int deflaterPoolSize = 64;
+    private volatile SynchronizedStack<Deflater> deflaterPool = new SynchronizedStack<>(16, deflaterPoolSize);
+
 
     /**
      * Set compression level.
@@ -212,6 +221,211 @@ public class CompressionConfig {
     }
 
 
+    /**
+     * @return The deflate compression level, from 0 (no compression) to 9 (best
+     *         compression) or -1 for the default level
+     */
+    public int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+
+    /**
+     * Set the compression level used to deflate compressed responses.
+     *
+     * @param deflateLevel The compression level, from 0 (no compression) to 9
+     *                     (best compression) or -1 for the default level
+     */
+    public void setDeflateLevel(int deflateLevel) {
+        if (deflateLevel < Deflater.DEFAULT_COMPRESSION || deflateLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException(
+                    sm.getString("compressionConfig.invalidDeflateLevel", Integer.toString(deflateLevel)));
+        }
+        this.deflateLevel = deflateLevel;
+    }
+
+
+    /**
+     * @return The deflate strategy: <code>default</code>,
+     *         <code>filtered</code> or <code>huffmanOnly</code>
+     */
+    public String getDeflateStrategy() {
+        switch (deflateStrategy) {
+            case Deflater.FILTERED:
+                return "filtered";
+            case Deflater.HUFFMAN_ONLY:
+                return "huffmanOnly";
+            default:
+                return "default";
+        }
+    }
+
+
+    /**
+     * Set the strategy used to deflate compressed responses.
+     *
+     * @param deflateStrategy One of <code>default</code>,
+     *                        <code>filtered</code> or
+     *                        <code>huffmanOnly</code>
+     */
+    public void setDeflateStrategy(String deflateStrategy) {
+        if ("default".equalsIgnoreCase(deflateStrategy)) {
+            this.deflateStrategy = Deflater.DEFAULT_STRATEGY;
+        } else if ("filtered".equalsIgnoreCase(deflateStrategy)) {
+            this.deflateStrategy = Deflater.FILTERED;
+        } else if ("huffmanOnly".equalsIgnoreCase(deflateStrategy)) {
+            this.deflateStrategy = Deflater.HUFFMAN_ONLY;
+        } else {
+            throw new IllegalArgumentException(
+                    sm.getString("compressionConfig.invalidDeflateStrategy", deflateStrategy));
+        }
+    }
+
+
+    /**
+     * @return The size of the buffer, in bytes, used for compressed output.
+     *         This is also the largest amount of compressed data passed to the
+     *         next output filter in a single write.
+     */
+    public int getDeflateBufferSize() {
+        return deflateBufferSize;
+    }
+
+
+    public void setDeflateBufferSize(int deflateBufferSize) {
+        this.deflateBufferSize = deflateBufferSize;
+    }
+
+
+    /**
+     * @return The action taken when a compressed response is flushed:
+     *         <code>sync</code>, <code>full</code> or <code>none</code>
+     */
+    public String getDeflateFlushMode() {
+        switch (deflateFlushMode) {
+            case Deflater.FULL_FLUSH:
+                return "full";
+            case Deflater.NO_FLUSH:
+                return "none";
+            default:
+                return "sync";
+        }
+    }
+
+
+    /**
+     * Set the action taken when a compressed response is flushed.
+     * <ul>
+     * <li><code>sync</code> - All the data written so far is compressed and
+     *     written so the client can decompress it. This is the default.</li>
+     * <li><code>full</code> - As <code>sync</code> and the compression state
+     *     is also reset so decompression can restart from this point. This
+     *     reduces the compression ratio.</li>
+     * <li><code>none</code> - Flushes do not force compressed data to be
+     *     written. This gives the best compression ratio for responses that
+     *     flush frequently but delays the data until the compressed output
+     *     buffer fills. Streaming responses of type
+     *     <code>text/event-stream</code> (server-sent events) are always
+     *     flushed as for <code>sync</code>.</li>
+     * </ul>
+     *
+     * @param deflateFlushMode One of <code>sync</code>, <code>full</code> or
+     *                         <code>none</code>
+     */
+    public void setDeflateFlushMode(String deflateFlushMode) {
+        if ("sync".equalsIgnoreCase(deflateFlushMode)) {
+            this.deflateFlushMode = Deflater.SYNC_FLUSH;
+        } else if ("full".equalsIgnoreCase(deflateFlushMode)) {
+            this.deflateFlushMode = Deflater.FULL_FLUSH;
+        } else if ("none".equalsIgnoreCase(deflateFlushMode)) {
+            this.deflateFlushMode = Deflater.NO_FLUSH;
+        } else {
+            throw new IllegalArgumentException(
+                    sm.getString("compressionConfig.invalidDeflateFlushMode", deflateFlushMode));
+        }
+    }
+
+
+    /**
+     * @return The {@link Deflater} flush mode for flushes of compressed
+     *         responses
+     */
+    public int getDeflateFlushModeValue() {
+        return deflateFlushMode;
+    }
+
+
+    /**
+     * @return The maximum number of idle {@link Deflater} instances retained
+     *         for re-use
+     */
+    public int getDeflaterPoolSize() {
+        return deflaterPoolSize;
+    }
+
+
+    public void setDeflaterPoolSize(int deflaterPoolSize) {
+        this.deflaterPoolSize = deflaterPoolSize;
+        SynchronizedStack<Deflater> oldPool = this.deflaterPool;
+        this.deflaterPool = new SynchronizedStack<>(16, deflaterPoolSize);
+        releaseDeflaters(oldPool);
+    }
+
+
+    /**
+     * Obtain a {@link Deflater}, configured with the current level and
+     * strategy, for raw deflate output. The {@link Deflater} should be
+     * returned with {@link #returnDeflater(Deflater)} once the response has
+     * been compressed.
+     *
+     * @return A Deflater ready for use
+     */
+    public Deflater borrowDeflater() {
+        Deflater deflater = deflaterPool.pop();
+        if (deflater == null) {
+            deflater = new Deflater(deflateLevel, true);
+        } else {
+            // NO-OP unless the configuration has changed since the Deflater
+            // was created
+            deflater.setLevel(deflateLevel);
+        }
+        deflater.setStrategy(deflateStrategy);
+        return deflater;
+    }
+
+
+    /**
+     * Return a {@link Deflater} obtained from {@link #borrowDeflater()} for
+     * re-use. The Deflater is reset. If the pool is full, the native resources
+     * associated with the Deflater are released.
+     *
+     * @param deflater The Deflater to return
+     */
+    public void returnDeflater(Deflater deflater) {
+        deflater.reset();
+        if (!deflaterPool.push(deflater)) {
+            deflater.end();
+        }
+    }
+
+
+    /**
+     * Release the native resources associated with any idle pooled
+     * {@link Deflater} instances.
+     */
+    public void releaseDeflaters() {
+        releaseDeflaters(deflaterPool);
+    }
+
+
+    private static void releaseDeflaters(SynchronizedStack<Deflater> pool) {
+        Deflater deflater;
+        while ((deflater = pool.pop()) != null) {
+            deflater.end();
+        }
+    }
+
+
     /**
      * Determines if compression should be enabled for the given response and if
      * it is, sets any necessary headers to mark it as such.
@@ -46,6 +46,13 @@ public final class Constants {
     public static final int DEFAULT_CONNECTION_LINGER = -1;
     public static final boolean DEFAULT_TCP_NO_DELAY = true;
 
+    /**
+     * The interval, in milliseconds, at which processors that are waiting for
+     * an asynchronous event are checked for a timeout if the processor can not
+     * determine when the timeout will occur.
+     */
+    public static final long DEFAULT_ASYNC_TIMEOUT_CHECK_INTERVAL = 1000;
+
     /**
      * Has security been turned on?
      */
@@ -79,6 +79,28 @@ public interface Processor {
      */
     void timeoutAsync(long now);
 
+    /**
+     * Determine when {@link #timeoutAsync(long)} next needs to be called for
+     * this processor. Processors that can not determine when a timeout will
+     * occur should return a time no more than
+     * {@link Constants#DEFAULT_ASYNC_TIMEOUT_CHECK_INTERVAL} after
+     * <code>now</code> so the timeout is checked periodically.
+     * <p>
+     * The default implementation returns
+     * {@link Constants#DEFAULT_ASYNC_TIMEOUT_CHECK_INTERVAL} after
+     * <code>now</code> so {@link #timeoutAsync(long)} is called on every
+     * periodic check.
+     *
+     * @param now The current time (as returned by
+     *            {@link System#currentTimeMillis()})
+     *
+     * @return The time (as returned by {@link System#currentTimeMillis()}) at
+     *         which the timeout should next be checked
+     */
+    default long getAsyncTimeoutCheckTime(long now) {
+        return now + Constants.DEFAULT_ASYNC_TIMEOUT_CHECK_INTERVAL;
+    }
+
     /**
      * @return The request associated with this processor.
      */
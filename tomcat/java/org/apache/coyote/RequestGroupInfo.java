@@ -33,6 +33,7 @@ public class RequestGroupInfo extends BaseModelMBean {
     private int deadErrorCount = 0;
     private long deadBytesReceived = 0;
     private long deadBytesSent = 0;
+    private long deadNetworkWriteCount = 0;
 
     public synchronized void addRequestProcessor( RequestInfo rp ) {
         processors.add( rp );
@@ -47,6 +48,7 @@ public class RequestGroupInfo extends BaseModelMBean {
             deadErrorCount += rp.getErrorCount();
             deadBytesReceived += rp.getBytesReceived();
             deadBytesSent += rp.getBytesSent();
+            deadNetworkWriteCount += rp.getNetworkWriteCount();
 
             processors.remove( rp );
         }
@@ -145,9 +147,25 @@ public class RequestGroupInfo extends BaseModelMBean {
         }
     }
 
+    public synchronized long getNetworkWriteCount() {
+        long count = deadNetworkWriteCount;
+        for (RequestInfo rp : processors) {
+            count += rp.getNetworkWriteCount();
+        }
+        return count;
+    }
+
+    public synchronized void setNetworkWriteCount(long networkWriteCount) {
+        deadNetworkWriteCount = networkWriteCount;
+        for (RequestInfo rp : processors) {
+            rp.setNetworkWriteCount(networkWriteCount);
+        }
+    }
+
     public void resetCounters() {
         this.setBytesReceived(0);
         this.setBytesSent(0);
+        this.setNetworkWriteCount(0);
         this.setRequestCount(0);
         this.setProcessingTime(0);
         this.setMaxTime(0);
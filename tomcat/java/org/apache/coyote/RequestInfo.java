@@ -137,6 +137,8 @@ public class RequestInfo  {
     // Collected at the end of each request.
     private long bytesSent;
     private long bytesReceived;
+    // Total writes to the network = divide by requestCount to get average.
+    private long networkWriteCount;
 
     // Total time = divide by requestCount to get average.
     private long processingTime;
@@ -159,6 +161,7 @@ public class RequestInfo  {
     void updateCounters() {
         bytesReceived+=req.getBytesRead();
         bytesSent+=req.getResponse().getContentWritten();
+        networkWriteCount += req.getResponse().getNetworkWriteCount();
 
         requestCount++;
         if( req.getResponse().getStatus() >=400 )
@@ -194,6 +197,14 @@ public class RequestInfo  {
         return bytesReceived;
     }
 
+    public long getNetworkWriteCount() {
+        return networkWriteCount;
+    }
+
+    public void setNetworkWriteCount(long networkWriteCount) {
+        this.networkWriteCount = networkWriteCount;
+    }
+
     public void setBytesReceived(long bytesReceived) {
         this.bytesReceived = bytesReceived;
     }
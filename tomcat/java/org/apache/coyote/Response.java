@@ -123,6 +123,7 @@ public final class Response {
     // General informations
     private long contentWritten = 0;
     private long commitTime = -1;
+    private long networkWriteCount = 0;
 
     /**
      * Holds request error exception.
@@ -627,6 +628,7 @@ public final class Response {
 
         // update counters
         contentWritten=0;
+        networkWriteCount = 0;
     }
 
     /**
@@ -640,6 +642,21 @@ public final class Response {
         return contentWritten;
     }
 
+    /**
+     * Write operations made to the network for this response. This is only
+     * recorded by protocols that write to the network for each response.
+     *
+     * @return The number of write operations made to the network for this
+     *         response
+     */
+    public long getNetworkWriteCount() {
+        return networkWriteCount;
+    }
+
+    public void setNetworkWriteCount(long networkWriteCount) {
+        this.networkWriteCount = networkWriteCount;
+    }
+
     /**
      * Bytes written to socket - i.e. after compression, chunking, etc.
      *
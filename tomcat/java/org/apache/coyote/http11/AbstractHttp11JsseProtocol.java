@@ -49,4 +49,16 @@ public abstract class AbstractHttp11JsseProtocol<S>
     public void setSniParseLimit(int sniParseLimit) {
         getEndpoint().setSniParseLimit(sniParseLimit);
     }
+
+
+    public int getHandshakeThreads() { return getEndpoint().getHandshakeThreads(); }
+    public void setHandshakeThreads(int handshakeThreads) {
+        getEndpoint().setHandshakeThreads(handshakeThreads);
+    }
+
+
+    public int getHandshakeQueueSize() { return getEndpoint().getHandshakeQueueSize(); }
+    public void setHandshakeQueueSize(int handshakeQueueSize) {
+        getEndpoint().setHandshakeQueueSize(handshakeQueueSize);
+    }
 }
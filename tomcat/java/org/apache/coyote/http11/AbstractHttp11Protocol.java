@@ -27,6 +27,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
+import javax.management.ObjectName;
 import javax.servlet.http.HttpUpgradeHandler;
 
 import org.apache.coyote.AbstractProtocol;
@@ -40,6 +41,7 @@ import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorExternal;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorInternal;
 import org.apache.tomcat.util.buf.StringUtils;
+import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.SSLHostConfig;
 import org.apache.tomcat.util.net.SocketWrapperBase;
@@ -52,6 +54,9 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
 
     private final CompressionConfig compressionConfig = new CompressionConfig();
 
+    private final HeaderLineCache headerLineCache =
+            new HeaderLineCache(Constants.DEFAULT_HEADER_LINE_CACHE_SIZE);
+
 
     public AbstractHttp11Protocol(AbstractEndpoint<S,?> endpoint) {
         super(endpoint);
@@ -72,6 +77,39 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
         }
 
         super.init();
+
+        // Register the upgrade protocols so their configuration and
+        // statistics are visible via JMX
+        if (getDomain() != null) {
+            for (UpgradeProtocol upgradeProtocol : upgradeProtocols) {
+                String upgradeName = upgradeProtocol.getAlpnName();
+                if (upgradeName == null) {
+                    upgradeName = upgradeProtocol.getHttpUpgradeName(isSSLEnabled());
+                }
+                if (upgradeName != null) {
+                    ObjectName upgradeOname = new ObjectName(getDomain() +
+                            ":type=UpgradeProtocol,name=" + getName() +
+                            ",upgradeProtocol=" + ObjectName.quote(upgradeName));
+                    Registry.getRegistry(null, null).registerComponent(
+                            upgradeProtocol, upgradeOname, null);
+                    upgradeProtocolOnames.add(upgradeOname);
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public void destroy() throws Exception {
+        try {
+            super.destroy();
+        } finally {
+            for (ObjectName upgradeOname : upgradeProtocolOnames) {
+                Registry.getRegistry(null, null).unregisterComponent(upgradeOname);
+            }
+            upgradeProtocolOnames.clear();
+            compressionConfig.releaseDeflaters();
+        }
     }
 
 
@@ -199,6 +237,39 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     public void setMaxHttpHeaderSize(int valueI) { maxHttpHeaderSize = valueI; }
 
 
+    /**
+     * The maximum number of different values for each response header name
+     * for which the encoded header line will be cached. Only headers that
+     * usually have the same value for many responses (Content-Type, Server,
+     * Date etc.) are cached.
+     *
+     * @return The maximum number of values cached per header name
+     */
+    public int getHeaderLineCacheSize() {
+        return headerLineCache.getMaxValuesPerName();
+    }
+    /**
+     * Set the maximum number of different values for each response header
+     * name for which the encoded header line will be cached. Zero or less
+     * disables the cache.
+     *
+     * @param headerLineCacheSize The maximum number of values cached per
+     *                            header name
+     */
+    public void setHeaderLineCacheSize(int headerLineCacheSize) {
+        headerLineCache.setMaxValuesPerName(headerLineCacheSize);
+    }
+    public long getHeaderLineCacheHitCount() {
+        return headerLineCache.getHitCount();
+    }
+    public long getHeaderLineCacheMissCount() {
+        return headerLineCache.getMissCount();
+    }
+    protected HeaderLineCache getHeaderLineCache() {
+        return headerLineCache;
+    }
+
+
     private int connectionUploadTimeout = 300000;
     /**
      * Specifies a different (usually longer) connection timeout during data
@@ -289,6 +360,51 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    public int getDeflateLevel() {
+        return compressionConfig.getDeflateLevel();
+    }
+    public void setDeflateLevel(int deflateLevel) {
+        compressionConfig.setDeflateLevel(deflateLevel);
+    }
+
+
+    public String getDeflateStrategy() {
+        return compressionConfig.getDeflateStrategy();
+    }
+    public void setDeflateStrategy(String deflateStrategy) {
+        compressionConfig.setDeflateStrategy(deflateStrategy);
+    }
+
+
+    public int getDeflateBufferSize() {
+        return compressionConfig.getDeflateBufferSize();
+    }
+    public void setDeflateBufferSize(int deflateBufferSize) {
+        compressionConfig.setDeflateBufferSize(deflateBufferSize);
+    }
+
+
+    public String getDeflateFlushMode() {
+        return compressionConfig.getDeflateFlushMode();
+    }
+    public void setDeflateFlushMode(String deflateFlushMode) {
+        compressionConfig.setDeflateFlushMode(deflateFlushMode);
+    }
+
+
+    public int getDeflaterPoolSize() {
+        return compressionConfig.getDeflaterPoolSize();
+    }
+    public void setDeflaterPoolSize(int deflaterPoolSize) {
+        compressionConfig.setDeflaterPoolSize(deflaterPoolSize);
+    }
+
+
+    CompressionConfig getCompressionConfig() {
+        return compressionConfig;
+    }
+
+
     public boolean useCompression(Request request, Response response) {
         return compressionConfig.useCompression(request, response);
     }
@@ -447,6 +563,7 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
      * The upgrade protocol instances configured.
      */
     private final List<UpgradeProtocol> upgradeProtocols = new ArrayList<>();
+    private final List<ObjectName> upgradeProtocolOnames = new ArrayList<>();
     @Override
     public void addUpgradeProtocol(UpgradeProtocol upgradeProtocol) {
         upgradeProtocols.add(upgradeProtocol);
@@ -27,6 +27,8 @@ public final class Constants {
 
     public static final int DEFAULT_CONNECTION_TIMEOUT = 60000;
 
+    public static final int DEFAULT_HEADER_LINE_CACHE_SIZE = 32;
+
 
     /**
      * CRLF.
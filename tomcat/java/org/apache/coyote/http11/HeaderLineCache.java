@@ -0,0 +1,197 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of encoded response header lines (name, separator, value and CRLF)
+ * for headers that usually have the same value for many responses. A cached
+ * line is copied into the header buffer as a single block rather than the
+ * name and value being encoded for every response.
+ * <p>
+ * The Date header is cached separately. Only the line for the most recent
+ * value is retained so the cached line is regenerated once a second, as the
+ * value provided by {@link org.apache.tomcat.util.http.FastHttpDateFormat}
+ * changes.
+ * <p>
+ * This class is thread-safe and is intended to be shared by all the
+ * processors of a protocol.
+ */
+public class HeaderLineCache {
+
+    private static final String DATE = "Date";
+
+    /*
+     * Headers that usually have the same value for many responses. Other
+     * headers (Content-Length, ETag, Set-Cookie etc.) are not cached as their
+     * values are usually different for each response.
+     */
+    private static final String[] CACHEABLE_NAMES = new String[] {
+            "Cache-Control", "Connection", "Content-Encoding", "Content-Language",
+            "Content-Type", "Keep-Alive", "Server", "Transfer-Encoding", "Vary" };
+
+    private final ConcurrentMap<String,Map<String,byte[]>> lines = new ConcurrentHashMap<>();
+    private volatile DateLine dateLine = null;
+
+    private volatile int maxValuesPerName;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+
+    public HeaderLineCache(int maxValuesPerName) {
+        this.maxValuesPerName = maxValuesPerName;
+    }
+
+
+    /**
+     * @return The maximum number of different values cached for each header
+     *         name
+     */
+    public int getMaxValuesPerName() {
+        return maxValuesPerName;
+    }
+
+
+    /**
+     * Set the maximum number of different values cached for each header name.
+     * Existing entries are not removed if the limit is reduced. A value of
+     * zero or less disables the cache.
+     *
+     * @param maxValuesPerName The maximum number of values to cache
+     */
+    public void setMaxValuesPerName(int maxValuesPerName) {
+        this.maxValuesPerName = maxValuesPerName;
+        if (maxValuesPerName <= 0) {
+            lines.clear();
+            dateLine = null;
+        }
+    }
+
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+
+    /**
+     * Should header lines with the given name be looked up in, and added to,
+     * this cache?
+     *
+     * @param name The header name
+     *
+     * @return <code>true</code> if the header is cacheable
+     */
+    public boolean isCacheable(String name) {
+        if (maxValuesPerName <= 0) {
+            return false;
+        }
+        if (DATE.equalsIgnoreCase(name)) {
+            return true;
+        }
+        for (String cacheableName : CACHEABLE_NAMES) {
+            if (cacheableName.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Obtain the encoded header line for the given header.
+     *
+     * @param name  The header name
+     * @param value The header value
+     *
+     * @return The encoded header line or <code>null</code> if the line is not
+     *         in the cache
+     */
+    public byte[] getLine(String name, String value) {
+        byte[] result = null;
+        if (DATE.equalsIgnoreCase(name)) {
+            DateLine dateLine = this.dateLine;
+            if (dateLine != null && dateLine.name.equals(name) &&
+                    (dateLine.value == value || dateLine.value.equals(value))) {
+                result = dateLine.line;
+            }
+        } else {
+            Map<String,byte[]> values = lines.get(name);
+            if (values != null) {
+                result = values.get(value);
+            }
+        }
+        if (result == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return result;
+    }
+
+
+    /**
+     * Add the encoded header line for the given header to the cache.
+     *
+     * @param name  The header name
+     * @param value The header value
+     * @param buf   The buffer containing the encoded header line
+     * @param off   The offset of the encoded header line within the buffer
+     * @param len   The length of the encoded header line
+     */
+    public void addLine(String name, String value, byte[] buf, int off, int len) {
+        byte[] line = Arrays.copyOfRange(buf, off, off + len);
+        if (DATE.equalsIgnoreCase(name)) {
+            dateLine = new DateLine(name, value, line);
+        } else {
+            Map<String,byte[]> values = lines.get(name);
+            if (values == null) {
+                values = new ConcurrentHashMap<>();
+                Map<String,byte[]> existing = lines.putIfAbsent(name, values);
+                if (existing != null) {
+                    values = existing;
+                }
+            }
+            if (values.size() < maxValuesPerName) {
+                values.put(value, line);
+            }
+        }
+    }
+
+
+    private static class DateLine {
+        private final String name;
+        private final String value;
+        private final byte[] line;
+
+        public DateLine(String name, String value, byte[] line) {
+            this.name = name;
+            this.value = value;
+            this.line = line;
+        }
+    }
+}
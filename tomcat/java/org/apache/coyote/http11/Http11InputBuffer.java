@@ -804,30 +804,41 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                 }
             }
 
+            // Scan the backing array directly rather than going through the
+            // ByteBuffer for every byte
+            byte[] buf = byteBuffer.array();
+            int limit = byteBuffer.limit();
             int pos = byteBuffer.position();
-            chr = byteBuffer.get();
-            if (chr == Constants.COLON) {
-                headerParsePos = HeaderParsePosition.HEADER_VALUE_START;
-                headerData.headerValue = headers.addValue(byteBuffer.array(), headerData.start,
-                        pos - headerData.start);
-                pos = byteBuffer.position();
-                // Mark the current buffer position
-                headerData.start = pos;
-                headerData.realPos = pos;
-                headerData.lastSignificantChar = pos;
-                break;
-            } else if (!HttpParser.isToken(chr)) {
-                // Non-token characters are illegal in header names
-                // Parsing continues so the error can be reported in context
-                headerData.lastSignificantChar = pos;
-                byteBuffer.position(byteBuffer.position() - 1);
-                // skipLine() will handle the error
-                return skipLine();
-            }
+            while (pos < limit) {
+                chr = buf[pos];
+                if (chr == Constants.COLON) {
+                    headerParsePos = HeaderParsePosition.HEADER_VALUE_START;
+                    headerData.headerValue = headers.addValue(buf, headerData.start,
+                            pos - headerData.start);
+                    pos++;
+                    byteBuffer.position(pos);
+                    // Mark the current buffer position
+                    headerData.start = pos;
+                    headerData.realPos = pos;
+                    headerData.lastSignificantChar = pos;
+                    break;
+                } else if (!HttpParser.isToken(chr)) {
+                    // Non-token characters are illegal in header names
+                    // Parsing continues so the error can be reported in context
+                    headerData.lastSignificantChar = pos;
+                    byteBuffer.position(pos);
+                    // skipLine() will handle the error
+                    return skipLine();
+                }
 
-            // chr is next byte of header name. Convert to lowercase.
-            if ((chr >= Constants.A) && (chr <= Constants.Z)) {
-                byteBuffer.put(pos, (byte) (chr - Constants.LC_OFFSET));
+                // chr is next byte of header name. Convert to lowercase.
+                if ((chr >= Constants.A) && (chr <= Constants.Z)) {
+                    buf[pos] = (byte) (chr - Constants.LC_OFFSET);
+                }
+                pos++;
+            }
+            if (headerParsePos == HeaderParsePosition.HEADER_NAME) {
+                byteBuffer.position(pos);
             }
         }
 
@@ -859,6 +870,16 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                     if (!(chr == Constants.SP || chr == Constants.HT)) {
                         headerParsePos = HeaderParsePosition.HEADER_VALUE;
                         byteBuffer.position(byteBuffer.position() - 1);
+                        if (headerData.realPos == headerData.start) {
+                            // First line of the value and nothing has been
+                            // copied yet. Start the value here rather than
+                            // shifting every byte of it over the skipped
+                            // whitespace.
+                            int pos = byteBuffer.position();
+                            headerData.start = pos;
+                            headerData.realPos = pos;
+                            headerData.lastSignificantChar = pos;
+                        }
                         break;
                     }
                 }
@@ -877,19 +898,34 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                         }
                     }
 
-                    chr = byteBuffer.get();
-                    if (chr == Constants.CR) {
-                        // Skip
-                    } else if (chr == Constants.LF) {
-                        eol = true;
-                    } else if (chr == Constants.SP || chr == Constants.HT) {
-                        byteBuffer.put(headerData.realPos, chr);
-                        headerData.realPos++;
-                    } else {
-                        byteBuffer.put(headerData.realPos, chr);
-                        headerData.realPos++;
-                        headerData.lastSignificantChar = headerData.realPos;
+                    // Scan the backing array directly. Bytes only need to be
+                    // moved once the value has been compacted (CR removed or
+                    // lines folded) so realPos has fallen behind pos.
+                    byte[] buf = byteBuffer.array();
+                    int limit = byteBuffer.limit();
+                    int pos = byteBuffer.position();
+                    int realPos = headerData.realPos;
+                    int lastSignificantChar = headerData.lastSignificantChar;
+                    while (pos < limit) {
+                        chr = buf[pos++];
+                        if (chr == Constants.CR) {
+                            // Skip
+                        } else if (chr == Constants.LF) {
+                            eol = true;
+                            break;
+                        } else {
+                            if (realPos != pos - 1) {
+                                buf[realPos] = chr;
+                            }
+                            realPos++;
+                            if (chr != Constants.SP && chr != Constants.HT) {
+                                lastSignificantChar = realPos;
+                            }
+                        }
                     }
+                    byteBuffer.position(pos);
+                    headerData.realPos = realPos;
+                    headerData.lastSignificantChar = lastSignificantChar;
                 }
 
                 // Ignore whitespaces at the end of the line
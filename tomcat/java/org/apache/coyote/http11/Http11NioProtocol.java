@@ -27,16 +27,20 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
 
     // -------------------- Pool setup --------------------
 
-    /**
-     * NO-OP.
-     *
-     * @param count Unused
-     */
     public void setPollerThreadCount(int count) {
+        ((NioEndpoint) getEndpoint()).setPollerThreadCount(count);
     }
 
     public int getPollerThreadCount() {
-        return 1;
+        return ((NioEndpoint) getEndpoint()).getPollerThreadCount();
+    }
+
+    public void setPollerSelectionPolicy(String pollerSelectionPolicy) {
+        ((NioEndpoint) getEndpoint()).setPollerSelectionPolicy(pollerSelectionPolicy);
+    }
+
+    public String getPollerSelectionPolicy() {
+        return ((NioEndpoint) getEndpoint()).getPollerSelectionPolicy();
     }
 
     public void setSelectorTimeout(long timeout) {
@@ -55,6 +59,46 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         return ((NioEndpoint) getEndpoint()).getPollerThreadPriority();
     }
 
+    public void setPreBufferRequests(boolean preBufferRequests) {
+        ((NioEndpoint) getEndpoint()).setPreBufferRequests(preBufferRequests);
+    }
+
+    public boolean getPreBufferRequests() {
+        return ((NioEndpoint) getEndpoint()).getPreBufferRequests();
+    }
+
+    public void setPreBufferMaxBodySize(long preBufferMaxBodySize) {
+        ((NioEndpoint) getEndpoint()).setPreBufferMaxBodySize(preBufferMaxBodySize);
+    }
+
+    public long getPreBufferMaxBodySize() {
+        return ((NioEndpoint) getEndpoint()).getPreBufferMaxBodySize();
+    }
+
+    public void setPreBufferSpillThreshold(int preBufferSpillThreshold) {
+        ((NioEndpoint) getEndpoint()).setPreBufferSpillThreshold(preBufferSpillThreshold);
+    }
+
+    public int getPreBufferSpillThreshold() {
+        return ((NioEndpoint) getEndpoint()).getPreBufferSpillThreshold();
+    }
+
+    public void setDrainResponses(boolean drainResponses) {
+        ((NioEndpoint) getEndpoint()).setDrainResponses(drainResponses);
+    }
+
+    public boolean getDrainResponses() {
+        return ((NioEndpoint) getEndpoint()).getDrainResponses();
+    }
+
+    public void setMaxDrainSize(int maxDrainSize) {
+        ((NioEndpoint) getEndpoint()).setMaxDrainSize(maxDrainSize);
+    }
+
+    public int getMaxDrainSize() {
+        return ((NioEndpoint) getEndpoint()).getMaxDrainSize();
+    }
+
 
     // ----------------------------------------------------- JMX related methods
 
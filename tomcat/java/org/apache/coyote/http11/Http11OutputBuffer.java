@@ -64,6 +64,15 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     protected final ByteBuffer headerBuffer;
 
 
+    /**
+     * Has the response been committed with the response headers still held
+     * in {@link #headerBuffer}? For blocking IO, writing the headers is
+     * deferred until the first write of the response body (or a flush) so
+     * that the headers and the body can be written to the network together.
+     */
+    protected boolean headersPending;
+
+
     /**
      * Filter library for processing the response body.
      */
@@ -100,9 +109,37 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     protected long byteCount = 0;
 
 
+    /**
+     * Network write count of the socket when the current response started.
+     */
+    private long networkWriteCountStart = 0;
+
+
+    /**
+     * The maximum number of bytes of response data that may be held in memory
+     * rather than blocking the writing thread so that the data can be drained
+     * by the endpoint once the response is complete. -1 if response data is
+     * not drained.
+     */
+    private int maxDrainSize = -1;
+
+
+    /**
+     * Shared cache of encoded header lines. May be <code>null</code>.
+     */
+    private final HeaderLineCache headerLineCache;
+
+
     protected Http11OutputBuffer(Response response, int headerBufferSize) {
+        this(response, headerBufferSize, null);
+    }
+
+
+    protected Http11OutputBuffer(Response response, int headerBufferSize,
+            HeaderLineCache headerLineCache) {
 
         this.response = response;
+        this.headerLineCache = headerLineCache;
 
         headerBuffer = ByteBuffer.allocate(headerBufferSize);
 
@@ -222,6 +259,10 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     @Override
     public void end() throws IOException {
         if (responseFinished) {
+            // The response may have been committed after an HTTP upgrade.
+            // Pass the headers to the socket as they would have been if the
+            // write had not been deferred.
+            writePendingHeaders(isBlocking());
             return;
         }
 
@@ -231,6 +272,12 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
             activeFilters[lastActiveFilter].end();
         }
 
+        SocketWrapperBase<?> socketWrapper = this.socketWrapper;
+        if (socketWrapper != null) {
+            response.setNetworkWriteCount(
+                    socketWrapper.getNetworkWriteCount() - networkWriteCountStart);
+        }
+
         responseFinished = true;
     }
 
@@ -243,6 +290,7 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      */
     void resetHeaderBuffer() {
         headerBuffer.position(0).limit(headerBuffer.capacity());
+        headersPending = false;
     }
 
 
@@ -271,14 +319,39 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
         response.recycle();
         // Reset pointers
         headerBuffer.position(0).limit(headerBuffer.capacity());
+        headersPending = false;
         lastActiveFilter = -1;
         responseFinished = false;
         byteCount = 0;
+        if (socketWrapper != null) {
+            networkWriteCountStart = socketWrapper.getNetworkWriteCount();
+            maxDrainSize = socketWrapper.getMaxDrainSize();
+        }
     }
 
 
     public void init(SocketWrapperBase<?> socketWrapper) {
         this.socketWrapper = socketWrapper;
+        networkWriteCountStart = socketWrapper.getNetworkWriteCount();
+        maxDrainSize = socketWrapper.getMaxDrainSize();
+    }
+
+
+    /**
+     * Stop holding response data in memory for the endpoint to drain. Any data
+     * already held is written using a blocking write. Used when the response
+     * will not be completed by the processor handing the connection to the
+     * endpoint, e.g. for asynchronous requests, upgrades and sendfile.
+     *
+     * @throws IOException If an I/O error occurs while writing the held data
+     */
+    public void disableDrain() throws IOException {
+        if (maxDrainSize >= 0) {
+            maxDrainSize = -1;
+            if (socketWrapper != null && socketWrapper.hasDataToWrite()) {
+                socketWrapper.flush(true);
+            }
+        }
     }
 
 
@@ -301,17 +374,36 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
         response.setCommitted(true);
 
         if (headerBuffer.position() > 0) {
-            // Sending the response header buffer
+            // For blocking IO, the response header buffer is sent with the
+            // first write of the response body
+            if (socketWrapper == null) {
+                headerBuffer.position(0).limit(headerBuffer.capacity());
+                throw new CloseNowException(sm.getString("iob.failedwrite"));
+            }
             headerBuffer.flip();
+            headersPending = true;
+            if (!isBlocking()) {
+                // Deferring the headers would change the result of isReady()
+                writePendingHeaders(false);
+            }
+        }
+    }
+
+
+    /**
+     * Passes any response headers still held in the header buffer to the
+     * socket.
+     *
+     * @param block Should a blocking write be used
+     *
+     * @throws IOException If an I/O error occurs while writing the headers
+     */
+    private void writePendingHeaders(boolean block) throws IOException {
+        if (headersPending) {
             try {
-                SocketWrapperBase<?> socketWrapper = this.socketWrapper;
-                if (socketWrapper != null) {
-                    socketWrapper.write(isBlocking(), headerBuffer);
-                } else {
-                    throw new CloseNowException(sm.getString("iob.failedwrite"));
-                }
+                socketWrapper.write(block, headerBuffer);
             } finally {
-                headerBuffer.position(0).limit(headerBuffer.capacity());
+                resetHeaderBuffer();
             }
         }
     }
@@ -358,10 +450,35 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      * @param value Header value
      */
     public void sendHeader(MessageBytes name, MessageBytes value) {
+        String cacheName = null;
+        String cacheValue = null;
+        if (headerLineCache != null && name.getType() == MessageBytes.T_STR &&
+                value.getType() == MessageBytes.T_STR) {
+            cacheName = name.getString();
+            if (headerLineCache.isCacheable(cacheName)) {
+                cacheValue = value.getString();
+                byte[] line = headerLineCache.getLine(cacheName, cacheValue);
+                if (line != null) {
+                    // "+ 2": Same space reservation as checkLengthBeforeWrite()
+                    // once the CR/LF at the end of the line is accounted for
+                    if (headerBuffer.position() + line.length + 2 > headerBuffer.capacity()) {
+                        throw new HeadersTooLargeException(
+                                sm.getString("iob.responseheadertoolarge.error"));
+                    }
+                    headerBuffer.put(line);
+                    return;
+                }
+            }
+        }
+        int start = headerBuffer.position();
         write(name);
         headerBuffer.put(Constants.COLON).put(Constants.SP);
         write(value);
         headerBuffer.put(Constants.CR).put(Constants.LF);
+        if (cacheValue != null) {
+            headerLineCache.addLine(cacheName, cacheValue, headerBuffer.array(),
+                    headerBuffer.arrayOffset() + start, headerBuffer.position() - start);
+        }
     }
 
 
@@ -477,6 +594,7 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      * @throws IOException Error writing data
      */
     protected boolean flushBuffer(boolean block) throws IOException  {
+        writePendingHeaders(block);
         return socketWrapper.flush(block);
     }
 
@@ -490,6 +608,29 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     }
 
 
+    /*
+     * Determines the type of write to use for the given amount of data. When
+     * responses are drained by the endpoint, writes from blocking IO do not
+     * block while the data held in memory remains within the limit. Once the
+     * limit would be exceeded, the held data is written and blocking writes
+     * are used.
+     */
+    private boolean isBlockingWrite(long len) throws IOException {
+        if (!isBlocking()) {
+            return false;
+        }
+        if (maxDrainSize >= 0) {
+            if (socketWrapper.getPendingWriteSize() + len <= maxDrainSize) {
+                return false;
+            }
+            if (socketWrapper.hasDataToWrite()) {
+                socketWrapper.flush(true);
+            }
+        }
+        return true;
+    }
+
+
     protected final boolean isReady() {
         boolean result = !hasDataToWrite();
         if (!result) {
@@ -500,7 +641,7 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
 
 
     public boolean hasDataToWrite() {
-        return socketWrapper.hasDataToWrite();
+        return headersPending || socketWrapper.hasDataToWrite();
     }
 
 
@@ -531,11 +672,17 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
          */
         @Override
         public int doWrite(ByteBuffer chunk) throws IOException {
+            if (headersPending || (chunk.isDirect() && isBlocking())) {
+                // Direct buffers can be written to the network (or passed to
+                // the TLS engine) without first being copied into the socket
+                // write buffer
+                return doWrite(new ByteBuffer[] { chunk });
+            }
             try {
                 int len = chunk.remaining();
                 SocketWrapperBase<?> socketWrapper = Http11OutputBuffer.this.socketWrapper;
                 if (socketWrapper != null) {
-                    socketWrapper.write(isBlocking(), chunk);
+                    socketWrapper.write(isBlockingWrite(len), chunk);
                 } else {
                     throw new CloseNowException(sm.getString("iob.failedwrite"));
                 }
@@ -549,6 +696,46 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
             }
         }
 
+        /**
+         * Write the chunks, together with any pending response headers, using
+         * a single gathering write where possible.
+         */
+        @Override
+        public int doWrite(ByteBuffer[] chunks) throws IOException {
+            try {
+                int len = 0;
+                for (ByteBuffer chunk : chunks) {
+                    len += chunk.remaining();
+                }
+                SocketWrapperBase<?> socketWrapper = Http11OutputBuffer.this.socketWrapper;
+                if (socketWrapper != null) {
+                    if (headersPending) {
+                        ByteBuffer[] buffers = new ByteBuffer[chunks.length + 1];
+                        buffers[0] = headerBuffer;
+                        System.arraycopy(chunks, 0, buffers, 1, chunks.length);
+                        try {
+                            socketWrapper.write(isBlockingWrite(len + headerBuffer.remaining()), buffers);
+                        } finally {
+                            resetHeaderBuffer();
+                        }
+                    } else {
+                        socketWrapper.write(isBlockingWrite(len), chunks);
+                    }
+                } else {
+                    throw new CloseNowException(sm.getString("iob.failedwrite"));
+                }
+                for (ByteBuffer chunk : chunks) {
+                    len -= chunk.remaining();
+                }
+                byteCount += len;
+                return len;
+            } catch (IOException ioe) {
+                response.action(ActionCode.CLOSE_NOW, ioe);
+                // Re-throw
+                throw ioe;
+            }
+        }
+
         @Override
         public long getBytesWritten() {
             return byteCount;
@@ -556,11 +743,20 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
 
         @Override
         public void end() throws IOException {
-            socketWrapper.flush(true);
+            if (maxDrainSize < 0) {
+                writePendingHeaders(true);
+                socketWrapper.flush(true);
+            } else {
+                // Whatever can't be written now will be drained by the
+                // endpoint once the processor has finished with the response
+                writePendingHeaders(false);
+                socketWrapper.flush(false);
+            }
         }
 
         @Override
         public void flush() throws IOException {
+            writePendingHeaders(isBlocking());
             socketWrapper.flush(isBlocking());
         }
     }
@@ -128,7 +128,8 @@ public class Http11Processor extends AbstractProcessor {
         inputBuffer = new Http11InputBuffer(request, protocol.getMaxHttpHeaderSize(), protocol.getRejectIllegalHeaderName(), httpParser);
         request.setInputBuffer(inputBuffer);
 
-        outputBuffer = new Http11OutputBuffer(response, protocol.getMaxHttpHeaderSize());
+        outputBuffer = new Http11OutputBuffer(response, protocol.getMaxHttpHeaderSize(),
+                protocol.getHeaderLineCache());
         response.setOutputBuffer(outputBuffer);
 
         // Create and add the identity filters.
@@ -150,7 +151,7 @@ public class Http11Processor extends AbstractProcessor {
 
         // Create and add the gzip filters.
         //inputBuffer.addFilter(new GzipInputFilter());
-        outputBuffer.addFilter(new GzipOutputFilter());
+        outputBuffer.addFilter(new GzipOutputFilter(protocol.getCompressionConfig()));
 
         pluggableFilterIndex = inputBuffer.getFilters().length;
     }
@@ -1066,7 +1067,7 @@ public class Http11Processor extends AbstractProcessor {
         if (getErrorState().isIoAllowed()) {
             try {
                 action(ActionCode.COMMIT, null);
-                outputBuffer.end();
+                finishResponse();
             } catch (IOException e) {
                 setErrorState(ErrorState.CLOSE_CONNECTION_NOW, e);
             } catch (Throwable t) {
@@ -1080,6 +1081,14 @@ public class Http11Processor extends AbstractProcessor {
 
     @Override
     protected final void finishResponse() throws IOException {
+        if (isAsync() || upgradeToken != null || sendfileData != null ||
+                getErrorState().isError() || protocol.isPaused()) {
+            // The connection can't be handed to the endpoint to drain the
+            // response once the request has been processed. If the
+            // connection is going to be closed, write the response
+            // completely before it is.
+            outputBuffer.disableDrain();
+        }
         outputBuffer.end();
     }
 
@@ -1237,7 +1246,8 @@ public class Http11Processor extends AbstractProcessor {
 
 
     /**
-     * Trigger sendfile processing if required.
+     * Trigger sendfile processing, or draining of any response data that could
+     * not be written without blocking, if required.
      *
      * @return The state of send file processing
      */
@@ -1247,15 +1257,7 @@ public class Http11Processor extends AbstractProcessor {
         SendfileState result = SendfileState.DONE;
         // Do sendfile as needed: add socket to sendfile and end
         if (sendfileData != null && !getErrorState().isError()) {
-            if (keepAlive) {
-                if (available(false) == 0) {
-                    sendfileData.keepAliveState = SendfileKeepAliveState.OPEN;
-                } else {
-                    sendfileData.keepAliveState = SendfileKeepAliveState.PIPELINED;
-                }
-            } else {
-                sendfileData.keepAliveState = SendfileKeepAliveState.NONE;
-            }
+            sendfileData.keepAliveState = getKeepAliveState();
             result = socketWrapper.processSendfile(sendfileData);
             switch (result) {
                 case ERROR:
@@ -1268,11 +1270,43 @@ public class Http11Processor extends AbstractProcessor {
                 default:
                     sendfileData = null;
             }
+        } else if (!getErrorState().isError() && !protocol.isPaused() &&
+                !isAsync() && upgradeToken == null) {
+            result = socketWrapper.processDrain(getKeepAliveState());
+            if (result == SendfileState.ERROR) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("http11processor.drain.error"));
+                }
+                setErrorState(ErrorState.CLOSE_CONNECTION_NOW, null);
+            }
+        } else if ((getErrorState().isError() || protocol.isPaused()) &&
+                getErrorState().isIoAllowed() && !isAsync() && upgradeToken == null &&
+                socketWrapper.hasDataToWrite()) {
+            // The connection is about to be closed so it can't be drained.
+            // Write any response data that is still held before it is.
+            try {
+                socketWrapper.flush(true);
+            } catch (IOException e) {
+                setErrorState(ErrorState.CLOSE_CONNECTION_NOW, e);
+            }
         }
         return result;
     }
 
 
+    private SendfileKeepAliveState getKeepAliveState() {
+        if (keepAlive) {
+            if (available(false) == 0) {
+                return SendfileKeepAliveState.OPEN;
+            } else {
+                return SendfileKeepAliveState.PIPELINED;
+            }
+        } else {
+            return SendfileKeepAliveState.NONE;
+        }
+    }
+
+
     @Override
     public final void recycle() {
         getAdapter().checkRecycled(request, response);
@@ -17,6 +17,7 @@
 package org.apache.coyote.http11;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.apache.coyote.OutputBuffer;
 
@@ -37,4 +38,23 @@ public interface HttpOutputBuffer extends OutputBuffer {
      * @throws IOException If an I/O error occurs while flushing
      */
     public void flush() throws IOException;
+
+    /**
+     * Write the provided buffers, in order. The default implementation calls
+     * {@link #doWrite(ByteBuffer)} for each buffer. Implementations that write
+     * to the network may write all the buffers with a single gathering write.
+     *
+     * @param chunks The buffers containing the data to write
+     *
+     * @return The number of bytes written
+     *
+     * @throws IOException If an I/O error occurs while writing to the client
+     */
+    public default int doWrite(ByteBuffer[] chunks) throws IOException {
+        int result = 0;
+        for (ByteBuffer chunk : chunks) {
+            result += doWrite(chunk);
+        }
+        return result;
+    }
 }
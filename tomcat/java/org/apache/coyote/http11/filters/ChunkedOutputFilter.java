@@ -83,6 +83,11 @@ public class ChunkedOutputFilter implements OutputFilter {
      */
     protected final ByteBuffer endChunk = ByteBuffer.wrap(END_CHUNK_BYTES);
 
+    /**
+     * Chunk header, chunk data and trailing CRLF for a single chunk.
+     */
+    private final ByteBuffer[] chunkBuffers = new ByteBuffer[] { chunkHeader, null, crlfChunk };
+
 
     private Response response;
 
@@ -106,13 +111,17 @@ public class ChunkedOutputFilter implements OutputFilter {
 
         int pos = calculateChunkHeader(result);
 
+        // Pass the chunk header, the chunk and the trailing CRLF to the next
+        // buffer together so they may be written with a single gathering
+        // write
         chunkHeader.position(pos).limit(10);
-        buffer.doWrite(chunkHeader);
-
-        buffer.doWrite(chunk);
-
-        chunkHeader.position(8).limit(10);
-        buffer.doWrite(chunkHeader);
+        chunkBuffers[1] = chunk;
+        try {
+            buffer.doWrite(chunkBuffers);
+        } finally {
+            chunkBuffers[1] = null;
+            crlfChunk.position(0).limit(crlfChunk.capacity());
+        }
 
         return result;
     }
@@ -19,8 +19,11 @@ package org.apache.coyote.http11.filters;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
+import org.apache.coyote.CompressionConfig;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.HttpOutputBuffer;
 import org.apache.coyote.http11.OutputFilter;
@@ -29,6 +32,10 @@ import org.apache.juli.logging.LogFactory;
 
 /**
  * Gzip output filter.
+ * <p>
+ * The {@link Deflater} used to compress a response is obtained from the
+ * {@link CompressionConfig} when compression starts and returned to it, for
+ * re-use by subsequent responses, once the response is complete.
  *
  * @author Remy Maucherat
  */
@@ -36,6 +43,20 @@ public class GzipOutputFilter implements OutputFilter {
 
     protected static final Log log = LogFactory.getLog(GzipOutputFilter.class);
 
+    /*
+     * Used when no configuration is provided.
+     */
+    private static final CompressionConfig DEFAULT_COMPRESSION_CONFIG = new CompressionConfig();
+
+    /*
+     * Header of a gzip member with no optional fields. The same header as
+     * written by GZIPOutputStream.
+     */
+    private static final byte[] GZIP_HEADER = new byte[] {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
 
     // ----------------------------------------------------- Instance Variables
 
@@ -47,30 +68,80 @@ public class GzipOutputFilter implements OutputFilter {
 
     /**
      * Compression output stream.
+     *
+     * @deprecated Unused. Will be removed in Tomcat 10.
      */
+    @Deprecated
     protected GZIPOutputStream compressionStream = null;
 
 
     /**
      * Fake internal output stream.
+     *
+     * @deprecated Unused. Will be removed in Tomcat 10.
      */
+    @Deprecated
     protected final OutputStream fakeOutputStream = new FakeOutputStream();
 
 
+    private final CompressionConfig compressionConfig;
+
+    /*
+     * Only non-null while a response is being compressed.
+     */
+    private Deflater deflater = null;
+
+    private final CRC32 crc = new CRC32();
+
+    /*
+     * Compressed data that has yet to be passed to the next buffer is held in
+     * outputBuffer[0..outputPosition).
+     */
+    private byte[] outputBuffer = new byte[0];
+    private int outputPosition = 0;
+
+    private Response response = null;
+
+    /*
+     * Is the response a stream of server-sent events that must be flushed
+     * regardless of the flush mode?
+     */
+    private boolean eventStream = false;
+
+
+    public GzipOutputFilter() {
+        this(null);
+    }
+
+
+    /**
+     * Create a filter that uses the given configuration for the compression
+     * level, strategy, buffer size and flush mode.
+     *
+     * @param compressionConfig The compression configuration or
+     *                          <code>null</code> to use the defaults
+     */
+    public GzipOutputFilter(CompressionConfig compressionConfig) {
+        if (compressionConfig == null) {
+            this.compressionConfig = DEFAULT_COMPRESSION_CONFIG;
+        } else {
+            this.compressionConfig = compressionConfig;
+        }
+    }
+
+
     // --------------------------------------------------- OutputBuffer Methods
 
     @Override
     public int doWrite(ByteBuffer chunk) throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
-        }
+        start();
         int len = chunk.remaining();
         if (chunk.hasArray()) {
-            compressionStream.write(chunk.array(), chunk.arrayOffset() + chunk.position(), len);
+            deflate(chunk.array(), chunk.arrayOffset() + chunk.position(), len);
         } else {
             byte[] bytes = new byte[len];
-            chunk.put(bytes);
-            compressionStream.write(bytes, 0, len);
+            chunk.duplicate().get(bytes);
+            deflate(bytes, 0, len);
         }
         return len;
     }
@@ -89,12 +160,22 @@ public class GzipOutputFilter implements OutputFilter {
      */
     @Override
     public void flush() throws IOException {
-        if (compressionStream != null) {
+        if (deflater != null) {
             try {
                 if (log.isDebugEnabled()) {
                     log.debug("Flushing the compression stream!");
                 }
-                compressionStream.flush();
+                int flushMode = compressionConfig.getDeflateFlushModeValue();
+                if (flushMode == Deflater.NO_FLUSH && eventStream) {
+                    flushMode = Deflater.SYNC_FLUSH;
+                }
+                if (flushMode != Deflater.NO_FLUSH) {
+                    do {
+                        deflateToOutputBuffer(flushMode);
+                        // A full output buffer means there may be more data
+                    } while (outputPosition == outputBuffer.length);
+                }
+                writeOutputBuffer();
             } catch (IOException e) {
                 if (log.isDebugEnabled()) {
                     log.debug("Ignored exception while flushing gzip filter", e);
@@ -107,7 +188,7 @@ public class GzipOutputFilter implements OutputFilter {
 
     @Override
     public void setResponse(Response response) {
-        // NOOP: No need for parameters from response in this filter
+        this.response = response;
     }
 
 
@@ -119,11 +200,18 @@ public class GzipOutputFilter implements OutputFilter {
 
     @Override
     public void end() throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
+        start();
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflateToOutputBuffer(Deflater.NO_FLUSH);
+        }
+        if (outputBuffer.length - outputPosition < GZIP_TRAILER_LENGTH) {
+            writeOutputBuffer();
         }
-        compressionStream.finish();
-        compressionStream.close();
+        writeInt((int) crc.getValue());
+        writeInt((int) deflater.getBytesRead());
+        writeOutputBuffer();
+        releaseDeflater();
         buffer.end();
     }
 
@@ -133,14 +221,88 @@ public class GzipOutputFilter implements OutputFilter {
      */
     @Override
     public void recycle() {
-        // Set compression stream to null
-        compressionStream = null;
+        releaseDeflater();
+        outputPosition = 0;
+        eventStream = false;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private void start() throws IOException {
+        if (deflater != null) {
+            return;
+        }
+        deflater = compressionConfig.borrowDeflater();
+        crc.reset();
+        // The content type can't change once the response has been committed
+        String contentType = response == null ? null : response.getContentType();
+        eventStream = contentType != null && contentType.startsWith("text/event-stream");
+        int bufferSize = Math.max(GZIP_HEADER.length + GZIP_TRAILER_LENGTH,
+                compressionConfig.getDeflateBufferSize());
+        if (outputBuffer.length != bufferSize) {
+            outputBuffer = new byte[bufferSize];
+        }
+        // The header is sent with the first compressed data
+        System.arraycopy(GZIP_HEADER, 0, outputBuffer, 0, GZIP_HEADER.length);
+        outputPosition = GZIP_HEADER.length;
+    }
+
+
+    private void deflate(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflateToOutputBuffer(Deflater.NO_FLUSH);
+        }
+    }
+
+
+    private void deflateToOutputBuffer(int flushMode) throws IOException {
+        if (outputPosition == outputBuffer.length) {
+            writeOutputBuffer();
+        }
+        outputPosition += deflater.deflate(outputBuffer, outputPosition,
+                outputBuffer.length - outputPosition, flushMode);
+    }
+
+
+    private void writeOutputBuffer() throws IOException {
+        if (outputPosition > 0) {
+            buffer.doWrite(ByteBuffer.wrap(outputBuffer, 0, outputPosition));
+            outputPosition = 0;
+        }
+    }
+
+
+    /*
+     * Little-endian, as required by the gzip format.
+     */
+    private void writeInt(int i) {
+        outputBuffer[outputPosition++] = (byte) i;
+        outputBuffer[outputPosition++] = (byte) (i >> 8);
+        outputBuffer[outputPosition++] = (byte) (i >> 16);
+        outputBuffer[outputPosition++] = (byte) (i >> 24);
+    }
+
+
+    private void releaseDeflater() {
+        if (deflater != null) {
+            compressionConfig.returnDeflater(deflater);
+            deflater = null;
+        }
     }
 
 
     // ------------------------------------------- FakeOutputStream Inner Class
 
 
+    /**
+     * Passes data written to it to the next buffer in the pipeline.
+     *
+     * @deprecated Unused. Will be removed in Tomcat 10.
+     */
+    @Deprecated
     protected class FakeOutputStream
         extends OutputStream {
         protected final ByteBuffer outputChunk = ByteBuffer.allocate(1);
@@ -162,6 +324,4 @@ public class GzipOutputFilter implements OutputFilter {
         @Override
         public void close() throws IOException {/*NOOP*/}
     }
-
-
 }
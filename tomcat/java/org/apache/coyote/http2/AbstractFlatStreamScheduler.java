@@ -0,0 +1,93 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.coyote.http2.Http2UpgradeHandler.BacklogTracker;
+
+/**
+ * Base class for schedulers that ignore the shape of the priority tree and
+ * only consider the streams that are waiting for an allocation. The entries
+ * added to the backlog for the ancestors of blocked streams are not required
+ * by these schedulers and are removed.
+ */
+abstract class AbstractFlatStreamScheduler implements StreamScheduler {
+
+    private static final Comparator<Entry<AbstractStream,BacklogTracker>> BY_ID =
+            new Comparator<Entry<AbstractStream,BacklogTracker>>() {
+        @Override
+        public int compare(Entry<AbstractStream,BacklogTracker> o1,
+                Entry<AbstractStream,BacklogTracker> o2) {
+            return o1.getKey().getIdentifier().compareTo(o2.getKey().getIdentifier());
+        }
+    };
+
+
+    @Override
+    public int allocate(AbstractStream connection, Map<AbstractStream,BacklogTracker> backLog,
+            int allocation) {
+        List<Entry<AbstractStream,BacklogTracker>> waiting = new ArrayList<>();
+        Iterator<Entry<AbstractStream,BacklogTracker>> iter = backLog.entrySet().iterator();
+        while (iter.hasNext()) {
+            Entry<AbstractStream,BacklogTracker> entry = iter.next();
+            BacklogTracker tracker = entry.getValue();
+            if (tracker.getRemainingReservation() > 0) {
+                waiting.add(entry);
+            } else if (tracker.getUnusedAllocation() == 0) {
+                iter.remove();
+            }
+        }
+        if (waiting.size() == 0) {
+            return allocation;
+        }
+        // Map iteration order is undefined. Sort so allocation is repeatable.
+        Collections.sort(waiting, BY_ID);
+        return allocate(waiting, allocation);
+    }
+
+
+    /**
+     * Allocate some or all of the given number of bytes to the waiting
+     * streams.
+     *
+     * @param waiting    The streams with a remaining reservation, in stream
+     *                   identifier order
+     * @param allocation The number of bytes available for allocation
+     *
+     * @return The number of bytes that were not allocated
+     */
+    protected abstract int allocate(List<Entry<AbstractStream,BacklogTracker>> waiting,
+            int allocation);
+
+
+    static int getDepth(AbstractStream stream) {
+        int depth = 0;
+        AbstractStream parent = stream.getParentStream();
+        while (parent != null) {
+            depth++;
+            parent = parent.getParentStream();
+        }
+        return depth;
+    }
+}
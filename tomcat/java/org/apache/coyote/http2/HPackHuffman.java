@@ -430,7 +430,7 @@ public class HPackHuffman {
 
     /**
      * Encodes the given string into the buffer. If there is not enough space in
-     * the buffer, or the encoded version is bigger than the original it will
+     * the buffer, or the encoded version is not smaller than the original it will
      * return false and not modify the buffers position.
      *
      * @param buffer   The buffer to encode into
@@ -460,6 +460,10 @@ public class HPackHuffman {
             length += code.length;
         }
         int byteLength = length / 8 + (length % 8 == 0 ? 0 : 1);
+        if (byteLength >= toEncode.length()) {
+            // No saving so don't use Huffman encoding
+            return false;
+        }
 
         buffer.put((byte) (1 << 7));
         Hpack.encodeInteger(buffer, byteLength, 7);
@@ -30,6 +30,11 @@ class HeaderSink implements HeaderEmitter {
         // NO-OP
     }
 
+    @Override
+    public void emitHeader(String name, CharSequence value) {
+        // NO-OP
+    }
+
     @Override
     public void validateHeaders() throws StreamException {
         // NO-OP
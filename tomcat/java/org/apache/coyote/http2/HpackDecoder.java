@@ -29,6 +29,9 @@ public class HpackDecoder {
 
     private static final int DEFAULT_RING_BUFFER_SIZE = 10;
 
+    // Must be a power of two
+    private static final int NAME_CACHE_SIZE = 128;
+
     /**
      * The object that receives the headers that are emitted from this decoder
      */
@@ -74,10 +77,26 @@ public class HpackDecoder {
 
     private final StringBuilder stringBuilder = new StringBuilder();
 
+    /**
+     * Header names sent as literals, indexed by hash. Clients commonly send
+     * the same non-standard header names (x-forwarded-for etc.) as literals on
+     * every stream so this allows a single String instance to be shared.
+     */
+    private final String[] nameCache = new String[NAME_CACHE_SIZE];
+
     HpackDecoder(int maxMemorySize) {
         this.maxMemorySizeHard = maxMemorySize;
         this.maxMemorySizeSoft = maxMemorySize;
         headerTable = new Hpack.HeaderField[DEFAULT_RING_BUFFER_SIZE];
+        // Static table names are only added if the slot is free so the names
+        // with the lowest indexes are retained
+        for (int i = 1; i <= Hpack.STATIC_TABLE_LENGTH; i++) {
+            String name = Hpack.STATIC_TABLE[i].name;
+            int slot = getNameCacheSlot(name);
+            if (nameCache[slot] == null) {
+                nameCache[slot] = name;
+            }
+        }
     }
 
     HpackDecoder() {
@@ -125,30 +144,16 @@ public class HpackDecoder {
                 addEntryToHeaderTable(new Hpack.HeaderField(headerName, headerValue));
             } else if ((b & 0b11110000) == 0) {
                 //Literal Header Field without Indexing
-                String headerName = readHeaderName(buffer, 4);
-                if (headerName == null) {
+                if (!readAndEmitLiteralHeader(buffer)) {
                     buffer.position(originalPos);
                     return;
                 }
-                String headerValue = readHpackString(buffer);
-                if (headerValue == null) {
-                    buffer.position(originalPos);
-                    return;
-                }
-                emitHeader(headerName, headerValue);
             } else if ((b & 0b11110000) == 0b00010000) {
                 //Literal Header Field never indexed
-                String headerName = readHeaderName(buffer, 4);
-                if (headerName == null) {
-                    buffer.position(originalPos);
-                    return;
-                }
-                String headerValue = readHpackString(buffer);
-                if (headerValue == null) {
+                if (!readAndEmitLiteralHeader(buffer)) {
                     buffer.position(originalPos);
                     return;
                 }
-                emitHeader(headerName, headerValue);
             } else if ((b & 0b11100000) == 0b00100000) {
                 //context update max table size change
                 if (!handleMaxMemorySizeChange(buffer, originalPos)) {
@@ -196,6 +201,31 @@ public class HpackDecoder {
         return true;
     }
 
+    /**
+     * Reads the name and value of a header that is not added to the dynamic
+     * table and emits it. The value is passed to the emitter directly from
+     * {@link #stringBuilder} so no String is created for it.
+     *
+     * @return <code>false</code> if there was insufficient data to read the
+     *         complete header
+     */
+    private boolean readAndEmitLiteralHeader(ByteBuffer buffer) throws HpackException {
+        String headerName = readHeaderName(buffer, 4);
+        if (headerName == null) {
+            return false;
+        }
+        if (!readHpackStringToBuilder(buffer)) {
+            stringBuilder.setLength(0);
+            return false;
+        }
+        try {
+            emitHeader(headerName, stringBuilder);
+        } finally {
+            stringBuilder.setLength(0);
+        }
+        return true;
+    }
+
     private String readHeaderName(ByteBuffer buffer, int prefixLength) throws HpackException {
         buffer.position(buffer.position() - 1); //unget the byte
         int index = Hpack.decodeInteger(buffer, prefixLength);
@@ -204,37 +234,70 @@ public class HpackDecoder {
         } else if (index != 0) {
             return handleIndexedHeaderName(index);
         } else {
-            return readHpackString(buffer);
+            if (!readHpackStringToBuilder(buffer)) {
+                stringBuilder.setLength(0);
+                return null;
+            }
+            String ret = getSharedName(stringBuilder);
+            stringBuilder.setLength(0);
+            return ret;
         }
     }
 
     private String readHpackString(ByteBuffer buffer) throws HpackException {
-        if (!buffer.hasRemaining()) {
+        if (!readHpackStringToBuilder(buffer)) {
+            stringBuilder.setLength(0);
             return null;
         }
+        String ret = stringBuilder.toString();
+        stringBuilder.setLength(0);
+        return ret;
+    }
+
+    private boolean readHpackStringToBuilder(ByteBuffer buffer) throws HpackException {
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
         byte data = buffer.get(buffer.position());
 
         int length = Hpack.decodeInteger(buffer, 7);
-        if (buffer.remaining() < length) {
-            return null;
+        if (length == -1 || buffer.remaining() < length) {
+            return false;
         }
         boolean huffman = (data & 0b10000000) != 0;
         if (huffman) {
-            return readHuffmanString(length, buffer);
+            HPackHuffman.decode(buffer, length, stringBuilder);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                stringBuilder.append((char) buffer.get());
+            }
         }
-        for (int i = 0; i < length; ++i) {
-            stringBuilder.append((char) buffer.get());
+        return true;
+    }
+
+    /**
+     * Obtain a String for the header name held in the given builder. Names
+     * that have been seen before on this connection (including all the names
+     * in the static table) are returned as the previously created instance.
+     */
+    private String getSharedName(StringBuilder name) {
+        int slot = getNameCacheSlot(name);
+        String cached = nameCache[slot];
+        if (cached != null && cached.contentEquals(name)) {
+            return cached;
         }
-        String ret = stringBuilder.toString();
-        stringBuilder.setLength(0);
-        return ret;
+        String result = name.toString();
+        nameCache[slot] = result;
+        return result;
     }
 
-    private String readHuffmanString(int length, ByteBuffer buffer) throws HpackException {
-        HPackHuffman.decode(buffer, length, stringBuilder);
-        String ret = stringBuilder.toString();
-        stringBuilder.setLength(0);
-        return ret;
+    private static int getNameCacheSlot(CharSequence name) {
+        int hash = 0;
+        int len = name.length();
+        for (int i = 0; i < len; i++) {
+            hash = 31 * hash + name.charAt(i);
+        }
+        return (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
     }
 
     private String handleIndexedHeaderName(int index) throws HpackException {
@@ -361,6 +424,21 @@ public class HpackDecoder {
          */
         void emitHeader(String name, String value) throws HpackException;
 
+        /**
+         * Pass a single header to the recipient. This is used for header
+         * values that are not added to the dynamic table so the recipient can
+         * avoid creating a String for the value. The value is only valid for
+         * the duration of the call and must not be retained by the recipient.
+         *
+         * @param name  Header name
+         * @param value Header value
+         * @throws HpackException If a header is received that is not compliant
+         *                        with the HTTP/2 specification
+         */
+        default void emitHeader(String name, CharSequence value) throws HpackException {
+            emitHeader(name, value.toString());
+        }
+
         /**
          * Inform the recipient of the headers that a stream error needs to be
          * triggered using the given message when {@link #validateHeaders()} is
@@ -410,7 +488,7 @@ public class HpackDecoder {
     }
 
 
-    private void emitHeader(String name, String value) throws HpackException {
+    private void emitHeader(String name, CharSequence value) throws HpackException {
         // Header names are forced to lower case
         if ("cookie".equals(name)) {
             // Only count the cookie header once since HTTP/2 splits it into
@@ -428,7 +506,11 @@ public class HpackDecoder {
         int inc = 3 + name.length() + value.length();
         headerSize += inc;
         if (!isHeaderCountExceeded() && !isHeaderSizeExceeded(0)) {
-            headerEmitter.emitHeader(name, value);
+            if (value instanceof String) {
+                headerEmitter.emitHeader(name, (String) value);
+            } else {
+                headerEmitter.emitHeader(name, value);
+            }
         }
     }
 
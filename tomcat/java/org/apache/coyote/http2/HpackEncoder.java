@@ -19,12 +19,15 @@ package org.apache.coyote.http2;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -39,26 +42,12 @@ class HpackEncoder {
     private static final Log log = LogFactory.getLog(HpackEncoder.class);
     private static final StringManager sm = StringManager.getManager(HpackEncoder.class);
 
-    private static final HpackHeaderFunction DEFAULT_HEADER_FUNCTION = new HpackHeaderFunction() {
-        @Override
-        public boolean shouldUseIndexing(String headerName, String value) {
-            //content length and date change all the time
-            //no need to index them, or they will churn the table
-            return !headerName.equals("content-length") && !headerName.equals("date");
-        }
-
-        @Override
-        public boolean shouldUseHuffman(String header, String value) {
-            return value.length() > 5; //TODO: figure out a good value for this
-        }
-
-        @Override
-        public boolean shouldUseHuffman(String header) {
-            return header.length() > 5; //TODO: figure out a good value for this
-        }
+    // Content length and date change all the time. There is no need to index
+    // them as they would churn the table.
+    static final Set<String> DEFAULT_NO_INDEX_HEADERS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("content-length", "date")));
 
-
-    };
+    static final int DEFAULT_HEADER_BLOCK_CACHE_SIZE = 4;
 
     private int headersIterator = -1;
     private boolean firstPass = true;
@@ -102,10 +91,68 @@ class HpackEncoder {
      */
     private int currentTableSize;
 
-    private final HpackHeaderFunction hpackHeaderFunction;
+    /**
+     * Incremented every time the content of the dynamic table changes. An
+     * encoded header block may only be reused while this is unchanged.
+     */
+    private long tableVersion;
+
+    /**
+     * Header names that are never added to the dynamic table.
+     */
+    private final Set<String> noIndexHeaders;
+
+    /**
+     * The maximum size (as defined by section 4.1 of RFC 7541) of an entry
+     * that may be added to the dynamic table. -1 means any entry that fits in
+     * the table may be added.
+     */
+    private final int maxIndexedHeaderSize;
+
+    /**
+     * Per header name overrides of {@link #maxIndexedHeaderSize}. Keys are
+     * lower case header names.
+     */
+    private final Map<String,Integer> maxIndexedHeaderSizes;
+
+    /**
+     * Recently encoded header blocks that did not modify the dynamic table.
+     * Encoding an identical set of headers against an unchanged dynamic table
+     * produces identical output so these blocks can be reused as is.
+     */
+    private final int headerBlockCacheSize;
+    private final EncodedHeaderBlock[] headerBlockCache;
+    private int nextHeaderBlock;
+
+    // State of the header block currently being encoded
+    private int blockCacheStart;
+    private long blockTableVersion;
+    private boolean blockSplit;
+    private int blockRawLength;
+    private int blockEncodedLength;
+
+    // Statistics for the most recently completed header block
+    private int lastRawLength;
+    private int lastEncodedLength;
+    private boolean lastFromCache;
 
     HpackEncoder() {
-        this.hpackHeaderFunction = DEFAULT_HEADER_FUNCTION;
+        this(DEFAULT_NO_INDEX_HEADERS, -1, DEFAULT_HEADER_BLOCK_CACHE_SIZE);
+    }
+
+    HpackEncoder(Set<String> noIndexHeaders, int maxIndexedHeaderSize,
+            int headerBlockCacheSize) {
+        this(noIndexHeaders, maxIndexedHeaderSize, Collections.<String,Integer>emptyMap(),
+                headerBlockCacheSize);
+    }
+
+    HpackEncoder(Set<String> noIndexHeaders, int maxIndexedHeaderSize,
+            Map<String,Integer> maxIndexedHeaderSizes, int headerBlockCacheSize) {
+        this.noIndexHeaders = noIndexHeaders;
+        this.maxIndexedHeaderSize = maxIndexedHeaderSize;
+        this.maxIndexedHeaderSizes = maxIndexedHeaderSizes;
+        this.headerBlockCacheSize = Math.max(0, headerBlockCacheSize);
+        this.headerBlockCache = new EncodedHeaderBlock[this.headerBlockCacheSize];
     }
 
     /**
@@ -118,8 +165,26 @@ class HpackEncoder {
      */
     State encode(MimeHeaders headers, ByteBuffer target) {
         int it = headersIterator;
+        int start = target.position();
         if (headersIterator == -1) {
+            // A table size update has to be sent at the start of the next
+            // block so cached blocks can't be used
+            if (newMaxHeaderSize == -1) {
+                EncodedHeaderBlock cached = findHeaderBlock(headers);
+                if (cached != null && target.remaining() >= cached.encoded.length) {
+                    target.put(cached.encoded);
+                    lastRawLength = cached.rawLength;
+                    lastEncodedLength = cached.encoded.length;
+                    lastFromCache = true;
+                    return State.COMPLETE;
+                }
+            }
+            blockRawLength = 0;
+            blockEncodedLength = 0;
+            blockSplit = false;
             handleTableSizeChange(target);
+            blockCacheStart = target.position();
+            blockTableVersion = tableVersion;
             //new headers map
             it = 0;
             currentHeaders = headers;
@@ -127,6 +192,7 @@ class HpackEncoder {
             if (headers != currentHeaders) {
                 throw new IllegalStateException();
             }
+            blockSplit = true;
         }
         while (it < currentHeaders.size()) {
             // FIXME: Review lowercase policy
@@ -155,22 +221,22 @@ class HpackEncoder {
 
                     if (target.remaining() < required) {
                         this.headersIterator = it;
+                        blockEncodedLength += target.position() - start;
                         return State.UNDERFLOW;
                     }
-                    // Only index if it will fit
-                    boolean canIndex = hpackHeaderFunction.shouldUseIndexing(headerName, val) &&
-                            (headerName.length() + val.length() + 32) < maxTableSize;
+                    blockRawLength += headerName.length() + val.length();
+                    boolean canIndex = shouldUseIndexing(headerName, val);
                     if (tableEntry == null && canIndex) {
                         //add the entry to the dynamic table
                         target.put((byte) (1 << 6));
                         writeHuffmanEncodableName(target, headerName);
-                        writeHuffmanEncodableValue(target, headerName, val);
+                        writeHuffmanEncodableValue(target, val);
                         addToDynamicTable(headerName, val);
                     } else if (tableEntry == null) {
                         //literal never indexed
                         target.put((byte) (1 << 4));
                         writeHuffmanEncodableName(target, headerName);
-                        writeHuffmanEncodableValue(target, headerName, val);
+                        writeHuffmanEncodableValue(target, val);
                     } else {
                         //so we know something is already in the table
                         if (val.equals(tableEntry.value)) {
@@ -182,13 +248,13 @@ class HpackEncoder {
                                 //add the entry to the dynamic table
                                 target.put((byte) (1 << 6));
                                 Hpack.encodeInteger(target, tableEntry.getPosition(), 6);
-                                writeHuffmanEncodableValue(target, headerName, val);
+                                writeHuffmanEncodableValue(target, val);
                                 addToDynamicTable(headerName, val);
 
                             } else {
                                 target.put((byte) (1 << 4));
                                 Hpack.encodeInteger(target, tableEntry.getPosition(), 4);
-                                writeHuffmanEncodableValue(target, headerName, val);
+                                writeHuffmanEncodableValue(target, val);
                             }
                         }
                     }
@@ -201,15 +267,92 @@ class HpackEncoder {
         }
         headersIterator = -1;
         firstPass = true;
+        blockEncodedLength += target.position() - start;
+        if (!blockSplit && blockTableVersion == tableVersion) {
+            addHeaderBlock(headers, target, blockCacheStart);
+        }
+        lastRawLength = blockRawLength;
+        lastEncodedLength = blockEncodedLength;
+        lastFromCache = false;
         return State.COMPLETE;
     }
 
-    private void writeHuffmanEncodableName(ByteBuffer target, String headerName) {
-        if (hpackHeaderFunction.shouldUseHuffman(headerName)) {
-            if(HPackHuffman.encode(target, headerName, true)) {
-                return;
+
+    private boolean shouldUseIndexing(String headerName, String val) {
+        if (noIndexHeaders.contains(headerName)) {
+            return false;
+        }
+        int size = headerName.length() + val.length() + 32;
+        int maxSize = maxIndexedHeaderSize;
+        if (!maxIndexedHeaderSizes.isEmpty()) {
+            Integer nameMaxSize = maxIndexedHeaderSizes.get(headerName);
+            if (nameMaxSize != null) {
+                maxSize = nameMaxSize.intValue();
             }
         }
+        if (maxSize > -1 && size > maxSize) {
+            return false;
+        }
+        // Only index if it will fit
+        return size < maxTableSize;
+    }
+
+
+    private EncodedHeaderBlock findHeaderBlock(MimeHeaders headers) {
+        for (EncodedHeaderBlock block : headerBlockCache) {
+            if (block != null && block.tableVersion == tableVersion && block.matches(headers)) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+
+    private void addHeaderBlock(MimeHeaders headers, ByteBuffer target, int start) {
+        if (headerBlockCacheSize == 0) {
+            return;
+        }
+        // Prefer to replace a block that can no longer be used
+        int index = -1;
+        for (int i = 0; i < headerBlockCacheSize; i++) {
+            EncodedHeaderBlock block = headerBlockCache[i];
+            if (block == null || block.tableVersion != tableVersion) {
+                index = i;
+                break;
+            }
+        }
+        if (index == -1) {
+            index = nextHeaderBlock;
+            nextHeaderBlock = (nextHeaderBlock + 1) % headerBlockCacheSize;
+        }
+        byte[] encoded = new byte[target.position() - start];
+        // Absolute get so the position of target is not changed
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = target.get(start + i);
+        }
+        headerBlockCache[index] = new EncodedHeaderBlock(headers, encoded, blockRawLength, tableVersion);
+    }
+
+
+    int getLastRawLength() {
+        return lastRawLength;
+    }
+
+
+    int getLastEncodedLength() {
+        return lastEncodedLength;
+    }
+
+
+    boolean isLastFromCache() {
+        return lastFromCache;
+    }
+
+    private void writeHuffmanEncodableName(ByteBuffer target, String headerName) {
+        // Huffman encoding is only used if it is shorter than the original
+        if (HPackHuffman.encode(target, headerName, true)) {
+            return;
+        }
         target.put((byte) 0); //to use encodeInteger we need to place the first byte in the buffer.
         Hpack.encodeInteger(target, headerName.length(), 7);
         for (int j = 0; j < headerName.length(); ++j) {
@@ -218,12 +361,9 @@ class HpackEncoder {
 
     }
 
-    private void writeHuffmanEncodableValue(ByteBuffer target, String headerName, String val) {
-        if (hpackHeaderFunction.shouldUseHuffman(headerName, val)) {
-            if (!HPackHuffman.encode(target, val, false)) {
-                writeValueString(target, val);
-            }
-        } else {
+    private void writeHuffmanEncodableValue(ByteBuffer target, String val) {
+        // Huffman encoding is only used if it is shorter than the original
+        if (!HPackHuffman.encode(target, val, false)) {
             writeValueString(target, val);
         }
     }
@@ -245,6 +385,7 @@ class HpackEncoder {
         }
         existing.add(d);
         evictionQueue.add(d);
+        tableVersion++;
         currentTableSize += d.getSize();
         runEvictionIfRequired();
         if (entryPositionCounter == Integer.MAX_VALUE) {
@@ -306,6 +447,10 @@ class HpackEncoder {
     }
 
     public void setMaxTableSize(int newSize) {
+        if (newMaxHeaderSize == -1 && newSize == maxTableSize) {
+            // No change so no need to signal a table size update
+            return;
+        }
         this.newMaxHeaderSize = newSize;
         if (minNewMaxHeaderSize == -1) {
             minNewMaxHeaderSize = newSize;
@@ -325,6 +470,7 @@ class HpackEncoder {
         target.put((byte) (1 << 5));
         Hpack.encodeInteger(target, newMaxHeaderSize, 5);
         maxTableSize = newMaxHeaderSize;
+        tableVersion++;
         runEvictionIfRequired();
         newMaxHeaderSize = -1;
         minNewMaxHeaderSize = -1;
@@ -374,24 +520,39 @@ class HpackEncoder {
         }
     }
 
-    private interface HpackHeaderFunction {
-        boolean shouldUseIndexing(String header, String value);
-
-        /**
-         * Returns true if huffman encoding should be used on the header value
-         *
-         * @param header The header name
-         * @param value  The header value to be encoded
-         * @return <code>true</code> if the value should be encoded
-         */
-        boolean shouldUseHuffman(String header, String value);
-
-        /**
-         * Returns true if huffman encoding should be used on the header name
-         *
-         * @param header The header name to be encoded
-         * @return <code>true</code> if the value should be encoded
-         */
-        boolean shouldUseHuffman(String header);
+    private static class EncodedHeaderBlock {
+        private final String[] names;
+        private final String[] values;
+        private final byte[] encoded;
+        private final int rawLength;
+        private final long tableVersion;
+
+        private EncodedHeaderBlock(MimeHeaders headers, byte[] encoded, int rawLength,
+                long tableVersion) {
+            int size = headers.size();
+            names = new String[size];
+            values = new String[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = headers.getName(i).toString();
+                values[i] = headers.getValue(i).toString();
+            }
+            this.encoded = encoded;
+            this.rawLength = rawLength;
+            this.tableVersion = tableVersion;
+        }
+
+        private boolean matches(MimeHeaders headers) {
+            int size = headers.size();
+            if (size != names.length) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (!names[i].equals(headers.getName(i).toString()) ||
+                        !values[i].equals(headers.getValue(i).toString())) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
@@ -24,7 +24,10 @@ import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.servlet.http.WebConnection;
 
@@ -43,6 +46,11 @@ public class Http2AsyncUpgradeHandler extends Http2UpgradeHandler {
     // Because of the compression used, headers need to be written to the
     // network in the same order they are generated.
     private final Object headerWriteLock = new Object();
+    // HEADERS, CONTINUATION and DATA frames are added to the queue and then
+    // the first thread to obtain the frameWriteLock writes all the queued
+    // frames, possibly from multiple streams, with a single gathering write.
+    private final Queue<FrameWrite> frameQueue = new ConcurrentLinkedQueue<>();
+    private final Object frameWriteLock = new Object();
     private Throwable error = null;
     private IOException applicationIOE = null;
 
@@ -177,10 +185,10 @@ public class Http2AsyncUpgradeHandler extends Http2UpgradeHandler {
             AsyncHeaderFrameBuffers headerFrameBuffers = (AsyncHeaderFrameBuffers)
                     doWriteHeaders(stream, pushedStreamId, mimeHeaders, endOfStream, payloadSize);
             if (headerFrameBuffers != null) {
-                socketWrapper.write(BlockingMode.SEMI_BLOCK, protocol.getWriteTimeout(),
-                        TimeUnit.MILLISECONDS, null, SocketWrapperBase.COMPLETE_WRITE,
-                        applicationErrorCompletion, headerFrameBuffers.bufs.toArray(BYTEBUFFER_ARRAY));
-                handleAsyncException();
+                // Queued while holding the headerWriteLock so header blocks
+                // are written in the order they were generated
+                writeFrames(headerFrameBuffers.bufs.size() / 2,
+                        headerFrameBuffers.bufs.toArray(BYTEBUFFER_ARRAY));
             }
         }
         if (endOfStream) {
@@ -217,11 +225,62 @@ public class Http2AsyncUpgradeHandler extends Http2UpgradeHandler {
             ByteUtil.set31Bits(header, 5, stream.getIdAsInt());
             int orgLimit = data.limit();
             data.limit(data.position() + len);
-            socketWrapper.write(BlockingMode.BLOCK, protocol.getWriteTimeout(),
-                    TimeUnit.MILLISECONDS, null, SocketWrapperBase.COMPLETE_WRITE,
-                    applicationErrorCompletion, ByteBuffer.wrap(header), data);
-            data.limit(orgLimit);
-            handleAsyncException();
+            try {
+                writeFrames(1, ByteBuffer.wrap(header), data);
+            } finally {
+                data.limit(orgLimit);
+            }
+        }
+    }
+
+
+    /*
+     * Returns once the given frames have been written, either by this thread
+     * or by another thread that included them in its write.
+     */
+    private void writeFrames(int frameCount, ByteBuffer... buffers) throws IOException {
+        FrameWrite frameWrite = new FrameWrite(frameCount, buffers);
+        frameQueue.add(frameWrite);
+        synchronized (frameWriteLock) {
+            if (!frameWrite.done) {
+                long writeBatchDelay = protocol.getWriteBatchDelay();
+                if (writeBatchDelay > 0 && activeRemoteStreamCount.get() > 1) {
+                    // Give other active streams the opportunity to add frames
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(writeBatchDelay));
+                }
+
+                List<FrameWrite> batch = new ArrayList<>();
+                List<ByteBuffer> batchBuffers = new ArrayList<>();
+                int frames = 0;
+                long bytes = 0;
+                FrameWrite queued;
+                while ((queued = frameQueue.poll()) != null) {
+                    batch.add(queued);
+                    frames += queued.frameCount;
+                    for (ByteBuffer buffer : queued.buffers) {
+                        batchBuffers.add(buffer);
+                        bytes += buffer.remaining();
+                    }
+                }
+
+                IOException ioe = null;
+                socketWrapper.write(BlockingMode.BLOCK, protocol.getWriteTimeout(),
+                        TimeUnit.MILLISECONDS, null, SocketWrapperBase.COMPLETE_WRITE,
+                        applicationErrorCompletion, batchBuffers.toArray(BYTEBUFFER_ARRAY));
+                try {
+                    handleAsyncException();
+                    protocol.addWriteBatchStatistics(frames, bytes, isSecure());
+                } catch (IOException e) {
+                    ioe = e;
+                }
+                for (FrameWrite written : batch) {
+                    written.ioe = ioe;
+                    written.done = true;
+                }
+            }
+        }
+        if (frameWrite.ioe != null) {
+            throw frameWrite.ioe;
         }
     }
 
@@ -430,6 +489,23 @@ public class Http2AsyncUpgradeHandler extends Http2UpgradeHandler {
     }
 
 
+    /*
+     * Fields are only accessed while holding the frameWriteLock.
+     */
+    private static class FrameWrite {
+
+        private final int frameCount;
+        private final ByteBuffer[] buffers;
+        private boolean done = false;
+        private IOException ioe = null;
+
+        public FrameWrite(int frameCount, ByteBuffer[] buffers) {
+            this.frameCount = frameCount;
+            this.buffers = buffers;
+        }
+    }
+
+
     private static class AsyncHeaderFrameBuffers implements HeaderFrameBuffers {
 
         int payloadSize;
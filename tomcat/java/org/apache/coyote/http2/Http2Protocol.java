@@ -20,11 +20,16 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
 
 import org.apache.coyote.Adapter;
@@ -38,6 +43,7 @@ import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorInternal;
 import org.apache.tomcat.util.buf.StringUtils;
 import org.apache.tomcat.util.net.SocketWrapperBase;
+import org.apache.tomcat.util.res.StringManager;
 
 public class Http2Protocol implements UpgradeProtocol {
 
@@ -57,6 +63,16 @@ public class Http2Protocol implements UpgradeProtocol {
     static final int DEFAULT_OVERHEAD_DATA_THRESHOLD = 1024;
     static final int DEFAULT_OVERHEAD_WINDOW_UPDATE_THRESHOLD = 1024;
 
+    private static final StringManager sm = StringManager.getManager(Http2Protocol.class);
+
+    static final String STREAM_SCHEDULER_PRIORITY = "priority";
+    static final String STREAM_SCHEDULER_STRICT = "strict";
+    static final String STREAM_SCHEDULER_WFQ = "wfq";
+    static final String STREAM_SCHEDULER_ROUND_ROBIN = "roundRobin";
+
+    // Maximum TLS plain text record size (RFC 8446 section 5.1)
+    private static final int MAX_TLS_RECORD_SIZE = 16384;
+
     private static final String HTTP_UPGRADE_NAME = "h2c";
     private static final String ALPN_NAME = "h2";
     private static final byte[] ALPN_IDENTIFIER = ALPN_NAME.getBytes(StandardCharsets.UTF_8);
@@ -91,6 +107,25 @@ public class Http2Protocol implements UpgradeProtocol {
     private boolean useSendfile = true;
     // Compression
     private final CompressionConfig compressionConfig = new CompressionConfig();
+    // HPACK
+    private volatile Set<String> hpackNoIndexHeaders = HpackEncoder.DEFAULT_NO_INDEX_HEADERS;
+    private int hpackMaxIndexedHeaderSize = -1;
+    private volatile Map<String,Integer> hpackMaxIndexedHeaderSizes = Collections.emptyMap();
+    private int hpackHeaderBlockCacheSize = HpackEncoder.DEFAULT_HEADER_BLOCK_CACHE_SIZE;
+    private final LongAdder hpackRawBytes = new LongAdder();
+    private final LongAdder hpackEncodedBytes = new LongAdder();
+    private final LongAdder hpackHeaderBlockCacheHitCount = new LongAdder();
+    // Stream scheduling
+    private String streamScheduler = STREAM_SCHEDULER_PRIORITY;
+    private final LongAdder streamAllocationWaitTime = new LongAdder();
+    private final AtomicLong streamAllocationMaxWaitTime = new AtomicLong();
+    private final LongAdder streamAllocationCount = new LongAdder();
+    // Write batching
+    private long writeBatchDelay = 0;
+    private final LongAdder writeFrameCount = new LongAdder();
+    private final LongAdder writeFlushCount = new LongAdder();
+    private final LongAdder writeTlsFlushCount = new LongAdder();
+    private final LongAdder writeTlsRecordCount = new LongAdder();
 
     @Override
     public String getHttpUpgradeName(boolean isSSLEnabled) {
@@ -415,7 +450,369 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    public int getDeflateLevel() {
+        return compressionConfig.getDeflateLevel();
+    }
+    public void setDeflateLevel(int deflateLevel) {
+        compressionConfig.setDeflateLevel(deflateLevel);
+    }
+
+
+    public String getDeflateStrategy() {
+        return compressionConfig.getDeflateStrategy();
+    }
+    public void setDeflateStrategy(String deflateStrategy) {
+        compressionConfig.setDeflateStrategy(deflateStrategy);
+    }
+
+
+    public int getDeflateBufferSize() {
+        return compressionConfig.getDeflateBufferSize();
+    }
+    public void setDeflateBufferSize(int deflateBufferSize) {
+        compressionConfig.setDeflateBufferSize(deflateBufferSize);
+    }
+
+
+    public String getDeflateFlushMode() {
+        return compressionConfig.getDeflateFlushMode();
+    }
+    public void setDeflateFlushMode(String deflateFlushMode) {
+        compressionConfig.setDeflateFlushMode(deflateFlushMode);
+    }
+
+
+    public int getDeflaterPoolSize() {
+        return compressionConfig.getDeflaterPoolSize();
+    }
+    public void setDeflaterPoolSize(int deflaterPoolSize) {
+        compressionConfig.setDeflaterPoolSize(deflaterPoolSize);
+    }
+
+
+    CompressionConfig getCompressionConfig() {
+        return compressionConfig;
+    }
+
+
     public boolean useCompression(Request request, Response response) {
         return compressionConfig.useCompression(request, response);
     }
+
+
+    /**
+     * Set the names of the response headers that the HPACK encoder will never
+     * add to the dynamic table. Typically these are headers such as
+     * content-length and date where the value changes for almost every
+     * response.
+     *
+     * @param commaSeparatedHeaders The header names
+     */
+    public void setHpackNoIndexHeaders(String commaSeparatedHeaders) {
+        Set<String> headers = new HashSet<>();
+        if (commaSeparatedHeaders != null) {
+            for (String header : commaSeparatedHeaders.split(",")) {
+                String trimmedHeader = header.trim().toLowerCase(Locale.ENGLISH);
+                if (trimmedHeader.length() > 0) {
+                    headers.add(trimmedHeader);
+                }
+            }
+        }
+        hpackNoIndexHeaders = Collections.unmodifiableSet(headers);
+    }
+
+
+    public String getHpackNoIndexHeaders() {
+        return StringUtils.join(hpackNoIndexHeaders);
+    }
+
+
+    /**
+     * Set the maximum size, as defined by RFC 7541 section 4.1, of an entry
+     * that the HPACK encoder will add to the dynamic table. Larger headers
+     * are sent as literals so they do not evict more useful entries.
+     *
+     * @param hpackMaxIndexedHeaderSize The maximum entry size or -1 for any
+     *                                  entry that fits in the table
+     */
+    public void setHpackMaxIndexedHeaderSize(int hpackMaxIndexedHeaderSize) {
+        this.hpackMaxIndexedHeaderSize = hpackMaxIndexedHeaderSize;
+    }
+
+
+    public int getHpackMaxIndexedHeaderSize() {
+        return hpackMaxIndexedHeaderSize;
+    }
+
+
+    /**
+     * Set the maximum size of a dynamic table entry for individual header
+     * names. These override {@link #setHpackMaxIndexedHeaderSize(int)} for
+     * the given names. A size of -1 allows any entry that fits in the table
+     * and a size of 0 prevents the header from being indexed.
+     *
+     * @param hpackMaxIndexedHeaderSizes Comma separated list of
+     *                                   <code>name:maxSize</code> entries
+     */
+    public void setHpackMaxIndexedHeaderSizes(String hpackMaxIndexedHeaderSizes) {
+        Map<String,Integer> sizes = new HashMap<>();
+        if (hpackMaxIndexedHeaderSizes != null) {
+            for (String entry : hpackMaxIndexedHeaderSizes.split(",")) {
+                String trimmedEntry = entry.trim();
+                if (trimmedEntry.length() == 0) {
+                    continue;
+                }
+                int colon = trimmedEntry.lastIndexOf(':');
+                String name = null;
+                Integer size = null;
+                if (colon > 0) {
+                    name = trimmedEntry.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+                    try {
+                        size = Integer.valueOf(trimmedEntry.substring(colon + 1).trim());
+                    } catch (NumberFormatException e) {
+                        // Handled below
+                    }
+                }
+                if (name == null || name.length() == 0 || size == null || size.intValue() < -1) {
+                    throw new IllegalArgumentException(sm.getString(
+                            "http2Protocol.invalidHpackMaxIndexedHeaderSize", trimmedEntry));
+                }
+                sizes.put(name, size);
+            }
+        }
+        this.hpackMaxIndexedHeaderSizes = Collections.unmodifiableMap(sizes);
+    }
+
+
+    public String getHpackMaxIndexedHeaderSizes() {
+        List<String> entries = new ArrayList<>(hpackMaxIndexedHeaderSizes.size());
+        for (Map.Entry<String,Integer> entry : hpackMaxIndexedHeaderSizes.entrySet()) {
+            entries.add(entry.getKey() + ":" + entry.getValue());
+        }
+        return StringUtils.join(entries);
+    }
+
+
+    /**
+     * Set the number of encoded header blocks each connection retains for
+     * reuse when an identical set of response headers is sent again.
+     *
+     * @param hpackHeaderBlockCacheSize The number of header blocks to retain
+     *                                  or zero to disable reuse
+     */
+    public void setHpackHeaderBlockCacheSize(int hpackHeaderBlockCacheSize) {
+        this.hpackHeaderBlockCacheSize = hpackHeaderBlockCacheSize;
+    }
+
+
+    public int getHpackHeaderBlockCacheSize() {
+        return hpackHeaderBlockCacheSize;
+    }
+
+
+    HpackEncoder createHpackEncoder() {
+        return new HpackEncoder(hpackNoIndexHeaders, hpackMaxIndexedHeaderSize,
+                hpackMaxIndexedHeaderSizes, hpackHeaderBlockCacheSize);
+    }
+
+
+    void addHpackStatistics(HpackEncoder hpackEncoder) {
+        hpackRawBytes.add(hpackEncoder.getLastRawLength());
+        hpackEncodedBytes.add(hpackEncoder.getLastEncodedLength());
+        if (hpackEncoder.isLastFromCache()) {
+            hpackHeaderBlockCacheHitCount.increment();
+        }
+    }
+
+
+    /**
+     * @return The total length of the names and values of all the response
+     *         headers passed to the HPACK encoder
+     */
+    public long getHpackRawBytes() {
+        return hpackRawBytes.sum();
+    }
+
+
+    /**
+     * @return The total length of the header blocks written by the HPACK
+     *         encoder
+     */
+    public long getHpackEncodedBytes() {
+        return hpackEncodedBytes.sum();
+    }
+
+
+    /**
+     * @return The ratio of encoded bytes to raw bytes for the response headers
+     *         written so far or zero if no headers have been written
+     */
+    public double getHpackCompressionRatio() {
+        long raw = hpackRawBytes.sum();
+        if (raw == 0) {
+            return 0;
+        }
+        return (double) hpackEncodedBytes.sum() / raw;
+    }
+
+
+    public long getHpackHeaderBlockCacheHitCount() {
+        return hpackHeaderBlockCacheHitCount.sum();
+    }
+
+
+    /**
+     * Set the algorithm used to share the connection flow control window
+     * between the streams that are waiting to write data.
+     * <ul>
+     * <li><code>priority</code> - allocate down the priority tree, sharing
+     *     between siblings by weight (the default)</li>
+     * <li><code>strict</code> - serve streams in priority order, each stream
+     *     receiving its full requirement before the next</li>
+     * <li><code>wfq</code> - share between all waiting streams in proportion
+     *     to their weight</li>
+     * <li><code>roundRobin</code> - allocate up to one frame to each waiting
+     *     stream in turn</li>
+     * </ul>
+     *
+     * @param streamScheduler The name of the scheduling algorithm
+     */
+    public void setStreamScheduler(String streamScheduler) {
+        if (STREAM_SCHEDULER_PRIORITY.equals(streamScheduler) ||
+                STREAM_SCHEDULER_STRICT.equals(streamScheduler) ||
+                STREAM_SCHEDULER_WFQ.equals(streamScheduler) ||
+                STREAM_SCHEDULER_ROUND_ROBIN.equals(streamScheduler)) {
+            this.streamScheduler = streamScheduler;
+        } else {
+            throw new IllegalArgumentException(
+                    sm.getString("http2Protocol.invalidStreamScheduler", streamScheduler));
+        }
+    }
+
+
+    public String getStreamScheduler() {
+        return streamScheduler;
+    }
+
+
+    StreamScheduler createStreamScheduler() {
+        switch (streamScheduler) {
+            case STREAM_SCHEDULER_STRICT:
+                return new StrictPriorityStreamScheduler();
+            case STREAM_SCHEDULER_WFQ:
+                return new WeightedFairQueueStreamScheduler();
+            case STREAM_SCHEDULER_ROUND_ROBIN:
+                return new RoundRobinStreamScheduler();
+            default:
+                return new PriorityStreamScheduler();
+        }
+    }
+
+
+    void addStreamAllocationWait(long waitTime) {
+        streamAllocationWaitTime.add(waitTime);
+        streamAllocationCount.increment();
+        long max = streamAllocationMaxWaitTime.get();
+        while (waitTime > max && !streamAllocationMaxWaitTime.compareAndSet(max, waitTime)) {
+            max = streamAllocationMaxWaitTime.get();
+        }
+    }
+
+
+    /**
+     * @return The total time, in milliseconds, streams have spent waiting for
+     *         an allocation from the connection flow control window
+     */
+    public long getStreamAllocationWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(streamAllocationWaitTime.sum());
+    }
+
+
+    /**
+     * @return The longest time, in milliseconds, a stream has spent waiting
+     *         for a single allocation from the connection flow control window
+     */
+    public long getStreamAllocationMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(streamAllocationMaxWaitTime.get());
+    }
+
+
+    /**
+     * @return The number of times a stream that was waiting has received an
+     *         allocation from the connection flow control window
+     */
+    public long getStreamAllocationCount() {
+        return streamAllocationCount.sum();
+    }
+
+
+    /**
+     * Set the maximum time a thread that has written HEADERS or DATA frames
+     * will wait for other streams on the same connection to write frames
+     * before flushing them all in a single network write. The delay is only
+     * applied when more than one stream is active. Frames written while
+     * another thread is waiting to write are always combined, regardless of
+     * this setting.
+     *
+     * @param writeBatchDelay The maximum delay in microseconds or zero to
+     *                        flush immediately
+     */
+    public void setWriteBatchDelay(long writeBatchDelay) {
+        this.writeBatchDelay = writeBatchDelay;
+    }
+
+
+    public long getWriteBatchDelay() {
+        return writeBatchDelay;
+    }
+
+
+    void addWriteBatchStatistics(int frames, long bytes, boolean secure) {
+        writeFrameCount.add(frames);
+        writeFlushCount.increment();
+        if (secure) {
+            writeTlsFlushCount.increment();
+            writeTlsRecordCount.add((bytes + MAX_TLS_RECORD_SIZE - 1) / MAX_TLS_RECORD_SIZE);
+        }
+    }
+
+
+    public long getWriteFrameCount() {
+        return writeFrameCount.sum();
+    }
+
+
+    public long getWriteFlushCount() {
+        return writeFlushCount.sum();
+    }
+
+
+    /**
+     * @return The average number of HEADERS, CONTINUATION and DATA frames
+     *         sent in each flush of the connection or zero if no frames have
+     *         been sent
+     */
+    public double getWriteFramesPerFlush() {
+        long flushes = writeFlushCount.sum();
+        if (flushes == 0) {
+            return 0;
+        }
+        return (double) writeFrameCount.sum() / flushes;
+    }
+
+
+    /**
+     * @return The average number of TLS records required for each flush of a
+     *         secure connection or zero if no frames have been sent over a
+     *         secure connection. This is calculated from the number of bytes
+     *         flushed and the maximum TLS record size so it is the minimum
+     *         number of records that could have been used.
+     */
+    public double getWriteTlsRecordsPerFlush() {
+        long flushes = writeTlsFlushCount.sum();
+        if (flushes == 0) {
+            return 0;
+        }
+        return (double) writeTlsRecordCount.sum() / flushes;
+    }
 }
@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -29,9 +28,11 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.servlet.http.WebConnection;
 
@@ -46,6 +47,7 @@ import org.apache.coyote.http2.Http2Parser.Input;
 import org.apache.coyote.http2.Http2Parser.Output;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.codec.binary.Base64;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
@@ -94,6 +96,8 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
 
     private static final HeaderSink HEADER_SINK = new HeaderSink();
 
+    private static final int HEADER_VALUE_BUFFER_SIZE = 4096;
+
     protected final String connectionId;
 
     protected final Http2Protocol protocol;
@@ -132,6 +136,13 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
     private volatile int newStreamsSinceLastPrune = 0;
     private final Map<AbstractStream, BacklogTracker> backLogStreams = new ConcurrentHashMap<>();
     private long backLogSize = 0;
+    private final StreamScheduler streamScheduler;
+    // Write batching. The frame and byte counts and flushScheduled are only
+    // accessed while holding the socketWrapper lock.
+    private final AtomicInteger pendingWriters = new AtomicInteger(0);
+    private boolean flushScheduled = false;
+    private int framesSinceFlush = 0;
+    private long bytesSinceFlush = 0;
     // The time at which the connection will timeout unless data arrives before
     // then. -1 means no timeout.
     private volatile long connectionTimeout = -1;
@@ -146,9 +157,16 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
     private volatile int lastWindowUpdate;
 
 
+    // Storage for request header values shared by all the streams of this
+    // connection. See setHeaderValue().
+    private byte[] headerValueBytes = null;
+    private int headerValueBytesPos = 0;
+
+
     Http2UpgradeHandler(Http2Protocol protocol, Adapter adapter, Request coyoteRequest) {
         super (STREAM_ID_ZERO);
         this.protocol = protocol;
+        this.streamScheduler = protocol.createStreamScheduler();
         this.adapter = adapter;
         this.connectionId = Integer.toString(connectionIdGenerator.getAndIncrement());
 
@@ -178,6 +196,42 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
     }
 
 
+    /**
+     * Copy a request header value to storage shared by all the streams of this
+     * connection and set the given MessageBytes to refer to the copy. This
+     * avoids creating a String for each header value and the overhead of a
+     * separate array for each value. When the storage is full a new array is
+     * allocated and values that have already been copied continue to refer to
+     * the previous array. No synchronization is required since the headers for
+     * a connection are only decoded by one thread at a time.
+     *
+     * @param mb    The MessageBytes to set
+     * @param value The header value
+     */
+    void setHeaderValue(MessageBytes mb, CharSequence value) {
+        int len = value.length();
+        byte[] bytes;
+        int start;
+        if (len > HEADER_VALUE_BUFFER_SIZE / 4) {
+            // Don't waste the remainder of the current array on large values
+            bytes = new byte[len];
+            start = 0;
+        } else {
+            if (headerValueBytes == null || headerValueBytesPos + len > headerValueBytes.length) {
+                headerValueBytes = new byte[HEADER_VALUE_BUFFER_SIZE];
+                headerValueBytesPos = 0;
+            }
+            bytes = headerValueBytes;
+            start = headerValueBytesPos;
+            headerValueBytesPos += len;
+        }
+        for (int i = 0; i < len; i++) {
+            bytes[start + i] = (byte) value.charAt(i);
+        }
+        mb.setBytes(bytes, start, len);
+    }
+
+
     protected PingManager getPingManager() {
         return new PingManager();
     }
@@ -639,9 +693,23 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
 
     void writeHeaders(Stream stream, int pushedStreamId, MimeHeaders mimeHeaders,
             boolean endOfStream, int payloadSize) throws IOException {
+        boolean deferredFlush = false;
+        pendingWriters.incrementAndGet();
         // This ensures the Stream processing thread has control of the socket.
         synchronized (socketWrapper) {
-            doWriteHeaders(stream, pushedStreamId, mimeHeaders, endOfStream, payloadSize);
+            try {
+                doWriteHeaders(stream, pushedStreamId, mimeHeaders, endOfStream, payloadSize);
+            } finally {
+                pendingWriters.decrementAndGet();
+            }
+            try {
+                deferredFlush = flushFrames();
+            } catch (IOException ioe) {
+                handleAppInitiatedIOException(ioe);
+            }
+        }
+        if (deferredFlush) {
+            flushDeferredFrames();
         }
         stream.sentHeaders();
         if (endOfStream) {
@@ -682,13 +750,14 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
 
         boolean first = true;
         State state = null;
+        HpackEncoder encoder = getHpackEncoder();
 
         while (state != State.COMPLETE) {
             headerFrameBuffers.startFrame();
             if (first && pushedStreamIdBytes != null) {
                 headerFrameBuffers.getPayload().put(pushedStreamIdBytes);
             }
-            state = getHpackEncoder().encode(mimeHeaders, headerFrameBuffers.getPayload());
+            state = encoder.encode(mimeHeaders, headerFrameBuffers.getPayload());
             headerFrameBuffers.getPayload().flip();
             if (state == State.COMPLETE || headerFrameBuffers.getPayload().limit() > 0) {
                 ByteUtil.setThreeBytes(headerFrameBuffers.getHeader(), 0, headerFrameBuffers.getPayload().limit());
@@ -718,6 +787,7 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
             }
         }
         headerFrameBuffers.endHeaders();
+        protocol.addHpackStatistics(encoder);
         return headerFrameBuffers;
     }
 
@@ -726,9 +796,14 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
     }
 
 
+    protected boolean isSecure() {
+        return sslSupport != null;
+    }
+
+
     protected HpackEncoder getHpackEncoder() {
         if (hpackEncoder == null) {
-            hpackEncoder = new HpackEncoder();
+            hpackEncoder = protocol.createHpackEncoder();
         }
         // Ensure latest agreed table size is used
         hpackEncoder.setMaxTableSize(remoteSettings.getHeaderTableSize());
@@ -758,18 +833,89 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
         }
         if (writeable) {
             ByteUtil.set31Bits(header, 5, stream.getIdAsInt());
+            boolean deferredFlush = false;
+            pendingWriters.incrementAndGet();
             synchronized (socketWrapper) {
                 try {
-                    socketWrapper.write(true, header, 0, header.length);
-                    int orgLimit = data.limit();
-                    data.limit(data.position() + len);
-                    socketWrapper.write(true, data);
-                    data.limit(orgLimit);
-                    socketWrapper.flush(true);
+                    try {
+                        socketWrapper.write(true, header, 0, header.length);
+                        int orgLimit = data.limit();
+                        data.limit(data.position() + len);
+                        socketWrapper.write(true, data);
+                        data.limit(orgLimit);
+                    } finally {
+                        pendingWriters.decrementAndGet();
+                    }
+                    framesSinceFlush++;
+                    bytesSinceFlush += header.length + len;
+                    deferredFlush = flushFrames();
                 } catch (IOException ioe) {
                     handleAppInitiatedIOException(ioe);
                 }
             }
+            if (deferredFlush) {
+                flushDeferredFrames();
+            }
+        }
+    }
+
+
+    /*
+     * Called by a thread holding the socketWrapper lock that has just written
+     * one or more HEADERS, CONTINUATION or DATA frames. The frames are held in
+     * the socket write buffer rather than flushed immediately if another
+     * thread is about to write frames (or has already scheduled a flush) so
+     * that frames for multiple streams are sent in as few network writes and
+     * TLS records as possible. The thread that writes the last frame of a
+     * batch is always responsible for flushing it.
+     *
+     * Returns true if the caller must call flushDeferredFrames() once it has
+     * released the socketWrapper lock.
+     */
+    private boolean flushFrames() throws IOException {
+        if (framesSinceFlush == 0) {
+            return false;
+        }
+        if (flushScheduled || pendingWriters.get() > 0) {
+            // Another thread will flush these frames
+            return false;
+        }
+        if (protocol.getWriteBatchDelay() > 0 && activeRemoteStreamCount.get() > 1) {
+            // Other streams are active and may write frames shortly. Wait for
+            // them without holding the socket lock.
+            flushScheduled = true;
+            return true;
+        }
+        doFlushFrames();
+        return false;
+    }
+
+
+    private void flushDeferredFrames() throws IOException {
+        // Pushes write the PUSH_PROMISE frame while already holding the socket
+        // lock. Don't block other writers in that case.
+        if (!Thread.holdsLock(socketWrapper)) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(protocol.getWriteBatchDelay()));
+        }
+        synchronized (socketWrapper) {
+            flushScheduled = false;
+            try {
+                doFlushFrames();
+            } catch (IOException ioe) {
+                handleAppInitiatedIOException(ioe);
+            }
+        }
+    }
+
+
+    private void doFlushFrames() throws IOException {
+        int frames = framesSinceFlush;
+        long bytes = bytesSinceFlush;
+        framesSinceFlush = 0;
+        bytesSinceFlush = 0;
+        socketWrapper.flush(true);
+        if (frames > 0) {
+            protocol.addWriteBatchStatistics(frames, bytes, isSecure());
         }
     }
 
@@ -974,21 +1120,31 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
 
     private synchronized Set<AbstractStream> releaseBackLog(int increment) {
         Set<AbstractStream> result = new HashSet<>();
+        long now = System.nanoTime();
         if (backLogSize < increment) {
             // Can clear the whole backlog
+            for (Entry<AbstractStream,BacklogTracker> entry : backLogStreams.entrySet()) {
+                recordAllocationWait(entry.getKey(), entry.getValue(), now);
+            }
             result.addAll(backLogStreams.keySet());
             backLogStreams.clear();
             backLogSize = 0;
         } else {
             int leftToAllocate = increment;
             while (leftToAllocate > 0) {
-                leftToAllocate = allocate(this, leftToAllocate);
+                int unallocated = streamScheduler.allocate(this, backLogStreams, leftToAllocate);
+                if (unallocated == leftToAllocate) {
+                    // Nothing left to allocate to
+                    break;
+                }
+                leftToAllocate = unallocated;
             }
             for (Entry<AbstractStream,BacklogTracker> entry : backLogStreams.entrySet()) {
                 int allocation = entry.getValue().getUnusedAllocation();
                 if (allocation > 0) {
                     backLogSize -= allocation;
                     if (!entry.getValue().isNotifyInProgress()) {
+                        recordAllocationWait(entry.getKey(), entry.getValue(), now);
                         result.add(entry.getKey());
                         entry.getValue().startNotify();
                     }
@@ -999,73 +1155,14 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
     }
 
 
-    private int allocate(AbstractStream stream, int allocation) {
-        if (log.isDebugEnabled()) {
-            log.debug(sm.getString("upgradeHandler.allocate.debug", getConnectionId(),
-                    stream.getIdentifier(), Integer.toString(allocation)));
-        }
-        // Allocate to the specified stream
-        BacklogTracker tracker = backLogStreams.get(stream);
-
-        int leftToAllocate = tracker.allocate(allocation);
-
-        if (leftToAllocate == 0) {
-            return 0;
-        }
-
-        if (log.isDebugEnabled()) {
-            log.debug(sm.getString("upgradeHandler.allocate.left",
-                    getConnectionId(), stream.getIdentifier(), Integer.toString(leftToAllocate)));
+    private void recordAllocationWait(AbstractStream stream, BacklogTracker tracker, long now) {
+        long waitStart = tracker.getWaitStart();
+        if (waitStart != 0 && stream instanceof Stream) {
+            long waitTime = now - waitStart;
+            ((Stream) stream).addAllocationWaitTime(waitTime);
+            protocol.addStreamAllocationWait(waitTime);
+            tracker.endWait();
         }
-
-        // Recipients are children of the current stream that are in the
-        // backlog.
-        Set<AbstractStream> recipients = new HashSet<>();
-        recipients.addAll(stream.getChildStreams());
-        recipients.retainAll(backLogStreams.keySet());
-
-        // Loop until we run out of allocation or recipients
-        while (leftToAllocate > 0) {
-            if (recipients.size() == 0) {
-                backLogStreams.remove(stream);
-                return leftToAllocate;
-            }
-
-            int totalWeight = 0;
-            for (AbstractStream recipient : recipients) {
-                if (log.isDebugEnabled()) {
-                    log.debug(sm.getString("upgradeHandler.allocate.recipient",
-                            getConnectionId(), stream.getIdentifier(), recipient.getIdentifier(),
-                            Integer.toString(recipient.getWeight())));
-                }
-                totalWeight += recipient.getWeight();
-            }
-
-            // Use an Iterator so fully allocated children/recipients can be
-            // removed.
-            Iterator<AbstractStream> iter = recipients.iterator();
-            int allocated = 0;
-            while (iter.hasNext()) {
-                AbstractStream recipient = iter.next();
-                int share = leftToAllocate * recipient.getWeight() / totalWeight;
-                if (share == 0) {
-                    // This is to avoid rounding issues triggering an infinite
-                    // loop. It will cause a very slight over allocation but
-                    // HTTP/2 should cope with that.
-                    share = 1;
-                }
-                int remainder = allocate(recipient, share);
-                // Remove recipients that receive their full allocation so that
-                // they are excluded from the next allocation round.
-                if (remainder > 0) {
-                    iter.remove();
-                }
-                allocated += (share - remainder);
-            }
-            leftToAllocate -= allocated;
-        }
-
-        return 0;
     }
 
 
@@ -1823,10 +1920,12 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
 
         @Override
         public void endFrame() throws IOException {
+            // Flushed by writeHeaders() once all the frames have been written
             try {
+                bytesSinceFlush += header.length + payload.remaining();
                 socketWrapper.write(true, header, 0, header.length);
                 socketWrapper.write(true, payload);
-                socketWrapper.flush(true);
+                framesSinceFlush++;
             } catch (IOException ioe) {
                 handleAppInitiatedIOException(ioe);
             }
@@ -1855,17 +1954,20 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
     }
 
 
-    private static class BacklogTracker {
+    static class BacklogTracker {
 
         private int remainingReservation;
         private int unusedAllocation;
         private boolean notifyInProgress;
+        // Zero if the associated stream is not waiting for an allocation
+        private long waitStart;
 
         public BacklogTracker() {
         }
 
         public BacklogTracker(int reservation) {
             remainingReservation = reservation;
+            waitStart = System.nanoTime();
         }
 
         /**
@@ -1909,13 +2011,35 @@ class Http2UpgradeHandler extends AbstractStream implements InternalHttpUpgradeH
         public void useAllocation() {
             unusedAllocation = 0;
             notifyInProgress = false;
+            // The stream remains on the backlog so it is waiting again
+            waitStart = System.nanoTime();
+        }
+
+        /**
+         * @return The time, as returned by {@link System#nanoTime()}, at which
+         *         the stream started waiting for its current allocation or zero
+         *         if it is not waiting
+         */
+        public long getWaitStart() {
+            return waitStart;
+        }
+
+        public void endWait() {
+            waitStart = 0;
         }
 
         public void startNotify() {
             notifyInProgress = true;
         }
 
-        private int allocate(int allocation) {
+        /**
+         * Allocate up to the given number of bytes to the stream.
+         *
+         * @param allocation The number of bytes available
+         *
+         * @return The number of bytes not required by the stream
+         */
+        int allocate(int allocation) {
             if (remainingReservation >= allocation) {
                 remainingReservation -= allocation;
                 unusedAllocation += allocation;
@@ -0,0 +1,73 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.coyote.http2.Http2UpgradeHandler.BacklogTracker;
+
+/**
+ * Allocates up to one maximum sized frame to each waiting stream in turn,
+ * ignoring priority. The next round starts with the stream after the last one
+ * that received an allocation so that, over successive window updates, every
+ * stream gets the same opportunity to write.
+ */
+class RoundRobinStreamScheduler extends AbstractFlatStreamScheduler {
+
+    private final int quantum;
+    private int lastIdentifier = 0;
+
+
+    RoundRobinStreamScheduler() {
+        this(ConnectionSettingsBase.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+
+    RoundRobinStreamScheduler(int quantum) {
+        this.quantum = quantum;
+    }
+
+
+    @Override
+    protected int allocate(List<Entry<AbstractStream,BacklogTracker>> waiting, int allocation) {
+        int size = waiting.size();
+        // Find the first stream after the one that was allocated to last
+        int start = 0;
+        while (start < size && waiting.get(start).getKey().getIdentifier().intValue() <= lastIdentifier) {
+            start++;
+        }
+
+        int leftToAllocate = allocation;
+        int idle = 0;
+        int i = start;
+        while (leftToAllocate > 0 && idle < size) {
+            Entry<AbstractStream,BacklogTracker> entry = waiting.get(i % size);
+            BacklogTracker tracker = entry.getValue();
+            if (tracker.getRemainingReservation() > 0) {
+                int share = Math.min(quantum, leftToAllocate);
+                leftToAllocate -= share - tracker.allocate(share);
+                lastIdentifier = entry.getKey().getIdentifier().intValue();
+                idle = 0;
+            } else {
+                idle++;
+            }
+            i++;
+        }
+        return leftToAllocate;
+    }
+}
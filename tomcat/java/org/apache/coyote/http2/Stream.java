@@ -18,7 +18,6 @@ package org.apache.coyote.http2;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
@@ -69,6 +68,9 @@ class Stream extends AbstractStream implements HeaderEmitter {
 
     private volatile int weight = Constants.DEFAULT_WEIGHT;
     private volatile long contentLengthReceived = 0;
+    // Total time, in nanoseconds, spent waiting for connection flow control
+    // window allocations. Only modified while holding the connection lock.
+    private volatile long allocationWaitTime = 0;
 
     private final Http2UpgradeHandler handler;
     private final StreamStateMachine state;
@@ -329,6 +331,12 @@ class Stream extends AbstractStream implements HeaderEmitter {
 
     @Override
     public final void emitHeader(String name, String value) throws HpackException {
+        emitHeader(name, (CharSequence) value);
+    }
+
+
+    @Override
+    public final void emitHeader(String name, CharSequence value) throws HpackException {
         if (log.isDebugEnabled()) {
             log.debug(sm.getString("stream.header.debug", getConnectionId(), getIdentifier(),
                     name, value));
@@ -346,7 +354,7 @@ class Stream extends AbstractStream implements HeaderEmitter {
         }
 
         if ("te".equals(name)) {
-            if (!"trailers".equals(value)) {
+            if (!"trailers".contentEquals(value)) {
                 throw new HpackException(sm.getString("stream.header.te",
                         getConnectionId(), getIdentifier(), value));
             }
@@ -380,7 +388,7 @@ class Stream extends AbstractStream implements HeaderEmitter {
         switch (name) {
         case ":method": {
             if (coyoteRequest.method().isNull()) {
-                coyoteRequest.method().setString(value);
+                coyoteRequest.method().setString(value.toString());
             } else {
                 throw new HpackException(sm.getString("stream.header.duplicate",
                         getConnectionId(), getIdentifier(), ":method" ));
@@ -389,7 +397,7 @@ class Stream extends AbstractStream implements HeaderEmitter {
         }
         case ":scheme": {
             if (coyoteRequest.scheme().isNull()) {
-                coyoteRequest.scheme().setString(value);
+                coyoteRequest.scheme().setString(value.toString());
             } else {
                 throw new HpackException(sm.getString("stream.header.duplicate",
                         getConnectionId(), getIdentifier(), ":scheme" ));
@@ -405,38 +413,39 @@ class Stream extends AbstractStream implements HeaderEmitter {
                 throw new HpackException(sm.getString("stream.header.noPath",
                         getConnectionId(), getIdentifier()));
             }
-            int queryStart = value.indexOf('?');
-            String uri;
-            if (queryStart == -1) {
-                uri = value;
-            } else {
-                uri = value.substring(0, queryStart);
-                String query = value.substring(queryStart + 1);
-                coyoteRequest.queryString().setString(query);
-            }
             // Bug 61120. Set the URI as bytes rather than String so:
             // - any path parameters are correctly processed
             // - the normalization security checks are performed that prevent
             //   directory traversal attacks
-            byte[] uriBytes = uri.getBytes(StandardCharsets.ISO_8859_1);
-            coyoteRequest.requestURI().setBytes(uriBytes, 0, uriBytes.length);
+            handler.setHeaderValue(coyoteRequest.requestURI(), value);
+            int len = value.length();
+            for (int i = 0; i < len; i++) {
+                if (value.charAt(i) == '?') {
+                    ByteChunk uriBC = coyoteRequest.requestURI().getByteChunk();
+                    coyoteRequest.queryString().setBytes(uriBC.getBytes(),
+                            uriBC.getStart() + i + 1, len - i - 1);
+                    uriBC.setEnd(uriBC.getStart() + i);
+                    break;
+                }
+            }
             break;
         }
         case ":authority": {
             if (coyoteRequest.serverName().isNull()) {
+                String authority = value.toString();
                 int i;
                 try {
-                    i = Host.parse(value);
+                    i = Host.parse(authority);
                 } catch (IllegalArgumentException iae) {
                     // Host value invalid
                     throw new HpackException(sm.getString("stream.header.invalid",
-                            getConnectionId(), getIdentifier(), ":authority", value));
+                            getConnectionId(), getIdentifier(), ":authority", authority));
                 }
                 if (i > -1) {
-                    coyoteRequest.serverName().setString(value.substring(0, i));
-                    coyoteRequest.setServerPort(Integer.parseInt(value.substring(i + 1)));
+                    coyoteRequest.serverName().setString(authority.substring(0, i));
+                    coyoteRequest.setServerPort(Integer.parseInt(authority.substring(i + 1)));
                 } else {
-                    coyoteRequest.serverName().setString(value);
+                    coyoteRequest.serverName().setString(authority);
                 }
             } else {
                 throw new HpackException(sm.getString("stream.header.duplicate",
@@ -460,7 +469,7 @@ class Stream extends AbstractStream implements HeaderEmitter {
                     !handler.getProtocol().isTrailerHeaderAllowed(name)) {
                 break;
             }
-            if ("expect".equals(name) && "100-continue".equals(value)) {
+            if ("expect".equals(name) && "100-continue".contentEquals(value)) {
                 coyoteRequest.setExpectation(true);
             }
             if (pseudoHeader) {
@@ -471,9 +480,12 @@ class Stream extends AbstractStream implements HeaderEmitter {
 
             if (headerState == HEADER_STATE_TRAILER) {
                 // HTTP/2 headers are already always lower case
-                coyoteRequest.getTrailerFields().put(name, value);
+                coyoteRequest.getTrailerFields().put(name, value.toString());
+            } else if (value instanceof String) {
+                coyoteRequest.getMimeHeaders().addValue(name).setString((String) value);
             } else {
-                coyoteRequest.getMimeHeaders().addValue(name).setString(value);
+                // Avoid creating a String for the value
+                handler.setHeaderValue(coyoteRequest.getMimeHeaders().addValue(name), value);
             }
         }
         }
@@ -636,6 +648,20 @@ class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
+    final void addAllocationWaitTime(long waitTime) {
+        allocationWaitTime += waitTime;
+    }
+
+
+    /**
+     * @return The total time, in nanoseconds, this stream has spent waiting
+     *         for an allocation from the connection flow control window
+     */
+    final long getAllocationWaitTime() {
+        return allocationWaitTime;
+    }
+
+
     final boolean isContentLengthInconsistent() {
         long contentLengthHeader = coyoteRequest.getContentLengthLong();
         if (contentLengthHeader > -1 && contentLengthReceived != contentLengthHeader) {
@@ -0,0 +1,47 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.Map;
+
+import org.apache.coyote.http2.Http2UpgradeHandler.BacklogTracker;
+
+/**
+ * Decides how connection flow control window that becomes available is shared
+ * between the streams that are blocked waiting for it. A new instance is
+ * created for each connection and is only called while holding the lock for
+ * the connection so implementations do not need to be thread-safe.
+ */
+interface StreamScheduler {
+
+    /**
+     * Allocate some or all of the given number of bytes to the streams in the
+     * backlog by calling {@link BacklogTracker#allocate(int)} for the chosen
+     * streams. The backlog includes entries with no remaining reservation for
+     * the ancestors of blocked streams so the priority tree can be traversed.
+     *
+     * @param connection The connection
+     * @param backLog    The streams waiting for an allocation
+     * @param allocation The number of bytes available for allocation
+     *
+     * @return The number of bytes that were not allocated. This must be less
+     *         than <code>allocation</code> unless there are no streams in the
+     *         backlog with a remaining reservation.
+     */
+    int allocate(AbstractStream connection, Map<AbstractStream,BacklogTracker> backLog,
+            int allocation);
+}
@@ -0,0 +1,66 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.coyote.http2.Http2UpgradeHandler.BacklogTracker;
+
+/**
+ * Allocates to one stream at a time. Streams closer to the root of the
+ * priority tree are served first, then streams with a higher weight and then
+ * streams with a lower identifier. A stream receives all of its remaining
+ * reservation before any allocation is made to the next stream so lower
+ * priority streams may be starved while higher priority streams have data to
+ * write.
+ */
+class StrictPriorityStreamScheduler extends AbstractFlatStreamScheduler {
+
+    @Override
+    protected int allocate(List<Entry<AbstractStream,BacklogTracker>> waiting, int allocation) {
+        // Sort is stable so streams of equal priority remain in identifier order
+        Collections.sort(waiting, new PriorityComparator());
+        int leftToAllocate = allocation;
+        for (Entry<AbstractStream,BacklogTracker> entry : waiting) {
+            leftToAllocate = entry.getValue().allocate(leftToAllocate);
+            if (leftToAllocate == 0) {
+                break;
+            }
+        }
+        return leftToAllocate;
+    }
+
+
+    private static class PriorityComparator
+            implements Comparator<Entry<AbstractStream,BacklogTracker>> {
+
+        @Override
+        public int compare(Entry<AbstractStream,BacklogTracker> o1,
+                Entry<AbstractStream,BacklogTracker> o2) {
+            AbstractStream s1 = o1.getKey();
+            AbstractStream s2 = o2.getKey();
+            int result = Integer.compare(getDepth(s1), getDepth(s2));
+            if (result == 0) {
+                result = Integer.compare(s2.getWeight(), s1.getWeight());
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.coyote.http2.Http2UpgradeHandler.BacklogTracker;
+
+/**
+ * Shares the allocation between all the waiting streams in proportion to
+ * their weight, regardless of their position in the priority tree. Any part
+ * of a share that a stream does not need is shared between the remaining
+ * streams.
+ */
+class WeightedFairQueueStreamScheduler extends AbstractFlatStreamScheduler {
+
+    @Override
+    protected int allocate(List<Entry<AbstractStream,BacklogTracker>> waiting, int allocation) {
+        List<Entry<AbstractStream,BacklogTracker>> recipients = new ArrayList<>(waiting);
+        int leftToAllocate = allocation;
+        while (leftToAllocate > 0 && recipients.size() > 0) {
+            int totalWeight = 0;
+            for (Entry<AbstractStream,BacklogTracker> recipient : recipients) {
+                totalWeight += recipient.getKey().getWeight();
+            }
+
+            int available = leftToAllocate;
+            Iterator<Entry<AbstractStream,BacklogTracker>> iter = recipients.iterator();
+            while (iter.hasNext() && leftToAllocate > 0) {
+                Entry<AbstractStream,BacklogTracker> recipient = iter.next();
+                int share = (int) ((long) available * recipient.getKey().getWeight() / totalWeight);
+                if (share == 0) {
+                    // Ensure progress is made when the allocation is small
+                    share = 1;
+                }
+                if (share > leftToAllocate) {
+                    share = leftToAllocate;
+                }
+                int remainder = recipient.getValue().allocate(share);
+                if (recipient.getValue().getRemainingReservation() == 0) {
+                    iter.remove();
+                }
+                leftToAllocate -= (share - remainder);
+            }
+        }
+        return leftToAllocate;
+    }
+}
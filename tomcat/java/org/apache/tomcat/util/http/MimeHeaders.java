@@ -19,8 +19,12 @@ package org.apache.tomcat.util.http;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Enumeration;
 
+import org.apache.tomcat.util.buf.Ascii;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.res.StringManager;
 
@@ -55,9 +59,13 @@ import org.apache.tomcat.util.res.StringManager;
    Apache seems to be using a similar method for storing and manipulating
    headers.
 
+   Once there are INDEX_THRESHOLD or more headers, the first lookup by name
+   builds a case-insensitive hash index of the header names. The index is
+   extended as headers are added, discarded when headers are removed and
+   rebuilt by the next lookup. The arrays that hold the index are retained
+   when the headers are recycled.
+
    Future enhancements:
-   - hash the headers the first time a header is requested ( i.e. if the
-   servlet needs direct access to headers).
    - scan "common" values ( length, cookies, etc ) during the parse
    ( addHeader hook )
 
@@ -94,6 +102,12 @@ public class MimeHeaders {
      */
     public static final int DEFAULT_HEADER_SIZE=8;
 
+    /**
+     * The number of headers at which lookups by name switch from a linear scan
+     * to the hash index of the header names.
+     */
+    static final int INDEX_THRESHOLD = 16;
+
     private static final StringManager sm =
             StringManager.getManager("org.apache.tomcat.util.http");
 
@@ -113,6 +127,36 @@ public class MimeHeaders {
      */
     private int limit = -1;
 
+    /**
+     * The hash index of the header names. Each slot holds the position + 1 of
+     * the most recently added header with a name that hashes to that slot or
+     * zero if there is no such header.
+     */
+    private int[] indexTable;
+
+    /**
+     * For each header, the position + 1 of the previous header with a name
+     * that hashes to the same slot of the index or zero if there is no such
+     * header. Chains are therefore always in descending order of position.
+     */
+    private int[] indexNext;
+
+    /**
+     * The case-insensitive hash of each header name.
+     */
+    private int[] indexHash;
+
+    /**
+     * Is the index up to date with the current headers?
+     */
+    private boolean indexValid = false;
+
+    /**
+     * Has a header name been found that the index can't handle? The index is
+     * not used until the headers are next removed or cleared.
+     */
+    private boolean indexDisabled = false;
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
@@ -131,6 +175,7 @@ public class MimeHeaders {
             MimeHeaderField tmp[] = new MimeHeaderField[limit];
             System.arraycopy(headers, 0, tmp, 0, count);
             headers = tmp;
+            invalidateIndex();
         }
     }
 
@@ -150,6 +195,7 @@ public class MimeHeaders {
             headers[i].recycle();
         }
         count = 0;
+        invalidateIndex();
     }
 
     /**
@@ -179,6 +225,7 @@ public class MimeHeaders {
             MimeHeaderField mhf = createHeader();
             mhf.getName().duplicate(source.getName(i));
             mhf.getValue().duplicate(source.getValue(i));
+            headerAdded();
         }
     }
 
@@ -217,13 +264,26 @@ public class MimeHeaders {
      * @return the header index
      */
     public int findHeader( String name, int starting ) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
-
-        // A custom search tree may be better
+        // Most requests and responses have a small number of headers and a
+        // linear scan is faster than constructing the index
+        if (count >= INDEX_THRESHOLD && buildIndex()) {
+            int hash = 0;
+            boolean ascii = true;
+            int len = name.length();
+            for (int i = 0; i < len; i++) {
+                char c = name.charAt(i);
+                if (c > 0x7F) {
+                    // Non-ASCII names may match using the Unicode case
+                    // mapping rules applied by String.equalsIgnoreCase()
+                    ascii = false;
+                    break;
+                }
+                hash = 31 * hash + Ascii.toLower(c);
+            }
+            if (ascii) {
+                return findIndexed(name, hash, starting);
+            }
+        }
         for (int i = starting; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 return i;
@@ -288,6 +348,7 @@ public class MimeHeaders {
     public MessageBytes addValue( String name ) {
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        headerAdded();
         return mh.getValue();
     }
 
@@ -303,6 +364,7 @@ public class MimeHeaders {
     public MessageBytes addValue(byte b[], int startN, int len) {
         MimeHeaderField mhf=createHeader();
         mhf.getName().setBytes(b, startN, len);
+        headerAdded();
         return mhf.getValue();
     }
 
@@ -313,18 +375,18 @@ public class MimeHeaders {
      * @return the message bytes container for the value
      */
     public MessageBytes setValue( String name ) {
-        for ( int i = 0; i < count; i++ ) {
-            if(headers[i].getName().equalsIgnoreCase(name)) {
-                for ( int j=i+1; j < count; j++ ) {
-                    if(headers[j].getName().equalsIgnoreCase(name)) {
-                        removeHeader(j--);
-                    }
-                }
-                return headers[i].getValue();
+        int i = findHeader(name, 0);
+        if (i >= 0) {
+            // Removing a header only moves headers after the one removed
+            int j;
+            while ((j = findHeader(name, i + 1)) >= 0) {
+                removeHeader(j);
             }
+            return headers[i].getValue();
         }
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        headerAdded();
         return mh.getValue();
     }
 
@@ -337,12 +399,8 @@ public class MimeHeaders {
      * @return the value
      */
     public MessageBytes getValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return headers[i].getValue();
-            }
-        }
-        return null;
+        int i = findHeader(name, 0);
+        return i >= 0 ? headers[i].getValue() : null;
     }
 
     /**
@@ -354,17 +412,14 @@ public class MimeHeaders {
      * @throws IllegalArgumentException if the header has multiple values
      */
     public MessageBytes getUniqueValue(String name) {
-        MessageBytes result = null;
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                if (result == null) {
-                    result = headers[i].getValue();
-                } else {
-                    throw new IllegalArgumentException();
-                }
-            }
+        int i = findHeader(name, 0);
+        if (i < 0) {
+            return null;
         }
-        return result;
+        if (findHeader(name, i + 1) >= 0) {
+            throw new IllegalArgumentException();
+        }
+        return headers[i].getValue();
     }
 
     // bad shortcut - it'll convert to string ( too early probably,
@@ -402,8 +457,122 @@ public class MimeHeaders {
         headers[idx] = headers[count - 1];
         headers[count - 1] = mh;
         count--;
+        invalidateIndex();
     }
 
+    // -------------------- Index --------------------
+
+    private void invalidateIndex() {
+        indexValid = false;
+        indexDisabled = false;
+    }
+
+    /**
+     * Add the most recently created header to the index if the index is in
+     * use. Must be called once the name of the header has been set.
+     */
+    private void headerAdded() {
+        if (indexValid) {
+            int idx = count - 1;
+            if (idx >= indexNext.length) {
+                // Headers array has been expanded. Rebuild on next use.
+                indexValid = false;
+            } else if (!addToIndex(idx)) {
+                indexValid = false;
+                indexDisabled = true;
+            }
+        }
+    }
+
+    /**
+     * Ensure the index is up to date with the current headers.
+     *
+     * @return {@code true} if the index may be used
+     */
+    private boolean buildIndex() {
+        if (indexValid) {
+            return true;
+        }
+        if (indexDisabled) {
+            return false;
+        }
+        int len = headers.length;
+        // Keep the load factor at or below 0.5
+        int tableSize = Integer.highestOneBit(len) << 2;
+        if (indexTable == null || indexTable.length < tableSize) {
+            indexTable = new int[tableSize];
+        } else {
+            Arrays.fill(indexTable, 0);
+        }
+        if (indexNext == null || indexNext.length < len) {
+            indexNext = new int[len];
+            indexHash = new int[len];
+        }
+        for (int i = 0; i < count; i++) {
+            if (!addToIndex(i)) {
+                indexDisabled = true;
+                return false;
+            }
+        }
+        indexValid = true;
+        return true;
+    }
+
+    private boolean addToIndex(int idx) {
+        MessageBytes name = headers[idx].getName();
+        int hash = 0;
+        switch (name.getType()) {
+        case MessageBytes.T_BYTES: {
+            ByteChunk bc = name.getByteChunk();
+            byte[] b = bc.getBuffer();
+            int end = bc.getEnd();
+            for (int i = bc.getStart(); i < end; i++) {
+                hash = 31 * hash + Ascii.toLower(b[i]);
+            }
+            break;
+        }
+        case MessageBytes.T_CHARS: {
+            CharChunk cc = name.getCharChunk();
+            char[] c = cc.getBuffer();
+            int end = cc.getEnd();
+            for (int i = cc.getStart(); i < end; i++) {
+                hash = 31 * hash + Ascii.toLower(c[i]);
+            }
+            break;
+        }
+        case MessageBytes.T_STR: {
+            String s = name.getString();
+            int len = s.length();
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c > 0x7F) {
+                    return false;
+                }
+                hash = 31 * hash + Ascii.toLower(c);
+            }
+            break;
+        }
+        default:
+            // Null names never match
+        }
+        int slot = (hash ^ (hash >>> 16)) & (indexTable.length - 1);
+        indexHash[idx] = hash;
+        indexNext[idx] = indexTable[slot];
+        indexTable[slot] = idx + 1;
+        return true;
+    }
+
+    private int findIndexed(String name, int hash, int starting) {
+        int result = -1;
+        int i = indexTable[(hash ^ (hash >>> 16)) & (indexTable.length - 1)] - 1;
+        while (i >= starting) {
+            if (indexHash[i] == hash && headers[i].getName().equalsIgnoreCase(name)) {
+                result = i;
+            }
+            i = indexNext[i] - 1;
+        }
+        return result;
+    }
 }
 
 /** Enumerate the distinct header names.
@@ -480,11 +649,12 @@ class ValuesEnumerator implements Enumeration<String> {
 
     private void findNext() {
         next=null;
-        for(; pos< size; pos++ ) {
-            MessageBytes n1=headers.getName( pos );
-            if( n1.equalsIgnoreCase( name )) {
+        if (pos < size) {
+            pos = headers.findHeader(name, pos);
+            if (pos >= 0 && pos < size) {
                 next=headers.getValue( pos );
-                break;
+            } else {
+                pos = size;
             }
         }
         pos++;
@@ -16,18 +16,22 @@
  */
 package org.apache.tomcat.util.http;
 
+import java.io.CharConversionException;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.buf.StringUtils;
 import org.apache.tomcat.util.buf.UDecoder;
@@ -64,6 +68,39 @@ public final class Parameters {
     private int limit = -1;
     private int parameterCount = 0;
 
+    /*
+     * Lazy parsing. Parsing only records the position of each name and value
+     * in the source byte array. Names are decoded the first time a parameter is
+     * looked up and values are decoded the first time they are accessed. The
+     * parameters are only copied to paramHashValues if a parameter is added
+     * directly.
+     *
+     * The arrays are retained when the Parameters are recycled.
+     */
+    private static final int LAZY_STRIDE = 5;
+    private static final int LAZY_DECODE_NAME = 1;
+    private static final int LAZY_DECODE_VALUE = 2;
+    private static final int LAZY_SOURCE_SHIFT = 2;
+
+    private boolean lazy = false;
+    private int lazyCount = 0;
+    // Per parameter: name start, name end, value start (-1 if no value),
+    // value end and source index << LAZY_SOURCE_SHIFT | decode flags
+    private int[] lazyPositions;
+    private String[] lazyNames;
+    private String[] lazyValues;
+    // Per parameter: 1 + the next parameter with the same name, else 0
+    private int[] lazyNext;
+    // Per parameter: 1 + the last parameter with the same name if this is the
+    // first parameter with that name, else 0
+    private int[] lazyLast;
+    // Hash table of 1 + the first parameter with each name
+    private int[] lazyTable;
+    private int lazyIndexedCount = 0;
+    private byte[][] lazySources = new byte[2][];
+    private Charset[] lazySourceCharsets = new Charset[2];
+    private int lazySourceCount = 0;
+
     /**
      * Set to the reason for the failure (the first failure if there is more
      * than one) if there were failures during parameter parsing.
@@ -82,6 +119,23 @@ public final class Parameters {
         this.limit = limit;
     }
 
+    /**
+     * Configure lazy parsing of parameters. When enabled, parsing records the
+     * position of each parameter name and value and decoding is delayed
+     * until the parameter is accessed. The byte arrays passed to
+     * {@link #processParameters(byte[], int, int)} must not be modified until
+     * this object is recycled.
+     *
+     * @param lazy {@code true} to enable lazy parsing
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
     public Charset getCharset() {
         return charset;
     }
@@ -128,6 +182,7 @@ public final class Parameters {
     public void recycle() {
         parameterCount = 0;
         paramHashValues.clear();
+        recycleLazy();
         didQueryParameters = false;
         charset = DEFAULT_BODY_CHARSET;
         decodedQuery.recycle();
@@ -141,6 +196,9 @@ public final class Parameters {
 
     public String[] getParameterValues(String name) {
         handleQueryParameters();
+        if (lazyCount > 0) {
+            return getLazyParameterValues(name);
+        }
         // no "facade"
         ArrayList<String> values = paramHashValues.get(name);
         if (values == null) {
@@ -151,11 +209,18 @@ public final class Parameters {
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
+        if (lazyCount > 0) {
+            return Collections.enumeration(getLazyParameterNames());
+        }
         return Collections.enumeration(paramHashValues.keySet());
     }
 
     public String getParameter(String name ) {
         handleQueryParameters();
+        if (lazyCount > 0) {
+            int i = findLazy(name);
+            return i < 0 ? null : getLazyValue(i);
+        }
         ArrayList<String> values = paramHashValues.get(name);
         if (values != null) {
             if(values.size() == 0) {
@@ -201,13 +266,11 @@ public final class Parameters {
             return;
         }
 
-        parameterCount ++;
-        if (limit > -1 && parameterCount > limit) {
-            // Processing this parameter will push us over the limit. ISE is
-            // what Request.parseParts() uses for requests that are too big
-            setParseFailedReason(FailReason.TOO_MANY_PARAMETERS);
-            throw new IllegalStateException(sm.getString(
-                    "parameters.maxCountFail", Integer.valueOf(limit)));
+        incrementParameterCount();
+
+        if (lazyCount > 0) {
+            // Keep the parameters in the order they were added
+            copyLazyParameters();
         }
 
         ArrayList<String> values = paramHashValues.get(key);
@@ -218,6 +281,17 @@ public final class Parameters {
         values.add(value);
     }
 
+    private void incrementParameterCount() {
+        parameterCount ++;
+        if (limit > -1 && parameterCount > limit) {
+            // Processing this parameter will push us over the limit. ISE is
+            // what Request.parseParts() uses for requests that are too big
+            setParseFailedReason(FailReason.TOO_MANY_PARAMETERS);
+            throw new IllegalStateException(sm.getString(
+                    "parameters.maxCountFail", Integer.valueOf(limit)));
+        }
+    }
+
     public void setURLDecoder( UDecoder u ) {
         urlDec=u;
     }
@@ -249,6 +323,13 @@ public final class Parameters {
         int pos = start;
         int end = start + len;
 
+        // Once parameters have been added directly, later parameters are
+        // parsed eagerly to retain the order in which they were added
+        int source = -1;
+        if (lazy && paramHashValues.isEmpty()) {
+            source = addLazySource(bytes, charset);
+        }
+
         while(pos < end) {
             int nameStart = pos;
             int nameEnd = -1;
@@ -377,27 +458,43 @@ public final class Parameters {
             }
 
             try {
-                String name;
-                String value;
-
-                if (decodeName) {
-                    urlDecode(tmpName);
-                }
-                tmpName.setCharset(charset);
-                name = tmpName.toString();
-
-                if (valueStart >= 0) {
-                    if (decodeValue) {
-                        urlDecode(tmpValue);
+                String name = null;
+                String value = null;
+
+                if (source >= 0) {
+                    // Check the encoding now so invalid parameters are handled
+                    // as if they had been parsed eagerly
+                    if (decodeName) {
+                        checkUrlEncoding(tmpName);
+                    }
+                    if (valueStart >= 0 && decodeValue) {
+                        checkUrlEncoding(tmpValue);
                     }
-                    tmpValue.setCharset(charset);
-                    value = tmpValue.toString();
                 } else {
-                    value = "";
+                    if (decodeName) {
+                        urlDecode(tmpName);
+                    }
+                    tmpName.setCharset(charset);
+                    name = tmpName.toString();
+
+                    if (valueStart >= 0) {
+                        if (decodeValue) {
+                            urlDecode(tmpValue);
+                        }
+                        tmpValue.setCharset(charset);
+                        value = tmpValue.toString();
+                    } else {
+                        value = "";
+                    }
                 }
 
                 try {
-                    addParameter(name, value);
+                    if (source >= 0) {
+                        addLazyParameter(source, nameStart, nameEnd, valueStart, valueEnd,
+                                decodeName, decodeValue);
+                    } else {
+                        addParameter(name, value);
+                    }
                 } catch (IllegalStateException ise) {
                     // Hitting limit stops processing further params but does
                     // not cause request to fail.
@@ -483,6 +580,24 @@ public final class Parameters {
         urlDec.convert(bc, true);
     }
 
+    /*
+     * Applies the same checks as UDecoder.convert(ByteChunk, true) without
+     * modifying the bytes.
+     */
+    private static void checkUrlEncoding(ByteChunk bc) throws IOException {
+        byte[] buff = bc.getBytes();
+        int end = bc.getEnd();
+        for (int j = bc.getStart(); j < end; j++) {
+            if (buff[j] == '%') {
+                if (j + 2 >= end || HexUtils.getDec(buff[j + 1]) < 0 ||
+                        HexUtils.getDec(buff[j + 2]) < 0) {
+                    throw new CharConversionException(sm.getString("parameters.invalidEncoding"));
+                }
+                j += 2;
+            }
+        }
+    }
+
     public void processParameters(MessageBytes data, Charset charset) {
         if( data==null || data.isNull() || data.getLength() <= 0 ) {
             return;
@@ -495,12 +610,223 @@ public final class Parameters {
         processParameters(bc.getBytes(), bc.getOffset(), bc.getLength(), charset);
     }
 
+    // -------------------- Lazy parsing --------------------
+
+    private int addLazySource(byte[] bytes, Charset charset) {
+        if (lazySourceCount == lazySources.length) {
+            lazySources = Arrays.copyOf(lazySources, lazySourceCount * 2);
+            lazySourceCharsets = Arrays.copyOf(lazySourceCharsets, lazySourceCount * 2);
+        }
+        lazySources[lazySourceCount] = bytes;
+        lazySourceCharsets[lazySourceCount] = charset;
+        return lazySourceCount++;
+    }
+
+
+    private void addLazyParameter(int source, int nameStart, int nameEnd, int valueStart,
+            int valueEnd, boolean decodeName, boolean decodeValue) {
+        incrementParameterCount();
+
+        if (lazyNames == null || lazyCount == lazyNames.length) {
+            int size = lazyNames == null ? 16 : lazyCount * 2;
+            lazyPositions = lazyPositions == null ? new int[size * LAZY_STRIDE] :
+                    Arrays.copyOf(lazyPositions, size * LAZY_STRIDE);
+            lazyNames = lazyNames == null ? new String[size] : Arrays.copyOf(lazyNames, size);
+            lazyValues = lazyValues == null ? new String[size] : Arrays.copyOf(lazyValues, size);
+            lazyNext = new int[size];
+            lazyLast = new int[size];
+            // Index needs to be rebuilt for the new sizes
+            lazyIndexedCount = 0;
+        }
+        int offset = lazyCount * LAZY_STRIDE;
+        lazyPositions[offset] = nameStart;
+        lazyPositions[offset + 1] = nameEnd;
+        lazyPositions[offset + 2] = valueStart;
+        lazyPositions[offset + 3] = valueEnd;
+        lazyPositions[offset + 4] = source << LAZY_SOURCE_SHIFT |
+                (decodeName ? LAZY_DECODE_NAME : 0) | (decodeValue ? LAZY_DECODE_VALUE : 0);
+        lazyCount++;
+    }
+
+
+    private void recycleLazy() {
+        if (lazyCount > 0) {
+            Arrays.fill(lazyNames, 0, lazyCount, null);
+            Arrays.fill(lazyValues, 0, lazyCount, null);
+            lazyCount = 0;
+        }
+        lazyIndexedCount = 0;
+        Arrays.fill(lazySources, 0, lazySourceCount, null);
+        Arrays.fill(lazySourceCharsets, 0, lazySourceCount, null);
+        lazySourceCount = 0;
+    }
+
+
+    /*
+     * Moves the lazily parsed parameters to paramHashValues.
+     */
+    private void copyLazyParameters() {
+        indexLazy();
+        for (int i = 0; i < lazyCount; i++) {
+            if (lazyLast[i] != 0) {
+                ArrayList<String> values = new ArrayList<>(1);
+                for (int j = i; j >= 0; j = lazyNext[j] - 1) {
+                    values.add(getLazyValue(j));
+                }
+                paramHashValues.put(lazyNames[i], values);
+            }
+        }
+        recycleLazy();
+    }
+
+
+    private String[] getLazyParameterValues(String name) {
+        int i = findLazy(name);
+        if (i < 0) {
+            return null;
+        }
+        int count = 0;
+        for (int j = i; j >= 0; j = lazyNext[j] - 1) {
+            count++;
+        }
+        String[] result = new String[count];
+        count = 0;
+        for (int j = i; j >= 0; j = lazyNext[j] - 1) {
+            result[count++] = getLazyValue(j);
+        }
+        return result;
+    }
+
+
+    private List<String> getLazyParameterNames() {
+        indexLazy();
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < lazyCount; i++) {
+            if (lazyLast[i] != 0) {
+                result.add(lazyNames[i]);
+            }
+        }
+        return result;
+    }
+
+
+    /*
+     * Returns the first parameter with the given name or -1 if there is no
+     * such parameter.
+     */
+    private int findLazy(String name) {
+        indexLazy();
+        int mask = lazyTable.length - 1;
+        int slot = spread(name.hashCode()) & mask;
+        int i;
+        while ((i = lazyTable[slot] - 1) >= 0) {
+            if (lazyNames[i].equals(name)) {
+                return i;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+
+    /*
+     * Decodes the names of any parameters parsed since the index was last
+     * updated and adds them to the index.
+     */
+    private void indexLazy() {
+        if (lazyIndexedCount == lazyCount) {
+            return;
+        }
+        // Keep the load factor at or below 0.5
+        int tableSize = Integer.highestOneBit(lazyNames.length) << 2;
+        if (lazyIndexedCount == 0) {
+            if (lazyTable == null || lazyTable.length != tableSize) {
+                lazyTable = new int[tableSize];
+            } else {
+                Arrays.fill(lazyTable, 0);
+            }
+        }
+        int mask = lazyTable.length - 1;
+        for (int i = lazyIndexedCount; i < lazyCount; i++) {
+            String name = lazyNames[i];
+            if (name == null) {
+                name = decodeLazy(i, false);
+                lazyNames[i] = name;
+            }
+            lazyNext[i] = 0;
+            lazyLast[i] = 0;
+            int slot = spread(name.hashCode()) & mask;
+            int first;
+            while ((first = lazyTable[slot] - 1) >= 0 && !lazyNames[first].equals(name)) {
+                slot = (slot + 1) & mask;
+            }
+            if (first < 0) {
+                lazyTable[slot] = i + 1;
+                lazyLast[i] = i + 1;
+            } else {
+                lazyNext[lazyLast[first] - 1] = i + 1;
+                lazyLast[first] = i + 1;
+            }
+        }
+        lazyIndexedCount = lazyCount;
+    }
+
+
+    private String getLazyValue(int i) {
+        String value = lazyValues[i];
+        if (value == null) {
+            if (lazyPositions[i * LAZY_STRIDE + 2] < 0) {
+                value = "";
+            } else {
+                value = decodeLazy(i, true);
+            }
+            lazyValues[i] = value;
+        }
+        return value;
+    }
+
+
+    private String decodeLazy(int i, boolean value) {
+        int offset = i * LAZY_STRIDE;
+        int flags = lazyPositions[offset + 4];
+        int source = flags >>> LAZY_SOURCE_SHIFT;
+        if (value) {
+            offset += 2;
+        }
+        int start = lazyPositions[offset];
+        tmpName.setBytes(lazySources[source], start, lazyPositions[offset + 1] - start);
+        try {
+            if ((flags & (value ? LAZY_DECODE_VALUE : LAZY_DECODE_NAME)) != 0) {
+                urlDecode(tmpName);
+            }
+        } catch (IOException ioe) {
+            // Can't happen. The encoding was checked during parsing.
+        }
+        tmpName.setCharset(lazySourceCharsets[source]);
+        String result = tmpName.toString();
+        tmpName.recycle();
+        return result;
+    }
+
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+
     /**
      * Debug purpose
      */
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
+        if (lazyCount > 0) {
+            for (String name : getLazyParameterNames()) {
+                sb.append(name).append('=');
+                StringUtils.join(getLazyParameterValues(name), ',', sb);
+                sb.append('\n');
+            }
+        }
         for (Map.Entry<String, ArrayList<String>> e : paramHashValues.entrySet()) {
             sb.append(e.getKey()).append('=');
             StringUtils.join(e.getValue(), ',', sb);
@@ -18,6 +18,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -28,14 +29,18 @@ import org.apache.juli.logging.Log;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
 import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.Acceptor.AcceptorState;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.ExecutorTaskQueue;
 import org.apache.tomcat.util.threads.LimitLatch;
+import org.apache.tomcat.util.threads.LockFreeTaskQueue;
 import org.apache.tomcat.util.threads.ResizableExecutor;
 import org.apache.tomcat.util.threads.TaskQueue;
 import org.apache.tomcat.util.threads.TaskThreadFactory;
 import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
 
 /**
  * @param <S> The type used by the socket wrapper associated with this endpoint. May be the same as U.
@@ -311,6 +316,21 @@ public abstract class AbstractEndpoint<S, U> {
     protected abstract void createSSLContext(SSLHostConfig sslHostConfig) throws Exception;
 
 
+    /**
+     * Apply the session ticket keys, if managed by Tomcat, to the newly
+     * created SSLContext(s) for the given SSLHostConfig, generating the
+     * initial keys if required.
+     *
+     * @param sslHostConfig The SSLHostConfig for which the SSLContext(s) have
+     *                      been created
+     */
+    protected void configureSessionTicketKeys(SSLHostConfig sslHostConfig) {
+        SessionTicketKeyManager sessionTicketKeyManager = sslHostConfig.getSessionTicketKeyManager();
+        sessionTicketKeyManager.apply();
+        sessionTicketKeyManager.rotateIfDue(System.currentTimeMillis());
+    }
+
+
     protected void destroySsl() throws Exception {
         if (isSSLEnabled()) {
             for (SSLHostConfig sslHostConfig : sslHostConfigs.values()) {
@@ -512,6 +532,12 @@ public abstract class AbstractEndpoint<S, U> {
     }
 
 
+    /**
+     * Periodic check for session ticket keys that are due to be rotated.
+     */
+    private volatile ScheduledFuture<?> sessionTicketKeyFuture = null;
+
+
     /**
      * Server socket port.
      */
@@ -745,6 +771,8 @@ public abstract class AbstractEndpoint<S, U> {
             // j.u.c.ThreadPoolExecutor but it may be null if the endpoint is not running.
             // This check also avoids various threading issues.
             ((java.util.concurrent.ThreadPoolExecutor) executor).setMaximumPoolSize(maxThreads);
+        } else if (internalExecutor && executor instanceof VirtualThreadExecutor) {
+            ((VirtualThreadExecutor) executor).setMaxThreads(maxThreads);
         }
     }
 
@@ -757,6 +785,38 @@ public abstract class AbstractEndpoint<S, U> {
     }
 
 
+    /**
+     * Use virtual threads rather than a pool of platform threads to process
+     * requests. Requires Java 21 or later. When enabled, {@link #getMaxThreads()}
+     * limits the number of concurrently executing tasks rather than the number
+     * of threads.
+     */
+    private boolean useVirtualThreads = false;
+
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    public boolean getUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+
+    /**
+     * Use a lock-free task queue for the internal executor rather than the
+     * default {@link TaskQueue}.
+     */
+    private boolean useLockFreeTaskQueue = false;
+
+    public void setUseLockFreeTaskQueue(boolean useLockFreeTaskQueue) {
+        this.useLockFreeTaskQueue = useLockFreeTaskQueue;
+    }
+
+    public boolean getUseLockFreeTaskQueue() {
+        return useLockFreeTaskQueue;
+    }
+
+
     /**
      * Priority of the worker threads.
      */
@@ -993,7 +1053,19 @@ public abstract class AbstractEndpoint<S, U> {
 
     public void createExecutor() {
         internalExecutor = true;
-        TaskQueue taskqueue = new TaskQueue();
+        if (getUseVirtualThreads()) {
+            if (JreCompat.isJre21Available()) {
+                executor = new VirtualThreadExecutor(getName() + "-virt-", getMaxThreads(), Integer.MAX_VALUE);
+                return;
+            }
+            getLog().warn(sm.getString("endpoint.warn.noVirtualThreads", getName()));
+        }
+        ExecutorTaskQueue taskqueue;
+        if (getUseLockFreeTaskQueue()) {
+            taskqueue = new LockFreeTaskQueue();
+        } else {
+            taskqueue = new TaskQueue();
+        }
         TaskThreadFactory tf = new TaskThreadFactory(getName() + "-exec-", daemon, getThreadPriority());
         executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), 60, TimeUnit.SECONDS, taskqueue, tf);
         taskqueue.setParent((ThreadPoolExecutor) executor);
@@ -1018,8 +1090,21 @@ public abstract class AbstractEndpoint<S, U> {
                         getLog().warn(sm.getString("endpoint.warn.executorShutdown", getName()));
                     }
                 }
-                TaskQueue queue = (TaskQueue) tpe.getQueue();
+                ExecutorTaskQueue queue = (ExecutorTaskQueue) tpe.getQueue();
                 queue.setParent(null);
+            } else if (executor instanceof VirtualThreadExecutor) {
+                VirtualThreadExecutor vte = (VirtualThreadExecutor) executor;
+                vte.shutdownNow();
+                long timeout = getExecutorTerminationTimeoutMillis();
+                if (timeout > 0) {
+                    try {
+                        if (!vte.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                            getLog().warn(sm.getString("endpoint.warn.executorShutdown", getName()));
+                        }
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                }
             }
         }
     }
@@ -1293,6 +1378,10 @@ public abstract class AbstractEndpoint<S, U> {
             bindState = BindState.BOUND_ON_START;
         }
         startInternal();
+        if (isSSLEnabled()) {
+            sessionTicketKeyFuture = getUtilityExecutor().scheduleWithFixedDelay(
+                    new SessionTicketKeyRotation(), 1, 1, TimeUnit.SECONDS);
+        }
     }
 
 
@@ -1331,6 +1420,10 @@ public abstract class AbstractEndpoint<S, U> {
     }
 
     public final void stop() throws Exception {
+        if (sessionTicketKeyFuture != null) {
+            sessionTicketKeyFuture.cancel(false);
+            sessionTicketKeyFuture = null;
+        }
         stopInternal();
         if (bindState == BindState.BOUND_ON_START || bindState == BindState.SOCKET_CLOSED_ON_STOP) {
             unbind();
@@ -1440,4 +1533,22 @@ public abstract class AbstractEndpoint<S, U> {
      * @param socket The newly accepted socket
      */
     protected abstract void destroySocket(U socket);
-}
\ No newline at end of file
+
+
+    private class SessionTicketKeyRotation implements Runnable {
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            for (SSLHostConfig sslHostConfig : sslHostConfigs.values()) {
+                try {
+                    sslHostConfig.getSessionTicketKeyManager().rotateIfDue(now);
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    getLog().warn(sm.getString("sessionTicketKeyManager.rotateFail",
+                            sslHostConfig.getHostName()), t);
+                }
+            }
+        }
+    }
+}
@@ -24,12 +24,19 @@ import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLParameters;
 
 import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.openssl.ciphers.Cipher;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 public abstract class AbstractJsseEndpoint<S,U> extends AbstractEndpoint<S,U> {
 
@@ -38,6 +45,20 @@ public abstract class AbstractJsseEndpoint<S,U> extends AbstractEndpoint<S,U> {
 
     private SSLImplementation sslImplementation = null;
 
+    /*
+     * Upper bounds, in milliseconds, of the buckets of the handshake time
+     * histogram. There is an additional bucket for longer handshakes.
+     */
+    private static final long[] HANDSHAKE_TIME_BOUNDS =
+            new long[] { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+    private int handshakeThreads = 0;
+    private int handshakeQueueSize = 1000;
+    private volatile ThreadPoolExecutor handshakeExecutor = null;
+    private final LongAdder handshakeTasksRejected = new LongAdder();
+    private final AtomicLongArray handshakeTimeHistogram =
+            new AtomicLongArray(HANDSHAKE_TIME_BOUNDS.length + 1);
+
     public String getSslImplementationName() {
         return sslImplementationName;
     }
@@ -63,6 +84,145 @@ public abstract class AbstractJsseEndpoint<S,U> extends AbstractEndpoint<S,U> {
     }
 
 
+    public int getHandshakeThreads() {
+        return handshakeThreads;
+    }
+
+
+    /**
+     * Set the number of threads used to execute the delegated tasks (the
+     * CPU intensive key exchange and signature operations) of TLS handshakes.
+     * If zero, the default, the tasks are executed by the thread processing
+     * the socket. Using a separate, bounded pool of threads limits the impact
+     * of a burst of new TLS connections on requests for connections that have
+     * already completed the handshake.
+     *
+     * @param handshakeThreads The number of handshake threads
+     */
+    public void setHandshakeThreads(int handshakeThreads) {
+        this.handshakeThreads = handshakeThreads;
+    }
+
+
+    public int getHandshakeQueueSize() {
+        return handshakeQueueSize;
+    }
+
+
+    /**
+     * Set the maximum number of handshakes that may be waiting for a handshake
+     * thread. If the queue is full, the delegated tasks are executed by the
+     * thread processing the socket.
+     *
+     * @param handshakeQueueSize The maximum queue size
+     */
+    public void setHandshakeQueueSize(int handshakeQueueSize) {
+        this.handshakeQueueSize = handshakeQueueSize;
+    }
+
+
+    /**
+     * @return The number of handshakes currently executing delegated tasks on
+     *         the handshake threads
+     */
+    public int getHandshakeTasksActive() {
+        ThreadPoolExecutor handshakeExecutor = this.handshakeExecutor;
+        return handshakeExecutor == null ? 0 : handshakeExecutor.getActiveCount();
+    }
+
+
+    /**
+     * @return The number of handshakes waiting for a handshake thread
+     */
+    public int getHandshakeTasksQueued() {
+        ThreadPoolExecutor handshakeExecutor = this.handshakeExecutor;
+        return handshakeExecutor == null ? 0 : handshakeExecutor.getQueue().size();
+    }
+
+
+    /**
+     * @return The number of times the delegated tasks of a handshake were
+     *         executed by the thread processing the socket because the
+     *         handshake queue was full
+     */
+    public long getHandshakeTasksRejected() {
+        return handshakeTasksRejected.sum();
+    }
+
+
+    /**
+     * @return The upper bounds, in milliseconds, of the buckets of
+     *         {@link #getHandshakeTimeHistogram()}. The final bucket of the
+     *         histogram counts the handshakes that took longer than the
+     *         last bound.
+     */
+    public long[] getHandshakeTimeHistogramBounds() {
+        return HANDSHAKE_TIME_BOUNDS.clone();
+    }
+
+
+    /**
+     * @return The number of completed TLS handshakes in each bucket of
+     *         handshake time, measured from the first handshake data being
+     *         processed until the handshake completes
+     */
+    public long[] getHandshakeTimeHistogram() {
+        long[] result = new long[handshakeTimeHistogram.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = handshakeTimeHistogram.get(i);
+        }
+        return result;
+    }
+
+
+    /**
+     * @return The total number of completed TLS handshakes
+     */
+    public long getHandshakeCount() {
+        long result = 0;
+        for (int i = 0; i < handshakeTimeHistogram.length(); i++) {
+            result += handshakeTimeHistogram.get(i);
+        }
+        return result;
+    }
+
+
+    void recordHandshakeTime(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < HANDSHAKE_TIME_BOUNDS.length && millis >= HANDSHAKE_TIME_BOUNDS[bucket]) {
+            bucket++;
+        }
+        handshakeTimeHistogram.incrementAndGet(bucket);
+    }
+
+
+    /**
+     * Execute the given delegated tasks for a TLS handshake on the handshake
+     * threads.
+     *
+     * @param tasks The tasks to execute. Once complete, the tasks are
+     *              responsible for resuming processing of the socket.
+     *
+     * @return <code>true</code> if the tasks will be executed by the handshake
+     *         threads or <code>false</code> if the caller must execute the
+     *         tasks as there are no handshake threads or the queue is full
+     */
+    boolean executeHandshakeTasks(Runnable tasks) {
+        ThreadPoolExecutor handshakeExecutor = this.handshakeExecutor;
+        if (handshakeExecutor == null) {
+            return false;
+        }
+        try {
+            handshakeExecutor.execute(tasks);
+            return true;
+        } catch (RejectedExecutionException e) {
+            handshakeTasksRejected.increment();
+            return false;
+        }
+    }
+
+
     protected void initialiseSsl() throws Exception {
         if (isSSLEnabled()) {
             sslImplementation = SSLImplementation.getInstance(getSslImplementationName());
@@ -77,6 +237,16 @@ public abstract class AbstractJsseEndpoint<S,U> extends AbstractEndpoint<S,U> {
                         getDefaultSSLHostConfigName(), getName()));
             }
 
+            if (handshakeThreads > 0) {
+                TaskThreadFactory tf = new TaskThreadFactory(
+                        getName() + "-handshake-", getDaemon(), getThreadPriority());
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(handshakeThreads,
+                        handshakeThreads, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(Math.max(1, handshakeQueueSize)), tf);
+                executor.allowCoreThreadTimeOut(true);
+                handshakeExecutor = executor;
+            }
+
         }
     }
 
@@ -101,6 +271,8 @@ public abstract class AbstractJsseEndpoint<S,U> extends AbstractEndpoint<S,U> {
 
             certificate.setSslContext(sslContext);
         }
+
+        configureSessionTicketKeys(sslHostConfig);
     }
 
 
@@ -213,6 +385,11 @@ public abstract class AbstractJsseEndpoint<S,U> extends AbstractEndpoint<S,U> {
 
     @Override
     public void unbind() throws Exception {
+        ThreadPoolExecutor handshakeExecutor = this.handshakeExecutor;
+        if (handshakeExecutor != null) {
+            this.handshakeExecutor = null;
+            handshakeExecutor.shutdownNow();
+        }
         for (SSLHostConfig sslHostConfig : sslHostConfigs.values()) {
             for (SSLHostConfigCertificate certificate : sslHostConfig.getCertificates(true)) {
                 certificate.setSslContext(null);
@@ -412,6 +412,8 @@ public class AprEndpoint extends AbstractEndpoint<Long,Long> implements SNICallB
             // TODO: Can this limitation be removed?
             throw new Exception(sm.getString("endpoint.apr.tooManyCertFiles"));
         }
+
+        configureSessionTicketKeys(sslHostConfig);
     }
 
 
@@ -2297,6 +2299,13 @@ public class AprEndpoint extends AbstractEndpoint<Long,Long> implements SNICallB
         }
 
 
+        @Override
+        protected boolean canWriteBuffersDirectly() {
+            // APR can only write from direct buffers
+            return false;
+        }
+
+
         private void doWriteInternal(ByteBuffer from) throws IOException {
             int thisTime;
 
@@ -75,6 +75,17 @@ public class NioChannel implements ByteChannel, ScatteringByteChannel, Gathering
         bufHandler.free();
     }
 
+    /**
+     * Return the buffers used by this channel to the endpoint's buffer pool if
+     * they are empty. The buffers are re-acquired when next required. Must
+     * only be called when no other thread is using the channel.
+     *
+     * @return <code>true</code> if the buffers were released
+     */
+    public boolean releaseBuffers() {
+        return bufHandler.releaseBuffers();
+    }
+
     /**
      * Returns true if the network buffer has been flushed out and is empty.
      *
@@ -11,6 +11,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channel;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
 import java.nio.channels.NetworkChannel;
@@ -24,7 +25,9 @@ import java.util.Iterator;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
@@ -38,6 +41,7 @@ import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.NioChannel.ClosedNioChannel;
 import org.apache.tomcat.util.net.jsse.JSSESupport;
+import org.apache.tomcat.util.threads.TimingWheel;
 
 /**
  * NIO tailored thread pool, providing the following services:
@@ -60,6 +64,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
 
     public static final int OP_REGISTER = 0x100; //register interest op
 
+    public static final String POLLER_SELECTION_ROUND_ROBIN = "roundRobin";
+    public static final String POLLER_SELECTION_LEAST_LOADED = "leastLoaded";
+
+    // Socket timeouts are tracked with a resolution of a tenth of the timeout
+    // interval. With the default interval of one second, one revolution of the
+    // wheel covers 102 seconds which is longer than most timeouts.
+    private static final int TIMEOUT_WHEEL_SIZE = 1024;
+    private static final int TIMEOUT_TICKS_PER_INTERVAL = 10;
+
     // ----------------------------------------------------------------- Fields
 
     private NioSelectorPool selectorPool = new NioSelectorPool();
@@ -84,6 +97,12 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
      */
     private SynchronizedStack<NioChannel> nioChannels;
 
+    /**
+     * Pool for the buffers of idle connections. Only used if
+     * {@link SocketProperties#getIdleBufferRelease()} is enabled.
+     */
+    private volatile SocketBufferPool socketBufferPool;
+
     // ------------------------------------------------------------- Properties
 
     /**
@@ -131,26 +150,123 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
     }
 
     /**
-     * NO-OP.
-     *
-     * @param pollerThreadCount Unused
-     * @deprecated Will be removed in Tomcat 10.
+     * Poller thread count. Each poller owns its own selector and event queue.
      */
-    @Deprecated
+    private int pollerThreadCount = 1;
+
     public void setPollerThreadCount(int pollerThreadCount) {
+        this.pollerThreadCount = pollerThreadCount;
+    }
+
+    public int getPollerThreadCount() {
+        return pollerThreadCount;
     }
 
     /**
-     * Always returns 1.
-     *
-     * @return Always 1.
-     * @deprecated Will be removed in Tomcat 10.
+     * Policy used to assign new connections to a poller when more than one
+     * poller is configured. Supported values are
+     * {@link #POLLER_SELECTION_ROUND_ROBIN} and
+     * {@link #POLLER_SELECTION_LEAST_LOADED}.
      */
-    @Deprecated
-    public int getPollerThreadCount() {
-        return 1;
+    private String pollerSelectionPolicy = POLLER_SELECTION_ROUND_ROBIN;
+
+    public void setPollerSelectionPolicy(String pollerSelectionPolicy) {
+        if (POLLER_SELECTION_ROUND_ROBIN.equalsIgnoreCase(pollerSelectionPolicy)) {
+            this.pollerSelectionPolicy = POLLER_SELECTION_ROUND_ROBIN;
+        } else if (POLLER_SELECTION_LEAST_LOADED.equalsIgnoreCase(pollerSelectionPolicy)) {
+            this.pollerSelectionPolicy = POLLER_SELECTION_LEAST_LOADED;
+        } else {
+            throw new IllegalArgumentException(
+                    sm.getString("endpoint.nio.invalidPollerSelectionPolicy", pollerSelectionPolicy));
+        }
+    }
+
+    public String getPollerSelectionPolicy() {
+        return pollerSelectionPolicy;
+    }
+
+    /**
+     * Should the poller read complete requests, using non-blocking reads,
+     * before passing them to a container thread? Only applicable to HTTP/1.1.
+     */
+    private boolean preBufferRequests = false;
+
+    public void setPreBufferRequests(boolean preBufferRequests) {
+        this.preBufferRequests = preBufferRequests;
+    }
+
+    public boolean getPreBufferRequests() {
+        return preBufferRequests;
+    }
+
+    /**
+     * The maximum request body size that will be read before the request is
+     * passed to a container thread. Requests with larger bodies are passed to a
+     * container thread once the request head has been read.
+     */
+    private long preBufferMaxBodySize = 1024 * 1024;
+
+    public void setPreBufferMaxBodySize(long preBufferMaxBodySize) {
+        this.preBufferMaxBodySize = preBufferMaxBodySize;
+    }
+
+    public long getPreBufferMaxBodySize() {
+        return preBufferMaxBodySize;
+    }
+
+    /**
+     * The number of bytes of a request that will be buffered in memory before
+     * the remaining body is written to a temporary file.
+     */
+    private int preBufferSpillThreshold = 64 * 1024;
+
+    public void setPreBufferSpillThreshold(int preBufferSpillThreshold) {
+        this.preBufferSpillThreshold = preBufferSpillThreshold;
+    }
+
+    public int getPreBufferSpillThreshold() {
+        return preBufferSpillThreshold;
+    }
+
+    private final LongAdder preBufferedBytes = new LongAdder();
+    private final LongAdder preBufferedRequestCount = new LongAdder();
+    private final LongAdder preBufferSpillCount = new LongAdder();
+
+    /**
+     * Should response data that can't be written without blocking be held in
+     * memory and written by the poller, using non-blocking writes, once the
+     * response is complete so the container thread can be released? Only
+     * applicable to HTTP/1.1.
+     */
+    private boolean drainResponses = false;
+
+    public void setDrainResponses(boolean drainResponses) {
+        this.drainResponses = drainResponses;
+    }
+
+    public boolean getDrainResponses() {
+        return drainResponses;
+    }
+
+    /**
+     * The maximum number of bytes of response data held in memory per
+     * connection when responses are drained. Once this limit is reached, the
+     * container thread falls back to blocking writes.
+     */
+    private int maxDrainSize = 64 * 1024;
+
+    public void setMaxDrainSize(int maxDrainSize) {
+        this.maxDrainSize = maxDrainSize;
+    }
+
+    public int getMaxDrainSize() {
+        return maxDrainSize;
     }
 
+    private final LongAdder drainedBytes = new LongAdder();
+    private final LongAdder drainCount = new LongAdder();
+    private final LongAdder drainTime = new LongAdder();
+
     private long selectorTimeout = 1000;
 
     public void setSelectorTimeout(long timeout) {
@@ -162,9 +278,14 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
     }
 
     /**
-     * The socket poller.
+     * The socket pollers.
+     */
+    private Poller[] pollers = null;
+
+    /**
+     * Used by the round robin poller selection policy.
      */
-    private Poller poller = null;
+    private final AtomicInteger pollerRotater = new AtomicInteger(0);
 
     public void setSelectorPool(NioSelectorPool selectorPool) {
         this.selectorPool = selectorPool;
@@ -188,11 +309,219 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
      * for the next request to be received on the socket
      */
     public int getKeepAliveCount() {
-        if (poller == null) {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
             return 0;
         } else {
-            return poller.getKeyCount();
+            int sum = 0;
+            for (Poller poller : pollers) {
+                sum += poller.getKeyCount();
+            }
+            return sum;
+        }
+    }
+
+
+    /**
+     * Number of keys currently registered with each poller's selector.
+     *
+     * @return The registered key count per poller, or an empty array if the
+     *         endpoint is not running
+     */
+    public int[] getPollerKeyCounts() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return new int[0];
         }
+        int[] result = new int[pollers.length];
+        for (int i = 0; i < pollers.length; i++) {
+            result[i] = pollers[i].getRegisteredKeyCount();
+        }
+        return result;
+    }
+
+
+    /**
+     * Number of poller events (registrations and interest changes) processed
+     * by each poller since the endpoint was started.
+     *
+     * @return The processed event count per poller, or an empty array if the
+     *         endpoint is not running
+     */
+    public long[] getPollerEventCounts() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return new long[0];
+        }
+        long[] result = new long[pollers.length];
+        for (int i = 0; i < pollers.length; i++) {
+            result[i] = pollers[i].getEventCount();
+        }
+        return result;
+    }
+
+
+    /**
+     * Number of explicit selector wake-ups triggered for each poller since the
+     * endpoint was started.
+     *
+     * @return The wake-up count per poller, or an empty array if the endpoint
+     *         is not running
+     */
+    public long[] getPollerWakeupCounts() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return new long[0];
+        }
+        long[] result = new long[pollers.length];
+        for (int i = 0; i < pollers.length; i++) {
+            result[i] = pollers[i].getWakeupCount();
+        }
+        return result;
+    }
+
+    /**
+     * Number of read and write timeouts currently scheduled for each poller.
+     *
+     * @return the timeout count of each poller
+     */
+    public int[] getPollerTimeoutCounts() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return new int[0];
+        }
+        int[] result = new int[pollers.length];
+        for (int i = 0; i < pollers.length; i++) {
+            result[i] = pollers[i].getTimeoutCount();
+        }
+        return result;
+    }
+
+
+    /**
+     * Total time, in nanoseconds, each poller has spent processing read and
+     * write timeouts.
+     *
+     * @return the timeout processing time of each poller
+     */
+    public long[] getPollerTimeoutProcessingTimes() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return new long[0];
+        }
+        long[] result = new long[pollers.length];
+        for (int i = 0; i < pollers.length; i++) {
+            result[i] = pollers[i].getTimeoutProcessingTime();
+        }
+        return result;
+    }
+
+    SocketBufferPool getSocketBufferPool() {
+        return socketBufferPool;
+    }
+
+
+    /**
+     * @return the total size, in bytes, of the buffers held by the idle
+     *         connection buffer pool
+     */
+    public long getIdleBufferPoolSize() {
+        SocketBufferPool socketBufferPool = this.socketBufferPool;
+        return socketBufferPool == null ? 0 : socketBufferPool.getSize();
+    }
+
+
+    /**
+     * @return the number of buffers held by the idle connection buffer pool
+     */
+    public int getIdleBufferPoolCount() {
+        SocketBufferPool socketBufferPool = this.socketBufferPool;
+        return socketBufferPool == null ? 0 : socketBufferPool.getCount();
+    }
+
+
+    /**
+     * @return the number of buffers released by connections going idle
+     */
+    public long getIdleBufferReleaseCount() {
+        SocketBufferPool socketBufferPool = this.socketBufferPool;
+        return socketBufferPool == null ? 0 : socketBufferPool.getReleaseCount();
+    }
+
+
+    /**
+     * @return the number of buffers re-acquired by connections that were idle
+     */
+    public long getIdleBufferReacquireCount() {
+        SocketBufferPool socketBufferPool = this.socketBufferPool;
+        return socketBufferPool == null ? 0 : socketBufferPool.getReacquireCount();
+    }
+
+
+    /**
+     * @return the number of buffers re-acquired by connections that were idle
+     *         that had to be allocated as the pool did not contain a buffer of
+     *         the required size
+     */
+    public long getIdleBufferAllocateCount() {
+        SocketBufferPool socketBufferPool = this.socketBufferPool;
+        return socketBufferPool == null ? 0 : socketBufferPool.getAllocateCount();
+    }
+
+
+    /**
+     * @return the number of bytes read by the poller before the request was
+     *         passed to a container thread
+     */
+    public long getPreBufferedBytes() {
+        return preBufferedBytes.sum();
+    }
+
+
+    /**
+     * @return the number of requests that were read by the poller before being
+     *         passed to a container thread
+     */
+    public long getPreBufferedRequestCount() {
+        return preBufferedRequestCount.sum();
+    }
+
+
+    /**
+     * @return the number of requests where the body was written to a
+     *         temporary file as it exceeded the spill threshold
+     */
+    public long getPreBufferSpillCount() {
+        return preBufferSpillCount.sum();
+    }
+
+
+    /**
+     * @return the number of bytes of response data written by the poller
+     *         after the container thread finished with the response
+     */
+    public long getDrainedBytes() {
+        return drainedBytes.sum();
+    }
+
+
+    /**
+     * @return the number of responses where data remained to be written by
+     *         the poller after the container thread finished with the
+     *         response
+     */
+    public long getDrainCount() {
+        return drainCount.sum();
+    }
+
+
+    /**
+     * @return the total time, in milliseconds, spent writing the remaining
+     *         response data once the container thread finished with the
+     *         response
+     */
+    public long getDrainTime() {
+        return TimeUnit.NANOSECONDS.toMillis(drainTime.sum());
     }
 
     // ----------------------------------------------- Public Lifecycle Methods
@@ -204,7 +533,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
     public void bind() throws Exception {
         initServerSocket();
 
-        setStopLatch(new CountDownLatch(1));
+        if (pollerThreadCount <= 0) {
+            // Minimum one poller thread
+            pollerThreadCount = 1;
+        }
+        setStopLatch(new CountDownLatch(pollerThreadCount));
 
         // Initialize SSL if needed
         initialiseSsl();
@@ -252,6 +585,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
             if (socketProperties.getBufferPool() != 0) {
                 nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE, socketProperties.getBufferPool());
             }
+            if (socketProperties.getIdleBufferRelease()) {
+                socketBufferPool = new SocketBufferPool(socketProperties.getIdleBufferPoolSize());
+            } else {
+                socketBufferPool = null;
+            }
 
             // Create worker collection  创建工作者线程池
             if (getExecutor() == null) {
@@ -261,13 +599,16 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
             // 初始化连接 latch，用于限制请求的并发量
             initializeConnectionLatch();
 
-            // Start poller thread
+            // Start poller threads
             // 开启 poller 线程。poller 用于对接受者线程生产的消息（或事件）进行处理，poller 最终调用的是 Handler 的代码
-            poller = new Poller();
-            Thread pollerThread = new Thread(poller, getName() + "-ClientPoller");
-            pollerThread.setPriority(threadPriority);
-            pollerThread.setDaemon(true);
-            pollerThread.start();
+            pollers = new Poller[getPollerThreadCount()];
+            for (int i = 0; i < pollers.length; i++) {
+                pollers[i] = new Poller();
+                Thread pollerThread = new Thread(pollers[i], getName() + "-ClientPoller-" + i);
+                pollerThread.setPriority(threadPriority);
+                pollerThread.setDaemon(true);
+                pollerThread.start();
+            }
 
             // 开启 acceptor 线程
             startAcceptorThread();
@@ -285,9 +626,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
         }
         if (running) {
             running = false;
-            if (poller != null) {
-                poller.destroy();
-                poller = null;
+            if (pollers != null) {
+                for (Poller poller : pollers) {
+                    poller.destroy();
+                }
+                pollers = null;
             }
             try {
                 if (!getStopLatch().await(selectorTimeout + 100, TimeUnit.MILLISECONDS)) {
@@ -305,6 +648,9 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                 nioChannels.clear();
                 nioChannels = null;
             }
+            if (socketBufferPool != null) {
+                socketBufferPool.clear();
+            }
             if (processorCache != null) {
                 processorCache.clear();
                 processorCache = null;
@@ -358,8 +704,35 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
     }
 
 
+    /**
+     * Return the poller with which a new connection should be registered,
+     * chosen according to the configured poller selection policy.
+     *
+     * @return The poller to use, or <code>null</code> if the endpoint is not
+     *         running
+     */
     protected Poller getPoller() {
-        return poller;
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return null;
+        }
+        if (pollers.length == 1) {
+            return pollers[0];
+        }
+        if (POLLER_SELECTION_LEAST_LOADED.equals(pollerSelectionPolicy)) {
+            Poller result = pollers[0];
+            int min = result.getRegisteredKeyCount();
+            for (int i = 1; i < pollers.length; i++) {
+                int count = pollers[i].getRegisteredKeyCount();
+                if (count < min) {
+                    min = count;
+                    result = pollers[i];
+                }
+            }
+            return result;
+        }
+        int idx = (pollerRotater.incrementAndGet() & Integer.MAX_VALUE) % pollers.length;
+        return pollers[idx];
     }
 
 
@@ -394,7 +767,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                 SocketBufferHandler bufhandler = new SocketBufferHandler(
                         socketProperties.getAppReadBufSize(),
                         socketProperties.getAppWriteBufSize(),
-                        socketProperties.getDirectBuffer());
+                        socketProperties.getDirectBuffer(), socketBufferPool);
                 if (isSSLEnabled()) {
                     channel = new SecureNioChannel(bufhandler, selectorPool, this);
                 } else {
@@ -417,7 +790,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
             socketWrapper.setSecure(isSSLEnabled());
 
             // 将 channel 注册到 poller
-            poller.register(channel, socketWrapper);
+            socketWrapper.getPoller().register(channel, socketWrapper);
             return true;
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
@@ -499,6 +872,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
             if (interestOps == OP_REGISTER) {
                 try {
                     socket.getIOChannel().register(socket.getSocketWrapper().getPoller().getSelector(), SelectionKey.OP_READ, socket.getSocketWrapper());
+                    socket.getSocketWrapper().getPoller().scheduleTimeout(socket.getSocketWrapper());
                 } catch (Exception x) {
                     log.error(sm.getString("endpoint.nio.registerFail"), x);
                 }
@@ -522,6 +896,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                             int ops = key.interestOps() | interestOps;
                             socketWrapper.interestOps(ops);
                             key.interestOps(ops);
+                            socketWrapper.getPoller().scheduleTimeout(socketWrapper);
                         } else {
                             socket.getSocketWrapper().getPoller().cancelledKey(key, socket.getSocketWrapper());
                         }
@@ -550,21 +925,60 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
         private final SynchronizedQueue<PollerEvent> events = new SynchronizedQueue<>();
 
         private volatile boolean close = false;
-        // Optimize expiration handling
-        private long nextExpiration = 0;
+        // Read and write timeouts of the registered sockets
+        private final TimingWheel timeouts;
 
         private AtomicLong wakeupCounter = new AtomicLong(0);
 
         private volatile int keyCount = 0;
 
+        // Statistics. Only written by the poller thread, apart from wakeups.
+        private volatile long eventCount = 0;
+        private final AtomicLong wakeupCount = new AtomicLong(0);
+
         public Poller() throws IOException {
             this.selector = Selector.open();
+            this.timeouts = new TimingWheel(
+                    Math.max(1, socketProperties.getTimeoutInterval() / TIMEOUT_TICKS_PER_INTERVAL),
+                    TimeUnit.MILLISECONDS, TIMEOUT_WHEEL_SIZE);
         }
 
         public int getKeyCount() {
             return keyCount;
         }
 
+        /**
+         * @return the number of keys currently registered with this poller's
+         *         selector
+         */
+        public int getRegisteredKeyCount() {
+            try {
+                return selector.keys().size();
+            } catch (ClosedSelectorException e) {
+                return 0;
+            }
+        }
+
+        public long getEventCount() {
+            return eventCount;
+        }
+
+        public long getWakeupCount() {
+            return wakeupCount.get();
+        }
+
+        public int getTimeoutCount() {
+            return timeouts.getTimeoutCount();
+        }
+
+        /**
+         * @return the total time, in nanoseconds, this poller has spent
+         *         processing socket timeouts
+         */
+        public long getTimeoutProcessingTime() {
+            return timeouts.getAdvanceTime();
+        }
+
         public Selector getSelector() {
             return selector;
         }
@@ -583,6 +997,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
         private void addEvent(PollerEvent event) {
             events.offer(event);
             if (wakeupCounter.incrementAndGet() == 0) {
+                wakeupCount.incrementAndGet();
                 selector.wakeup();
             }
         }
@@ -625,6 +1040,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
             PollerEvent pe = null;
             for (int i = 0, size = events.size(); i < size && (pe = events.poll()) != null; i++) {
                 result = true;
+                eventCount++;
                 try {
                     pe.run();
                     pe.reset();
@@ -755,6 +1171,8 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                     if (sk.isReadable() || sk.isWritable()) {
                         if (socketWrapper.getSendfileData() != null) {
                             processSendfile(sk, socketWrapper, false);
+                        } else if (socketWrapper.drainKeepAliveState != null) {
+                            processDrain(sk, socketWrapper, false);
                         } else {
                             unreg(sk, socketWrapper, sk.readyOps());
                             boolean closeSocket = false;
@@ -764,8 +1182,27 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                                     if (!socketWrapper.readOperation.process()) {
                                         closeSocket = true;
                                     }
-                                } else if (!processSocket(socketWrapper, SocketEvent.OPEN_READ, true)) {
-                                    closeSocket = true;
+                                } else {
+                                    boolean process = true;
+                                    if (preBufferRequests) {
+                                        try {
+                                            process = socketWrapper.preBufferRequest();
+                                            if (!process) {
+                                                // The request is incomplete. Wait for more data.
+                                                reg(sk, socketWrapper, sk.interestOps() | SelectionKey.OP_READ);
+                                            }
+                                        } catch (IOException ioe) {
+                                            // Typically the client disconnected
+                                            if (log.isDebugEnabled()) {
+                                                log.debug(sm.getString("endpoint.nio.preBufferError"), ioe);
+                                            }
+                                            process = false;
+                                            closeSocket = true;
+                                        }
+                                    }
+                                    if (process && !processSocket(socketWrapper, SocketEvent.OPEN_READ, true)) {
+                                        closeSocket = true;
+                                    }
                                 }
                             }
                             // 2. 处理写事件，比如将生成的 Response 对象通过 socket 写回客户端
@@ -854,7 +1291,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                                 if (log.isDebugEnabled()) {
                                     log.debug("Send file connection is being closed");
                                 }
-                                poller.cancelledKey(sk, socketWrapper);
+                                cancelledKey(sk, socketWrapper);
                                 break;
                             }
                             case PIPELINED: {
@@ -862,7 +1299,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                                     log.debug("Connection is keep alive, processing pipe-lined data");
                                 }
                                 if (!processSocket(socketWrapper, SocketEvent.OPEN_READ, true)) {
-                                    poller.cancelledKey(sk, socketWrapper);
+                                    cancelledKey(sk, socketWrapper);
                                 }
                                 break;
                             }
@@ -892,13 +1329,72 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                     log.debug("Unable to complete sendfile request:", e);
                 }
                 if (!calledByProcessor && sc != null) {
-                    poller.cancelledKey(sk, socketWrapper);
+                    cancelledKey(sk, socketWrapper);
                 }
                 return SendfileState.ERROR;
             } catch (Throwable t) {
                 log.error(sm.getString("endpoint.sendfile.error"), t);
                 if (!calledByProcessor && sc != null) {
-                    poller.cancelledKey(sk, socketWrapper);
+                    cancelledKey(sk, socketWrapper);
+                }
+                return SendfileState.ERROR;
+            }
+        }
+
+        public SendfileState processDrain(SelectionKey sk, NioSocketWrapper socketWrapper, boolean calledByProcessor) {
+            try {
+                if (!calledByProcessor) {
+                    unreg(sk, socketWrapper, sk.readyOps());
+                }
+                NioChannel sc = socketWrapper.getSocket();
+                boolean dataLeft = socketWrapper.flush(false);
+                // TLS may still hold encrypted data
+                if (!dataLeft && sc.getOutboundRemaining() > 0) {
+                    if (sc.flushOutbound()) {
+                        socketWrapper.updateLastWrite();
+                    }
+                    dataLeft = sc.getOutboundRemaining() > 0;
+                }
+                if (!dataLeft) {
+                    SendfileKeepAliveState keepAliveState = socketWrapper.drainKeepAliveState;
+                    socketWrapper.endDrain();
+                    // For calls from outside the Poller, the caller is
+                    // responsible for registering the socket for the
+                    // appropriate event(s) if the drain completes.
+                    if (!calledByProcessor) {
+                        switch (keepAliveState) {
+                            case NONE: {
+                                cancelledKey(sk, socketWrapper);
+                                break;
+                            }
+                            case PIPELINED: {
+                                if (!processSocket(socketWrapper, SocketEvent.OPEN_READ, true)) {
+                                    cancelledKey(sk, socketWrapper);
+                                }
+                                break;
+                            }
+                            case OPEN: {
+                                reg(sk, socketWrapper, SelectionKey.OP_READ);
+                                break;
+                            }
+                        }
+                    }
+                    return SendfileState.DONE;
+                } else {
+                    if (calledByProcessor) {
+                        add(socketWrapper, SelectionKey.OP_WRITE);
+                    } else {
+                        reg(sk, socketWrapper, SelectionKey.OP_WRITE);
+                    }
+                    return SendfileState.PENDING;
+                }
+            } catch (IOException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("endpoint.nio.drainError"), e);
+                }
+                socketWrapper.endDrain();
+                if (!calledByProcessor) {
+                    cancelledKey(sk, socketWrapper);
                 }
                 return SendfileState.ERROR;
             }
@@ -912,71 +1408,35 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
         protected void reg(SelectionKey sk, NioSocketWrapper socketWrapper, int intops) {
             sk.interestOps(intops);
             socketWrapper.interestOps(intops);
+            if (intops != 0) {
+                scheduleTimeout(socketWrapper);
+            }
         }
 
         protected void timeout(int keyCount, boolean hasEvents) {
-            long now = System.currentTimeMillis();
-            // This method is called on every loop of the Poller. Don't process
-            // timeouts on every loop of the Poller since that would create too
-            // much load and timeouts can afford to wait a few seconds.
-            // However, do process timeouts if any of the following are true:
-            // - the selector simply timed out (suggests there isn't much load)
-            // - the nextExpiration time has passed
-            // - the server socket is being closed
-            if (nextExpiration > 0 && (keyCount > 0 || hasEvents) && (now < nextExpiration) && !close) {
+            if (!close) {
+                // Only the timeouts that are due are examined
+                int expired = timeouts.advance();
+                if (log.isTraceEnabled() && expired > 0) {
+                    log.trace("timeout completed: expired=" + expired +
+                            "; timeouts=" + timeouts.getTimeoutCount() +
+                            "; keyCount=" + keyCount + "; hasEvents=" + hasEvents);
+                }
                 return;
             }
-            int keycount = 0;
+            // The server socket is being closed. Close every registered socket.
             try {
                 for (SelectionKey key : selector.keys()) {
-                    keycount++;
                     try {
                         NioSocketWrapper socketWrapper = (NioSocketWrapper) key.attachment();
                         if (socketWrapper == null) {
                             // We don't support any keys without attachments
                             cancelledKey(key, null);
-                        } else if (close) {
+                        } else {
                             key.interestOps(0);
                             // Avoid duplicate stop calls
                             socketWrapper.interestOps(0);
                             cancelledKey(key, socketWrapper);
-                        } else if ((socketWrapper.interestOps() & SelectionKey.OP_READ) == SelectionKey.OP_READ ||
-                                (socketWrapper.interestOps() & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
-                            boolean readTimeout = false;
-                            boolean writeTimeout = false;
-                            // Check for read timeout
-                            if ((socketWrapper.interestOps() & SelectionKey.OP_READ) == SelectionKey.OP_READ) {
-                                long delta = now - socketWrapper.getLastRead();
-                                long timeout = socketWrapper.getReadTimeout();
-                                if (timeout > 0 && delta > timeout) {
-                                    readTimeout = true;
-                                }
-                            }
-                            // Check for write timeout
-                            if (!readTimeout && (socketWrapper.interestOps() & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
-                                long delta = now - socketWrapper.getLastWrite();
-                                long timeout = socketWrapper.getWriteTimeout();
-                                if (timeout > 0 && delta > timeout) {
-                                    writeTimeout = true;
-                                }
-                            }
-                            if (readTimeout || writeTimeout) {
-                                key.interestOps(0);
-                                // Avoid duplicate timeout calls
-                                socketWrapper.interestOps(0);
-                                socketWrapper.setError(new SocketTimeoutException());
-                                if (readTimeout && socketWrapper.readOperation != null) {
-                                    if (!socketWrapper.readOperation.process()) {
-                                        cancelledKey(key, socketWrapper);
-                                    }
-                                } else if (writeTimeout && socketWrapper.writeOperation != null) {
-                                    if (!socketWrapper.writeOperation.process()) {
-                                        cancelledKey(key, socketWrapper);
-                                    }
-                                } else if (!processSocket(socketWrapper, SocketEvent.ERROR, true)) {
-                                    cancelledKey(key, socketWrapper);
-                                }
-                            }
                         }
                     } catch (CancelledKeyException ckx) {
                         cancelledKey(key, (NioSocketWrapper) key.attachment());
@@ -986,16 +1446,122 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                 // See https://bz.apache.org/bugzilla/show_bug.cgi?id=57943
                 log.warn(sm.getString("endpoint.nio.timeoutCme"), cme);
             }
-            // For logging purposes only
-            long prevExp = nextExpiration;
-            nextExpiration = System.currentTimeMillis() + socketProperties.getTimeoutInterval();
-            if (log.isTraceEnabled()) {
-                log.trace("timeout completed: keys processed=" + keycount +
-                        "; now=" + now + "; nextExpiration=" + prevExp +
-                        "; keyCount=" + keyCount + "; hasEvents=" + hasEvents +
-                        "; eval=" + ((now < prevExp) && (keyCount > 0 || hasEvents) && (!close)));
+        }
+
+
+        /*
+         * Called by the poller thread when a socket is registered or its
+         * interest ops change. A new timeout is only scheduled if the current
+         * one would expire too late. A timeout that expires too early is
+         * re-scheduled for the remaining time when it expires so activity on
+         * a socket does not require the timeout to be re-scheduled.
+         */
+        private void scheduleTimeout(NioSocketWrapper socketWrapper) {
+            long now = System.currentTimeMillis();
+            long delay = getTimeoutDelay(socketWrapper, now);
+            if (delay < 0) {
+                // No timeout applies. The timeout will be re-scheduled when
+                // read or write interest is next registered.
+                return;
+            }
+            long expiry = now + delay;
+            TimingWheel.Timeout timeout = socketWrapper.timeout;
+            if (timeout != null && !timeout.isCancelled() && !timeout.isExpired()) {
+                if (socketWrapper.timeoutExpiry <= expiry) {
+                    return;
+                }
+                timeout.cancel();
             }
+            socketWrapper.timeoutExpiry = expiry;
+            socketWrapper.timeout = timeouts.schedule(socketWrapper.timeoutTask, delay,
+                    TimeUnit.MILLISECONDS);
+        }
+
 
+        /*
+         * Returns the time until the first read or write timeout for the
+         * operations the socket is currently interested in or -1 if no timeout
+         * applies.
+         */
+        private long getTimeoutDelay(NioSocketWrapper socketWrapper, long now) {
+            long delay = -1;
+            if ((socketWrapper.interestOps() & SelectionKey.OP_READ) == SelectionKey.OP_READ) {
+                long timeout = socketWrapper.getReadTimeout();
+                if (timeout > 0) {
+                    // A socket times out once the delta exceeds the timeout
+                    delay = Math.max(0, timeout - (now - socketWrapper.getLastRead()) + 1);
+                }
+            }
+            if ((socketWrapper.interestOps() & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
+                long timeout = socketWrapper.getWriteTimeout();
+                if (timeout > 0) {
+                    long writeDelay = Math.max(0, timeout - (now - socketWrapper.getLastWrite()) + 1);
+                    if (delay < 0 || writeDelay < delay) {
+                        delay = writeDelay;
+                    }
+                }
+            }
+            return delay;
+        }
+
+
+        /*
+         * Called by the poller thread when the timeout for a socket expires.
+         */
+        private void processTimeout(NioSocketWrapper socketWrapper) {
+            if (socketWrapper.isClosed()) {
+                return;
+            }
+            SelectionKey key = socketWrapper.getSocket().getIOChannel().keyFor(selector);
+            if (key == null) {
+                return;
+            }
+            try {
+                if (key.attachment() != socketWrapper) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                boolean readTimeout = false;
+                boolean writeTimeout = false;
+                // Check for read timeout
+                if ((socketWrapper.interestOps() & SelectionKey.OP_READ) == SelectionKey.OP_READ) {
+                    long delta = now - socketWrapper.getLastRead();
+                    long timeout = socketWrapper.getReadTimeout();
+                    if (timeout > 0 && delta > timeout) {
+                        readTimeout = true;
+                    }
+                }
+                // Check for write timeout
+                if (!readTimeout && (socketWrapper.interestOps() & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
+                    long delta = now - socketWrapper.getLastWrite();
+                    long timeout = socketWrapper.getWriteTimeout();
+                    if (timeout > 0 && delta > timeout) {
+                        writeTimeout = true;
+                    }
+                }
+                if (readTimeout || writeTimeout) {
+                    key.interestOps(0);
+                    // Avoid duplicate timeout calls
+                    socketWrapper.interestOps(0);
+                    socketWrapper.setError(new SocketTimeoutException());
+                    if (readTimeout && socketWrapper.readOperation != null) {
+                        if (!socketWrapper.readOperation.process()) {
+                            cancelledKey(key, socketWrapper);
+                        }
+                    } else if (writeTimeout && socketWrapper.writeOperation != null) {
+                        if (!socketWrapper.writeOperation.process()) {
+                            cancelledKey(key, socketWrapper);
+                        }
+                    } else if (!processSocket(socketWrapper, SocketEvent.ERROR, true)) {
+                        cancelledKey(key, socketWrapper);
+                    }
+                } else {
+                    // There has been activity since the timeout was scheduled
+                    scheduleTimeout(socketWrapper);
+                }
+            } catch (CancelledKeyException ckx) {
+                cancelledKey(key, socketWrapper);
+            }
         }
     }
 
@@ -1013,6 +1579,21 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
         private volatile SendfileData sendfileData = null;
         private volatile long lastRead = System.currentTimeMillis();
         private volatile long lastWrite = lastRead;
+        // Timeout handling. Only modified by the poller thread.
+        private volatile TimingWheel.Timeout timeout = null;
+        private long timeoutExpiry;
+        // Only used when requests are pre-buffered
+        private volatile RequestPreBuffer preBuffer = null;
+        // Only used while the poller drains a response
+        private volatile SendfileKeepAliveState drainKeepAliveState = null;
+        private long drainStart;
+        private long drainSize;
+        private final Runnable timeoutTask = new Runnable() {
+            @Override
+            public void run() {
+                poller.processTimeout(NioSocketWrapper.this);
+            }
+        };
 
         public NioSocketWrapper(NioChannel channel, NioEndpoint endpoint) {
             super(channel, endpoint);
@@ -1117,6 +1698,72 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
             return lastRead;
         }
 
+        /*
+         * Called by the poller thread when the socket is readable and no
+         * request is currently being processed. Reads, without blocking, as
+         * much of the next request as is available.
+         *
+         * @return true if the request should now be passed to a container
+         *         thread, false if more data is required
+         */
+        boolean preBufferRequest() throws IOException {
+            if (getCurrentProcessor() != null || !getSocket().isHandshakeComplete() ||
+                    !socketBufferHandler.isReadBufferEmpty()) {
+                return true;
+            }
+            RequestPreBuffer preBuffer = this.preBuffer;
+            if (preBuffer == null) {
+                NioEndpoint endpoint = (NioEndpoint) getEndpoint();
+                preBuffer = new RequestPreBuffer(endpoint.getPreBufferMaxBodySize(),
+                        endpoint.getPreBufferSpillThreshold());
+                this.preBuffer = preBuffer;
+            } else if (preBuffer.isReady()) {
+                return true;
+            }
+            NioEndpoint endpoint = (NioEndpoint) getEndpoint();
+            long nRead;
+            try {
+                nRead = preBuffer.read(getSocket(), getMinReadSize());
+            } catch (IOException ioe) {
+                this.preBuffer = null;
+                preBuffer.close();
+                throw ioe;
+            }
+            if (nRead > 0) {
+                updateLastRead();
+                endpoint.preBufferedBytes.add(nRead);
+            }
+            if (preBuffer.isReady()) {
+                if (!preBuffer.hasRemaining()) {
+                    // Nothing was read before the end of stream
+                    this.preBuffer = null;
+                    preBuffer.close();
+                } else {
+                    endpoint.preBufferedRequestCount.increment();
+                    if (preBuffer.isSpilled()) {
+                        endpoint.preBufferSpillCount.increment();
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+
+        /*
+         * SecureNioChannel can only expand the socket read buffers when the
+         * decrypted data doesn't fit so any other buffer passed to it must have
+         * space for a complete TLS record.
+         */
+        private int getMinReadSize() {
+            NioChannel socket = getSocket();
+            if (socket instanceof SecureNioChannel) {
+                return ((SecureNioChannel) socket).getSslEngine().getSession().getApplicationBufferSize();
+            }
+            return 0;
+        }
+
+
         @Override
         public boolean isReadyForRead() throws IOException {
             socketBufferHandler.configureReadBufferForRead();
@@ -1207,6 +1854,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
             if (log.isDebugEnabled()) {
                 log.debug("Calling [" + getEndpoint() + "].closeSocket([" + this + "])");
             }
+            TimingWheel.Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            endDrain();
             try {
                 getEndpoint().connections.remove(getSocket().getIOChannel());
                 synchronized (getSocket()) {
@@ -1228,6 +1880,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                 socketBufferHandler = SocketBufferHandler.EMPTY;
                 nonBlockingWriteBuffer.clear();
                 reset(NioChannel.CLOSED_NIO_CHANNEL);
+                RequestPreBuffer preBuffer = this.preBuffer;
+                if (preBuffer != null) {
+                    this.preBuffer = null;
+                    preBuffer.close();
+                }
             }
             try {
                 SendfileData data = getSendfileData();
@@ -1254,6 +1911,17 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
             if (socket instanceof ClosedNioChannel) {
                 throw new ClosedChannelException();
             }
+            RequestPreBuffer preBuffer = this.preBuffer;
+            if (preBuffer != null) {
+                nRead = preBuffer.drain(to);
+                if (!preBuffer.hasRemaining()) {
+                    this.preBuffer = null;
+                    preBuffer.close();
+                }
+                if (nRead > 0) {
+                    return nRead;
+                }
+            }
             if (block) {
                 Selector selector = null;
                 try {
@@ -1319,11 +1987,82 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
         }
 
 
+        @Override
+        protected void doWrite(boolean block, ByteBuffer[] from) throws IOException {
+            NioChannel socket = getSocket();
+            if (socket instanceof ClosedNioChannel) {
+                throw new ClosedChannelException();
+            }
+            // Write as much as possible with gathering writes. If the network
+            // is unable to accept all of the data, a blocking write falls back
+            // to writing the remaining buffers one at a time using the
+            // blocking selector.
+            long n = 0;
+            boolean remaining = false;
+            do {
+                n = socket.write(from);
+                if (n == -1) {
+                    throw new EOFException();
+                }
+                incrementNetworkWriteCount();
+                remaining = false;
+                for (ByteBuffer buffer : from) {
+                    if (buffer.hasRemaining()) {
+                        remaining = true;
+                        break;
+                    }
+                }
+            } while (n > 0 && remaining);
+            updateLastWrite();
+            if (block) {
+                if (remaining) {
+                    for (ByteBuffer buffer : from) {
+                        if (buffer.hasRemaining()) {
+                            doWrite(true, buffer);
+                        }
+                    }
+                } else if (socket.getOutboundRemaining() > 0) {
+                    // TLS may still hold encrypted data that needs to be
+                    // flushed
+                    long writeTimeout = getWriteTimeout();
+                    Selector selector = null;
+                    try {
+                        selector = pool.get();
+                    } catch (IOException x) {
+                        // Ignore
+                    }
+                    try {
+                        do {
+                        } while (!socket.flush(true, selector, writeTimeout));
+                    } finally {
+                        if (selector != null) {
+                            pool.put(selector);
+                        }
+                    }
+                }
+            }
+        }
+
+
+        @Override
+        public void releaseIdleBuffers() {
+            if (!hasDataToWrite()) {
+                getSocket().releaseBuffers();
+            }
+        }
+
+
         @Override
         public void registerReadInterest() {
             if (log.isDebugEnabled()) {
                 log.debug(sm.getString("endpoint.debug.registerRead", this));
             }
+            RequestPreBuffer preBuffer = this.preBuffer;
+            if (preBuffer != null && preBuffer.hasRemaining()) {
+                // Data is already available. The socket won't signal it.
+                getEndpoint().processSocket(this, SocketEvent.OPEN_READ, true);
+                return;
+            }
             getPoller().add(this, SelectionKey.OP_READ);
         }
 
@@ -1352,6 +2091,48 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
         }
 
 
+        @Override
+        public int getMaxDrainSize() {
+            NioEndpoint endpoint = (NioEndpoint) getEndpoint();
+            if (endpoint.getDrainResponses()) {
+                return endpoint.getMaxDrainSize();
+            }
+            return -1;
+        }
+
+
+        @Override
+        public SendfileState processDrain(SendfileKeepAliveState keepAliveState) {
+            long size = getPendingWriteSize() + getSocket().getOutboundRemaining();
+            if (size == 0) {
+                return SendfileState.DONE;
+            }
+            drainStart = System.nanoTime();
+            drainSize = size;
+            drainKeepAliveState = keepAliveState;
+            SelectionKey key = getSocket().getIOChannel().keyFor(getPoller().getSelector());
+            // Might as well do the first write on this thread
+            return getPoller().processDrain(key, this, true);
+        }
+
+
+        /*
+         * Records the statistics for a drain that has completed, failed or was
+         * ended by the connection being closed.
+         */
+        void endDrain() {
+            if (drainKeepAliveState == null) {
+                return;
+            }
+            drainKeepAliveState = null;
+            NioEndpoint endpoint = (NioEndpoint) getEndpoint();
+            long remaining = getPendingWriteSize() + getSocket().getOutboundRemaining();
+            endpoint.drainedBytes.add(Math.max(0, drainSize - remaining));
+            endpoint.drainCount.increment();
+            endpoint.drainTime.add(System.nanoTime() - drainStart);
+        }
+
+
         @Override
         protected void populateRemoteAddr() {
             SocketChannel sc = getSocket().getIOChannel();
@@ -1591,12 +2372,12 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
         @Override
         protected void doRun() {
             NioChannel socket = socketWrapper.getSocket();
-            SelectionKey key = socket.getIOChannel().keyFor(socket.getSocketWrapper().getPoller().getSelector());
-            Poller poller = NioEndpoint.this.poller;
-            if (poller == null) {
+            Poller poller = socket.getSocketWrapper().getPoller();
+            if (poller == null || NioEndpoint.this.pollers == null) {
                 socketWrapper.close();
                 return;
             }
+            SelectionKey key = socket.getIOChannel().keyFor(poller.getSelector());
 
             try {
                 int handshake = -1;
@@ -1648,6 +2429,9 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel, SocketChannel>
                     socketWrapper.registerReadInterest();
                 } else if (handshake == SelectionKey.OP_WRITE) {
                     socketWrapper.registerWriteInterest();
+                } else if (handshake == SecureNioChannel.HANDSHAKE_TASKS_PENDING) {
+                    // NO-OP. The socket will be registered with the poller
+                    // once the handshake thread completes the delegated tasks.
                 }
             } catch (CancelledKeyException cx) {
                 poller.cancelledKey(key, socketWrapper);
@@ -0,0 +1,344 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Buffers the head and, optionally, the body of an HTTP/1.1 request using
+ * non-blocking reads so that the request is only passed to a container thread
+ * once it has been fully received. This prevents slow clients from tying up
+ * container threads in blocking reads.
+ * <p>
+ * Only the information required to determine when the request is complete
+ * (the end of the head, Content-Length, Transfer-Encoding and Expect) is
+ * extracted. Everything else is left to the processor which reads the buffered
+ * bytes via the normal socket read methods. If the end of the request can't
+ * be determined reliably (e.g. chunked bodies, Expect: 100-continue, large or
+ * malformed heads) the request is released for processing once the head has
+ * been received, or as soon as the problem is detected, and the processor
+ * reads any remaining data from the socket as usual.
+ * <p>
+ * Body data above the spill threshold is written to a temporary file.
+ * <p>
+ * Instances are filled by the poller thread and then drained by the container
+ * thread processing the request. They are not thread safe.
+ */
+class RequestPreBuffer {
+
+    private static final int INITIAL_SIZE = 4096;
+    private static final int MIN_HEAD_SIZE = 8192;
+
+    private final long maxBodySize;
+    private final int memoryLimit;
+
+    private ByteBuffer memory = ByteBuffer.allocate(INITIAL_SIZE);
+    private ByteBuffer spillBuffer = null;
+    private Path spillPath = null;
+    private FileChannel spillFile = null;
+    private long spillWritePosition = 0;
+    private long spillReadPosition = 0;
+
+    private boolean requestStarted = false;
+    private int scanPosition = 0;
+    private int headLength = -1;
+    private long bodyLength = 0;
+    private long bodyRead = 0;
+    private boolean ready = false;
+    private boolean draining = false;
+
+
+    RequestPreBuffer(long maxBodySize, int spillThreshold) {
+        this.maxBodySize = maxBodySize;
+        this.memoryLimit = Math.max(MIN_HEAD_SIZE, spillThreshold);
+    }
+
+
+    /**
+     * Read as much data as is currently available, without blocking, from the
+     * given channel.
+     *
+     * @param channel     The channel to read from
+     * @param minReadSize The minimum free space required in the buffer
+     *                    passed to each read. TLS channels need space for a
+     *                    complete decrypted TLS record.
+     *
+     * @return The number of bytes read or -1 if the end of stream was reached
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    long read(ReadableByteChannel channel, int minReadSize) throws IOException {
+        long total = 0;
+        while (!ready) {
+            int n;
+            if (headLength < 0 || memory.position() < memoryLimit) {
+                if (headLength < 0 && memory.position() >= memoryLimit) {
+                    // Head is too large to buffer. Let the processor deal
+                    // with it.
+                    ready = true;
+                    break;
+                }
+                if (memory.remaining() < Math.max(minReadSize, 1)) {
+                    // The buffer may grow beyond the limit by up to
+                    // minReadSize so a complete TLS record can be read
+                    ByteBuffer expanded = ByteBuffer.allocate(Math.max(
+                            Math.min(memory.capacity() * 2, memoryLimit),
+                            memory.position() + minReadSize));
+                    memory.flip();
+                    expanded.put(memory);
+                    memory = expanded;
+                }
+                int start = memory.position();
+                n = channel.read(memory);
+                if (n > 0 && headLength < 0) {
+                    parseHead(start);
+                    if (headLength >= 0) {
+                        bodyRead += memory.position() - headLength;
+                    }
+                } else if (n > 0) {
+                    bodyRead += n;
+                }
+            } else {
+                if (spillFile == null) {
+                    spillPath = Files.createTempFile("tomcat-request-", ".tmp");
+                    spillFile = FileChannel.open(spillPath, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                if (spillBuffer == null || spillBuffer.capacity() < minReadSize) {
+                    spillBuffer = ByteBuffer.allocate(Math.max(INITIAL_SIZE * 2, minReadSize));
+                }
+                spillBuffer.clear();
+                n = channel.read(spillBuffer);
+                if (n > 0) {
+                    spillBuffer.flip();
+                    while (spillBuffer.hasRemaining()) {
+                        spillWritePosition += spillFile.write(spillBuffer, spillWritePosition);
+                    }
+                    bodyRead += n;
+                }
+            }
+            if (n < 0) {
+                // Let the processor handle the end of stream once the buffered
+                // data has been read.
+                ready = true;
+                return total == 0 ? -1 : total;
+            } else if (n == 0) {
+                break;
+            }
+            total += n;
+            if (headLength >= 0 && bodyRead >= bodyLength) {
+                ready = true;
+            }
+        }
+        return total;
+    }
+
+
+    /**
+     * @return {@code true} if the request should now be processed
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+
+    /**
+     * @return {@code true} if body data was written to a temporary file
+     */
+    boolean isSpilled() {
+        return spillFile != null;
+    }
+
+
+    /**
+     * Transfer buffered data to the given buffer.
+     *
+     * @param to The buffer to transfer the data to
+     *
+     * @return The number of bytes transferred. Zero indicates that all the
+     *         buffered data has been read.
+     *
+     * @throws IOException If the data cannot be read from the temporary file
+     */
+    int drain(ByteBuffer to) throws IOException {
+        if (!draining) {
+            memory.flip();
+            draining = true;
+        }
+        int result = 0;
+        if (memory.hasRemaining()) {
+            int n = Math.min(memory.remaining(), to.remaining());
+            ByteBuffer src = memory.duplicate();
+            src.limit(src.position() + n);
+            to.put(src);
+            memory.position(memory.position() + n);
+            result = n;
+        }
+        if (spillFile != null && to.hasRemaining() && spillReadPosition < spillWritePosition) {
+            int limit = to.limit();
+            long available = spillWritePosition - spillReadPosition;
+            if (available < to.remaining()) {
+                to.limit(to.position() + (int) available);
+            }
+            try {
+                int n = spillFile.read(to, spillReadPosition);
+                if (n > 0) {
+                    spillReadPosition += n;
+                    result += n;
+                }
+            } finally {
+                to.limit(limit);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return {@code true} if there is buffered data that has not been read
+     */
+    boolean hasRemaining() {
+        if (draining) {
+            return memory.hasRemaining() || spillReadPosition < spillWritePosition;
+        } else {
+            return memory.position() > 0 || spillWritePosition > 0;
+        }
+    }
+
+
+    /**
+     * Release the resources, including any temporary file, associated with
+     * this buffer.
+     */
+    void close() {
+        memory = null;
+        spillBuffer = null;
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException ioe) {
+                // Ignore
+            }
+            spillFile = null;
+            try {
+                Files.deleteIfExists(spillPath);
+            } catch (IOException ioe) {
+                // Ignore
+            }
+        }
+    }
+
+
+    /*
+     * Looks for the end of the request head in the newly read data and, if
+     * found, determines how much of the body needs to be buffered.
+     */
+    private void parseHead(int start) {
+        byte[] buf = memory.array();
+        int end = memory.position();
+        // Blank lines before the request line are ignored
+        if (!requestStarted) {
+            while (scanPosition < end && (buf[scanPosition] == '\r' || buf[scanPosition] == '\n')) {
+                scanPosition++;
+            }
+            if (scanPosition == end) {
+                return;
+            }
+            requestStarted = true;
+        }
+        int pos = Math.max(scanPosition, start - 2);
+        for (; pos < end; pos++) {
+            if (buf[pos] == '\n' && pos > scanPosition) {
+                if (buf[pos - 1] == '\n' ||
+                        (buf[pos - 1] == '\r' && pos - 2 >= scanPosition && buf[pos - 2] == '\n')) {
+                    headLength = pos + 1;
+                    break;
+                }
+            }
+        }
+        if (headLength < 0) {
+            return;
+        }
+        parseHeaders(buf, scanPosition, headLength);
+    }
+
+
+    private void parseHeaders(byte[] buf, int start, int end) {
+        long contentLength = 0;
+        int lineStart = start;
+        boolean requestLine = true;
+        for (int pos = start; pos < end; pos++) {
+            if (buf[pos] != '\n') {
+                continue;
+            }
+            int lineEnd = pos;
+            if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (requestLine) {
+                requestLine = false;
+            } else if (lineEnd > lineStart) {
+                int colon = -1;
+                for (int i = lineStart; i < lineEnd; i++) {
+                    if (buf[i] == ':') {
+                        colon = i;
+                        break;
+                    }
+                }
+                if (colon < 0) {
+                    // Malformed. Let the processor deal with it.
+                    bodyLength = 0;
+                    return;
+                }
+                String name = new String(buf, lineStart, colon - lineStart,
+                        StandardCharsets.ISO_8859_1).trim().toLowerCase(Locale.ENGLISH);
+                if (name.equals("content-length")) {
+                    String value = new String(buf, colon + 1, lineEnd - colon - 1,
+                            StandardCharsets.ISO_8859_1).trim();
+                    try {
+                        long length = Long.parseLong(value);
+                        if (length < 0 || (contentLength > 0 && length != contentLength)) {
+                            bodyLength = 0;
+                            return;
+                        }
+                        contentLength = length;
+                    } catch (NumberFormatException e) {
+                        bodyLength = 0;
+                        return;
+                    }
+                } else if (name.equals("transfer-encoding") || name.equals("expect")) {
+                    // The end of a chunked body is not tracked and the client
+                    // will wait for a 100 response before sending the body
+                    bodyLength = 0;
+                    return;
+                }
+            }
+            lineStart = pos + 1;
+        }
+        if (contentLength <= maxBodySize) {
+            bodyLength = contentLength;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.security.KeyStore;
 import java.security.UnrecoverableKeyException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -29,11 +30,14 @@ import java.util.Set;
 
 import javax.management.ObjectName;
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManagerFactory;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.net.openssl.OpenSSLConf;
+import org.apache.tomcat.util.net.openssl.OpenSSLSessionContext;
+import org.apache.tomcat.util.net.openssl.OpenSSLSessionStats;
 import org.apache.tomcat.util.net.openssl.ciphers.Cipher;
 import org.apache.tomcat.util.net.openssl.ciphers.OpenSSLCipherConfigurationParser;
 import org.apache.tomcat.util.res.StringManager;
@@ -99,6 +103,9 @@ public class SSLHostConfig implements Serializable {
     // Values <0 mean use the implementation default
     private int sessionCacheSize = -1;
     private int sessionTimeout = 86400;
+    private int sessionTicketKeyRotationInterval = -1;
+    private int sessionTicketKeyOverlap = 1;
+    private transient volatile SessionTicketKeyManager sessionTicketKeyManager = null;
     // JSSE
     private String keyManagerAlgorithm = KeyManagerFactory.getDefaultAlgorithm();
     private boolean revocationEnabled = false;
@@ -506,6 +513,134 @@ public class SSLHostConfig implements Serializable {
     }
 
 
+    /**
+     * Set the interval at which new session ticket keys are generated. Keys
+     * are only managed by Tomcat for the OpenSSL based implementations. If not
+     * enabled, OpenSSL generates a random key when the SSL context is created
+     * and uses it for the lifetime of the context.
+     *
+     * @param sessionTicketKeyRotationInterval The rotation interval in
+     *        seconds. Zero or less disables rotation.
+     */
+    public void setSessionTicketKeyRotationInterval(int sessionTicketKeyRotationInterval) {
+        this.sessionTicketKeyRotationInterval = sessionTicketKeyRotationInterval;
+    }
+
+
+    public int getSessionTicketKeyRotationInterval() {
+        return sessionTicketKeyRotationInterval;
+    }
+
+
+    /**
+     * Set the number of previous session ticket keys that are retained after a
+     * rotation. Previous keys are no longer used to issue tickets but tickets
+     * issued with them will still be accepted.
+     *
+     * @param sessionTicketKeyOverlap The number of previous keys to retain
+     */
+    public void setSessionTicketKeyOverlap(int sessionTicketKeyOverlap) {
+        this.sessionTicketKeyOverlap = sessionTicketKeyOverlap;
+    }
+
+
+    public int getSessionTicketKeyOverlap() {
+        return sessionTicketKeyOverlap;
+    }
+
+
+    /**
+     * @return The manager for the session ticket keys of this TLS virtual host
+     */
+    public SessionTicketKeyManager getSessionTicketKeyManager() {
+        SessionTicketKeyManager result = sessionTicketKeyManager;
+        if (result == null) {
+            synchronized (this) {
+                result = sessionTicketKeyManager;
+                if (result == null) {
+                    result = new SessionTicketKeyManager(this);
+                    sessionTicketKeyManager = result;
+                }
+            }
+        }
+        return result;
+    }
+
+
+    // Expose in JMX
+    public long getSessionTicketKeyRotationCount() {
+        SessionTicketKeyManager manager = sessionTicketKeyManager;
+        if (manager == null) {
+            return 0;
+        }
+        return manager.getRotationCount();
+    }
+
+
+    /**
+     * @return The number of full TLS handshakes and resumed TLS sessions
+     *         completed for this TLS virtual host since the SSL contexts were
+     *         created or -1 if the statistics are not available. Statistics are
+     *         only available for the OpenSSL based implementations.
+     */
+    public long getSessionAcceptCount() {
+        long result = -1;
+        for (OpenSSLSessionStats stats : getOpenSSLSessionStats()) {
+            result = Math.max(result, 0) + stats.acceptGood();
+        }
+        return result;
+    }
+
+
+    /**
+     * @return The number of resumed TLS sessions for this TLS virtual host
+     *         since the SSL contexts were created or -1 if the statistics are
+     *         not available. Statistics are only available for the OpenSSL
+     *         based implementations.
+     */
+    public long getSessionResumedCount() {
+        long result = -1;
+        for (OpenSSLSessionStats stats : getOpenSSLSessionStats()) {
+            result = Math.max(result, 0) + stats.hits();
+        }
+        return result;
+    }
+
+
+    /**
+     * @return The ratio of resumed TLS sessions to all successful TLS
+     *         handshakes for this TLS virtual host or -1 if the statistics are
+     *         not available
+     */
+    public double getSessionResumptionRate() {
+        long accepted = getSessionAcceptCount();
+        if (accepted < 0) {
+            return -1;
+        }
+        if (accepted == 0) {
+            return 0;
+        }
+        return (double) getSessionResumedCount() / accepted;
+    }
+
+
+    private List<OpenSSLSessionStats> getOpenSSLSessionStats() {
+        List<OpenSSLSessionStats> result = new ArrayList<>(2);
+        // The same context may be shared by multiple certificates
+        Set<SSLContext> sslContexts = new HashSet<>();
+        for (SSLHostConfigCertificate certificate : getCertificates()) {
+            SSLContext sslContext = certificate.getSslContext();
+            if (sslContext != null && sslContexts.add(sslContext)) {
+                SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+                if (sessionContext instanceof OpenSSLSessionContext) {
+                    result.add(((OpenSSLSessionContext) sessionContext).stats());
+                }
+            }
+        }
+        return result;
+    }
+
+
     // ---------------------------------- JSSE specific configuration properties
 
     // TODO: These certificate setters can be removed once it is no longer
@@ -37,6 +37,7 @@ import javax.net.ssl.SSLException;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.ByteBufferUtils;
 import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.TLSClientHelloExtractor.ExtractorResult;
@@ -70,6 +71,11 @@ public class SecureNio2Channel extends Nio2Channel  {
     protected boolean closed;
     protected boolean closing;
 
+    // Set during a renegotiation as that blocks the current thread until the
+    // handshake completes
+    private boolean blockingHandshake = false;
+    private long handshakeStartTime = 0;
+
     private volatile boolean unwrapBeforeRead;
     private final CompletionHandler<Integer, SocketWrapperBase<Nio2Channel>> handshakeReadCompletionHandler;
     private final CompletionHandler<Integer, SocketWrapperBase<Nio2Channel>> handshakeWriteCompletionHandler;
@@ -130,6 +136,7 @@ public class SecureNio2Channel extends Nio2Channel  {
         sslEngine = null;
         sniComplete = false;
         handshakeComplete = false;
+        handshakeStartTime = 0;
         unwrapBeforeRead = true;
         closed = false;
         closing = false;
@@ -222,6 +229,10 @@ public class SecureNio2Channel extends Nio2Channel  {
             return 0; //we have done our initial handshake
         }
 
+        if (handshakeStartTime == 0) {
+            handshakeStartTime = System.nanoTime();
+        }
+
         if (!sniComplete) {
             int sniResult = processSNI();
             if (sniResult == 0) {
@@ -254,6 +265,9 @@ public class SecureNio2Channel extends Nio2Channel  {
                     handshakeComplete = !netOutBuffer.hasRemaining();
                     //return 0 if we are complete, otherwise we still have data to write
                     if (handshakeComplete) {
+                        if (!blockingHandshake) {
+                            endpoint.recordHandshakeTime(System.nanoTime() - handshakeStartTime);
+                        }
                         return 0;
                     } else {
                         if (async) {
@@ -284,8 +298,9 @@ public class SecureNio2Channel extends Nio2Channel  {
                         handshake = handshakeWrap();
                     }
                     if (handshake.getStatus() == Status.OK) {
-                        if (handshakeStatus == HandshakeStatus.NEED_TASK)
-                            handshakeStatus = tasks();
+                        if (handshakeStatus == HandshakeStatus.NEED_TASK && !handshakeTasks()) {
+                            return 1;
+                        }
                     } else if (handshake.getStatus() == Status.CLOSED) {
                         return -1;
                     } else {
@@ -318,8 +333,9 @@ public class SecureNio2Channel extends Nio2Channel  {
                     //perform the unwrap function
                     handshake = handshakeUnwrap();
                     if (handshake.getStatus() == Status.OK) {
-                        if (handshakeStatus == HandshakeStatus.NEED_TASK)
-                            handshakeStatus = tasks();
+                        if (handshakeStatus == HandshakeStatus.NEED_TASK && !handshakeTasks()) {
+                            return 1;
+                        }
                     } else if (handshake.getStatus() == Status.BUFFER_UNDERFLOW) {
                         if (netInBuffer.position() == netInBuffer.limit()) {
                             //clear the buffer if we have emptied it out on data
@@ -351,7 +367,9 @@ public class SecureNio2Channel extends Nio2Channel  {
                     break;
                 }
                 case NEED_TASK: {
-                    handshakeStatus = tasks();
+                    if (!handshakeTasks()) {
+                        return 1;
+                    }
                     break;
                 }
                 default: throw new IllegalStateException(sm.getString("channel.nio.ssl.invalidStatus", handshakeStatus));
@@ -481,6 +499,7 @@ public class SecureNio2Channel extends Nio2Channel  {
         handshakeStatus = sslEngine.getHandshakeStatus();
 
         boolean handshaking = true;
+        blockingHandshake = true;
         try {
             while (handshaking) {
                 int hsStatus = handshakeInternal(false);
@@ -497,7 +516,45 @@ public class SecureNio2Channel extends Nio2Channel  {
             closeSilently();
             IOException x = new IOException(cx);
             throw x;
+        } finally {
+            blockingHandshake = false;
+        }
+    }
+
+
+    /*
+     * Executes the delegated tasks for the handshake. If the endpoint has
+     * handshake threads, the tasks are executed by one of those threads and
+     * the socket is dispatched for processing once they complete.
+     *
+     * @return true if the tasks have been executed by the current thread or
+     *         false if they will be executed by a handshake thread
+     */
+    private boolean handshakeTasks() {
+        if (!blockingHandshake) {
+            final SocketWrapperBase<Nio2Channel> socketWrapper = this.socketWrapper;
+            Runnable offload = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handshakeStatus = tasks();
+                    } catch (Throwable t) {
+                        ExceptionUtils.handleThrowable(t);
+                        if (log.isDebugEnabled()) {
+                            log.debug(sm.getString("channel.nio.ssl.handshakeTaskFail"), t);
+                        }
+                        endpoint.processSocket(socketWrapper, SocketEvent.ERROR, true);
+                        return;
+                    }
+                    endpoint.processSocket(socketWrapper, SocketEvent.OPEN_READ, true);
+                }
+            };
+            if (endpoint.executeHandshakeTasks(offload)) {
+                return false;
+            }
         }
+        handshakeStatus = tasks();
+        return true;
     }
 
 
@@ -552,8 +609,10 @@ public class SecureNio2Channel extends Nio2Channel  {
             //read in the status
             handshakeStatus = result.getHandshakeStatus();
             if (result.getStatus() == SSLEngineResult.Status.OK &&
-                 result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
-                //execute tasks if we need to
+                 result.getHandshakeStatus() == HandshakeStatus.NEED_TASK &&
+                 (blockingHandshake || endpoint.getHandshakeThreads() <= 0)) {
+                //execute tasks if we need to. If there are handshake threads,
+                //handshake() will pass the tasks to them.
                 handshakeStatus = tasks();
             }
             //perform another unwrap?
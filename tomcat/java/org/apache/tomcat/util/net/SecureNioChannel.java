@@ -34,6 +34,7 @@ import javax.net.ssl.SSLException;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.ByteBufferUtils;
 import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.NioEndpoint.NioSocketWrapper;
@@ -53,6 +54,14 @@ public class SecureNioChannel extends NioChannel {
     // various scenarios
     private static final int DEFAULT_NET_BUFFER_SIZE = 16921;
 
+    /**
+     * Returned by {@link #handshake(boolean, boolean)} when the delegated
+     * tasks of the handshake are being executed by the endpoint's handshake
+     * threads. The socket will be registered with the poller once the tasks
+     * complete.
+     */
+    public static final int HANDSHAKE_TASKS_PENDING = -2;
+
     private final NioEndpoint endpoint;
 
     protected ByteBuffer netInBuffer;
@@ -68,6 +77,17 @@ public class SecureNioChannel extends NioChannel {
     protected boolean closed = false;
     protected boolean closing = false;
 
+    // Set during a renegotiation as that blocks the current thread until the
+    // handshake completes
+    private boolean blockingHandshake = false;
+    private long handshakeStartTime = 0;
+
+    // Network buffers returned to the endpoint's buffer pool while idle
+    private final SocketBufferPool bufferPool;
+    private boolean netBuffersReleased = false;
+    private int releasedNetInBufferSize;
+    private int releasedNetOutBufferSize;
+
     protected NioSelectorPool pool;
 
     public SecureNioChannel(SocketBufferHandler bufHandler, NioSelectorPool pool, NioEndpoint endpoint) {
@@ -85,6 +105,7 @@ public class SecureNioChannel extends NioChannel {
         // selector pool for blocking operations
         this.pool = pool;
         this.endpoint = endpoint;
+        this.bufferPool = endpoint.getSocketBufferPool();
     }
 
     @Override
@@ -93,20 +114,59 @@ public class SecureNioChannel extends NioChannel {
         sslEngine = null;
         sniComplete = false;
         handshakeComplete = false;
+        handshakeStartTime = 0;
         closed = false;
         closing = false;
-        netInBuffer.clear();
+        if (!netBuffersReleased) {
+            netInBuffer.clear();
+        }
     }
 
     @Override
     public void free() {
         super.free();
-        if (endpoint.getSocketProperties().getDirectSslBuffer()) {
+        if (endpoint.getSocketProperties().getDirectSslBuffer() && !netBuffersReleased) {
             ByteBufferUtils.cleanDirectBuffer(netInBuffer);
             ByteBufferUtils.cleanDirectBuffer(netOutBuffer);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The network buffers are also released once the handshake has completed
+     * if they do not contain any encrypted data.
+     */
+    @Override
+    public boolean releaseBuffers() {
+        if (bufferPool == null || netBuffersReleased || !handshakeComplete || closing ||
+                netInBuffer.position() > 0 || netOutBuffer.hasRemaining()) {
+            return false;
+        }
+        if (!super.releaseBuffers()) {
+            return false;
+        }
+        releasedNetInBufferSize = netInBuffer.capacity();
+        releasedNetOutBufferSize = netOutBuffer.capacity();
+        bufferPool.release(netInBuffer);
+        bufferPool.release(netOutBuffer);
+        netInBuffer = null;
+        netOutBuffer = null;
+        netBuffersReleased = true;
+        return true;
+    }
+
+    private void acquireNetBuffers() {
+        if (netBuffersReleased) {
+            boolean direct = endpoint.getSocketProperties().getDirectSslBuffer();
+            netInBuffer = bufferPool.acquire(releasedNetInBufferSize, direct);
+            netOutBuffer = bufferPool.acquire(releasedNetOutBufferSize, direct);
+            // Network output buffer is normally kept ready for draining
+            netOutBuffer.limit(0);
+            netBuffersReleased = false;
+        }
+    }
+
 //===========================================================================================
 //                  NIO SSL METHODS
 //===========================================================================================
@@ -125,6 +185,7 @@ public class SecureNioChannel extends NioChannel {
      */
     @Override
     public boolean flush(boolean block, Selector s, long timeout) throws IOException {
+        acquireNetBuffers();
         if (!block) {
             flush(netOutBuffer);
         } else {
@@ -159,8 +220,9 @@ public class SecureNioChannel extends NioChannel {
      * @param write boolean - true if the underlying channel is writable
      *
      * @return 0 if hand shake is complete, -1 if an error (other than an
-     *         IOException) occurred, otherwise it returns a SelectionKey
-     *         interestOps value
+     *         IOException) occurred, {@link #HANDSHAKE_TASKS_PENDING} if the
+     *         delegated tasks are being executed by the endpoint's handshake
+     *         threads, otherwise it returns a SelectionKey interestOps value
      *
      * @throws IOException If an I/O error occurs during the handshake or if the
      *                     handshake fails during wrapping or unwrapping
@@ -171,6 +233,12 @@ public class SecureNioChannel extends NioChannel {
             return 0; //we have done our initial handshake
         }
 
+        acquireNetBuffers();
+
+        if (handshakeStartTime == 0) {
+            handshakeStartTime = System.nanoTime();
+        }
+
         if (!sniComplete) {
             int sniResult = processSNI();
             if (sniResult == 0) {
@@ -203,6 +271,9 @@ public class SecureNioChannel extends NioChannel {
                     }
                     //we are complete if we have delivered the last package
                     handshakeComplete = !netOutBuffer.hasRemaining();
+                    if (handshakeComplete && !blockingHandshake) {
+                        endpoint.recordHandshakeTime(System.nanoTime() - handshakeStartTime);
+                    }
                     //return 0 if we are complete, otherwise we still have data to write
                     return handshakeComplete ? 0 : SelectionKey.OP_WRITE;
                 case NEED_WRAP:
@@ -216,8 +287,8 @@ public class SecureNioChannel extends NioChannel {
                         handshake = handshakeWrap(write);
                     }
                     if (handshake.getStatus() == Status.OK) {
-                        if (handshakeStatus == HandshakeStatus.NEED_TASK) {
-                            handshakeStatus = tasks();
+                        if (handshakeStatus == HandshakeStatus.NEED_TASK && !handshakeTasks()) {
+                            return HANDSHAKE_TASKS_PENDING;
                         }
                     } else if (handshake.getStatus() == Status.CLOSED) {
                         flush(netOutBuffer);
@@ -237,8 +308,8 @@ public class SecureNioChannel extends NioChannel {
                     //perform the unwrap function
                     handshake = handshakeUnwrap(read);
                     if (handshake.getStatus() == Status.OK) {
-                        if (handshakeStatus == HandshakeStatus.NEED_TASK) {
-                            handshakeStatus = tasks();
+                        if (handshakeStatus == HandshakeStatus.NEED_TASK && !handshakeTasks()) {
+                            return HANDSHAKE_TASKS_PENDING;
                         }
                     } else if ( handshake.getStatus() == Status.BUFFER_UNDERFLOW ){
                         //read more data, reregister for OP_READ
@@ -248,7 +319,9 @@ public class SecureNioChannel extends NioChannel {
                     }
                     break;
                 case NEED_TASK:
-                    handshakeStatus = tasks();
+                    if (!handshakeTasks()) {
+                        return HANDSHAKE_TASKS_PENDING;
+                    }
                     break;
                 default:
                     throw new IllegalStateException(sm.getString("channel.nio.ssl.invalidStatus", handshakeStatus));
@@ -360,8 +433,19 @@ public class SecureNioChannel extends NioChannel {
      * @throws IOException - if an IO exception occurs or if application or network buffers contain data
      * @throws SocketTimeoutException - if a socket operation timed out
      */
-    @SuppressWarnings("null") // key cannot be null
     public void rehandshake(long timeout) throws IOException {
+        acquireNetBuffers();
+        blockingHandshake = true;
+        try {
+            doRehandshake(timeout);
+        } finally {
+            blockingHandshake = false;
+        }
+    }
+
+
+    @SuppressWarnings("null") // key cannot be null
+    private void doRehandshake(long timeout) throws IOException {
         //validate the network buffers are empty
         if (netInBuffer.position() > 0 && netInBuffer.position() < netInBuffer.limit()) {
             throw new IOException(sm.getString("channel.nio.ssl.netInputNotEmpty"));
@@ -433,6 +517,43 @@ public class SecureNioChannel extends NioChannel {
 
 
 
+    /*
+     * Executes the delegated tasks for the handshake. If the endpoint has
+     * handshake threads, the tasks are executed by one of those threads and
+     * the socket is registered with the poller once they complete.
+     *
+     * @return true if the tasks have been executed by the current thread or
+     *         false if they will be executed by a handshake thread
+     */
+    private boolean handshakeTasks() {
+        if (!blockingHandshake) {
+            final NioSocketWrapper socketWrapper = this.socketWrapper;
+            Runnable offload = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handshakeStatus = tasks();
+                    } catch (Throwable t) {
+                        ExceptionUtils.handleThrowable(t);
+                        if (log.isDebugEnabled()) {
+                            log.debug(sm.getString("channel.nio.ssl.handshakeTaskFail"), t);
+                        }
+                        socketWrapper.close();
+                        return;
+                    }
+                    // The next step is usually a wrap
+                    socketWrapper.registerWriteInterest();
+                }
+            };
+            if (endpoint.executeHandshakeTasks(offload)) {
+                return false;
+            }
+        }
+        handshakeStatus = tasks();
+        return true;
+    }
+
+
     /**
      * Executes all the tasks needed on the same thread.
      * @return the status
@@ -502,8 +623,10 @@ public class SecureNioChannel extends NioChannel {
             //read in the status
             handshakeStatus = result.getHandshakeStatus();
             if (result.getStatus() == SSLEngineResult.Status.OK &&
-                 result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
-                //execute tasks if we need to
+                 result.getHandshakeStatus() == HandshakeStatus.NEED_TASK &&
+                 (blockingHandshake || endpoint.getHandshakeThreads() <= 0)) {
+                //execute tasks if we need to. If there are handshake threads,
+                //handshake() will pass the tasks to them.
                 handshakeStatus = tasks();
             }
             //perform another unwrap?
@@ -531,6 +654,7 @@ public class SecureNioChannel extends NioChannel {
             return;
         }
         closing = true;
+        acquireNetBuffers();
         sslEngine.closeOutbound();
 
         if (!flush(netOutBuffer)) {
@@ -598,6 +722,7 @@ public class SecureNioChannel extends NioChannel {
         if (!handshakeComplete) {
             throw new IllegalStateException(sm.getString("channel.nio.ssl.incompleteHandshake"));
         }
+        acquireNetBuffers();
 
         //read from the network
         int netread = sc.read(netInBuffer);
@@ -671,6 +796,7 @@ public class SecureNioChannel extends NioChannel {
         if (!handshakeComplete) {
             throw new IllegalStateException(sm.getString("channel.nio.ssl.incompleteHandshake"));
         }
+        acquireNetBuffers();
 
         //read from the network
         int netread = sc.read(netInBuffer);
@@ -781,6 +907,7 @@ public class SecureNioChannel extends NioChannel {
     @Override
     public int write(ByteBuffer src) throws IOException {
         checkInterruptStatus();
+        acquireNetBuffers();
         if (src == this.netOutBuffer) {
             //we can get here through a recursive call
             //by using the NioBlockingSelector
@@ -824,6 +951,7 @@ public class SecureNioChannel extends NioChannel {
     public long write(ByteBuffer[] srcs, int offset, int length)
             throws IOException {
         checkInterruptStatus();
+        acquireNetBuffers();
         // Are we closing or closed?
         if (closing || closed) {
             throw new IOException(sm.getString("channel.nio.ssl.closing"));
@@ -856,11 +984,15 @@ public class SecureNioChannel extends NioChannel {
 
     @Override
     public int getOutboundRemaining() {
+        if (netBuffersReleased) {
+            return 0;
+        }
         return netOutBuffer.remaining();
     }
 
     @Override
     public boolean flushOutbound() throws IOException {
+        acquireNetBuffers();
         int remaining = netOutBuffer.remaining();
         flush(netOutBuffer);
         int remaining2 = netOutBuffer.remaining();
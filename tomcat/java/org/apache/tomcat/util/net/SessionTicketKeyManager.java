@@ -0,0 +1,251 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.net.ssl.SSLSessionContext;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.net.openssl.OpenSSLSessionContext;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Manages the session ticket keys for an {@link SSLHostConfig} when session
+ * ticket key rotation is enabled. The current key is used to encrypt new
+ * tickets and the configured number of previous keys are retained so tickets
+ * issued before a rotation can still be decrypted.
+ * <p>
+ * Keys may either be generated locally or be provided by an external source
+ * such as a cluster (see {@link Distributor}) so that all the nodes behind a
+ * load balancer share the same keys and a ticket issued by one node can be
+ * used to resume the session on any other node.
+ * <p>
+ * Session ticket keys can only be configured for the OpenSSL based
+ * implementations. JSSE does not provide an API to set the keys.
+ */
+public class SessionTicketKeyManager {
+
+    private static final Log log = LogFactory.getLog(SessionTicketKeyManager.class);
+    private static final StringManager sm = StringManager.getManager(SessionTicketKeyManager.class);
+
+    /**
+     * The length of a session ticket key in the format used by OpenSSL: 16
+     * bytes for the key name, 16 bytes for the HMAC secret and 16 bytes for
+     * the AES key.
+     */
+    public static final int KEY_LENGTH = 48;
+
+
+    /**
+     * Used to share session ticket keys between multiple servers.
+     */
+    public interface Distributor {
+
+        /**
+         * @param sslHostConfig The TLS virtual host for which keys are about
+         *                      to be rotated
+         *
+         * @return {@code true} if this server should generate new keys when a
+         *         rotation is due, {@code false} if another server is
+         *         responsible for generating new keys and will provide them
+         *         via {@link SessionTicketKeyManager#setKeys(byte[][])}
+         */
+        boolean isKeyGenerator(SSLHostConfig sslHostConfig);
+
+        /**
+         * Called after this server has generated new keys.
+         *
+         * @param sslHostConfig The TLS virtual host for which the keys were
+         *                      generated
+         * @param keys          The current keys, newest first
+         */
+        void keysRotated(SSLHostConfig sslHostConfig, byte[][] keys);
+    }
+
+
+    private final SSLHostConfig sslHostConfig;
+    private final SecureRandom random = new SecureRandom();
+
+    private volatile Distributor distributor = null;
+
+    // Newest first
+    private byte[][] keys = new byte[0][];
+    private long lastRotation = 0;
+    private long rotationCount = 0;
+    private boolean unsupportedLogged = false;
+
+
+    SessionTicketKeyManager(SSLHostConfig sslHostConfig) {
+        this.sslHostConfig = sslHostConfig;
+    }
+
+
+    public Distributor getDistributor() {
+        return distributor;
+    }
+
+
+    public void setDistributor(Distributor distributor) {
+        this.distributor = distributor;
+    }
+
+
+    /**
+     * @return A copy of the current keys, newest first
+     */
+    public synchronized byte[][] getKeys() {
+        byte[][] result = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = keys[i].clone();
+        }
+        return result;
+    }
+
+
+    /**
+     * Replace the current keys with the given keys, typically obtained from
+     * another server, and apply them to the SSL contexts of the TLS virtual
+     * host. The next local rotation will not be due until a full rotation
+     * interval has elapsed.
+     *
+     * @param newKeys The keys to use, newest first
+     */
+    public synchronized void setKeys(byte[][] newKeys) {
+        if (newKeys == null || newKeys.length == 0) {
+            throw new IllegalArgumentException(sm.getString("sessionTicketKeyManager.noKeys"));
+        }
+        byte[][] copy = new byte[Math.min(newKeys.length, getMaxKeys())][];
+        for (int i = 0; i < copy.length; i++) {
+            if (newKeys[i] == null || newKeys[i].length != KEY_LENGTH) {
+                throw new IllegalArgumentException(sm.getString("sessionTicketKeyManager.invalidKey"));
+            }
+            copy[i] = newKeys[i].clone();
+        }
+        keys = copy;
+        lastRotation = System.currentTimeMillis();
+        rotationCount++;
+        apply();
+    }
+
+
+    /**
+     * @return The number of times new keys have been generated or received
+     */
+    public synchronized long getRotationCount() {
+        return rotationCount;
+    }
+
+
+    /**
+     * Generate a new key, retaining the configured number of previous keys,
+     * and apply the keys to the SSL contexts of the TLS virtual host.
+     */
+    public void rotate() {
+        byte[][] rotated;
+        synchronized (this) {
+            byte[] key = new byte[KEY_LENGTH];
+            random.nextBytes(key);
+            byte[][] newKeys = new byte[Math.min(keys.length + 1, getMaxKeys())][];
+            newKeys[0] = key;
+            System.arraycopy(keys, 0, newKeys, 1, newKeys.length - 1);
+            keys = newKeys;
+            lastRotation = System.currentTimeMillis();
+            rotationCount++;
+            apply();
+            rotated = getKeys();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("sessionTicketKeyManager.rotated", sslHostConfig.getHostName()));
+        }
+        Distributor distributor = this.distributor;
+        if (distributor != null) {
+            distributor.keysRotated(sslHostConfig, rotated);
+        }
+    }
+
+
+    /**
+     * Rotate the keys if rotation is enabled and either no keys have been set
+     * yet or the rotation interval has elapsed. If a {@link Distributor} is
+     * configured, the keys are only rotated if the distributor indicates that
+     * this server is responsible for generating keys.
+     *
+     * @param now The current time in milliseconds
+     */
+    public void rotateIfDue(long now) {
+        int interval = sslHostConfig.getSessionTicketKeyRotationInterval();
+        if (interval <= 0 || sslHostConfig.getDisableSessionTickets()) {
+            return;
+        }
+        synchronized (this) {
+            if (keys.length > 0 && now - lastRotation < interval * 1000L) {
+                return;
+            }
+        }
+        Distributor distributor = this.distributor;
+        if (distributor != null && !distributor.isKeyGenerator(sslHostConfig)) {
+            synchronized (this) {
+                if (keys.length > 0) {
+                    // Wait for the keys from the key generator
+                    return;
+                }
+            }
+        }
+        rotate();
+    }
+
+
+    /**
+     * Apply the current keys, if any, to the SSL contexts of the TLS virtual
+     * host. This is called when the SSL contexts are (re-)created.
+     */
+    public synchronized void apply() {
+        if (keys.length == 0) {
+            return;
+        }
+        byte[] allKeys = new byte[keys.length * KEY_LENGTH];
+        for (int i = 0; i < keys.length; i++) {
+            System.arraycopy(keys[i], 0, allKeys, i * KEY_LENGTH, KEY_LENGTH);
+        }
+        try {
+            for (SSLHostConfigCertificate certificate : sslHostConfig.getCertificates()) {
+                SSLContext sslContext = certificate.getSslContext();
+                if (sslContext == null) {
+                    continue;
+                }
+                SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+                if (sessionContext instanceof OpenSSLSessionContext) {
+                    ((OpenSSLSessionContext) sessionContext).setTicketKeys(allKeys);
+                } else if (!unsupportedLogged) {
+                    unsupportedLogged = true;
+                    log.warn(sm.getString("sessionTicketKeyManager.unsupported",
+                            sslHostConfig.getHostName()));
+                }
+            }
+        } finally {
+            Arrays.fill(allKeys, (byte) 0);
+        }
+    }
+
+
+    private int getMaxKeys() {
+        return 1 + Math.max(0, sslHostConfig.getSessionTicketKeyOverlap());
+    }
+}
@@ -36,9 +36,32 @@ public class SocketBufferHandler {
 
     private final boolean direct;
 
+    private final SocketBufferPool pool;
+    private volatile boolean released = false;
+    private int releasedReadBufferSize;
+    private int releasedWriteBufferSize;
+
     public SocketBufferHandler(int readBufferSize, int writeBufferSize,
             boolean direct) {
+        this(readBufferSize, writeBufferSize, direct, null);
+    }
+
+
+    /**
+     * Create a buffer handler that may return its buffers to the given pool
+     * while they are empty.
+     *
+     * @param readBufferSize  The size of the read buffer
+     * @param writeBufferSize The size of the write buffer
+     * @param direct          Should direct buffers be used
+     * @param pool            The pool the buffers are released to by
+     *                        {@link #releaseBuffers()} or <code>null</code> if
+     *                        the buffers should never be released
+     */
+    public SocketBufferHandler(int readBufferSize, int writeBufferSize,
+            boolean direct, SocketBufferPool pool) {
         this.direct = direct;
+        this.pool = pool;
         if (direct) {
             readBuffer = ByteBuffer.allocateDirect(readBufferSize);
             writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
@@ -60,6 +83,7 @@ public class SocketBufferHandler {
 
 
     private void setReadBufferConfiguredForWrite(boolean readBufferConFiguredForWrite) {
+        acquireBuffers();
         // NO-OP if buffer is already in correct state
         if (this.readBufferConfiguredForWrite != readBufferConFiguredForWrite) {
             if (readBufferConFiguredForWrite) {
@@ -80,11 +104,15 @@ public class SocketBufferHandler {
 
 
     public ByteBuffer getReadBuffer() {
+        acquireBuffers();
         return readBuffer;
     }
 
 
     public boolean isReadBufferEmpty() {
+        if (released) {
+            return true;
+        }
         if (readBufferConfiguredForWrite) {
             return readBuffer.position() == 0;
         } else {
@@ -104,6 +132,7 @@ public class SocketBufferHandler {
 
 
     private void setWriteBufferConfiguredForWrite(boolean writeBufferConfiguredForWrite) {
+        acquireBuffers();
         // NO-OP if buffer is already in correct state
         if (this.writeBufferConfiguredForWrite != writeBufferConfiguredForWrite) {
             if (writeBufferConfiguredForWrite) {
@@ -126,6 +155,9 @@ public class SocketBufferHandler {
 
 
     public boolean isWriteBufferWritable() {
+        if (released) {
+            return true;
+        }
         if (writeBufferConfiguredForWrite) {
             return writeBuffer.hasRemaining();
         } else {
@@ -135,11 +167,15 @@ public class SocketBufferHandler {
 
 
     public ByteBuffer getWriteBuffer() {
+        acquireBuffers();
         return writeBuffer;
     }
 
 
     public boolean isWriteBufferEmpty() {
+        if (released) {
+            return true;
+        }
         if (writeBufferConfiguredForWrite) {
             return writeBuffer.position() == 0;
         } else {
@@ -148,15 +184,34 @@ public class SocketBufferHandler {
     }
 
 
+    /**
+     * @return The number of bytes held in the write buffer that have yet to be
+     *         written to the network
+     */
+    public int getWriteBufferDataSize() {
+        if (released) {
+            return 0;
+        }
+        if (writeBufferConfiguredForWrite) {
+            return writeBuffer.position();
+        } else {
+            return writeBuffer.remaining();
+        }
+    }
+
+
     public void reset() {
-        readBuffer.clear();
+        if (!released) {
+            readBuffer.clear();
+            writeBuffer.clear();
+        }
         readBufferConfiguredForWrite = true;
-        writeBuffer.clear();
         writeBufferConfiguredForWrite = true;
     }
 
 
     public void expand(int newSize) {
+        acquireBuffers();
         configureReadBufferForWrite();
         readBuffer = ByteBufferUtils.expand(readBuffer, newSize);
         configureWriteBufferForWrite();
@@ -164,10 +219,52 @@ public class SocketBufferHandler {
     }
 
     public void free() {
-        if (direct) {
+        if (direct && !released) {
             ByteBufferUtils.cleanDirectBuffer(readBuffer);
             ByteBufferUtils.cleanDirectBuffer(writeBuffer);
         }
     }
 
+
+    /**
+     * Return the read and write buffers to the pool if both are empty. The
+     * buffers will be re-acquired from the pool the next time they are
+     * required. The caller is responsible for ensuring that no other thread
+     * is using the buffers.
+     *
+     * @return <code>true</code> if the buffers were released
+     */
+    public boolean releaseBuffers() {
+        if (pool == null || released || !isReadBufferEmpty() || !isWriteBufferEmpty()) {
+            return false;
+        }
+        releasedReadBufferSize = readBuffer.capacity();
+        releasedWriteBufferSize = writeBuffer.capacity();
+        pool.release(readBuffer);
+        pool.release(writeBuffer);
+        readBuffer = null;
+        writeBuffer = null;
+        readBufferConfiguredForWrite = true;
+        writeBufferConfiguredForWrite = true;
+        released = true;
+        return true;
+    }
+
+
+    /**
+     * @return <code>true</code> if the buffers are currently held by the pool
+     */
+    public boolean isReleased() {
+        return released;
+    }
+
+
+    private void acquireBuffers() {
+        if (released) {
+            readBuffer = pool.acquire(releasedReadBufferSize, direct);
+            writeBuffer = pool.acquire(releasedWriteBufferSize, direct);
+            released = false;
+        }
+    }
+
 }
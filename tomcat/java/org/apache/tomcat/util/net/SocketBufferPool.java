@@ -0,0 +1,196 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.tomcat.util.buf.ByteBufferUtils;
+import org.apache.tomcat.util.collections.SynchronizedStack;
+
+/**
+ * Pool of the buffers released by connections that are idle between requests.
+ * Buffers are pooled by capacity so a buffer is only ever re-used for a buffer
+ * of exactly the same size. In practice there are only a handful of different
+ * sizes (the configured application buffer sizes and the sizes requested by
+ * the SSL engine) so the number of size classes is small. Heap and direct
+ * buffers are pooled separately.
+ */
+public class SocketBufferPool {
+
+    private final ConcurrentMap<Integer,SynchronizedStack<ByteBuffer>> heapBuffers =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer,SynchronizedStack<ByteBuffer>> directBuffers =
+            new ConcurrentHashMap<>();
+
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong(0);
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    private final LongAdder releaseCount = new LongAdder();
+    private final LongAdder reacquireCount = new LongAdder();
+    private final LongAdder allocateCount = new LongAdder();
+
+
+    /**
+     * @param maxSize The maximum number of bytes held by the pool. Released
+     *                buffers that would take the pool over this limit are
+     *                discarded. -1 means unlimited.
+     */
+    public SocketBufferPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Obtain a buffer of the given size. A pooled buffer is used if one is
+     * available else a new buffer is allocated.
+     *
+     * @param capacity The required capacity
+     * @param direct   Should a direct buffer be returned
+     *
+     * @return A cleared buffer with the given capacity
+     */
+    public ByteBuffer acquire(int capacity, boolean direct) {
+        reacquireCount.increment();
+        SynchronizedStack<ByteBuffer> stack = (direct ? directBuffers : heapBuffers).get(
+                Integer.valueOf(capacity));
+        if (stack != null) {
+            ByteBuffer buffer = stack.pop();
+            if (buffer != null) {
+                size.addAndGet(-capacity);
+                count.decrementAndGet();
+                return buffer;
+            }
+        }
+        allocateCount.increment();
+        if (direct) {
+            return ByteBuffer.allocateDirect(capacity);
+        } else {
+            return ByteBuffer.allocate(capacity);
+        }
+    }
+
+
+    /**
+     * Return a buffer to the pool. The buffer must not be used by the caller
+     * once this method has been called.
+     *
+     * @param buffer The buffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        releaseCount.increment();
+        int capacity = buffer.capacity();
+        if (capacity == 0) {
+            return;
+        }
+        if (size.addAndGet(capacity) > maxSize && maxSize >= 0) {
+            // Pool is full
+            size.addAndGet(-capacity);
+            discard(buffer);
+            return;
+        }
+        buffer.clear();
+        ConcurrentMap<Integer,SynchronizedStack<ByteBuffer>> buffers =
+                buffer.isDirect() ? directBuffers : heapBuffers;
+        Integer key = Integer.valueOf(capacity);
+        SynchronizedStack<ByteBuffer> stack = buffers.get(key);
+        if (stack == null) {
+            stack = new SynchronizedStack<>();
+            SynchronizedStack<ByteBuffer> existing = buffers.putIfAbsent(key, stack);
+            if (existing != null) {
+                stack = existing;
+            }
+        }
+        stack.push(buffer);
+        count.incrementAndGet();
+    }
+
+
+    /**
+     * Discard all the pooled buffers.
+     */
+    public void clear() {
+        clear(heapBuffers);
+        clear(directBuffers);
+    }
+
+
+    private void clear(ConcurrentMap<Integer,SynchronizedStack<ByteBuffer>> buffers) {
+        for (SynchronizedStack<ByteBuffer> stack : buffers.values()) {
+            ByteBuffer buffer;
+            while ((buffer = stack.pop()) != null) {
+                size.addAndGet(-buffer.capacity());
+                count.decrementAndGet();
+                discard(buffer);
+            }
+        }
+    }
+
+
+    private static void discard(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            ByteBufferUtils.cleanDirectBuffer(buffer);
+        }
+    }
+
+
+    /**
+     * @return The total capacity, in bytes, of the buffers currently pooled
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+
+    /**
+     * @return The number of buffers currently pooled
+     */
+    public int getCount() {
+        return count.get();
+    }
+
+
+    /**
+     * @return The number of buffers released by idle connections
+     */
+    public long getReleaseCount() {
+        return releaseCount.sum();
+    }
+
+
+    /**
+     * @return The number of buffers re-acquired by connections that were
+     *         previously idle
+     */
+    public long getReacquireCount() {
+        return reacquireCount.sum();
+    }
+
+
+    /**
+     * @return The number of buffers re-acquired that had to be allocated as
+     *         no pooled buffer of the required size was available
+     */
+    public long getAllocateCount() {
+        return allocateCount.sum();
+    }
+}
@@ -103,6 +103,24 @@ public class SocketProperties {
      */
     protected int bufferPoolSize = 1024*1024*100;
 
+    /**
+     * Enable/disable returning the application and network buffers of a
+     * connection to a shared pool while the connection is idle in keep-alive.
+     * The buffers are re-acquired from the pool when the next request arrives.
+     * Currently only supported by the NIO connector.
+     * Default value is disabled
+     */
+    protected boolean idleBufferRelease = false;
+
+    /**
+     * Maximum size in bytes of the buffers held by the pool used by
+     * {@link #idleBufferRelease}. Buffers released when the pool is full are
+     * discarded.
+     * Default is 100MB
+     * -1 is unlimited
+     */
+    protected long idleBufferPoolSize = 1024*1024*100;
+
     /**
      * TCP_NO_DELAY option. JVM default used if not set.
      */
@@ -310,6 +328,14 @@ public class SocketProperties {
         return bufferPoolSize;
     }
 
+    public boolean getIdleBufferRelease() {
+        return idleBufferRelease;
+    }
+
+    public long getIdleBufferPoolSize() {
+        return idleBufferPoolSize;
+    }
+
     public int getEventCache() {
         return eventCache;
     }
@@ -399,6 +425,14 @@ public class SocketProperties {
         this.bufferPoolSize = bufferPoolSize;
     }
 
+    public void setIdleBufferRelease(boolean idleBufferRelease) {
+        this.idleBufferRelease = idleBufferRelease;
+    }
+
+    public void setIdleBufferPoolSize(long idleBufferPoolSize) {
+        this.idleBufferPoolSize = idleBufferPoolSize;
+    }
+
     public void setEventCache(int eventCache) {
         this.eventCache = eventCache;
     }
@@ -95,6 +95,12 @@ public abstract class SocketWrapperBase<E> {
      */
     protected final WriteBuffer nonBlockingWriteBuffer = new WriteBuffer(bufferedWriteSize);
 
+    /**
+     * The number of write operations made to the network for this socket.
+     * A gathering write of several buffers counts as a single operation.
+     */
+    private volatile long networkWriteCount = 0;
+
     /*
      * Asynchronous operations.
      */
@@ -272,6 +278,14 @@ public abstract class SocketWrapperBase<E> {
 
     public SocketBufferHandler getSocketBufferHandler() { return socketBufferHandler; }
 
+    /**
+     * @return The number of write operations made to the network for this
+     *         socket
+     */
+    public long getNetworkWriteCount() {
+        return networkWriteCount;
+    }
+
     public boolean hasDataToRead() {
         // Return true because it is always safe to make a read attempt
         return true;
@@ -281,6 +295,15 @@ public abstract class SocketWrapperBase<E> {
         return !socketBufferHandler.isWriteBufferEmpty() || !nonBlockingWriteBuffer.isEmpty();
     }
 
+    /**
+     * @return The number of bytes held in the socket write buffer and the
+     *         non-blocking write buffer that have yet to be written to the
+     *         network
+     */
+    public long getPendingWriteSize() {
+        return socketBufferHandler.getWriteBufferDataSize() + nonBlockingWriteBuffer.getSize();
+    }
+
     /**
      * Checks to see if there are any writes pending and if there are calls
      * {@link #registerWriteInterest()} to trigger a callback once the pending
@@ -509,6 +532,58 @@ public abstract class SocketWrapperBase<E> {
     }
 
 
+    /**
+     * Writes the provided buffers, in order, as if
+     * {@link #write(boolean, ByteBuffer)} had been called for each of them.
+     * If a blocking write is used and the data will not fit into the socket
+     * write buffer, the contents of the socket write buffer and the provided
+     * buffers are written to the network with a single gathering write
+     * (where supported by the endpoint) rather than being copied through the
+     * socket write buffer. Smaller writes are copied into the socket write
+     * buffer so they may be combined with subsequent writes.
+     *
+     * @param block  <code>true</code> if a blocking write should be used,
+     *               otherwise a non-blocking write will be used
+     * @param srcs   The ByteBuffers containing the data to be written
+     *
+     * @throws IOException If an IO error occurs during the write
+     */
+    public final void write(boolean block, ByteBuffer[] srcs) throws IOException {
+        if (srcs == null) {
+            return;
+        }
+
+        long len = 0;
+        for (ByteBuffer src : srcs) {
+            len += src.remaining();
+        }
+        if (len == 0) {
+            return;
+        }
+
+        if (block && canWriteBuffersDirectly()) {
+            socketBufferHandler.configureWriteBufferForWrite();
+            if (len > socketBufferHandler.getWriteBuffer().remaining()) {
+                socketBufferHandler.configureWriteBufferForRead();
+                ByteBuffer writeBuffer = socketBufferHandler.getWriteBuffer();
+                if (writeBuffer.hasRemaining()) {
+                    ByteBuffer[] buffers = new ByteBuffer[srcs.length + 1];
+                    buffers[0] = writeBuffer;
+                    System.arraycopy(srcs, 0, buffers, 1, srcs.length);
+                    doWrite(true, buffers);
+                } else {
+                    doWrite(true, srcs);
+                }
+                return;
+            }
+        }
+
+        for (ByteBuffer src : srcs) {
+            write(block, src);
+        }
+    }
+
+
     /**
      * Writes the provided data to the socket write buffer. If the socket write
      * buffer fills during the write, the content of the socket write buffer is
@@ -738,7 +813,59 @@ public abstract class SocketWrapperBase<E> {
      */
     protected void doWrite(boolean block) throws IOException {
         socketBufferHandler.configureWriteBufferForRead();
-        doWrite(block, socketBufferHandler.getWriteBuffer());
+        ByteBuffer writeBuffer = socketBufferHandler.getWriteBuffer();
+        if (writeBuffer.hasRemaining()) {
+            networkWriteCount++;
+        }
+        doWrite(block, writeBuffer);
+    }
+
+
+    /**
+     * Write the contents of the ByteBuffers to the socket. For blocking writes
+     * either then entire contents of the buffers will be written or an
+     * IOException will be thrown. Partial blocking writes will not occur. This
+     * implementation writes each buffer in turn. Endpoints that are able to
+     * should override this method to use a gathering write.
+     *
+     * @param block Should the write be blocking or not?
+     * @param from the ByteBuffers containing the data to be written
+     *
+     * @throws IOException If an I/O error such as a timeout occurs during the
+     *                     write
+     */
+    protected void doWrite(boolean block, ByteBuffer[] from) throws IOException {
+        for (ByteBuffer buffer : from) {
+            if (buffer.hasRemaining()) {
+                networkWriteCount++;
+                doWrite(block, buffer);
+                if (buffer.hasRemaining()) {
+                    // Non-blocking write was unable to write all the data
+                    break;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Can {@link #doWrite(boolean, ByteBuffer[])} write any provided buffer
+     * directly to the network or must all data be written via the socket
+     * write buffer?
+     *
+     * @return <code>true</code> if buffers can be written directly
+     */
+    protected boolean canWriteBuffersDirectly() {
+        return true;
+    }
+
+
+    /**
+     * Record that a write operation has been made to the network for this
+     * socket by a sub-class that writes directly to the network.
+     */
+    protected void incrementNetworkWriteCount() {
+        networkWriteCount++;
     }
 
 
@@ -761,6 +888,19 @@ public abstract class SocketWrapperBase<E> {
     }
 
 
+    /**
+     * Called when the connection is idle between requests and is about to
+     * be returned to the poller (or equivalent). If supported and configured,
+     * implementations may release the buffers associated with the socket if
+     * they do not contain any data. The buffers must be re-acquired
+     * transparently the next time they are required. The default
+     * implementation is a NO-OP.
+     */
+    public void releaseIdleBuffers() {
+        // NO-OP
+    }
+
+
     public abstract void registerReadInterest();
 
     public abstract void registerWriteInterest();
@@ -779,6 +919,44 @@ public abstract class SocketWrapperBase<E> {
      */
     public abstract SendfileState processSendfile(SendfileDataBase sendfileData);
 
+    /**
+     * The maximum number of bytes of response data that a blocking response
+     * may hold in memory, rather than blocking, so that the data can be
+     * drained by {@link #processDrain(SendfileKeepAliveState)} once the
+     * response is complete. The default implementation returns -1 as draining
+     * is not supported.
+     *
+     * @return The maximum number of bytes or -1 if responses are not drained
+     */
+    public int getMaxDrainSize() {
+        return -1;
+    }
+
+    /**
+     * Starts writing any response data that remains to be written once a
+     * response is complete. As with {@link #processSendfile(SendfileDataBase)}
+     * if the process does not complete during this call and does not report an
+     * error, the caller <b>will not</b> add the socket to the poller (or
+     * equivalent) and the endpoint will handle the connection according to
+     * the provided keep-alive state once all the data has been written. The
+     * default implementation uses a blocking write.
+     *
+     * @param keepAliveState The keep-alive state of the connection once all
+     *                       the data has been written
+     *
+     * @return The state of the drain process after the first write
+     */
+    public SendfileState processDrain(SendfileKeepAliveState keepAliveState) {
+        if (hasDataToWrite()) {
+            try {
+                flush(true);
+            } catch (IOException ioe) {
+                return SendfileState.ERROR;
+            }
+        }
+        return SendfileState.DONE;
+    }
+
     /**
      * Require the client to perform CLIENT-CERT authentication if it hasn't
      * already done so.
@@ -39,23 +39,30 @@ public class WriteBuffer {
 
     private final LinkedBlockingDeque<ByteBufferHolder> buffers = new LinkedBlockingDeque<>();
 
+    // The number of bytes held that have yet to be written
+    private volatile long size = 0;
+
     public WriteBuffer(int bufferSize) {
         this.bufferSize = bufferSize;
     }
 
     void clear() {
         buffers.clear();
+        size = 0;
     }
 
     void add(byte[] buf, int offset, int length) {
         ByteBufferHolder holder = getByteBufferHolder(length);
         holder.getBuf().put(buf, offset, length);
+        size += length;
     }
 
 
     public void add(ByteBuffer from) {
-        ByteBufferHolder holder = getByteBufferHolder(from.remaining());
+        int length = from.remaining();
+        ByteBufferHolder holder = getByteBufferHolder(length);
         holder.getBuf().put(from);
+        size += length;
     }
 
 
@@ -75,6 +82,15 @@ public class WriteBuffer {
     }
 
 
+    /**
+     * @return The number of bytes held by this buffer that have yet to be
+     *         written
+     */
+    public long getSize() {
+        return size;
+    }
+
+
     /**
      * Create an array of ByteBuffers from the current WriteBuffer, prefixing
      * that array with the provided ByteBuffers.
@@ -97,6 +113,7 @@ public class WriteBuffer {
             result.add(buffer.getBuf());
         }
         buffers.clear();
+        size = 0;
         return result.toArray(new ByteBuffer[result.size()]);
     }
 
@@ -107,11 +124,13 @@ public class WriteBuffer {
         while (!dataLeft && bufIter.hasNext()) {
             ByteBufferHolder buffer = bufIter.next();
             buffer.flip();
+            int remaining = buffer.getBuf().remaining();
             if (blocking) {
                 socketWrapper.writeBlocking(buffer.getBuf());
             } else {
                 socketWrapper.writeNonBlockingInternal(buffer.getBuf());
             }
+            size -= remaining - buffer.getBuf().remaining();
             if (buffer.getBuf().remaining() == 0) {
                 bufIter.remove();
             } else {
@@ -128,7 +147,9 @@ public class WriteBuffer {
         while (!dataLeft && bufIter.hasNext()) {
             ByteBufferHolder buffer = bufIter.next();
             buffer.flip();
+            int remaining = buffer.getBuf().remaining();
             dataLeft = sink.writeFromBuffer(buffer.getBuf(), blocking);
+            size -= remaining - buffer.getBuf().remaining();
             if (!dataLeft) {
                 bufIter.remove();
             }
@@ -0,0 +1,73 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task queue designed to run with {@link ThreadPoolExecutor}. Such a queue
+ * prefers the creation of new threads (up to the maximum pool size) to the
+ * queueing of tasks and allows tasks rejected by the executor to be forced
+ * onto the queue.
+ */
+public interface ExecutorTaskQueue extends BlockingQueue<Runnable> {
+
+    /**
+     * Set the executor that uses this queue. The queue uses the current state
+     * of the executor to decide whether a task should be queued or a new
+     * thread created.
+     *
+     * @param tp The executor or <code>null</code> to disassociate the queue
+     *           from its executor
+     */
+    void setParent(ThreadPoolExecutor tp);
+
+    /**
+     * Place the task on the queue, bypassing the thread creation preference.
+     * To be used if the task has been rejected by the executor.
+     *
+     * @param o The task to queue
+     *
+     * @return <code>true</code> if the task was added to the queue
+     */
+    boolean force(Runnable o);
+
+    /**
+     * Place the task on the queue, bypassing the thread creation preference
+     * and waiting if necessary for space to become available. To be used if
+     * the task has been rejected by the executor.
+     *
+     * @param o       The task to queue
+     * @param timeout How long to wait before giving up
+     * @param unit    The unit for the timeout
+     *
+     * @return <code>true</code> if the task was added to the queue
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    boolean force(Runnable o, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Override the value returned by {@link #remainingCapacity()}. Used by
+     * {@link ThreadPoolExecutor#contextStopping()} to wake idle threads.
+     *
+     * @param forcedRemainingCapacity The value to return or <code>null</code>
+     *                                to use the actual remaining capacity
+     */
+    void setForcedRemainingCapacity(Integer forcedRemainingCapacity);
+}
@@ -0,0 +1,278 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A task queue with the same thread creation preference as {@link TaskQueue}
+ * that is built on the non-blocking {@link LinkedTransferQueue} rather than on
+ * the two lock {@link java.util.concurrent.LinkedBlockingQueue}.
+ * <p>
+ * A new task is handed directly to an idle worker thread if one is waiting for
+ * work. Otherwise a new thread is created if the pool is below its maximum
+ * size and only if that is not possible is the task queued. Unlike
+ * {@link TaskQueue}, this does not need to consult the submitted task count of
+ * the executor so submitting a task does not touch any state shared with the
+ * other submitters beyond the queue itself.
+ * <p>
+ * When a capacity is specified the queue maintains an atomic element count to
+ * enforce it. The count is maintained for the operations used by
+ * {@link ThreadPoolExecutor}. Removing tasks via the iterator is not
+ * accounted for.
+ */
+public class LockFreeTaskQueue extends LinkedTransferQueue<Runnable> implements ExecutorTaskQueue {
+
+    private static final long serialVersionUID = 1L;
+    protected static final StringManager sm = StringManager
+            .getManager("org.apache.tomcat.util.threads.res");
+
+    /*
+     * Interval used to re-check the capacity while waiting in
+     * force(Runnable, long, TimeUnit).
+     */
+    private static final long FORCE_WAIT_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private transient volatile ThreadPoolExecutor parent = null;
+
+    private final int capacity;
+    private final AtomicInteger count;
+
+    // No need to be volatile. This is written and read in a single thread
+    // (when stopping a context and firing the  listeners)
+    private Integer forcedRemainingCapacity = null;
+
+    public LockFreeTaskQueue() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public LockFreeTaskQueue(int capacity) {
+        super();
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        if (capacity == Integer.MAX_VALUE) {
+            count = null;
+        } else {
+            count = new AtomicInteger(0);
+        }
+    }
+
+    public LockFreeTaskQueue(Collection<? extends Runnable> c) {
+        this(Integer.MAX_VALUE);
+        addAll(c);
+    }
+
+    @Override
+    public void setParent(ThreadPoolExecutor tp) {
+        parent = tp;
+    }
+
+    @Override
+    public boolean force(Runnable o) {
+        if (parent == null || parent.isShutdown()) throw new RejectedExecutionException(sm.getString("taskQueue.notRunning"));
+        return enqueue(o); //forces the item onto the queue, to be used if the task is rejected
+    }
+
+    @Override
+    public boolean force(Runnable o, long timeout, TimeUnit unit) throws InterruptedException {
+        if (parent == null || parent.isShutdown()) throw new RejectedExecutionException(sm.getString("taskQueue.notRunning"));
+        if (enqueue(o)) {
+            return true;
+        }
+        // Bounded queue is full. Wait for space.
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (deadline - System.nanoTime() > 0) {
+            LockSupport.parkNanos(this, FORCE_WAIT_INTERVAL_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (enqueue(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean offer(Runnable o) {
+        //we can't do any checks
+        if (parent == null) return enqueue(o);
+        if (!reserve()) {
+            // Queue is full. Let the executor create a thread or reject the
+            // task.
+            return false;
+        }
+        //we have idle threads, hand the task over directly
+        if (tryTransfer(o)) return true;
+        //if we have less threads than maximum force creation of a new thread
+        if (parent.getPoolSize() < parent.getMaximumPoolSize()) {
+            release(1);
+            return false;
+        }
+        //we are maxed out on threads, simply queue the object
+        return super.offer(o);
+    }
+
+    @Override
+    public boolean add(Runnable o) {
+        if (enqueue(o)) {
+            return true;
+        }
+        throw new IllegalStateException(sm.getString("threadPoolExecutor.queueFull"));
+    }
+
+    @Override
+    public void put(Runnable o) {
+        if (!enqueue(o)) {
+            // Wait for space
+            while (!reserve()) {
+                LockSupport.parkNanos(this, FORCE_WAIT_INTERVAL_NANOS);
+            }
+            super.offer(o);
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        return accounted(super.poll());
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        Runnable runnable = accounted(super.poll(timeout, unit));
+        if (runnable == null && parent != null) {
+            // the poll timed out, it gives an opportunity to stop the current
+            // thread if needed to avoid memory leaks.
+            parent.stopCurrentThreadIfNeeded();
+        }
+        return runnable;
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        if (parent != null && parent.currentThreadShouldBeStopped()) {
+            return poll(parent.getKeepAliveTime(TimeUnit.MILLISECONDS),
+                    TimeUnit.MILLISECONDS);
+            // yes, this may return null (in case of timeout) which normally
+            // does not occur with take()
+            // but the ThreadPoolExecutor implementation allows this
+        }
+        return accounted(super.take());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (super.remove(o)) {
+            release(1);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        // Implemented via poll() which updates the count for each element
+        Objects.requireNonNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        Runnable r;
+        while (n < maxElements && (r = poll()) != null) {
+            c.add(r);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        if (forcedRemainingCapacity != null) {
+            // ThreadPoolExecutor.setCorePoolSize checks that
+            // remainingCapacity==0 to allow to interrupt idle threads
+            // I don't see why, but this hack allows to conform to this
+            // "requirement"
+            return forcedRemainingCapacity.intValue();
+        }
+        if (count == null) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(0, capacity - count.get());
+    }
+
+    @Override
+    public void setForcedRemainingCapacity(Integer forcedRemainingCapacity) {
+        this.forcedRemainingCapacity = forcedRemainingCapacity;
+    }
+
+
+    private boolean enqueue(Runnable o) {
+        if (!reserve()) {
+            return false;
+        }
+        return super.offer(o);
+    }
+
+
+    /*
+     * Reserve space for one element. Always succeeds for an unbounded queue.
+     */
+    private boolean reserve() {
+        if (count == null) {
+            return true;
+        }
+        int c;
+        do {
+            c = count.get();
+            if (c >= capacity) {
+                return false;
+            }
+        } while (!count.compareAndSet(c, c + 1));
+        return true;
+    }
+
+
+    private void release(int n) {
+        if (count != null && n > 0) {
+            count.addAndGet(-n);
+        }
+    }
+
+
+    private Runnable accounted(Runnable r) {
+        if (r != null) {
+            release(1);
+        }
+        return r;
+    }
+}
@@ -166,8 +166,8 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
         try {
             super.execute(command);
         } catch (RejectedExecutionException rx) {
-            if (super.getQueue() instanceof TaskQueue) {
-                final TaskQueue queue = (TaskQueue)super.getQueue();
+            if (super.getQueue() instanceof ExecutorTaskQueue) {
+                final ExecutorTaskQueue queue = (ExecutorTaskQueue)super.getQueue();
                 try {
                     if (!queue.force(command, timeout, unit)) {
                         submittedCount.decrementAndGet();
@@ -190,8 +190,8 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
 
         // save the current pool parameters to restore them later
         int savedCorePoolSize = this.getCorePoolSize();
-        TaskQueue taskQueue =
-                getQueue() instanceof TaskQueue ? (TaskQueue) getQueue() : null;
+        ExecutorTaskQueue taskQueue =
+                getQueue() instanceof ExecutorTaskQueue ? (ExecutorTaskQueue) getQueue() : null;
         if (taskQueue != null) {
             // note by slaurent : quite oddly threadPoolExecutor.setCorePoolSize
             // checks that queue.remainingCapacity()==0. I did not understand
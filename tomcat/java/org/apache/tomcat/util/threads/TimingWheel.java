@@ -0,0 +1,357 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A hashed timing wheel for large numbers of timeouts, most of which are
+ * expected to be cancelled or re-scheduled before they expire. Scheduling and
+ * cancelling a timeout are O(1) and may be performed by any thread. Expired
+ * timeouts are processed by the owner of the wheel calling {@link #advance()}
+ * periodically from a single thread. Each call only examines the buckets for
+ * the ticks that have elapsed since the previous call so the cost is
+ * proportional to the number of timeouts due to expire rather than to the
+ * total number of timeouts.
+ * <p>
+ * Timeouts are processed with a granularity of one tick. A timeout never
+ * expires early but may expire up to one tick (plus the interval between calls
+ * to {@link #advance()}) late. Delays longer than one revolution of the wheel
+ * are supported by counting the remaining revolutions for each timeout.
+ * <p>
+ * The tasks for expired timeouts are executed by the thread calling
+ * {@link #advance()} so they should not block.
+ */
+public class TimingWheel {
+
+    private static final Log log = LogFactory.getLog(TimingWheel.class);
+    private static final StringManager sm =
+            StringManager.getManager("org.apache.tomcat.util.threads.res");
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime;
+
+    // Only accessed by the thread calling advance()
+    private long tick = 0;
+
+    // Timeouts are added to and removed from the buckets by the thread calling
+    // advance(). Other threads hand them over via these queues.
+    private final Queue<Timeout> scheduledTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    // Statistics. Only written by the thread calling advance(), apart from the
+    // timeout count.
+    private final AtomicInteger timeoutCount = new AtomicInteger(0);
+    private volatile long expiredCount = 0;
+    private volatile long advanceCount = 0;
+    private volatile long advanceTime = 0;
+    private volatile long maxAdvanceTime = 0;
+
+
+    /**
+     * Create a timing wheel.
+     *
+     * @param tickDuration The duration of a single tick
+     * @param unit         The unit of the tick duration
+     * @param wheelSize    The number of ticks in a revolution of the wheel.
+     *                     This will be rounded up to a power of two.
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException(
+                    sm.getString("timingWheel.invalidTickDuration", Long.toString(tickDuration)));
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException(
+                    sm.getString("timingWheel.invalidWheelSize", Integer.toString(wheelSize)));
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+    }
+
+
+    /**
+     * Schedule a task to be executed, by the thread calling
+     * {@link #advance()}, once the given delay has elapsed.
+     *
+     * @param task  The task to execute
+     * @param delay The delay
+     * @param unit  The unit of the delay
+     *
+     * @return The timeout that may be used to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long delayNanos = unit.toNanos(Math.max(0, delay));
+        long elapsed = System.nanoTime() - startTime;
+        long deadline;
+        if (delayNanos > Long.MAX_VALUE - elapsed) {
+            deadline = Long.MAX_VALUE;
+        } else {
+            deadline = elapsed + delayNanos;
+        }
+        Timeout timeout = new Timeout(this, task, deadline);
+        timeoutCount.incrementAndGet();
+        scheduledTimeouts.add(timeout);
+        return timeout;
+    }
+
+
+    /**
+     * Process all the timeouts that have expired since the last call. Must not
+     * be called concurrently by multiple threads.
+     *
+     * @return The number of timeouts that expired
+     */
+    public int advance() {
+        long start = System.nanoTime();
+        long targetTick = (start - startTime) / tickNanos;
+
+        removeCancelledTimeouts();
+        addScheduledTimeouts();
+
+        int expired = 0;
+        // A tick is processed once it has completely elapsed so nothing in
+        // its bucket can expire early
+        while (tick < targetTick) {
+            expired += wheel[(int) (tick & mask)].expireTimeouts();
+            tick++;
+        }
+
+        long duration = System.nanoTime() - start;
+        expiredCount += expired;
+        advanceCount++;
+        advanceTime += duration;
+        if (duration > maxAdvanceTime) {
+            maxAdvanceTime = duration;
+        }
+        return expired;
+    }
+
+
+    /**
+     * @return The number of timeouts that are scheduled and have neither
+     *         expired nor been cancelled
+     */
+    public int getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+
+    /**
+     * @return The total number of timeouts that have expired
+     */
+    public long getExpiredCount() {
+        return expiredCount;
+    }
+
+
+    /**
+     * @return The number of times {@link #advance()} has been called
+     */
+    public long getAdvanceCount() {
+        return advanceCount;
+    }
+
+
+    /**
+     * @return The total time, in nanoseconds, spent in {@link #advance()},
+     *         including the execution of the tasks for expired timeouts
+     */
+    public long getAdvanceTime() {
+        return advanceTime;
+    }
+
+
+    /**
+     * @return The longest time, in nanoseconds, spent in a single call to
+     *         {@link #advance()}
+     */
+    public long getMaxAdvanceTime() {
+        return maxAdvanceTime;
+    }
+
+
+    private void addScheduledTimeouts() {
+        Timeout timeout;
+        while ((timeout = scheduledTimeouts.poll()) != null) {
+            if (timeout.state != Timeout.ST_INIT) {
+                // Cancelled before it was added to the wheel
+                continue;
+            }
+            long expiryTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+            // Already due timeouts are expired with the next tick
+            long bucketTick = Math.max(expiryTick, tick);
+            wheel[(int) (bucketTick & mask)].add(timeout);
+        }
+    }
+
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+
+    /**
+     * A scheduled task.
+     */
+    public static final class Timeout {
+
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = ST_INIT;
+
+        // Only accessed by the thread calling advance()
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel this timeout so the task is not executed.
+         *
+         * @return <code>true</code> if the timeout was cancelled or
+         *         <code>false</code> if it has already expired or been
+         *         cancelled
+         */
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            wheel.timeoutCount.decrementAndGet();
+            wheel.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            wheel.timeoutCount.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                ExceptionUtils.handleThrowable(t);
+                log.warn(sm.getString("timingWheel.taskError", task), t);
+            }
+        }
+    }
+
+
+    /*
+     * Doubly linked list of the timeouts due to expire in one tick of a
+     * revolution. Only accessed by the thread calling advance().
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        private int expireTimeouts() {
+            int expired = 0;
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0 || timeout.state != Timeout.ST_INIT) {
+                    remove(timeout);
+                    if (timeout.state == Timeout.ST_INIT) {
+                        timeout.expire();
+                        expired++;
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+            return expired;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An executor that uses a new virtual thread for each task. Virtual threads
+ * are never re-used so any ThreadLocal values set by a task are discarded when
+ * the task completes, which makes the thread renewal performed by
+ * {@link ThreadPoolExecutor#contextStopping()} unnecessary.
+ * <p>
+ * The number of tasks executing concurrently is limited by
+ * {@link #getMaxThreads()}. Tasks submitted while that limit is reached are
+ * queued (up to {@link #getMaxQueueSize()} tasks) and are started, each on a
+ * new virtual thread, as running tasks complete.
+ * <p>
+ * This executor requires Java 21 or later.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService implements ResizableExecutor {
+
+    private static final StringManager sm = StringManager.getManager("org.apache.tomcat.util.threads.res");
+
+    private final JreCompat jreCompat = JreCompat.getInstance();
+
+    private final Object threadBuilder;
+
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger(0);
+    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private final AtomicInteger largestActiveCount = new AtomicInteger(0);
+    private final AtomicLong completedTaskCount = new AtomicLong(0);
+
+    private final CountDownLatch terminationLatch = new CountDownLatch(1);
+    private volatile boolean shutdown = false;
+
+    private volatile int maxThreads;
+    private volatile int maxQueueSize;
+
+
+    public VirtualThreadExecutor(String namePrefix, int maxThreads, int maxQueueSize) {
+        threadBuilder = jreCompat.createVirtualThreadBuilder(namePrefix);
+        this.maxThreads = maxThreads;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+
+    /**
+     * @return the maximum number of tasks that may execute concurrently
+     */
+    @Override
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+
+    /**
+     * Set the maximum number of tasks that may execute concurrently. A value of
+     * zero or less means no limit.
+     *
+     * @param maxThreads The new concurrency limit
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+        // The limit may have been raised
+        startPendingTasks();
+    }
+
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * For this executor the pool size is the number of virtual threads
+     * currently executing tasks.
+     */
+    @Override
+    public int getPoolSize() {
+        return activeCount.get();
+    }
+
+
+    @Override
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+
+    public int getLargestPoolSize() {
+        return largestActiveCount.get();
+    }
+
+
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        setMaxThreads(maximumPoolSize);
+        return true;
+    }
+
+
+    @Override
+    public boolean resizeQueue(int capacity) {
+        setMaxQueueSize(capacity);
+        return true;
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException(sm.getString("virtualThreadExecutor.notRunning"));
+        }
+        if (queueSize.incrementAndGet() > maxQueueSize && maxQueueSize > 0) {
+            queueSize.decrementAndGet();
+            throw new RejectedExecutionException(sm.getString("threadPoolExecutor.queueFull"));
+        }
+        pendingTasks.offer(command);
+        startPendingTasks();
+    }
+
+
+    /*
+     * Start as many of the pending tasks as the concurrency limit allows. Each
+     * task is started on a new virtual thread.
+     */
+    private void startPendingTasks() {
+        while (!pendingTasks.isEmpty()) {
+            int active = activeCount.get();
+            int limit = maxThreads;
+            if (limit > 0 && active >= limit) {
+                // A completing task will start the next pending task
+                return;
+            }
+            if (!activeCount.compareAndSet(active, active + 1)) {
+                continue;
+            }
+            Runnable task = pendingTasks.poll();
+            if (task == null) {
+                // Another thread took the task. Release the slot and re-check.
+                taskCompleted(false);
+                continue;
+            }
+            queueSize.decrementAndGet();
+            updateLargestActiveCount(active + 1);
+            try {
+                jreCompat.threadBuilderStart(threadBuilder, new VirtualThreadTask(task));
+            } catch (RuntimeException e) {
+                taskCompleted(false);
+                throw e;
+            }
+        }
+    }
+
+
+    private void updateLargestActiveCount(int active) {
+        int largest = largestActiveCount.get();
+        while (active > largest && !largestActiveCount.compareAndSet(largest, active)) {
+            largest = largestActiveCount.get();
+        }
+    }
+
+
+    private void taskCompleted(boolean executed) {
+        int active = activeCount.decrementAndGet();
+        if (executed) {
+            completedTaskCount.incrementAndGet();
+        }
+        if (shutdown && active == 0 && pendingTasks.isEmpty()) {
+            terminationLatch.countDown();
+        }
+    }
+
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        if (activeCount.get() == 0 && pendingTasks.isEmpty()) {
+            terminationLatch.countDown();
+        }
+    }
+
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> result = new ArrayList<>();
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            queueSize.decrementAndGet();
+            result.add(task);
+        }
+        if (activeCount.get() == 0) {
+            terminationLatch.countDown();
+        }
+        return result;
+    }
+
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+
+    @Override
+    public boolean isTerminated() {
+        return terminationLatch.getCount() == 0;
+    }
+
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminationLatch.await(timeout, unit);
+    }
+
+
+    private class VirtualThreadTask implements Runnable {
+
+        private final Runnable task;
+
+        VirtualThreadTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                taskCompleted(true);
+                startPendingTasks();
+            }
+        }
+    }
+}
@@ -16,11 +16,12 @@
  */
 package org.apache.tomcat.websocket.server;
 
-import java.util.Comparator;
-import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.tomcat.util.threads.TimingWheel;
 import org.apache.tomcat.websocket.BackgroundProcess;
 import org.apache.tomcat.websocket.BackgroundProcessManager;
 
@@ -32,8 +33,13 @@ import org.apache.tomcat.websocket.BackgroundProcessManager;
  */
 public class WsWriteTimeout implements BackgroundProcess {
 
-    private final Set<WsRemoteEndpointImplServer> endpoints =
-            new ConcurrentSkipListSet<>(new EndpointComparator());
+    /*
+     * Timeouts are processed once a second (by default) so a tick of 100ms is
+     * sufficient. A revolution of the wheel covers 102 seconds.
+     */
+    private final TimingWheel timeouts = new TimingWheel(100, TimeUnit.MILLISECONDS, 1024);
+    private final Map<WsRemoteEndpointImplServer,TimingWheel.Timeout> endpoints =
+            new ConcurrentHashMap<>();
     private final AtomicInteger count = new AtomicInteger(0);
     private int backgroundProcessCount = 0;
     private volatile int processPeriod = 1;
@@ -46,19 +52,8 @@ public class WsWriteTimeout implements BackgroundProcess {
         if (backgroundProcessCount >= processPeriod) {
             backgroundProcessCount = 0;
 
-            long now = System.currentTimeMillis();
-            for (WsRemoteEndpointImplServer endpoint : endpoints) {
-                if (endpoint.getTimeoutExpiry() < now) {
-                    // Background thread, not the thread that triggered the
-                    // write so no need to use a dispatch
-                    endpoint.onTimeout(false);
-                } else {
-                    // Endpoints are ordered by timeout expiry so if this point
-                    // is reached there is no need to check the remaining
-                    // endpoints
-                    break;
-                }
-            }
+            // Only the endpoints with a timeout that is due are examined
+            timeouts.advance();
         }
     }
 
@@ -81,20 +76,40 @@ public class WsWriteTimeout implements BackgroundProcess {
     }
 
 
+    /**
+     * @return The number of endpoints with an asynchronous write in progress
+     *         that has a timeout
+     */
+    public int getTimeoutCount() {
+        return timeouts.getTimeoutCount();
+    }
+
+
+    /**
+     * @return The total time, in nanoseconds, spent processing write timeouts
+     */
+    public long getTimeoutProcessingTime() {
+        return timeouts.getAdvanceTime();
+    }
+
+
     public void register(WsRemoteEndpointImplServer endpoint) {
-        boolean result = endpoints.add(endpoint);
-        if (result) {
+        TimingWheel.Timeout previous = endpoints.put(endpoint, schedule(endpoint));
+        if (previous == null) {
             int newCount = count.incrementAndGet();
             if (newCount == 1) {
                 BackgroundProcessManager.getInstance().register(this);
             }
+        } else {
+            previous.cancel();
         }
     }
 
 
     public void unregister(WsRemoteEndpointImplServer endpoint) {
-        boolean result = endpoints.remove(endpoint);
-        if (result) {
+        TimingWheel.Timeout timeout = endpoints.remove(endpoint);
+        if (timeout != null) {
+            timeout.cancel();
             int newCount = count.decrementAndGet();
             if (newCount == 0) {
                 BackgroundProcessManager.getInstance().unregister(this);
@@ -103,25 +118,41 @@ public class WsWriteTimeout implements BackgroundProcess {
     }
 
 
-    /**
-     * Note: this comparator imposes orderings that are inconsistent with equals
+    private TimingWheel.Timeout schedule(WsRemoteEndpointImplServer endpoint) {
+        long delay = endpoint.getTimeoutExpiry() - System.currentTimeMillis();
+        // The timeout expires once the expiry time has been passed
+        return timeouts.schedule(new TimeoutTask(endpoint), delay + 1, TimeUnit.MILLISECONDS);
+    }
+
+
+    /*
+     * Executed by the background thread.
      */
-    private static class EndpointComparator implements
-            Comparator<WsRemoteEndpointImplServer> {
+    private class TimeoutTask implements Runnable {
 
-        @Override
-        public int compare(WsRemoteEndpointImplServer o1,
-                WsRemoteEndpointImplServer o2) {
+        private final WsRemoteEndpointImplServer endpoint;
 
-            long t1 = o1.getTimeoutExpiry();
-            long t2 = o2.getTimeoutExpiry();
+        TimeoutTask(WsRemoteEndpointImplServer endpoint) {
+            this.endpoint = endpoint;
+        }
 
-            if (t1 < t2) {
-                return -1;
-            } else if (t1 == t2) {
-                return 0;
+        @Override
+        public void run() {
+            TimingWheel.Timeout timeout = endpoints.get(endpoint);
+            if (timeout == null || !timeout.isExpired()) {
+                // Write completed or a new write has been registered
+                return;
+            }
+            if (endpoint.getTimeoutExpiry() < System.currentTimeMillis()) {
+                // Background thread, not the thread that triggered the
+                // write so no need to use a dispatch
+                endpoint.onTimeout(false);
             } else {
-                return 1;
+                // The expiry time has been extended
+                TimingWheel.Timeout next = schedule(endpoint);
+                if (!endpoints.replace(endpoint, timeout, next)) {
+                    next.cancel();
+                }
             }
         }
     }
@@ -475,6 +475,22 @@ public class TestRequest extends TomcatBaseTest {
         */
     }
 
+    @Test
+    public void testLazyParameterParsing() {
+        Bug48692Client client = new Bug48692Client();
+        getTomcatInstance().getConnector().setLazyParameterParsing(true);
+
+        // POST with overlapping GET and POST parameters
+        client.doRequest("POST", "foo=bar&bar=foo", "application/x-www-form-urlencoded",
+                "bar=baz&foo=b%61z&x=a+b", true);
+
+        Assert.assertTrue("Non-200 response for POST request",
+                   client.isResponse200());
+        Assert.assertEquals("Incorrect response for POST request",
+                     "bar=baz,bar=foo,foo=bar,foo=baz,x=a b",
+                     client.getResponseBody());
+    }
+
     @Test
     public void testBug54984() throws Exception {
         Tomcat tomcat = getTomcatInstance();
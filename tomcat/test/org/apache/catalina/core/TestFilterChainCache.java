@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.Arrays;
+
+import javax.servlet.DispatcherType;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.filters.AddDefaultCharsetFilter;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+public class TestFilterChainCache extends TomcatBaseTest {
+
+    protected static final String[] REQUEST_PATHS = new String[] {
+            null, "", "/", "/index.html", "/exact0", "/exact0/more", "/exact8.jsp",
+            "/a", "/a/", "/ab", "/a/b", "/a/b/", "/a/b/c", "/a/b/c.jsp", "/a/b/c.json",
+            "/api/v0", "/api/v1/users", "/api/v2/users/1.json", "/api/v10/users",
+            "/static/css/site.css", "/static/js/app.js", "/x.jsp", "/x.", "/x.jsp/y",
+            "*.jsp", "/a/*" };
+
+    protected static final String[] SERVLET_NAMES = new String[] { "default", "jsp", "other" };
+
+
+    /*
+     * Creates a Context with 40 filter mappings using a mix of exact, path
+     * prefix, extension and servlet name mappings and dispatcher types.
+     */
+    protected StandardContext createContext() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        StandardContext ctx = (StandardContext) tomcat.addContext("", null);
+
+        for (int i = 0; i < 40; i++) {
+            String filterName = "filter" + i;
+            FilterDef filterDef = new FilterDef();
+            filterDef.setFilterClass(AddDefaultCharsetFilter.class.getName());
+            filterDef.setFilterName(filterName);
+            ctx.addFilterDef(filterDef);
+
+            FilterMap filterMap = new FilterMap();
+            filterMap.setFilterName(filterName);
+            switch (i % 8) {
+                case 0:
+                    filterMap.addURLPatternDecoded("/exact" + i);
+                    filterMap.addURLPatternDecoded("/exact" + i + ".jsp");
+                    break;
+                case 1:
+                    filterMap.addURLPatternDecoded("/a/*");
+                    break;
+                case 2:
+                    filterMap.addURLPatternDecoded("/api/v" + (i % 3) + "/*");
+                    break;
+                case 3:
+                    filterMap.addURLPatternDecoded("*.jsp");
+                    filterMap.addURLPatternDecoded("*.css");
+                    break;
+                case 4:
+                    filterMap.addServletName("default");
+                    break;
+                case 5:
+                    filterMap.addURLPatternDecoded("/*");
+                    filterMap.setDispatcher(DispatcherType.FORWARD.name());
+                    break;
+                case 6:
+                    filterMap.addServletName("*");
+                    filterMap.setDispatcher(DispatcherType.ERROR.name());
+                    break;
+                case 7:
+                    filterMap.addURLPatternDecoded("/a/b/*");
+                    filterMap.addURLPatternDecoded("*.json");
+                    filterMap.setDispatcher(DispatcherType.REQUEST.name());
+                    filterMap.setDispatcher(DispatcherType.INCLUDE.name());
+                    break;
+            }
+            ctx.addFilterMap(filterMap);
+        }
+
+        tomcat.start();
+
+        return ctx;
+    }
+
+
+    @Test
+    public void testMatchesFilterMappings() throws Exception {
+        StandardContext ctx = createContext();
+        FilterChainCache cache = ctx.getFilterChainCache();
+
+        // Miss then hit
+        for (int i = 0; i < 2; i++) {
+            for (String servletName : SERVLET_NAMES) {
+                for (DispatcherType dispatcher : DispatcherType.values()) {
+                    for (String requestPath : REQUEST_PATHS) {
+                        ApplicationFilterConfig[] expected = ApplicationFilterFactory.matchFilters(
+                                ctx, ctx.findFilterMaps(), dispatcher, requestPath, servletName);
+                        Assert.assertEquals(servletName + " " + dispatcher + " " + requestPath,
+                                Arrays.asList(expected),
+                                Arrays.asList(cache.getFilters(servletName, dispatcher, requestPath)));
+                    }
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testReset() throws Exception {
+        StandardContext ctx = createContext();
+        FilterChainCache cache = ctx.getFilterChainCache();
+        Assert.assertSame(cache, ctx.getFilterChainCache());
+
+        int count = cache.getFilters("other", DispatcherType.REQUEST, "/none").length;
+
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName("filter0");
+        filterMap.addURLPatternDecoded("/none");
+        ctx.addFilterMap(filterMap);
+
+        FilterChainCache updated = ctx.getFilterChainCache();
+        Assert.assertNotSame(cache, updated);
+        Assert.assertEquals(count + 1,
+                updated.getFilters("other", DispatcherType.REQUEST, "/none").length);
+
+        ctx.removeFilterMap(filterMap);
+        Assert.assertEquals(count,
+                ctx.getFilterChainCache().getFilters("other", DispatcherType.REQUEST, "/none").length);
+
+        ctx.filterStop();
+        Assert.assertEquals(0,
+                ctx.getFilterChainCache().getFilters("default", DispatcherType.REQUEST, "/x.jsp").length);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import javax.servlet.DispatcherType;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+public class TestFilterChainCachePerformance extends TestFilterChainCache {
+
+    private static final Log log = LogFactory.getLog(TestFilterChainCachePerformance.class);
+
+    private static final int ITERATIONS = 1000000;
+
+
+    @Test
+    public void testPerformance() throws Exception {
+        StandardContext ctx = createContext();
+
+        // Warm up
+        testPerformanceImpl(ctx, false);
+        testPerformanceImpl(ctx, true);
+
+        long uncached = testPerformanceImpl(ctx, false);
+        long cached = testPerformanceImpl(ctx, true);
+        log.info("Filter mappings [" + ctx.findFilterMaps().length + "], Uncached [" + uncached +
+                "]ms, Cached [" + cached + "]ms");
+
+        // Cached is typically an order of magnitude faster. Only fail if the
+        // cache is clearly not working.
+        if (cached >= uncached) {
+            // Rerun to reject occasional failures, e.g. because of gc
+            uncached = testPerformanceImpl(ctx, false);
+            cached = testPerformanceImpl(ctx, true);
+            log.warn("testPerformance() rerun: Uncached [" + uncached + "]ms, Cached [" +
+                    cached + "]ms");
+        }
+        Assert.assertTrue(cached + " >= " + uncached, cached < uncached);
+    }
+
+
+    private long testPerformanceImpl(StandardContext ctx, boolean cached) {
+        ApplicationFilterChain filterChain = new ApplicationFilterChain();
+        FilterMap[] filterMaps = ctx.findFilterMaps();
+        int paths = REQUEST_PATHS.length;
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < ITERATIONS; i++) {
+            String requestPath = REQUEST_PATHS[i % paths];
+            ApplicationFilterConfig[] filters;
+            if (cached) {
+                filters = ctx.getFilterChainCache().getFilters("default", DispatcherType.REQUEST,
+                        requestPath);
+            } else {
+                filters = ApplicationFilterFactory.matchFilters(ctx, filterMaps,
+                        DispatcherType.REQUEST, requestPath, "default");
+            }
+            filterChain.setFilters(filters);
+            filterChain.release();
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.catalina.ha.ssl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardService;
+import org.apache.catalina.ha.ClusterMessage;
+import org.apache.catalina.ha.tcp.SimpleTcpCluster;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.apache.tomcat.util.net.SessionTicketKeyManager;
+
+public class TestSessionTicketKeyListener {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Node sender = new Node("localhost");
+        Node receiver = new Node("localhost");
+
+        // Rotating the keys on the key generator sends them to the cluster
+        sender.sslHostConfig.getSessionTicketKeyManager().rotate();
+        Assert.assertEquals(1, sender.cluster.sent.size());
+
+        // Serialize and deserialize the message as the cluster would
+        byte[] data = XByteBuffer.serialize(sender.cluster.sent.get(0));
+        ClusterMessage msg = (ClusterMessage) XByteBuffer.deserialize(data);
+
+        Assert.assertTrue(receiver.listener.accept(msg));
+        receiver.listener.messageReceived(msg);
+
+        byte[][] expected = sender.sslHostConfig.getSessionTicketKeyManager().getKeys();
+        byte[][] actual = receiver.sslHostConfig.getSessionTicketKeyManager().getKeys();
+        Assert.assertEquals(1, actual.length);
+        Assert.assertArrayEquals(expected[0], actual[0]);
+        Assert.assertEquals(1, receiver.sslHostConfig.getSessionTicketKeyRotationCount());
+        // The receiver does not send the keys it received back to the cluster
+        Assert.assertEquals(0, receiver.cluster.sent.size());
+    }
+
+
+    @Test
+    public void testUnknownHost() throws Exception {
+        Node receiver = new Node("localhost");
+
+        byte[][] keys = new byte[1][SessionTicketKeyManager.KEY_LENGTH];
+        ClusterMessage msg = (ClusterMessage) XByteBuffer.deserialize(XByteBuffer.serialize(
+                new SessionTicketKeyMessage("www.example.org", keys, "test")));
+
+        Assert.assertTrue(receiver.listener.accept(msg));
+        receiver.listener.messageReceived(msg);
+
+        Assert.assertEquals(0, receiver.sslHostConfig.getSessionTicketKeyManager().getKeys().length);
+    }
+
+
+    private static class Node {
+
+        private final TesterCluster cluster = new TesterCluster();
+        private final SessionTicketKeyListener listener = new SessionTicketKeyListener();
+        private final SSLHostConfig sslHostConfig = new SSLHostConfig();
+
+        Node(String hostName) {
+            StandardService service = new StandardService();
+            StandardEngine engine = new StandardEngine();
+            service.setContainer(engine);
+            Connector connector = new Connector("HTTP/1.1");
+            sslHostConfig.setHostName(hostName);
+            sslHostConfig.setSessionTicketKeyRotationInterval(60);
+            connector.addSslHostConfig(sslHostConfig);
+            service.addConnector(connector);
+            cluster.setContainer(engine);
+            listener.setCluster(cluster);
+            listener.start();
+        }
+    }
+
+
+    private static class TesterCluster extends SimpleTcpCluster {
+
+        private final List<ClusterMessage> sent = new ArrayList<>();
+
+        @Override
+        public boolean hasMembers() {
+            return true;
+        }
+
+        @Override
+        public Member[] getMembers() {
+            return new Member[0];
+        }
+
+        @Override
+        public Member getLocalMember() {
+            return null;
+        }
+
+        @Override
+        public void send(ClusterMessage msg, Member dest, int sendOptions) {
+            sent.add(msg);
+        }
+    }
+}
@@ -31,6 +31,7 @@ import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.core.StandardHost;
 import org.apache.catalina.core.StandardWrapper;
 import org.apache.catalina.startup.LoggingBaseTest;
+import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 
 public class TestMapper extends LoggingBaseTest {
@@ -39,7 +40,7 @@ public class TestMapper extends LoggingBaseTest {
 
     private HashMap<String, Host> hostMap = new HashMap<>();
 
-    private synchronized Host createHost(String name) {
+    protected synchronized Host createHost(String name) {
         Host host = hostMap.get(name);
         if (host == null) {
             host = new StandardHost();
@@ -49,13 +50,13 @@ public class TestMapper extends LoggingBaseTest {
         return host;
     }
 
-    private Context createContext(String name) {
+    protected Context createContext(String name) {
         Context context = new StandardContext();
         context.setName(name);
         return context;
     }
 
-    private Wrapper createWrapper(String name) {
+    protected Wrapper createWrapper(String name) {
         Wrapper wrapper = new StandardWrapper();
         wrapper.setName(name);
         return wrapper;
@@ -559,4 +560,40 @@ public class TestMapper extends LoggingBaseTest {
             Assert.assertEquals("/foo/bar/bla", mappingData.contextPath.toString());
         }
     }
+
+    @Test
+    public void testMapElementIndex() {
+        // Include names that share a prefix, differ only in case and collide
+        // in String.hashCode() ("Aa" and "BB")
+        String[] names = new String[] { "", "/", "/a", "/a/b", "/A", "/ab",
+                "Aa", "BB", "jsp", "/foo/bar", "/foo/baz" };
+        Mapper.MappedWrapper[] wrappers = new Mapper.MappedWrapper[names.length];
+        for (int i = 0; i < names.length; i++) {
+            wrappers[i] = new Mapper.MappedWrapper(names[i],
+                    createWrapper("w" + i), false, false);
+        }
+        Mapper.MapElementIndex<Mapper.MappedWrapper> index =
+                new Mapper.MapElementIndex<>(wrappers);
+
+        String[] lookups = new String[] { "", "/", "/a", "/a/", "/a/b", "/a/bc",
+                "/A", "/ab", "/aB", "Aa", "BB", "AaBB", "jsp", "JSP", "/foo",
+                "/foo/bar", "/foo/baz", "/foo/bay", "x" };
+        for (String lookup : lookups) {
+            // Look the name up in the middle of a larger buffer
+            char[] buf = ("xx" + lookup + "yy").toCharArray();
+            CharChunk cc = new CharChunk();
+            cc.setChars(buf, 2, lookup.length());
+            Assert.assertEquals(lookup, linearFind(wrappers, lookup), index.find(cc));
+        }
+    }
+
+    private static Mapper.MappedWrapper linearFind(Mapper.MappedWrapper[] wrappers,
+            String name) {
+        for (Mapper.MappedWrapper wrapper : wrappers) {
+            if (wrapper.name.equals(name)) {
+                return wrapper;
+            }
+        }
+        return null;
+    }
 }
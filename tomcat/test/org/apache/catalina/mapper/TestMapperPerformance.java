@@ -16,9 +16,13 @@
  */
 package org.apache.catalina.mapper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.catalina.Host;
 import org.apache.tomcat.util.buf.MessageBytes;
 
 public class TestMapperPerformance extends TestMapper {
@@ -75,4 +79,96 @@ public class TestMapperPerformance extends TestMapper {
         return time;
     }
 
+
+    /*
+     * Maps requests for a host with many contexts, each with many wrappers.
+     */
+    @Test
+    public void testPerformanceLargeMapping() throws Exception {
+        Mapper largeMapper = new Mapper();
+        Host host = createHost("large");
+        largeMapper.addHost("large", new String[0], host);
+        largeMapper.setDefaultHostName("large");
+
+        List<WrapperMappingInfo> wrappers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            wrappers.add(new WrapperMappingInfo("/exact" + i,
+                    createWrapper("exact" + i), false, false));
+            wrappers.add(new WrapperMappingInfo("/prefix" + i + "/*",
+                    createWrapper("prefix" + i), false, false));
+            wrappers.add(new WrapperMappingInfo("/prefix" + i + "/nested/*",
+                    createWrapper("nested" + i), false, false));
+            wrappers.add(new WrapperMappingInfo("*.ext" + i,
+                    createWrapper("ext" + i), false, false));
+        }
+        wrappers.add(new WrapperMappingInfo("/", createWrapper("default"), false, false));
+
+        largeMapper.addContextVersion("large", host, "", "0",
+                createContext("ROOT"), new String[0], null, wrappers);
+        for (int i = 0; i < 300; i++) {
+            largeMapper.addContextVersion("large", host, "/app" + i, "0",
+                    createContext("app" + i), new String[0], null, wrappers);
+            largeMapper.addContextVersion("large", host, "/group" + i + "/app", "0",
+                    createContext("group" + i), new String[0], null, wrappers);
+        }
+
+        String[] uris = new String[] {
+                "/app150/exact7",
+                "/app299/prefix3/a/b/c",
+                "/group42/app/prefix19/nested/x",
+                "/group7/app/dir/file.ext11",
+                "/app3/not/mapped",
+                "/group5/other/exact1",
+                "/unknown/prefix2/foo"};
+        String[] expected = new String[] {
+                "app150 exact7 /exact7 null EXACT",
+                "app299 prefix3 /prefix3 /a/b/c PATH",
+                "group42 nested19 /prefix19/nested /x PATH",
+                "group7 ext11 /dir/file.ext11 null EXTENSION",
+                "app3 default /not/mapped null DEFAULT",
+                "ROOT default /group5/other/exact1 null DEFAULT",
+                "ROOT default /unknown/prefix2/foo null DEFAULT"};
+
+        for (int i = 0; i < uris.length; i++) {
+            Assert.assertEquals(uris[i], expected[i], mapLarge(largeMapper, uris[i]));
+        }
+
+        long time = testPerformanceLargeMappingImpl(largeMapper, uris);
+        log.info("Large mapping: [" + time + "]ms");
+    }
+
+    private String mapLarge(Mapper largeMapper, String uriString) throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString("large");
+        MessageBytes uri = MessageBytes.newInstance();
+        uri.setString(uriString);
+        uri.toChars();
+        uri.getCharChunk().setLimit(-1);
+        largeMapper.map(host, uri, null, mappingData);
+        return mappingData.context.getName() + " " + mappingData.wrapper.getName() + " " +
+                mappingData.wrapperPath + " " + mappingData.pathInfo + " " +
+                mappingData.matchType;
+    }
+
+    private long testPerformanceLargeMappingImpl(Mapper largeMapper, String[] uriStrings)
+            throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString("large");
+        MessageBytes[] uris = new MessageBytes[uriStrings.length];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = MessageBytes.newInstance();
+            uris[i].setString(uriStrings[i]);
+            uris[i].toChars();
+            uris[i].getCharChunk().setLimit(-1);
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 1000000; i++) {
+            mappingData.recycle();
+            largeMapper.map(host, uris[i % uris.length], null, mappingData);
+        }
+        return System.currentTimeMillis() - start;
+    }
 }
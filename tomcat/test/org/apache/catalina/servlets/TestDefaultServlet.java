@@ -21,7 +21,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -29,6 +31,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 
+import javax.management.ObjectName;
 import javax.servlet.http.HttpServletResponse;
 
 import org.junit.Assert;
@@ -40,8 +43,11 @@ import org.apache.catalina.Wrapper;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.webresources.CachedResource;
+import org.apache.catalina.webresources.StandardRoot;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.descriptor.web.ErrorPage;
+import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.websocket.server.WsContextListener;
 
 public class TestDefaultServlet extends TomcatBaseTest {
@@ -145,6 +151,159 @@ public class TestDefaultServlet extends TomcatBaseTest {
         Assert.assertTrue(responseHeaders.contains("vary: accept-encoding"));
     }
 
+    /*
+     * Verify serving of gzip compressed variants held by the resource cache.
+     */
+    @Test
+    public void testCachedGzipVariant() throws Exception {
+
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File("test/webapp");
+
+        File index = new File(appDir, "index.html");
+        long indexSize = index.length();
+
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                "org.apache.catalina.servlets.DefaultServlet");
+        defaultServlet.addInitParameter("fileEncoding", "ISO-8859-1");
+        ctxt.addServletMappingDecoded("/", "default");
+
+        ctxt.addMimeMapping("html", "text/html");
+
+        tomcat.start();
+
+        StandardRoot root = (StandardRoot) ctxt.getResources();
+        root.setCacheGzipVariants(true);
+
+        TestCompressedClient gzipClient = new TestCompressedClient(getPort());
+
+        // A client that does not accept gzip does not trigger compression
+        gzipClient.setRequest(new String[] {
+                "GET /index.html HTTP/1.1" + CRLF +
+                "Host: localhost" + CRLF +
+                "Connection: Close" + CRLF + CRLF });
+        gzipClient.connect();
+        gzipClient.processRequest();
+        Assert.assertTrue(gzipClient.isResponse200());
+        Assert.assertTrue(gzipClient.getResponseHeaders().contains("vary: accept-encoding"));
+        Assert.assertEquals(0, getCacheStatistic(root, "gzipLookupCount"));
+
+        String contentLength = null;
+        String gzipETag = null;
+        for (int i = 0; i < 2; i++) {
+            gzipClient.reset();
+            gzipClient.setRequest(new String[] {
+                    "GET /index.html HTTP/1.1" + CRLF +
+                    "Host: localhost" + CRLF +
+                    "Connection: Close" + CRLF +
+                    "Accept-Encoding: br, gzip" + CRLF + CRLF });
+            gzipClient.connect();
+            gzipClient.processRequest();
+            Assert.assertTrue(gzipClient.isResponse200());
+            List<String> responseHeaders = gzipClient.getResponseHeaders();
+            Assert.assertTrue(responseHeaders.contains("Content-Encoding: gzip"));
+            Assert.assertTrue(responseHeaders.contains("vary: accept-encoding"));
+            Assert.assertFalse(responseHeaders.contains("Content-Length: " + indexSize));
+            for (String header : responseHeaders) {
+                if (header.startsWith("Content-Length: ")) {
+                    if (contentLength == null) {
+                        contentLength = header;
+                    } else {
+                        Assert.assertEquals(contentLength, header);
+                    }
+                } else if (header.startsWith("ETag: ")) {
+                    gzipETag = header.substring(6);
+                }
+            }
+        }
+        Assert.assertNotNull(contentLength);
+        Assert.assertNotNull(gzipETag);
+        // The variant was generated for the first gzip request
+        Assert.assertEquals(2, getCacheStatistic(root, "gzipLookupCount"));
+        Assert.assertEquals(1, getCacheStatistic(root, "gzipHitCount"));
+
+        // Conditional request for the gzip variant
+        gzipClient.reset();
+        gzipClient.setRequest(new String[] {
+                "GET /index.html HTTP/1.1" + CRLF +
+                "Host: localhost" + CRLF +
+                "Connection: Close" + CRLF +
+                "If-None-Match: " + gzipETag + CRLF +
+                "Accept-Encoding: gzip" + CRLF + CRLF });
+        gzipClient.connect();
+        gzipClient.processRequest();
+        Assert.assertTrue(gzipClient.getResponseLine().startsWith("HTTP/1.1 304"));
+
+        gzipClient.reset();
+        gzipClient.setRequest(new String[] {
+                "GET /index.html HTTP/1.1" + CRLF +
+                "Host: localhost" + CRLF +
+                "Connection: Close" + CRLF +
+                "Accept-Encoding: br" + CRLF + CRLF });
+        gzipClient.connect();
+        gzipClient.processRequest();
+        Assert.assertTrue(gzipClient.isResponse200());
+        List<String> responseHeaders = gzipClient.getResponseHeaders();
+        Assert.assertFalse(responseHeaders.contains("Content-Encoding: gzip"));
+        Assert.assertTrue(responseHeaders.contains("Content-Length: " + indexSize));
+        Assert.assertTrue(responseHeaders.contains("vary: accept-encoding"));
+        // The identity and gzip representations have different ETags
+        Assert.assertFalse(responseHeaders.contains("ETag: " + gzipETag));
+        // Neither the conditional nor the identity response used the variant
+        Assert.assertEquals(2, getCacheStatistic(root, "gzipLookupCount"));
+    }
+
+    private static long getCacheStatistic(StandardRoot root, String name) throws Exception {
+        ObjectName cacheName = new ObjectName(root.getObjectName() + ",name=Cache");
+        return ((Long) Registry.getRegistry(null, null).getMBeanServer().getAttribute(
+                cacheName, name)).longValue();
+    }
+
+    /*
+     * Verify serving of static content held off-heap by the resource cache.
+     */
+    @Test
+    public void testCachedOffHeap() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "OffHeapApp");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            Assert.fail("Unable to create directory [" + appDir + "]");
+        }
+
+        // Larger than the response buffer
+        byte[] content = new byte[100 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        try (FileOutputStream fos = new FileOutputStream(new File(appDir, "large.txt"))) {
+            fos.write(content);
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Tomcat.addServlet(ctxt, "default", "org.apache.catalina.servlets.DefaultServlet");
+        ctxt.addServletMappingDecoded("/", "default");
+        tomcat.start();
+
+        StandardRoot root = (StandardRoot) ctxt.getResources();
+        root.setCacheOffHeap(true);
+
+        for (int i = 0; i < 2; i++) {
+            ByteChunk body = new ByteChunk();
+            int rc = getUrl("http://localhost:" + getPort() + "/large.txt", body, null);
+            Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+            Assert.assertArrayEquals(content,
+                    Arrays.copyOfRange(body.getBuffer(), body.getStart(), body.getEnd()));
+        }
+
+        ByteBuffer buffer = ((CachedResource) root.getResource("/large.txt")).getContentBuffer();
+        Assert.assertNotNull(buffer);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(content.length, buffer.remaining());
+    }
+
     /*
      * Verify serving of brotli compressed resources from context root.
      */
@@ -606,6 +606,83 @@ public class TestRewriteValve extends TomcatBaseTest {
     }
 
 
+    @Test
+    public void testPrefixDispatchChain() throws Exception {
+        // The first rule can't match so the chained rule must be skipped
+        doTestRewrite("RewriteRule ^/x/(.*) /y/$1 [C]\n" +
+                "RewriteRule ^/b/(.*) /d/$1\n" +
+                "RewriteRule ^/b/(.*) /c/$1", "/b/a", "/c/a");
+    }
+
+
+    @Test
+    public void testPrefixDispatchRewritten() throws Exception {
+        // Candidates must be re-evaluated after the URL is rewritten
+        doTestRewrite("RewriteRule ^/b/(.*) /d/$1\n" +
+                "RewriteRule ^/d/(.*) /c/$1", "/b/a", "/c/a");
+    }
+
+
+    @Test
+    public void testPrefixDispatchNocase() throws Exception {
+        doTestRewrite("RewriteRule ^/B/(.*) /c/$1 [NC]", "/b/a", "/c/a");
+    }
+
+
+    @Test
+    public void testPrefixDispatchQuoted() throws Exception {
+        // The quoted [ must not hide the alternation
+        doTestRewrite("RewriteRule /x\\Q[\\E|/b/(.*) /c/$1", "/b/a", "/c/a");
+    }
+
+
+    @Test
+    public void testLiteralPrefix() {
+        Assert.assertEquals("/b/", RewriteRule.literalPrefix("^/b/(.*)", false));
+        Assert.assertEquals("/b/", RewriteRule.literalPrefix("/b/.*", false));
+        Assert.assertEquals("/a.", RewriteRule.literalPrefix("^/a\\.b?", false));
+        Assert.assertEquals("/a", RewriteRule.literalPrefix("^/a\\d", false));
+        Assert.assertEquals("/\u00e9", RewriteRule.literalPrefix("/\u00e9", false));
+        Assert.assertEquals("/", RewriteRule.literalPrefix("/\u00e9", true));
+        Assert.assertNull(RewriteRule.literalPrefix("^/a|^/b", false));
+        Assert.assertEquals("/", RewriteRule.literalPrefix("^/(a|b)", false));
+        Assert.assertEquals("/", RewriteRule.literalPrefix("^/[|]", false));
+        Assert.assertNull(RewriteRule.literalPrefix("x\\Q[\\E|y", false));
+        Assert.assertNull(RewriteRule.literalPrefix("x\\Q(\\E|y", false));
+        Assert.assertEquals("x", RewriteRule.literalPrefix("x\\Q|\\E", false));
+        Assert.assertNull(RewriteRule.literalPrefix("x[[a]\\]]|y", false));
+        Assert.assertEquals("x", RewriteRule.literalPrefix("x[[a]|]", false));
+        Assert.assertNull(RewriteRule.literalPrefix("^/?a", false));
+        Assert.assertNull(RewriteRule.literalPrefix(".*", false));
+    }
+
+
+    @Test
+    public void testRuleCacheAndStatistics() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", null);
+        RewriteValve rewriteValve = new RewriteValve();
+        ctx.getPipeline().addValve(rewriteValve);
+        rewriteValve.setConfiguration("RewriteRule ^/b/(.*) /c/$1\n" +
+                "RewriteCond %{REQUEST_METHOD} GET\n" +
+                "RewriteRule ^/d/(.*) /e/$1");
+        RewriteRule[] rules = rewriteValve.rules;
+        Assert.assertTrue(rules[0].isCacheable());
+        Assert.assertFalse(rules[1].isCacheable());
+
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals("/c/a", rules[0].evaluate("/b/a", null).toString());
+            Assert.assertNull(rules[0].evaluate("/x/a", null));
+        }
+        Assert.assertEquals(2, rules[0].getHitCount());
+        Assert.assertEquals(2, rewriteValve.getRuleStatistics().length);
+
+        rewriteValve.resetStatistics();
+        Assert.assertEquals(0, rules[0].getHitCount());
+        Assert.assertEquals(0, rules[0].getEvaluationTime());
+    }
+
+
     private void doTestRewrite(String config, String request, String expectedURI) throws Exception {
         doTestRewrite(config, request, expectedURI, null);
     }
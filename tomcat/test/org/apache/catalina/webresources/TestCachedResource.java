@@ -16,15 +16,23 @@
  */
 package org.apache.catalina.webresources;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import org.apache.catalina.Context;
+import org.apache.catalina.WebResource;
 import org.apache.catalina.WebResourceRoot;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
@@ -76,4 +84,173 @@ public class TestCachedResource extends TomcatBaseTest {
         Assert.assertNotNull(jarConn);
     }
 
+
+    @Test
+    public void testGzipVariant() throws Exception {
+
+        Tomcat tomcat = getTomcatInstance();
+        File docBase = new File("test/webapp");
+        Context ctx = tomcat.addContext("/test", docBase.getAbsolutePath());
+        tomcat.start();
+
+        StandardRoot root = (StandardRoot) ctx.getResources();
+
+        // Disabled by default
+        CachedResource resource = (CachedResource) root.getResource("/index.html");
+        resource.setMimeType("text/html");
+        Assert.assertNull(resource.getGzipVariant());
+
+        root.setCacheGzipVariants(true);
+
+        WebResource variant = resource.getGzipVariant();
+        Assert.assertNotNull(variant);
+        Assert.assertTrue(variant.getContentLength() < resource.getContentLength());
+        Assert.assertNotEquals(resource.getETag(), variant.getETag());
+        Assert.assertTrue(variant.getETag().endsWith("-gzip\""));
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(variant.getContent()))) {
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                content.write(buf, 0, n);
+            }
+        }
+        Assert.assertArrayEquals(Files.readAllBytes(new File(docBase, "index.html").toPath()),
+                content.toByteArray());
+
+        // Generated once
+        WebResource variant2 = resource.getGzipVariant();
+        Assert.assertSame(variant.getContent(), variant2.getContent());
+
+        // Only variants that are used are included in the statistics
+        Assert.assertEquals(0, root.getCache().getGzipLookupCount());
+        resource.gzipVariantServed(variant);
+        resource.gzipVariantServed(variant2);
+        Assert.assertEquals(2, root.getCache().getGzipLookupCount());
+        Assert.assertEquals(1, root.getCache().getGzipHitCount());
+        Assert.assertEquals(2 * (resource.getContentLength() - variant.getContentLength()),
+                root.getCache().getGzipBytesSaved());
+
+        // Not a compressible type
+        resource = (CachedResource) root.getResource("/index.html.gz");
+        resource.setMimeType("application/gzip");
+        Assert.assertFalse(resource.isGzipVariantSupported());
+        Assert.assertNull(resource.getGzipVariant());
+    }
+
+
+    @Test
+    public void testGzipVariantConcurrentEviction() throws Exception {
+
+        File docBase = new File(getTemporaryDirectory(), "gzip-eviction");
+        Assert.assertTrue(docBase.mkdirs());
+        addDeleteOnTearDown(docBase);
+        final int fileCount = 200;
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1024) {
+            text.append("Compressible content. ");
+        }
+        for (int i = 0; i < fileCount; i++) {
+            Files.write(new File(docBase, i + ".txt").toPath(),
+                    text.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("/test", docBase.getAbsolutePath());
+        tomcat.start();
+
+        final StandardRoot root = (StandardRoot) ctx.getResources();
+        // Small enough that the cache is constantly evicting entries
+        root.setCacheMaxSize(40);
+        root.setCacheObjectMaxSize(2);
+        root.setCacheGzipVariants(true);
+        root.getCache().clear();
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int offset = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 5000; j++) {
+                            CachedResource resource = (CachedResource) root.getResource(
+                                    "/" + ((j * 7 + offset) % fileCount) + ".txt");
+                            resource.setMimeType("text/plain");
+                            resource.getGzipVariant();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(60000);
+            Assert.assertFalse("Deadlock", thread.isAlive());
+        }
+        Assert.assertNull(failure.get());
+        Assert.assertTrue(root.getCache().getSize() <= 40);
+    }
+
+
+    @Test
+    public void testOffHeap() throws Exception {
+
+        Tomcat tomcat = getTomcatInstance();
+        File docBase = new File("test/webapp");
+        Context ctx = tomcat.addContext("/test", docBase.getAbsolutePath());
+        tomcat.start();
+
+        StandardRoot root = (StandardRoot) ctx.getResources();
+        byte[] expected = Files.readAllBytes(new File(docBase, "index.html").toPath());
+
+        // Disabled by default
+        CachedResource resource = (CachedResource) root.getResource("/index.html");
+        Assert.assertNull(resource.getContentBuffer());
+        root.getCache().clear();
+
+        root.setCacheOffHeap(true);
+
+        resource = (CachedResource) root.getResource("/index.html");
+        ByteBuffer buffer = resource.getContentBuffer();
+        Assert.assertNotNull(buffer);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertTrue(buffer.isReadOnly());
+        Assert.assertEquals(expected.length, buffer.remaining());
+        Assert.assertEquals(expected.length, root.getCache().getOffHeapSize());
+        Assert.assertEquals(0, root.getCache().getOffHeapAllocationFailures());
+
+        // Each caller gets an independent view of the content
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        Assert.assertArrayEquals(expected, content);
+        Assert.assertEquals(expected.length, resource.getContentBuffer().remaining());
+
+        Assert.assertArrayEquals(expected, resource.getContent());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (InputStream is = resource.getInputStream()) {
+            byte[] buf = new byte[100];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                baos.write(buf, 0, n);
+            }
+        }
+        Assert.assertArrayEquals(expected, baos.toByteArray());
+
+        // Allocated once
+        Assert.assertEquals(expected.length, root.getCache().getOffHeapSize());
+
+        root.getCache().removeCacheEntry("/index.html");
+        Assert.assertEquals(0, root.getCache().getOffHeapSize());
+        resource = (CachedResource) root.getResource("/index.html");
+        Assert.assertNotNull(resource.getContentBuffer());
+        Assert.assertEquals(expected.length, root.getCache().getOffHeapSize());
+        root.getCache().clear();
+        Assert.assertEquals(0, root.getCache().getOffHeapSize());
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTinyLfuPolicy {
+
+    @Test
+    public void testWeight() {
+        Map<String,String> entries = new HashMap<>();
+        TinyLfuPolicy<String,String> policy = new TinyLfuPolicy<>(10000, entries::remove);
+
+        for (int i = 0; i < 1000; i++) {
+            add(policy, entries, "key" + i, 100);
+            Assert.assertTrue(policy.getWeight() <= 10000);
+        }
+        Assert.assertEquals(entries.size() * 100, policy.getWeight());
+
+        // Too large to ever fit
+        long weight = policy.getWeight();
+        add(policy, entries, "large", 10001);
+        Assert.assertFalse(entries.containsKey("large"));
+        Assert.assertTrue(policy.getWeight() <= weight);
+        Assert.assertEquals(entries.size() * 100, policy.getWeight());
+
+        String key = entries.keySet().iterator().next();
+        policy.updateWeight(key, entries.get(key), 50);
+        Assert.assertTrue(policy.getWeight() <= 10000);
+
+        key = entries.keySet().iterator().next();
+        weight = policy.getWeight();
+        policy.remove(key, entries.remove(key));
+        Assert.assertTrue(policy.getWeight() < weight);
+
+        policy.setMaximum(5000);
+        Assert.assertTrue(policy.getWeight() <= 5000);
+        Assert.assertTrue(entries.size() <= 50);
+
+        policy.clear();
+        Assert.assertEquals(0, policy.getWeight());
+    }
+
+
+    @Test
+    public void testRemoveReplacedEntry() {
+        Map<String,String> entries = new HashMap<>();
+        TinyLfuPolicy<String,String> policy = new TinyLfuPolicy<>(10000, entries::remove);
+
+        add(policy, entries, "key", 100);
+        // Different instance with the same key
+        policy.remove("key", new String("key"));
+        Assert.assertEquals(100, policy.getWeight());
+        policy.remove("key", entries.get("key"));
+        Assert.assertEquals(0, policy.getWeight());
+    }
+
+
+    @Test
+    public void testScanResistance() {
+        Map<String,String> entries = new HashMap<>();
+        TinyLfuPolicy<String,String> policy = new TinyLfuPolicy<>(100 * 100, entries::remove);
+
+        // Fill the cache
+        for (int i = 0; i < 100; i++) {
+            add(policy, entries, "cold" + i, 100);
+        }
+
+        // Popular entries are admitted once they are used more often than
+        // the entries they replace
+        for (int j = 0; j < 10; j++) {
+            for (int i = 0; i < 20; i++) {
+                String key = "hot" + i;
+                if (entries.containsKey(key)) {
+                    policy.recordAccess(key);
+                } else {
+                    add(policy, entries, key, 100);
+                }
+            }
+            policy.maintenance();
+        }
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue("hot" + i, entries.containsKey("hot" + i));
+        }
+
+        // A scan of entries that are only used once
+        for (int i = 100; i < 600; i++) {
+            add(policy, entries, "cold" + i, 100);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue("hot" + i, entries.containsKey("hot" + i));
+        }
+        Assert.assertTrue(policy.getWeight() <= 100 * 100);
+    }
+
+
+    @Test
+    public void testFrequencySketch() {
+        TinyLfuPolicy.FrequencySketch sketch = new TinyLfuPolicy.FrequencySketch();
+        sketch.ensureCapacity(512);
+
+        Assert.assertEquals(0, sketch.frequency("a"));
+        for (int i = 0; i < 10; i++) {
+            sketch.increment("a");
+        }
+        Assert.assertEquals(10, sketch.frequency("a"));
+
+        // Saturates
+        for (int i = 0; i < 10; i++) {
+            sketch.increment("a");
+        }
+        Assert.assertEquals(15, sketch.frequency("a"));
+
+        // Counts are halved once the sample size is reached
+        for (int i = 0; i < 10 * 512; i++) {
+            sketch.increment(Integer.valueOf(i));
+        }
+        Assert.assertTrue(sketch.frequency("a") <= 7);
+    }
+
+
+    private static void add(TinyLfuPolicy<String,String> policy, Map<String,String> entries,
+            String key, long weight) {
+        entries.put(key, key);
+        policy.add(key, key, weight);
+    }
+}
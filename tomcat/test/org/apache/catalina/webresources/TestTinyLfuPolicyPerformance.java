@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+/*
+ * Compares the hit rates of the W-TinyLFU policy used by the resource Cache,
+ * an LRU policy and the previous unordered eviction of the Cache for a Zipfian
+ * distribution of requests for resources of varying sizes.
+ */
+public class TestTinyLfuPolicyPerformance {
+
+    private static final int RESOURCES = 100_000;
+    private static final int REQUESTS = 2_000_000;
+    private static final long ENTRY_OVERHEAD = 500;
+    private static final long MAX_SIZE = 10 * 1024 * 1024;
+
+    @Test
+    public void testZipfianHitRate() {
+        Random random = new Random(42);
+        String[] paths = new String[RESOURCES];
+        long[] sizes = new long[RESOURCES];
+        for (int i = 0; i < RESOURCES; i++) {
+            paths[i] = "/static/asset-" + i + ".js";
+            // Mostly small resources with a few larger ones
+            sizes[i] = ENTRY_OVERHEAD + (long) (1024 * Math.exp(random.nextGaussian()));
+        }
+        int[] trace = zipfianTrace(random, 0.9);
+
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            double tinyLfu = runTinyLfu(paths, sizes, trace);
+            long tinyLfuTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            double lru = runLru(paths, sizes, trace);
+            long lruTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            double unordered = runUnordered(paths, sizes, trace);
+            long unorderedTime = System.nanoTime() - start;
+            System.out.println(String.format(
+                    "W-TinyLFU: %.1f%% (%dms), LRU: %.1f%% (%dms), previous: %.1f%% (%dms)",
+                    Double.valueOf(tinyLfu * 100), Long.valueOf(tinyLfuTime / 1_000_000),
+                    Double.valueOf(lru * 100), Long.valueOf(lruTime / 1_000_000),
+                    Double.valueOf(unordered * 100), Long.valueOf(unorderedTime / 1_000_000)));
+        }
+    }
+
+
+    private static int[] zipfianTrace(Random random, double exponent) {
+        double[] cdf = new double[RESOURCES];
+        double total = 0;
+        for (int i = 0; i < RESOURCES; i++) {
+            total += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = total;
+        }
+        // Popularity should not be related to the order of the resources
+        int[] order = new int[RESOURCES];
+        for (int i = 0; i < RESOURCES; i++) {
+            order[i] = i;
+        }
+        for (int i = RESOURCES - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        int[] trace = new int[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            trace[i] = order[Math.min(index, RESOURCES - 1)];
+        }
+        return trace;
+    }
+
+
+    private static double runTinyLfu(String[] paths, long[] sizes, int[] trace) {
+        Map<String,String> cache = new ConcurrentHashMap<>();
+        TinyLfuPolicy<String,String> policy = new TinyLfuPolicy<>(MAX_SIZE, cache::remove);
+        long hits = 0;
+        for (int request : trace) {
+            String path = paths[request];
+            if (cache.get(path) != null) {
+                hits++;
+                policy.recordAccess(path);
+            } else {
+                cache.put(path, path);
+                policy.add(path, path, sizes[request]);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+
+    private static double runLru(String[] paths, long[] sizes, int[] trace) {
+        LinkedHashMap<String,Long> cache = new LinkedHashMap<>(16, 0.75f, true);
+        long size = 0;
+        long hits = 0;
+        for (int request : trace) {
+            String path = paths[request];
+            if (cache.get(path) != null) {
+                hits++;
+            } else {
+                cache.put(path, Long.valueOf(sizes[request]));
+                size += sizes[request];
+                Iterator<Long> iter = cache.values().iterator();
+                while (size > MAX_SIZE) {
+                    size -= iter.next().longValue();
+                    iter.remove();
+                }
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+
+    /*
+     * The eviction used by the Cache prior to W-TinyLFU when adding an entry
+     * to a full cache, ignoring the TTL.
+     */
+    private static double runUnordered(String[] paths, long[] sizes, int[] trace) {
+        Map<String,Long> cache = new ConcurrentHashMap<>();
+        long size = 0;
+        long hits = 0;
+        for (int request : trace) {
+            String path = paths[request];
+            if (cache.get(path) != null) {
+                hits++;
+            } else {
+                cache.put(path, Long.valueOf(sizes[request]));
+                size += sizes[request];
+                if (size > MAX_SIZE) {
+                    long targetSize = MAX_SIZE * 95 / 100;
+                    Iterator<Long> iter = cache.values().iterator();
+                    while (size > targetSize) {
+                        size -= iter.next().longValue();
+                        iter.remove();
+                    }
+                }
+            }
+        }
+        return (double) hits / trace.length;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+public class TestHeaderLineCache {
+
+    @Test
+    public void testCacheable() {
+        HeaderLineCache cache = new HeaderLineCache(4);
+        Assert.assertTrue(cache.isCacheable("Content-Type"));
+        Assert.assertTrue(cache.isCacheable("content-type"));
+        Assert.assertTrue(cache.isCacheable("Date"));
+        Assert.assertFalse(cache.isCacheable("Content-Length"));
+        Assert.assertFalse(cache.isCacheable("Set-Cookie"));
+
+        cache.setMaxValuesPerName(0);
+        Assert.assertFalse(cache.isCacheable("Content-Type"));
+    }
+
+
+    @Test
+    public void testOutputUnchanged() {
+        HeaderLineCache cache = new HeaderLineCache(4);
+        String expected = "Content-Type: text/plain;charset=UTF-8\r\n" +
+                "Date: Fri, 01 Mar 2019 12:00:00 GMT\r\n" +
+                "Content-Length: 11\r\n";
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(expected, sendHeaders(cache, "text/plain;charset=UTF-8",
+                    "Fri, 01 Mar 2019 12:00:00 GMT"));
+        }
+        // Content-Type and Date miss on the first response only
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(4, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testDateChange() {
+        HeaderLineCache cache = new HeaderLineCache(4);
+        sendHeaders(cache, "text/plain", "Fri, 01 Mar 2019 12:00:00 GMT");
+        String result = sendHeaders(cache, "text/plain", "Fri, 01 Mar 2019 12:00:01 GMT");
+        Assert.assertTrue(result.contains("Date: Fri, 01 Mar 2019 12:00:01 GMT\r\n"));
+        result = sendHeaders(cache, "text/plain", "Fri, 01 Mar 2019 12:00:01 GMT");
+        Assert.assertTrue(result.contains("Date: Fri, 01 Mar 2019 12:00:01 GMT\r\n"));
+        // Date misses twice, Content-Type once
+        Assert.assertEquals(3, cache.getMissCount());
+        Assert.assertEquals(3, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testMaxValuesPerName() {
+        HeaderLineCache cache = new HeaderLineCache(2);
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 4; j++) {
+                String contentType = "text/type" + j;
+                String result = sendHeaders(cache, contentType, "Fri, 01 Mar 2019 12:00:00 GMT");
+                Assert.assertTrue(result.startsWith("Content-Type: " + contentType + "\r\n"));
+            }
+        }
+        // 4 values but only 2 cached. Date misses once.
+        Assert.assertEquals(7, cache.getMissCount());
+        Assert.assertEquals(9, cache.getHitCount());
+    }
+
+
+    private static String sendHeaders(HeaderLineCache cache, String contentType, String date) {
+        Http11OutputBuffer outputBuffer = new Http11OutputBuffer(new Response(), 8 * 1024, cache);
+        send(outputBuffer, "Content-Type", contentType);
+        send(outputBuffer, "Date", date);
+        send(outputBuffer, "Content-Length", "11");
+        return new String(outputBuffer.headerBuffer.array(), 0,
+                outputBuffer.headerBuffer.position(), StandardCharsets.ISO_8859_1);
+    }
+
+
+    private static void send(Http11OutputBuffer outputBuffer, String name, String value) {
+        MessageBytes mbName = MessageBytes.newInstance();
+        mbName.setString(name);
+        MessageBytes mbValue = MessageBytes.newInstance();
+        mbValue.setString(value);
+        outputBuffer.sendHeader(mbName, mbValue);
+    }
+}
@@ -16,6 +16,20 @@
  */
 package org.apache.coyote.http11;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -23,6 +37,8 @@ import org.apache.catalina.Context;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.modeler.Registry;
 
 public class TestHttp11OutputBuffer extends TomcatBaseTest {
 
@@ -56,6 +72,95 @@ public class TestHttp11OutputBuffer extends TomcatBaseTest {
         Assert.assertTrue(client.isResponseBodyOK());
     }
 
+    @Test
+    public void testLargeResponseContentLength() throws Exception {
+        doTestLargeResponse(false);
+    }
+
+
+    @Test
+    public void testLargeResponseChunked() throws Exception {
+        doTestLargeResponse(true);
+    }
+
+
+    private void doTestLargeResponse(boolean chunked) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "large", new LargeBodyServlet());
+        ctx.addServletMappingDecoded("/large", "large");
+
+        tomcat.start();
+
+        ByteChunk bc = new ByteChunk();
+        Map<String,List<String>> resHead = new HashMap<>();
+        int rc = getUrl("http://localhost:" + getPort() + "/large?chunked=" + chunked, bc, resHead);
+
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals(LargeBodyServlet.SIZE, bc.getLength());
+        byte[] body = bc.getBytes();
+        for (int i = 0; i < LargeBodyServlet.SIZE; i++) {
+            Assert.assertEquals(LargeBodyServlet.getByte(i), body[bc.getStart() + i]);
+        }
+        if (chunked) {
+            Assert.assertEquals("chunked", getSingleHeader("Transfer-Encoding", resHead));
+        } else {
+            Assert.assertEquals(Integer.toString(LargeBodyServlet.SIZE),
+                    getSingleHeader("Content-Length", resHead));
+        }
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names =
+                mbeanServer.queryNames(new ObjectName("*:type=GlobalRequestProcessor,*"), null);
+        Assert.assertEquals(1, names.size());
+        // The statistics are updated after the response has been sent
+        long networkWriteCount = 0;
+        int count = 0;
+        while (networkWriteCount == 0 && count < 50) {
+            Thread.sleep(100);
+            networkWriteCount = ((Long) mbeanServer.getAttribute(
+                    names.iterator().next(), "networkWriteCount")).longValue();
+            count++;
+        }
+        Assert.assertTrue(networkWriteCount > 0);
+    }
+
+
+    private static class LargeBodyServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int SIZE = 256 * 1024;
+
+        private static byte getByte(int i) {
+            return (byte) ('a' + (i % 26));
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            if (!Boolean.parseBoolean(req.getParameter("chunked"))) {
+                resp.setContentLength(SIZE);
+            }
+            byte[] buf = new byte[1000];
+            OutputStream os = resp.getOutputStream();
+            int written = 0;
+            while (written < SIZE) {
+                int len = Math.min(buf.length, SIZE - written);
+                for (int i = 0; i < len; i++) {
+                    buf[i] = getByte(written + i);
+                }
+                os.write(buf, 0, len);
+                written += len;
+            }
+        }
+    }
+
+
     private static class ExpectationClient extends SimpleHttpClient {
 
         private static final String BODY = "foo=bar";
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import org.junit.Test;
+
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+
+/**
+ * Compares the cost of writing a typical set of response headers with and
+ * without the {@link HeaderLineCache}.
+ */
+public class TesterHeaderLineCachePerformance {
+
+    private static final int ITERATIONS = 1000000;
+
+    private static final String[][] HEADERS = new String[][] {
+            { "Server", "Apache-Coyote/1.1" },
+            { "Cache-Control", "public, max-age=31536000" },
+            { "Vary", "Accept-Encoding" },
+            { "Content-Type", "application/javascript;charset=UTF-8" },
+            { "Content-Length", "48213" },
+            { "Date", null } };
+
+
+    @Test
+    public void testSendHeaders() {
+        Http11OutputBuffer uncached = new Http11OutputBuffer(new Response(), 8 * 1024);
+        HeaderLineCache cache = new HeaderLineCache(Constants.DEFAULT_HEADER_LINE_CACHE_SIZE);
+        Http11OutputBuffer cached = new Http11OutputBuffer(new Response(), 8 * 1024, cache);
+
+        // Warm up
+        doSend(uncached, ITERATIONS / 10);
+        doSend(cached, ITERATIONS / 10);
+
+        for (int i = 0; i < 3; i++) {
+            long uncachedTime = doSend(uncached, ITERATIONS);
+            long cachedTime = doSend(cached, ITERATIONS);
+            System.out.println("Uncached: " + uncachedTime / ITERATIONS + "ns, cached: " +
+                    cachedTime / ITERATIONS + "ns per response");
+        }
+        System.out.println("Cache hits: " + cache.getHitCount() + ", misses: " +
+                cache.getMissCount());
+    }
+
+
+    private static long doSend(Http11OutputBuffer outputBuffer, int iterations) {
+        MessageBytes[] names = new MessageBytes[HEADERS.length];
+        MessageBytes[] values = new MessageBytes[HEADERS.length];
+        for (int i = 0; i < HEADERS.length; i++) {
+            names[i] = MessageBytes.newInstance();
+            values[i] = MessageBytes.newInstance();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            // As Http11Processor.prepareResponse(), the values are Strings
+            for (int j = 0; j < HEADERS.length; j++) {
+                names[j].setString(HEADERS[j][0]);
+                String value = HEADERS[j][1];
+                if (value == null) {
+                    value = FastHttpDateFormat.getCurrentDate();
+                }
+                values[j].setString(value);
+                outputBuffer.sendHeader(names[j], values[j]);
+            }
+            outputBuffer.endHeaders();
+            outputBuffer.headerBuffer.clear();
+        }
+        return System.nanoTime() - start;
+    }
+}
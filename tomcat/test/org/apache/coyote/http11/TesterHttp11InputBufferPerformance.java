@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.http.parser.HttpParser;
+import org.apache.tomcat.util.net.ApplicationBufferHandler;
+import org.apache.tomcat.util.net.NioChannel;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.apache.tomcat.util.net.SSLSupport;
+import org.apache.tomcat.util.net.SendfileDataBase;
+import org.apache.tomcat.util.net.SendfileState;
+import org.apache.tomcat.util.net.SocketBufferHandler;
+import org.apache.tomcat.util.net.SocketWrapperBase;
+
+/**
+ * Measures the cost of parsing the request line and headers of a typical
+ * request as seen behind a CDN. The socket is replaced by an in-memory source
+ * so only the parsing code is measured.
+ */
+public class TesterHttp11InputBufferPerformance {
+
+    private static final int HEADER_COUNT = 40;
+    private static final int ITERATIONS = 1000000;
+
+    private static final byte[] REQUEST;
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        sb.append("GET /static/js/app.min.js?v=20190301 HTTP/1.1\r\n");
+        sb.append("Host: www.example.com\r\n");
+        sb.append("User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
+                "(KHTML, like Gecko) Chrome/72.0.3626.121 Safari/537.36\r\n");
+        sb.append("Accept: text/html,application/xhtml+xml,application/xml;q=0.9," +
+                "image/webp,image/apng,*/*;q=0.8\r\n");
+        sb.append("Accept-Encoding: gzip, deflate, br\r\n");
+        sb.append("Accept-Language: en-GB,en-US;q=0.9,en;q=0.8\r\n");
+        sb.append("Cache-Control: no-cache\r\n");
+        sb.append("Cookie: JSESSIONID=0123456789ABCDEF0123456789ABCDEF; " +
+                "_ga=GA1.2.1234567890.1234567890; _gid=GA1.2.0987654321.0987654321\r\n");
+        sb.append("Via: 1.1 cdn-edge-042 (squid/3.5.27)\r\n");
+        sb.append("X-Forwarded-For: 203.0.113.195, 70.41.3.18, 150.172.238.178\r\n");
+        sb.append("X-Forwarded-Proto: https\r\n");
+        sb.append("X-Forwarded-Port: 443\r\n");
+        // Pad with CDN style tracing headers to reach the target header count
+        for (int i = sb.toString().split("\r\n").length - 1; i < HEADER_COUNT; i++) {
+            sb.append("X-Cdn-Trace-").append(i).append(":  edge=");
+            sb.append(Integer.toHexString(0x10000 * i + 0xbeef));
+            sb.append(";pop=LHR;ts=1551441600.").append(i).append("  \r\n");
+        }
+        sb.append("\r\n");
+        REQUEST = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+
+    @Test
+    public void testParseHeaders() throws Exception {
+        Request request = new Request();
+        Http11InputBuffer inputBuffer = new Http11InputBuffer(request, 8 * 1024, true,
+                new HttpParser(null, null));
+        TesterSocketWrapper wrapper = new TesterSocketWrapper(REQUEST.length);
+        inputBuffer.init(wrapper);
+
+        // Warm up
+        doParse(inputBuffer, wrapper, ITERATIONS / 10);
+
+        long start = System.nanoTime();
+        doParse(inputBuffer, wrapper, ITERATIONS);
+        long duration = System.nanoTime() - start;
+
+        System.out.println("Parsed " + ITERATIONS + " requests with " + HEADER_COUNT +
+                " headers in " + TimeUnit.NANOSECONDS.toMillis(duration) + "ms (" +
+                (duration / ITERATIONS) + "ns per request)");
+    }
+
+
+    @Test
+    public void testParseHeadersSingleByteReads() throws Exception {
+        // Parsing must give the same result however the input is fragmented
+        MimeHeaders expected = parseOnce(REQUEST.length);
+        MimeHeaders actual = parseOnce(1);
+
+        Assert.assertEquals(HEADER_COUNT, expected.size());
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.getName(i).toString(), actual.getName(i).toString());
+            Assert.assertEquals(expected.getValue(i).toString(), actual.getValue(i).toString());
+        }
+        // Names are converted to lower case and values are trimmed
+        int last = HEADER_COUNT - 1;
+        Assert.assertEquals("edge=" + Integer.toHexString(0x10000 * last + 0xbeef) +
+                ";pop=LHR;ts=1551441600." + last,
+                actual.getValue(last).toString());
+        Assert.assertEquals("x-cdn-trace-" + last, actual.getName(last).toString());
+    }
+
+
+    private static MimeHeaders parseOnce(int readSize) throws IOException {
+        Request request = new Request();
+        Http11InputBuffer inputBuffer = new Http11InputBuffer(request, 8 * 1024, true,
+                new HttpParser(null, null));
+        TesterSocketWrapper wrapper = new TesterSocketWrapper(readSize);
+        inputBuffer.init(wrapper);
+        wrapper.reset();
+        while (!inputBuffer.parseRequestLine(false, 0, 0)) {
+            // Loop until the request line is complete
+        }
+        while (!inputBuffer.parseHeaders()) {
+            // Loop until the headers are complete
+        }
+        return request.getMimeHeaders();
+    }
+
+
+    private static void doParse(Http11InputBuffer inputBuffer, TesterSocketWrapper wrapper,
+            int iterations) throws IOException {
+        for (int i = 0; i < iterations; i++) {
+            wrapper.reset();
+            if (!inputBuffer.parseRequestLine(false, 0, 0) || !inputBuffer.parseHeaders()) {
+                throw new IllegalStateException();
+            }
+            inputBuffer.nextRequest();
+        }
+    }
+
+
+    /**
+     * Provides {@link #REQUEST} as the input, delivering at most the
+     * configured number of bytes per read.
+     */
+    private static class TesterSocketWrapper extends SocketWrapperBase<NioChannel> {
+
+        private final int readSize;
+        private int pos;
+
+        public TesterSocketWrapper(int readSize) {
+            super(null, new NioEndpoint());
+            this.readSize = readSize;
+            socketBufferHandler = new SocketBufferHandler(8 * 1024, 8 * 1024, false);
+        }
+
+        public void reset() {
+            pos = 0;
+        }
+
+        @Override
+        public int read(boolean block, ByteBuffer to) throws IOException {
+            int len = Math.min(Math.min(readSize, REQUEST.length - pos), to.remaining());
+            to.put(REQUEST, pos, len);
+            pos += len;
+            return len;
+        }
+
+        @Override
+        public int read(boolean block, byte[] b, int off, int len) throws IOException {
+            return read(block, ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public boolean isReadyForRead() throws IOException {
+            return pos < REQUEST.length;
+        }
+
+        @Override
+        public void setAppReadBufHandler(ApplicationBufferHandler handler) {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateRemoteHost() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateRemoteAddr() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateRemotePort() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateLocalName() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateLocalAddr() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateLocalPort() {
+            // NO-OP
+        }
+
+        @Override
+        protected void doClose() {
+            // NO-OP
+        }
+
+        @Override
+        protected void doWrite(boolean block, ByteBuffer from) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void registerReadInterest() {
+            // NO-OP
+        }
+
+        @Override
+        public void registerWriteInterest() {
+            // NO-OP
+        }
+
+        @Override
+        public SendfileDataBase createSendfileData(String filename, long pos, long length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SendfileState processSendfile(SendfileDataBase sendfileData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void doClientAuth(SSLSupport sslSupport) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SSLSupport getSslSupport(String clientCertProvider) {
+            return null;
+        }
+
+        @Override
+        protected <A> OperationState<A> newOperationState(boolean read, ByteBuffer[] buffers,
+                int offset, int length, BlockingMode block, long timeout, TimeUnit unit,
+                A attachment, CompletionCheck check, CompletionHandler<Long, ? super A> handler,
+                Semaphore semaphore, VectoredIOCompletionHandler<A> completion) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -17,13 +17,19 @@
 
 package org.apache.coyote.http11.filters;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.coyote.CompressionConfig;
 import org.apache.coyote.Response;
 
 /**
@@ -82,4 +88,142 @@ public class TestGzipOutputFilter {
         // most of the data should have been flushed out
         Assert.assertTrue(dataFound.length >= (dataExpected.length - 20));
     }
+
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String[] strategies = new String[] { "default", "filtered", "huffmanOnly" };
+        byte[] data = createData(100000);
+        for (int level = -1; level <= 9; level++) {
+            for (String strategy : strategies) {
+                CompressionConfig compressionConfig = new CompressionConfig();
+                compressionConfig.setDeflateLevel(level);
+                compressionConfig.setDeflateStrategy(strategy);
+                compressionConfig.setDeflateBufferSize(100);
+                byte[] compressed = compress(compressionConfig, data, 1000);
+                Assert.assertArrayEquals("level [" + level + "], strategy [" + strategy + "]",
+                        data, decompress(compressed));
+            }
+        }
+    }
+
+
+    @Test
+    public void testEmpty() throws Exception {
+        byte[] compressed = compress(new CompressionConfig(), new byte[0], 1);
+        Assert.assertEquals(0, decompress(compressed).length);
+    }
+
+
+    @Test
+    public void testDeflaterReuse() throws Exception {
+        CompressionConfig compressionConfig = new CompressionConfig();
+        compressionConfig.setDeflaterPoolSize(1);
+        Response res = new Response();
+        TesterOutputBuffer tob = new TesterOutputBuffer(res, 8 * 1024);
+        res.setOutputBuffer(tob);
+        GzipOutputFilter gf = new GzipOutputFilter(compressionConfig);
+        tob.addFilter(gf);
+
+        byte[] data1 = createData(1000);
+        tob.addActiveFilter(gf);
+        tob.doWrite(ByteBuffer.wrap(data1));
+        tob.end();
+        byte[] compressed1 = tob.toByteArray();
+        tob.nextRequest();
+
+        // The second response must not be affected by the first
+        byte[] data2 = "Second response".getBytes(StandardCharsets.ISO_8859_1);
+        tob.addActiveFilter(gf);
+        tob.doWrite(ByteBuffer.wrap(data2));
+        tob.end();
+        byte[] both = tob.toByteArray();
+        byte[] compressed2 = new byte[both.length - compressed1.length];
+        System.arraycopy(both, compressed1.length, compressed2, 0, compressed2.length);
+
+        Assert.assertArrayEquals(data1, decompress(compressed1));
+        Assert.assertArrayEquals(data2, decompress(compressed2));
+    }
+
+
+    @Test
+    public void testFlushModeNone() throws Exception {
+        CompressionConfig compressionConfig = new CompressionConfig();
+        compressionConfig.setDeflateFlushMode("none");
+
+        byte[] d = "Hello there tomcat developers".getBytes(StandardCharsets.ISO_8859_1);
+
+        // Compressed data is not forced out by a flush
+        Response res = new Response();
+        TesterOutputBuffer tob = createOutputBuffer(res, compressionConfig);
+        tob.doWrite(ByteBuffer.wrap(d));
+        tob.flush();
+        int flushedNone = tob.toByteArray().length;
+
+        // Unless the response is a stream of server-sent events
+        res = new Response();
+        res.setContentType("text/event-stream");
+        tob = createOutputBuffer(res, compressionConfig);
+        tob.doWrite(ByteBuffer.wrap(d));
+        tob.flush();
+        int flushedEventStream = tob.toByteArray().length;
+
+        Assert.assertTrue(flushedNone < d.length);
+        Assert.assertTrue(flushedEventStream > flushedNone);
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidDeflateLevel() {
+        new CompressionConfig().setDeflateLevel(10);
+    }
+
+
+    private static TesterOutputBuffer createOutputBuffer(Response res,
+            CompressionConfig compressionConfig) {
+        TesterOutputBuffer tob = new TesterOutputBuffer(res, 8 * 1024);
+        res.setOutputBuffer(tob);
+        GzipOutputFilter gf = new GzipOutputFilter(compressionConfig);
+        tob.addFilter(gf);
+        tob.addActiveFilter(gf);
+        return tob;
+    }
+
+
+    static byte[] compress(CompressionConfig compressionConfig, byte[] data, int writeSize)
+            throws IOException {
+        Response res = new Response();
+        TesterOutputBuffer tob = createOutputBuffer(res, compressionConfig);
+        for (int i = 0; i < data.length; i += writeSize) {
+            tob.doWrite(ByteBuffer.wrap(data, i, Math.min(writeSize, data.length - i)));
+        }
+        tob.end();
+        return tob.toByteArray();
+    }
+
+
+    static byte[] createData(int length) {
+        StringBuilder sb = new StringBuilder(length + 100);
+        int i = 0;
+        while (sb.length() < length) {
+            sb.append("<tr><td class=\"name\">Item ").append(i).append("</td><td>").append(
+                    i * 31 % 997).append("</td></tr>\n");
+            i++;
+        }
+        sb.setLength(length);
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                result.write(buf, 0, n);
+            }
+        }
+        return result.toByteArray();
+    }
 }
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import org.apache.coyote.CompressionConfig;
+import org.apache.coyote.http11.HttpOutputBuffer;
+
+/**
+ * Compares the cost of compressing a typical response with a new
+ * {@link GZIPOutputStream} per response (the previous implementation of
+ * {@link GzipOutputFilter}) and with a {@link GzipOutputFilter} that re-uses
+ * pooled Deflaters, at various compression levels.
+ */
+public class TesterGzipOutputFilterPerformance {
+
+    private static final int ITERATIONS = 5000;
+    private static final int RESPONSE_SIZE = 32 * 1024;
+    private static final int WRITE_SIZE = 8 * 1024;
+
+    private static final int[] LEVELS = new int[] { 1, 6, 9 };
+
+
+    @Test
+    public void testCompress() throws IOException {
+        byte[] data = TestGzipOutputFilter.createData(RESPONSE_SIZE);
+
+        for (int level : LEVELS) {
+            CompressionConfig compressionConfig = new CompressionConfig();
+            compressionConfig.setDeflateLevel(level);
+            GzipOutputFilter filter = new GzipOutputFilter(compressionConfig);
+            NullOutputBuffer outputBuffer = new NullOutputBuffer();
+            filter.setBuffer(outputBuffer);
+
+            // Warm up
+            doStream(data, level, ITERATIONS / 10);
+            doFilter(filter, data, ITERATIONS / 10);
+
+            for (int i = 0; i < 3; i++) {
+                long streamTime = doStream(data, level, ITERATIONS);
+                outputBuffer.bytesWritten = 0;
+                long filterTime = doFilter(filter, data, ITERATIONS);
+                System.out.println("Level " + level + ": GZIPOutputStream: " +
+                        streamTime / ITERATIONS / 1000 + "us, GzipOutputFilter: " +
+                        filterTime / ITERATIONS / 1000 + "us per response, " +
+                        outputBuffer.bytesWritten / ITERATIONS + " compressed bytes, " +
+                        (long) data.length * ITERATIONS * 1000 / filterTime + " MB/s");
+            }
+        }
+    }
+
+
+    private static long doStream(byte[] data, int level, int iterations) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            // As the previous GzipOutputFilter implementation
+            GZIPOutputStream gos = new LevelGZIPOutputStream(new NullOutputStream(), level);
+            for (int off = 0; off < data.length; off += WRITE_SIZE) {
+                gos.write(data, off, Math.min(WRITE_SIZE, data.length - off));
+            }
+            gos.finish();
+            gos.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+
+    private static long doFilter(GzipOutputFilter filter, byte[] data, int iterations)
+            throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (int off = 0; off < data.length; off += WRITE_SIZE) {
+                filter.doWrite(ByteBuffer.wrap(data, off, Math.min(WRITE_SIZE, data.length - off)));
+            }
+            filter.end();
+            filter.recycle();
+        }
+        return System.nanoTime() - start;
+    }
+
+
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+        LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, true);
+            def.setLevel(level);
+        }
+    }
+
+
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            // NO-OP
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // NO-OP
+        }
+    }
+
+
+    private static class NullOutputBuffer implements HttpOutputBuffer {
+
+        private long bytesWritten = 0;
+
+        @Override
+        public int doWrite(ByteBuffer chunk) {
+            int len = chunk.remaining();
+            bytesWritten += len;
+            return len;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void end() {
+            // NO-OP
+        }
+
+        @Override
+        public void flush() {
+            // NO-OP
+        }
+    }
+}
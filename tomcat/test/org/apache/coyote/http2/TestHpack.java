@@ -17,6 +17,7 @@
 package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -70,6 +71,146 @@ public class TestHpack {
         Assert.assertEquals("value2", headers2.getHeader("header2"));
     }
 
+    @Test
+    public void testEncodeReuseHeaderBlock() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue(":status").setString("200");
+        headers.setValue("content-type").setString("text/plain");
+        headers.setValue("x-custom").setString("value1");
+        ByteBuffer output = ByteBuffer.allocate(512);
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        MimeHeaders headers2 = new MimeHeaders();
+        decoder.setHeaderEmitter(new HeadersListener(headers2));
+
+        // First block adds to the dynamic table so can't be reused
+        encoder.encode(headers, output);
+        Assert.assertFalse(encoder.isLastFromCache());
+        output.flip();
+        decoder.decode(output);
+
+        // Second block only references the table
+        output.clear();
+        encoder.encode(headers, output);
+        Assert.assertFalse(encoder.isLastFromCache());
+        output.flip();
+        Assert.assertEquals(3, output.remaining());
+        byte[] second = new byte[output.remaining()];
+        output.get(second);
+
+        // Third block is identical to the second
+        output.clear();
+        encoder.encode(headers, output);
+        Assert.assertTrue(encoder.isLastFromCache());
+        Assert.assertEquals(3, encoder.getLastEncodedLength());
+        output.flip();
+        byte[] third = new byte[output.remaining()];
+        output.get(third);
+        Assert.assertArrayEquals(second, third);
+        output.rewind();
+        headers2.recycle();
+        decoder.decode(output);
+        Assert.assertEquals("value1", headers2.getHeader("x-custom"));
+
+        // A different value changes the table so the block is not reused
+        headers.setValue("x-custom").setString("value2");
+        output.clear();
+        encoder.encode(headers, output);
+        Assert.assertFalse(encoder.isLastFromCache());
+        output.flip();
+        headers2.recycle();
+        decoder.decode(output);
+        Assert.assertEquals("value2", headers2.getHeader("x-custom"));
+    }
+
+
+    @Test
+    public void testEncodeNoIndexHeaders() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue("x-custom").setString("value1");
+        HpackEncoder encoder = new HpackEncoder(
+                Collections.singleton("x-custom"), -1, 0);
+        int first = encodeLength(encoder, headers);
+        Assert.assertEquals(first, encodeLength(encoder, headers));
+
+        encoder = new HpackEncoder();
+        Assert.assertEquals(first, encodeLength(encoder, headers));
+        Assert.assertEquals(1, encodeLength(encoder, headers));
+    }
+
+
+    @Test
+    public void testEncodeMaxIndexedHeaderSize() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue("x-small").setString("value1");
+        headers.setValue("x-large").setString("01234567890123456789");
+        // Only x-small (7 + 6 + 32 = 45) will be indexed
+        HpackEncoder encoder = new HpackEncoder(
+                HpackEncoder.DEFAULT_NO_INDEX_HEADERS, 50, 0);
+        int first = encodeLength(encoder, headers);
+        int second = encodeLength(encoder, headers);
+        Assert.assertTrue(second < first);
+        Assert.assertTrue(second > 1);
+        Assert.assertEquals(second, encodeLength(encoder, headers));
+    }
+
+
+    @Test
+    public void testEncodeMaxIndexedHeaderSizePerName() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue("x-small").setString("value1");
+        headers.setValue("x-large").setString("01234567890123456789");
+        // Per name limits override the global limit
+        Http2Protocol protocol = new Http2Protocol();
+        protocol.setHpackMaxIndexedHeaderSize(50);
+        protocol.setHpackMaxIndexedHeaderSizes("X-Large:-1, x-small:0");
+        protocol.setHpackHeaderBlockCacheSize(0);
+        Assert.assertTrue(protocol.getHpackMaxIndexedHeaderSizes().contains("x-large:-1"));
+        HpackEncoder encoder = protocol.createHpackEncoder();
+        int first = encodeLength(encoder, headers);
+        int second = encodeLength(encoder, headers);
+        // x-large is indexed, x-small is not
+        Assert.assertTrue(second < first);
+        Assert.assertTrue(second > 1);
+        Assert.assertEquals(second, encodeLength(encoder, headers));
+
+        // Neither is indexed
+        protocol.setHpackMaxIndexedHeaderSizes("x-small:0");
+        encoder = protocol.createHpackEncoder();
+        first = encodeLength(encoder, headers);
+        Assert.assertEquals(first, encodeLength(encoder, headers));
+
+        try {
+            protocol.setHpackMaxIndexedHeaderSizes("x-small");
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testEncodeUnchangedTableSize() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue(":status").setString("200");
+        HpackEncoder encoder = new HpackEncoder();
+        // Setting the current size must not trigger a table size update
+        encoder.setMaxTableSize(Hpack.DEFAULT_TABLE_SIZE);
+        Assert.assertEquals(1, encodeLength(encoder, headers));
+        // A different size must
+        encoder.setMaxTableSize(Hpack.DEFAULT_TABLE_SIZE / 2);
+        Assert.assertTrue(encodeLength(encoder, headers) > 1);
+        Assert.assertEquals(1, encodeLength(encoder, headers));
+    }
+
+
+    private static int encodeLength(HpackEncoder encoder, MimeHeaders headers) {
+        ByteBuffer output = ByteBuffer.allocate(512);
+        Assert.assertEquals(HpackEncoder.State.COMPLETE, encoder.encode(headers, output));
+        return output.position();
+    }
+
+
     private static class HeadersListener implements HpackDecoder.HeaderEmitter {
         private final MimeHeaders headers;
         public HeadersListener(MimeHeaders headers) {
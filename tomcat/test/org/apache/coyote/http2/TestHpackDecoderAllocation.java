@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * Measures the bytes allocated per stream when decoding a typical set of
+ * request headers into a {@link Stream}. All the headers apart from the
+ * pseudo headers are sent as literals that are never indexed which is the
+ * worst case for the decoder.
+ */
+public class TestHpackDecoderAllocation {
+
+    private static final int STREAM_COUNT = 2000;
+
+    private static final String[][] HEADERS = new String[][] {
+            { ":method", "GET" },
+            { ":scheme", "https" },
+            { ":path", "/api/v1/items?id=42&fields=name,price" },
+            { ":authority", "www.example.com" },
+            { "user-agent", "Mozilla/5.0 (X11; Linux x86_64; rv:65.0) Gecko/20100101 Firefox/65.0" },
+            { "accept", "application/json" },
+            { "accept-encoding", "gzip, deflate, br" },
+            { "accept-language", "en-GB,en;q=0.5" },
+            { "x-forwarded-for", "203.0.113.195, 70.41.3.18" },
+            { "x-request-id", "f058ebd6-02f7-4d3f-942e-904344e8cde5" },
+            { "x-api-key", "0123456789abcdef0123456789abcdef" } };
+
+
+    @Test
+    public void testAllocationPerStream() throws Exception {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationMXBean =
+                (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported());
+        allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] headerBlock = createHeaderBlock();
+
+        // Warm up
+        decode(allocationMXBean, headerBlock, false);
+        decode(allocationMXBean, headerBlock, true);
+
+        long stringValues = decode(allocationMXBean, headerBlock, true);
+        long sharedValues = decode(allocationMXBean, headerBlock, false);
+
+        System.out.println("Bytes allocated per stream: " + sharedValues +
+                " (" + stringValues + " with a String per header value)");
+        Assert.assertTrue(sharedValues < stringValues);
+    }
+
+
+    private static long decode(com.sun.management.ThreadMXBean allocationMXBean,
+            byte[] headerBlock, boolean stringValues) throws Exception {
+        // Streams are created up front so only the decoding is measured
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        Stream[] streams = new Stream[STREAM_COUNT];
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            streams[i] = new Stream(Integer.valueOf(i * 2 + 1), handler);
+            streams[i].receivedStartOfHeaders(true);
+        }
+        HpackDecoder decoder = handler.getHpackDecoder();
+        ByteBuffer buffer = ByteBuffer.wrap(headerBlock);
+
+        long threadId = Thread.currentThread().getId();
+        long start = allocationMXBean.getThreadAllocatedBytes(threadId);
+        for (Stream stream : streams) {
+            if (stringValues) {
+                decoder.setHeaderEmitter(new StringValueEmitter(stream));
+            } else {
+                decoder.setHeaderEmitter(stream);
+            }
+            buffer.rewind();
+            decoder.decode(buffer);
+        }
+        long allocated = allocationMXBean.getThreadAllocatedBytes(threadId) - start;
+
+        // Check the headers were decoded correctly
+        Request request = streams[STREAM_COUNT - 1].getCoyoteRequest();
+        Assert.assertEquals("/api/v1/items", request.requestURI().toString());
+        Assert.assertEquals("id=42&fields=name,price", request.queryString().toString());
+        Assert.assertEquals(HEADERS[10][1], request.getHeader(HEADERS[10][0]));
+
+        return allocated / STREAM_COUNT;
+    }
+
+
+    private static byte[] createHeaderBlock() {
+        MimeHeaders headers = new MimeHeaders();
+        Set<String> noIndexHeaders = new HashSet<>();
+        for (String[] header : HEADERS) {
+            headers.addValue(header[0]).setString(header[1]);
+            if (header[0].charAt(0) != ':') {
+                noIndexHeaders.add(header[0]);
+            }
+        }
+        HpackEncoder encoder = new HpackEncoder(noIndexHeaders, -1, 0);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        Assert.assertEquals(HpackEncoder.State.COMPLETE, encoder.encode(headers, buffer));
+        byte[] result = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(result);
+        return result;
+    }
+
+
+    /**
+     * Passes every header value to the stream as a String as the decoder did
+     * previously.
+     */
+    private static class StringValueEmitter implements HpackDecoder.HeaderEmitter {
+
+        private final Stream stream;
+
+        public StringValueEmitter(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void emitHeader(String name, String value) throws HpackException {
+            stream.emitHeader(name, value);
+        }
+
+        @Override
+        public void setHeaderException(StreamException streamException) {
+            stream.setHeaderException(streamException);
+        }
+
+        @Override
+        public void validateHeaders() throws StreamException {
+            stream.validateHeaders();
+        }
+    }
+}
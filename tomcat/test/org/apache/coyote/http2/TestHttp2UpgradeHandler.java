@@ -16,13 +16,24 @@
  */
 package org.apache.coyote.http2;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.modeler.Registry;
 
 public class TestHttp2UpgradeHandler extends Http2TestBase {
 
@@ -69,4 +80,125 @@ public class TestHttp2UpgradeHandler extends Http2TestBase {
                 "3-EndOfStream\n", output.getTrace());
     }
 
+
+    @Test
+    public void testHpackStatistics() throws Exception {
+        http2Connect();
+
+        for (int streamId = 3; streamId < 9; streamId += 2) {
+            sendSimpleGetRequest(streamId);
+            readSimpleGetResponse();
+            Assert.assertEquals(getSimpleResponseTrace(streamId), output.getTrace());
+            output.clearTrace();
+        }
+
+        long raw = http2Protocol.getHpackRawBytes();
+        long encoded = http2Protocol.getHpackEncodedBytes();
+        Assert.assertTrue(raw > 0);
+        Assert.assertTrue(encoded > 0);
+        Assert.assertTrue(encoded < raw);
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(
+                new ObjectName("*:type=UpgradeProtocol,upgradeProtocol=\"h2\",*"), null);
+        Assert.assertEquals(1, names.size());
+        Double ratio = (Double) mbeanServer.getAttribute(
+                names.iterator().next(), "hpackCompressionRatio");
+        Assert.assertTrue(ratio.doubleValue() > 0 && ratio.doubleValue() < 1);
+    }
+
+
+    @Test
+    public void testWriteBatchStatistics() throws Exception {
+        enableHttp2();
+        // Long enough for the other streams to queue their frames
+        http2Protocol.setWriteBatchDelay(200000);
+
+        Tomcat tomcat = getTomcatInstance();
+
+        Context ctxt = tomcat.addContext("", null);
+        Tomcat.addServlet(ctxt, "simple", new SimpleServlet());
+        ctxt.addServletMappingDecoded("/simple", "simple");
+        int streamCount = 3;
+        Tomcat.addServlet(ctxt, "concurrent", new ConcurrentServlet(streamCount));
+        ctxt.addServletMappingDecoded("/concurrent", "concurrent");
+
+        tomcat.start();
+
+        openClientConnection();
+        doHttpUpgrade();
+        sendClientPreface();
+        validateHttp2InitialResponse();
+
+        // The responses are written at the same time
+        for (int i = 0; i < streamCount; i++) {
+            byte[] frameHeader = new byte[9];
+            ByteBuffer headersPayload = ByteBuffer.allocate(128);
+            buildGetRequest(frameHeader, headersPayload, null, 3 + i * 2, "/concurrent");
+            writeFrame(frameHeader, headersPayload);
+        }
+        // A HEADERS and a DATA frame for each response
+        for (int i = 0; i < streamCount * 2; i++) {
+            parser.readFrame(true);
+        }
+        String trace = output.getTrace();
+        for (int i = 0; i < streamCount; i++) {
+            Assert.assertTrue(trace, trace.contains((3 + i * 2) + "-EndOfStream"));
+        }
+
+        // The statistics are updated once the write completes which may be
+        // after the client has read the frames. Including the response to
+        // the upgrade request, there are two frames per stream.
+        long expectedFrames = (streamCount + 1) * 2;
+        int count = 0;
+        while (http2Protocol.getWriteFrameCount() < expectedFrames && count < 50) {
+            Thread.sleep(100);
+            count++;
+        }
+        long frames = http2Protocol.getWriteFrameCount();
+        long flushes = http2Protocol.getWriteFlushCount();
+        Assert.assertEquals(expectedFrames, frames);
+        // Frames from different streams were written together. Without
+        // batching each frame is flushed on its own.
+        Assert.assertTrue("Frames [" + frames + "], flushes [" + flushes + "]",
+                flushes > 0 && flushes < frames);
+        Assert.assertTrue(http2Protocol.getWriteFramesPerFlush() > 1);
+        // Not a secure connection
+        Assert.assertEquals(0, http2Protocol.getWriteTlsRecordsPerFlush(), 0);
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(
+                new ObjectName("*:type=UpgradeProtocol,upgradeProtocol=\"h2\",*"), null);
+        Assert.assertEquals(1, names.size());
+        Assert.assertEquals(Long.valueOf(200000),
+                mbeanServer.getAttribute(names.iterator().next(), "writeBatchDelay"));
+    }
+
+
+    /*
+     * Holds each request until the expected number of requests are being
+     * processed so the responses are written concurrently.
+     */
+    private static class ConcurrentServlet extends SimpleServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CountDownLatch latch;
+
+        ConcurrentServlet(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            latch.countDown();
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            super.doGet(req, resp);
+        }
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.coyote.http2.Http2UpgradeHandler.BacklogTracker;
+
+public class TestStreamScheduler {
+
+    private Http2UpgradeHandler handler;
+    private Stream a;
+    private Stream b;
+    private Stream c;
+    private Map<AbstractStream,BacklogTracker> backLog;
+
+
+    @Before
+    public void setup() {
+        // a (weight 16) is the parent of b (weight 32) and c (weight 96)
+        handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        a = new Stream(Integer.valueOf(1), handler);
+        b = new Stream(Integer.valueOf(3), handler);
+        c = new Stream(Integer.valueOf(5), handler);
+        b.rePrioritise(a, false, 32);
+        c.rePrioritise(a, false, 96);
+
+        backLog = new HashMap<>();
+        backLog.put(handler, new BacklogTracker());
+        backLog.put(a, new BacklogTracker(1000));
+        backLog.put(b, new BacklogTracker(1000));
+        backLog.put(c, new BacklogTracker(1000));
+    }
+
+
+    @Test
+    public void testPriority() {
+        int left = new PriorityStreamScheduler().allocate(handler, backLog, 1400);
+
+        Assert.assertEquals(0, left);
+        // Parent first, then the remainder split 1:3 between the children
+        Assert.assertEquals(1000, getAllocation(a));
+        Assert.assertEquals(100, getAllocation(b));
+        Assert.assertEquals(300, getAllocation(c));
+    }
+
+
+    @Test
+    public void testStrict() {
+        int left = new StrictPriorityStreamScheduler().allocate(handler, backLog, 1400);
+
+        Assert.assertEquals(0, left);
+        // Parent first, then the child with the highest weight
+        Assert.assertEquals(1000, getAllocation(a));
+        Assert.assertEquals(0, getAllocation(b));
+        Assert.assertEquals(400, getAllocation(c));
+        // The connection has no reservation so it is removed
+        Assert.assertFalse(backLog.containsKey(handler));
+    }
+
+
+    @Test
+    public void testWeightedFairQueue() {
+        int left = new WeightedFairQueueStreamScheduler().allocate(handler, backLog, 1440);
+
+        Assert.assertEquals(0, left);
+        // Shared 16:32:96 regardless of the tree
+        Assert.assertEquals(160, getAllocation(a));
+        Assert.assertEquals(320, getAllocation(b));
+        Assert.assertEquals(960, getAllocation(c));
+    }
+
+
+    @Test
+    public void testWeightedFairQueueRedistribution() {
+        backLog.put(c, new BacklogTracker(100));
+
+        int left = new WeightedFairQueueStreamScheduler().allocate(handler, backLog, 1540);
+
+        Assert.assertEquals(0, left);
+        // c only needs 100 of its 1155 share. The rest is shared 1:2.
+        Assert.assertEquals(100, getAllocation(c));
+        Assert.assertEquals(480, getAllocation(a));
+        Assert.assertEquals(960, getAllocation(b));
+    }
+
+
+    @Test
+    public void testRoundRobin() {
+        StreamScheduler scheduler = new RoundRobinStreamScheduler(300);
+
+        Assert.assertEquals(0, scheduler.allocate(handler, backLog, 700));
+        Assert.assertEquals(300, getAllocation(a));
+        Assert.assertEquals(300, getAllocation(b));
+        Assert.assertEquals(100, getAllocation(c));
+
+        // The next allocation continues with the stream after c
+        Assert.assertEquals(0, scheduler.allocate(handler, backLog, 400));
+        Assert.assertEquals(600, getAllocation(a));
+        Assert.assertEquals(400, getAllocation(b));
+        Assert.assertEquals(100, getAllocation(c));
+    }
+
+
+    @Test
+    public void testAllocationExceedsDemand() {
+        StreamScheduler[] schedulers = new StreamScheduler[] {
+                new StrictPriorityStreamScheduler(), new WeightedFairQueueStreamScheduler(),
+                new RoundRobinStreamScheduler() };
+        for (StreamScheduler scheduler : schedulers) {
+            setup();
+            Assert.assertEquals(500, scheduler.allocate(handler, backLog, 3500));
+            Assert.assertEquals(1000, getAllocation(a));
+            Assert.assertEquals(1000, getAllocation(b));
+            Assert.assertEquals(1000, getAllocation(c));
+        }
+    }
+
+
+    @Test
+    public void testProtocolConfiguration() {
+        Http2Protocol protocol = new Http2Protocol();
+        Assert.assertTrue(protocol.createStreamScheduler() instanceof PriorityStreamScheduler);
+        protocol.setStreamScheduler("wfq");
+        Assert.assertTrue(
+                protocol.createStreamScheduler() instanceof WeightedFairQueueStreamScheduler);
+        try {
+            protocol.setStreamScheduler("fifo");
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        Assert.assertEquals("wfq", protocol.getStreamScheduler());
+    }
+
+
+    private int getAllocation(Stream stream) {
+        return backLog.get(stream).getUnusedAllocation();
+    }
+}
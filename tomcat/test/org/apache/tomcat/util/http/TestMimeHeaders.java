@@ -16,6 +16,9 @@
  */
 package org.apache.tomcat.util.http;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -61,4 +64,74 @@ public class TestMimeHeaders {
         Assert.assertEquals(HEADER_NAME_MIXED_STRING, mh.getValue(HEADER_NAME_MIXED_STRING).toString());
     }
 
+    @Test
+    public void testIndexed() {
+        MimeHeaders mh = new MimeHeaders();
+        // Use both String and byte[] names
+        for (int i = 0; i < MimeHeaders.INDEX_THRESHOLD * 2; i++) {
+            if (i % 2 == 0) {
+                mh.addValue("X-Header-" + i).setString("value-" + i);
+            } else {
+                byte[] name = ("x-HEADER-" + i).getBytes(StandardCharsets.ISO_8859_1);
+                mh.addValue(name, 0, name.length).setString("value-" + i);
+            }
+        }
+        mh.addValue("x-header-1").setString("duplicate");
+
+        for (int i = 0; i < MimeHeaders.INDEX_THRESHOLD * 2; i++) {
+            Assert.assertEquals("value-" + i, mh.getHeader("X-HEADER-" + i));
+        }
+        Assert.assertNull(mh.getValue("X-Header"));
+
+        // Duplicates are found in order
+        int first = mh.findHeader("X-Header-1", 0);
+        Assert.assertEquals(1, first);
+        int second = mh.findHeader("X-Header-1", first + 1);
+        Assert.assertEquals(MimeHeaders.INDEX_THRESHOLD * 2, second);
+        Assert.assertEquals(-1, mh.findHeader("X-Header-1", second + 1));
+        Enumeration<String> values = mh.values("x-header-1");
+        Assert.assertEquals("value-1", values.nextElement());
+        Assert.assertEquals("duplicate", values.nextElement());
+        Assert.assertFalse(values.hasMoreElements());
+        try {
+            mh.getUniqueValue("x-header-1");
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+
+        // Headers added and removed after the index is built
+        mh.setValue("x-header-1").setString("set");
+        Assert.assertEquals("set", mh.getUniqueValue("X-Header-1").toString());
+        mh.removeHeader("x-header-0");
+        Assert.assertNull(mh.getValue("x-header-0"));
+        mh.addValue("X-Header-Added").setString("added");
+        Assert.assertEquals("added", mh.getHeader("x-header-added"));
+        for (int i = 1; i < MimeHeaders.INDEX_THRESHOLD * 2; i++) {
+            Assert.assertNotNull(mh.getValue("X-HEADER-" + i));
+        }
+
+        // Index is rebuilt once the headers are reused
+        mh.recycle();
+        Assert.assertNull(mh.getValue("x-header-2"));
+        for (int i = 0; i < MimeHeaders.INDEX_THRESHOLD; i++) {
+            mh.addValue("Other-" + i).setString("other-" + i);
+        }
+        Assert.assertNull(mh.getValue("x-header-2"));
+        Assert.assertEquals("other-3", mh.getHeader("OTHER-3"));
+    }
+
+    @Test
+    public void testIndexedNonAscii() {
+        MimeHeaders mh = new MimeHeaders();
+        for (int i = 0; i < MimeHeaders.INDEX_THRESHOLD; i++) {
+            mh.addValue("header-" + i).setString("value-" + i);
+        }
+        // Kelvin sign matches 'k' with String.equalsIgnoreCase()
+        mh.addValue("\u212A").setString("kelvin");
+
+        Assert.assertEquals("kelvin", mh.getHeader("k"));
+        Assert.assertEquals("value-3", mh.getHeader("HEADER-3"));
+        Assert.assertEquals("kelvin", mh.getHeader("\u212A"));
+    }
 }
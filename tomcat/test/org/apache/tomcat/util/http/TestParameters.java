@@ -19,11 +19,16 @@ package org.apache.tomcat.util.http;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.Parameters.FailReason;
+
 public class TestParameters {
 
     private static final Parameter SIMPLE =
@@ -41,32 +46,41 @@ public class TestParameters {
 
     @Test
     public void testProcessParametersByteArrayIntInt() {
-        doTestProcessParametersByteArrayIntInt(-1, SIMPLE);
-        doTestProcessParametersByteArrayIntInt(-1, SIMPLE_MULTIPLE);
-        doTestProcessParametersByteArrayIntInt(-1, NO_VALUE);
-        doTestProcessParametersByteArrayIntInt(-1, EMPTY_VALUE);
-        doTestProcessParametersByteArrayIntInt(-1, EMPTY);
-        doTestProcessParametersByteArrayIntInt(-1, UTF8);
-        doTestProcessParametersByteArrayIntInt(-1,
+        doTestProcessParametersByteArrayIntInt(false);
+    }
+
+    @Test
+    public void testProcessParametersByteArrayIntIntLazy() {
+        doTestProcessParametersByteArrayIntInt(true);
+    }
+
+    private void doTestProcessParametersByteArrayIntInt(boolean lazy) {
+        doTestProcessParametersByteArrayIntInt(lazy, -1, SIMPLE);
+        doTestProcessParametersByteArrayIntInt(lazy, -1, SIMPLE_MULTIPLE);
+        doTestProcessParametersByteArrayIntInt(lazy, -1, NO_VALUE);
+        doTestProcessParametersByteArrayIntInt(lazy, -1, EMPTY_VALUE);
+        doTestProcessParametersByteArrayIntInt(lazy, -1, EMPTY);
+        doTestProcessParametersByteArrayIntInt(lazy, -1, UTF8);
+        doTestProcessParametersByteArrayIntInt(lazy, -1,
                 SIMPLE, SIMPLE_MULTIPLE, NO_VALUE, EMPTY_VALUE, EMPTY, UTF8);
-        doTestProcessParametersByteArrayIntInt(-1,
+        doTestProcessParametersByteArrayIntInt(lazy, -1,
                 SIMPLE_MULTIPLE, NO_VALUE, EMPTY_VALUE, EMPTY, UTF8, SIMPLE);
-        doTestProcessParametersByteArrayIntInt(-1,
+        doTestProcessParametersByteArrayIntInt(lazy, -1,
                 NO_VALUE, EMPTY_VALUE, EMPTY, UTF8, SIMPLE, SIMPLE_MULTIPLE);
-        doTestProcessParametersByteArrayIntInt(-1,
+        doTestProcessParametersByteArrayIntInt(lazy, -1,
                 EMPTY_VALUE, EMPTY, UTF8, SIMPLE, SIMPLE_MULTIPLE, NO_VALUE);
-        doTestProcessParametersByteArrayIntInt(-1,
+        doTestProcessParametersByteArrayIntInt(lazy, -1,
                 EMPTY, UTF8, SIMPLE, SIMPLE_MULTIPLE, NO_VALUE, EMPTY_VALUE);
-        doTestProcessParametersByteArrayIntInt(-1,
+        doTestProcessParametersByteArrayIntInt(lazy, -1,
                 UTF8, SIMPLE, SIMPLE_MULTIPLE, NO_VALUE, EMPTY_VALUE, EMPTY);
 
-        doTestProcessParametersByteArrayIntInt(1,
+        doTestProcessParametersByteArrayIntInt(lazy, 1,
                 SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
-        doTestProcessParametersByteArrayIntInt(2,
+        doTestProcessParametersByteArrayIntInt(lazy, 2,
                 SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
-        doTestProcessParametersByteArrayIntInt(3,
+        doTestProcessParametersByteArrayIntInt(lazy, 3,
                 SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
-        doTestProcessParametersByteArrayIntInt(4,
+        doTestProcessParametersByteArrayIntInt(lazy, 4,
                 SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
     }
 
@@ -82,7 +96,7 @@ public class TestParameters {
         Assert.assertEquals("foo4=", EMPTY_VALUE.toString());
     }
 
-    private long doTestProcessParametersByteArrayIntInt(int limit,
+    private long doTestProcessParametersByteArrayIntInt(boolean lazy, int limit,
             Parameter... parameters) {
 
         // Build the byte array
@@ -102,6 +116,7 @@ public class TestParameters {
         Parameters p = new Parameters();
         p.setCharset(StandardCharsets.UTF_8);
         p.setLimit(limit);
+        p.setLazy(lazy);
 
         long start = System.nanoTime();
         p.processParameters(data, 0, data.length);
@@ -240,6 +255,52 @@ public class TestParameters {
 
     }
 
+    @Test
+    public void testLazy() {
+        Parameters p = new Parameters();
+        p.setLazy(true);
+        p.setQueryStringCharset(StandardCharsets.UTF_8);
+        p.setCharset(StandardCharsets.ISO_8859_1);
+
+        MessageBytes query = MessageBytes.newInstance();
+        query.setString("a=1&b=%E2%82%AC&a=2&bad=%ZZ&c");
+        p.setQuery(query);
+        p.handleQueryParameters();
+        Assert.assertEquals(FailReason.URL_DECODING, p.getParseFailedReason());
+
+        byte[] body = "d=%E9&a=3".getBytes(StandardCharsets.ISO_8859_1);
+        p.processParameters(body, 0, body.length);
+
+        Assert.assertEquals("1", p.getParameter("a"));
+        Assert.assertEquals("\u20ac", p.getParameter("b"));
+        Assert.assertEquals("", p.getParameter("c"));
+        Assert.assertEquals("\u00e9", p.getParameter("d"));
+        Assert.assertNull(p.getParameter("bad"));
+        Assert.assertEquals(Arrays.asList("1", "2", "3"), Arrays.asList(p.getParameterValues("a")));
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d"), Collections.list(p.getParameterNames()));
+
+        // Adding a parameter directly retains the order
+        p.addParameter("e", "5");
+        p.addParameter("a", "4");
+        Assert.assertEquals(Arrays.asList("1", "2", "3", "4"), Arrays.asList(p.getParameterValues("a")));
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d", "e"), Collections.list(p.getParameterNames()));
+
+        // Reuse with more parameters than the initial capacity
+        p.recycle();
+        p.setQuery(null);
+        p.setLazy(true);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("name").append(i % 40).append('=').append(i).append('&');
+        }
+        byte[] data = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        p.processParameters(data, 0, data.length);
+        Assert.assertEquals("17", p.getParameter("name17"));
+        Assert.assertEquals(Arrays.asList("39", "79"), Arrays.asList(p.getParameterValues("name39")));
+        Assert.assertEquals(40, Collections.list(p.getParameterNames()).size());
+        Assert.assertNull(p.getParameter("a"));
+    }
+
     private void validateParameters(Parameter[] parameters, Parameters p) {
         Enumeration<String> names = p.getParameterNames();
 
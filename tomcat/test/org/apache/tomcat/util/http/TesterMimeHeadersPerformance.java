@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/*
+ * Compares looking up headers by name using MimeHeaders (which uses a hash
+ * index for larger numbers of headers) with a linear scan of the headers.
+ */
+public class TesterMimeHeadersPerformance {
+
+    private static final int ITERATIONS = 100000;
+
+    // Frameworks often look up the same header several times per request
+    private static final int LOOKUPS_PER_HEADER = 4;
+
+    private static final String[] LOOKUPS = new String[] {
+            "accept", "Authorization", "X-Forwarded-For", "X-Forwarded-Proto",
+            "traceparent", "Content-Type", "Cookie", "X-Not-Present" };
+
+
+    @Test
+    public void testLookup() {
+        doTestLookup(10);
+        doTestLookup(40);
+        doTestLookup(100);
+    }
+
+
+    private void doTestLookup(int headerCount) {
+        MimeHeaders mh = new MimeHeaders();
+        byte[] buf = createHeaders(headerCount);
+
+        // Warm up
+        doLookupMimeHeaders(mh, buf, headerCount);
+        doLookupLinear(mh, buf, headerCount);
+
+        long start = System.nanoTime();
+        int found = doLookupMimeHeaders(mh, buf, headerCount);
+        long mimeHeadersTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int foundLinear = doLookupLinear(mh, buf, headerCount);
+        long linearTime = System.nanoTime() - start;
+
+        Assert.assertEquals(foundLinear, found);
+        System.out.println(headerCount + " headers: MimeHeaders " + mimeHeadersTime / 1000000 +
+                "ms, linear scan " + linearTime / 1000000 + "ms");
+    }
+
+
+    /*
+     * Parse the headers from the buffer for each iteration, as the connector
+     * would, so the cost of building the index is included.
+     */
+    private int doLookupMimeHeaders(MimeHeaders mh, byte[] buf, int headerCount) {
+        int found = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            addHeaders(mh, buf, headerCount);
+            for (int j = 0; j < LOOKUPS_PER_HEADER; j++) {
+                for (String lookup : LOOKUPS) {
+                    if (mh.getValue(lookup) != null) {
+                        found++;
+                    }
+                }
+            }
+            mh.recycle();
+        }
+        return found;
+    }
+
+
+    private int doLookupLinear(MimeHeaders mh, byte[] buf, int headerCount) {
+        int found = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            addHeaders(mh, buf, headerCount);
+            for (int j = 0; j < LOOKUPS_PER_HEADER; j++) {
+                for (String lookup : LOOKUPS) {
+                    int size = mh.size();
+                    for (int k = 0; k < size; k++) {
+                        if (mh.getName(k).equalsIgnoreCase(lookup)) {
+                            found++;
+                            break;
+                        }
+                    }
+                }
+            }
+            mh.recycle();
+        }
+        return found;
+    }
+
+
+    private void addHeaders(MimeHeaders mh, byte[] buf, int headerCount) {
+        int start = 0;
+        for (int j = 0; j < headerCount; j++) {
+            int end = start;
+            while (buf[end] != ':') {
+                end++;
+            }
+            MessageBytes value = mh.addValue(buf, start, end - start);
+            start = end + 1;
+            end = start;
+            while (buf[end] != '\n') {
+                end++;
+            }
+            value.setBytes(buf, start, end - start);
+            start = end + 1;
+        }
+    }
+
+
+    private byte[] createHeaders(int headerCount) {
+        StringBuilder sb = new StringBuilder();
+        // The headers being looked up are placed at the end so the linear
+        // scan is not flattered
+        for (int i = LOOKUPS.length - 1; i < headerCount; i++) {
+            sb.append("X-Custom-Header-").append(i).append(":value\n");
+        }
+        for (int i = 0; i < LOOKUPS.length - 1 && i < headerCount; i++) {
+            sb.append(LOOKUPS[i]).append(":value\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -73,6 +73,45 @@ public class TesterParametersPerformance {
         return result;
     }
 
+    /*
+     * Search style request with many parameters of which the application only
+     * reads a few.
+     */
+    @Test
+    public void testLazy() {
+        LogManager.getLogManager().getLogger("").setLevel(Level.OFF);
+        StringBuilder sb = new StringBuilder("q=tomcat");
+        for (int i = 0; i < 300; i++) {
+            sb.append("&facet").append(i).append("=value%20").append(i);
+        }
+        byte[] input = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        // Warm up
+        doTestLazy(input, false, 10000);
+        doTestLazy(input, true, 10000);
+
+        System.out.println("Eager: " + doTestLazy(input, false, 100000) / 1000000 + "ms");
+        System.out.println("Lazy:  " + doTestLazy(input, true, 100000) / 1000000 + "ms");
+    }
+
+    private long doTestLazy(byte[] input, boolean lazy, int loops) {
+        Parameters p = new Parameters();
+        // URL decoding modifies the bytes so each iteration needs a copy
+        byte[] bytes = new byte[input.length];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < loops; i++) {
+            p.setLazy(lazy);
+            p.setCharset(StandardCharsets.UTF_8);
+            System.arraycopy(input, 0, bytes, 0, input.length);
+            p.processParameters(bytes, 0, bytes.length);
+            Assert.assertEquals("tomcat", p.getParameter("q"));
+            Assert.assertEquals("value 42", p.getParameter("facet42"));
+            p.recycle();
+        }
+        return System.nanoTime() - start;
+    }
+
     @Test
     public void testCreateString() throws UnsupportedEncodingException {
         B2CConverter.getCharset("ISO-8859-1");
@@ -0,0 +1,548 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.net.SocketFactory;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.modeler.Registry;
+
+public class TestNioEndpoint extends TomcatBaseTest {
+
+    private static final int POLLER_COUNT = 4;
+
+
+    @Test
+    public void testRoundRobinPollers() throws Exception {
+        doTestPollers(NioEndpoint.POLLER_SELECTION_ROUND_ROBIN);
+    }
+
+
+    @Test
+    public void testLeastLoadedPollers() throws Exception {
+        doTestPollers(NioEndpoint.POLLER_SELECTION_LEAST_LOADED);
+    }
+
+
+    private void doTestPollers(String policy) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        Assume.assumeTrue("This test is only relevant for NIO",
+                connector.getProtocolHandlerClassName().contains("Nio") &&
+                !connector.getProtocolHandlerClassName().contains("Nio2"));
+
+        Assert.assertTrue(connector.setProperty("pollerThreadCount", Integer.toString(POLLER_COUNT)));
+        Assert.assertTrue(connector.setProperty("pollerSelectionPolicy", policy));
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        // Each request uses a new connection
+        Map<String,List<String>> reqHead = new HashMap<>();
+        reqHead.put("Connection", Collections.singletonList("close"));
+        for (int i = 0; i < POLLER_COUNT * 2; i++) {
+            ByteChunk bc = new ByteChunk();
+            int rc = getUrl("http://localhost:" + getPort() + "/", bc, reqHead, null);
+            Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, bc.toString());
+        }
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        // Exclude the SocketProperties MBean registered under the ThreadPool
+        Set<ObjectName> names = mbeanServer.queryNames(new ObjectName("*:type=ThreadPool,name=*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+
+        long[] eventCounts = (long[]) mbeanServer.getAttribute(name, "pollerEventCounts");
+        Assert.assertEquals(POLLER_COUNT, eventCounts.length);
+        if (NioEndpoint.POLLER_SELECTION_ROUND_ROBIN.equals(policy)) {
+            for (long eventCount : eventCounts) {
+                Assert.assertTrue(eventCount > 0);
+            }
+        }
+        int[] keyCounts = (int[]) mbeanServer.getAttribute(name, "pollerKeyCounts");
+        Assert.assertEquals(POLLER_COUNT, keyCounts.length);
+        long[] wakeupCounts = (long[]) mbeanServer.getAttribute(name, "pollerWakeupCounts");
+        Assert.assertEquals(POLLER_COUNT, wakeupCounts.length);
+    }
+
+
+    @Test
+    public void testIdleBufferRelease() throws Exception {
+        doTestIdleBufferRelease(false);
+    }
+
+
+    @Test
+    public void testIdleBufferReleaseTls() throws Exception {
+        doTestIdleBufferRelease(true);
+    }
+
+
+    private void doTestIdleBufferRelease(boolean tls) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        Assume.assumeTrue("This test is only relevant for NIO",
+                connector.getProtocolHandlerClassName().contains("Nio") &&
+                !connector.getProtocolHandlerClassName().contains("Nio2"));
+
+        Assert.assertTrue(connector.setProperty("socket.idleBufferRelease", "true"));
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        String scheme = "http";
+        if (tls) {
+            TesterSupport.configureClientSsl();
+            TesterSupport.initSsl(tomcat);
+            scheme = "https";
+        }
+
+        tomcat.start();
+
+        // The client re-uses the connection so the buffers are released
+        // between requests and re-acquired for the next one
+        int requestCount = 5;
+        for (int i = 0; i < requestCount; i++) {
+            ByteChunk bc = getUrl(scheme + "://localhost:" + getPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, bc.toString());
+        }
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(new ObjectName("*:type=ThreadPool,name=*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+
+        // Read and write buffers plus, for TLS, the network buffers
+        int buffersPerConnection = tls ? 4 : 2;
+        long releaseCount = ((Long) mbeanServer.getAttribute(name, "idleBufferReleaseCount")).longValue();
+        long reacquireCount = ((Long) mbeanServer.getAttribute(name, "idleBufferReacquireCount")).longValue();
+        // A request that arrives before the connection is returned to the
+        // poller is processed without the buffers being released
+        Assert.assertTrue(releaseCount >= buffersPerConnection);
+        Assert.assertTrue(reacquireCount >= buffersPerConnection);
+        Assert.assertEquals(0, reacquireCount % buffersPerConnection);
+        // Re-acquired buffers should come from the pool
+        long allocateCount = ((Long) mbeanServer.getAttribute(name, "idleBufferAllocateCount")).longValue();
+        Assert.assertTrue(allocateCount < reacquireCount);
+    }
+
+
+    @Test
+    public void testPreBufferRequests() throws Exception {
+        doTestPreBufferRequests(false);
+    }
+
+
+    @Test
+    public void testPreBufferRequestsTls() throws Exception {
+        doTestPreBufferRequests(true);
+    }
+
+
+    private void doTestPreBufferRequests(boolean tls) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        Assume.assumeTrue("This test is only relevant for NIO",
+                connector.getProtocolHandlerClassName().contains("Nio") &&
+                !connector.getProtocolHandlerClassName().contains("Nio2"));
+
+        Assert.assertTrue(connector.setProperty("preBufferRequests", "true"));
+        Assert.assertTrue(connector.setProperty("preBufferSpillThreshold", "1024"));
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "body", new BodyTimingServlet());
+        ctx.addServletMappingDecoded("/", "body");
+
+        SocketFactory socketFactory = SocketFactory.getDefault();
+        if (tls) {
+            socketFactory = TesterSupport.configureClientSsl();
+            TesterSupport.initSsl(tomcat);
+        }
+
+        tomcat.start();
+
+        // Small body buffered in memory
+        String response = doSlowRequest(socketFactory, tls, 100);
+        Assert.assertTrue(response, response.endsWith("length=100"));
+        // Large body written to a temporary file. For TLS, larger than a TLS
+        // record.
+        response = doSlowRequest(socketFactory, tls, 40000);
+        Assert.assertTrue(response, response.endsWith("length=40000"));
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(new ObjectName("*:type=ThreadPool,name=*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+
+        Assert.assertEquals(Long.valueOf(2), mbeanServer.getAttribute(name, "preBufferedRequestCount"));
+        Assert.assertEquals(Long.valueOf(1), mbeanServer.getAttribute(name, "preBufferSpillCount"));
+        long bytes = ((Long) mbeanServer.getAttribute(name, "preBufferedBytes")).longValue();
+        Assert.assertTrue(bytes > 40100);
+    }
+
+
+    @Test
+    public void testPreBufferRequestsClientDisconnect() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        Assume.assumeTrue("This test is only relevant for NIO",
+                connector.getProtocolHandlerClassName().contains("Nio") &&
+                !connector.getProtocolHandlerClassName().contains("Nio2"));
+
+        Assert.assertTrue(connector.setProperty("preBufferRequests", "true"));
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "body", new BodyTimingServlet());
+        ctx.addServletMappingDecoded("/", "body");
+
+        tomcat.start();
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(new ObjectName("*:type=ThreadPool,name=*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+
+        long connectionCount;
+        try (Socket socket = new Socket("localhost", getPort())) {
+            OutputStream os = socket.getOutputStream();
+            os.write(("POST / HTTP/1.1\r\n" +
+                    "Host: localhost:" + getPort() + "\r\n" +
+                    "Content-Length: 1000\r\n" +
+                    "\r\n" +
+                    "0123456789").getBytes(StandardCharsets.ISO_8859_1));
+            os.flush();
+            // Give the poller time to buffer the partial request
+            Thread.sleep(500);
+            connectionCount = ((Long) mbeanServer.getAttribute(name, "connectionCount")).longValue();
+            // Reset the connection mid-body so the next read fails
+            socket.setSoLinger(true, 0);
+        }
+
+        // The connection should be closed without waiting for a timeout
+        int count = 0;
+        while (count < 50 &&
+                ((Long) mbeanServer.getAttribute(name, "connectionCount")).longValue() == connectionCount) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(Long.valueOf(connectionCount - 1),
+                mbeanServer.getAttribute(name, "connectionCount"));
+        Assert.assertEquals(Long.valueOf(0), mbeanServer.getAttribute(name, "preBufferedRequestCount"));
+    }
+
+
+    @Test
+    public void testDrainResponses() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        Assume.assumeTrue("This test is only relevant for NIO",
+                connector.getProtocolHandlerClassName().contains("Nio") &&
+                !connector.getProtocolHandlerClassName().contains("Nio2"));
+
+        Assert.assertTrue(connector.setProperty("drainResponses", "true"));
+        Assert.assertTrue(connector.setProperty("maxDrainSize", "1048576"));
+        // A single container thread that must not be blocked by a slow client
+        Assert.assertTrue(connector.setProperty("maxThreads", "1"));
+        Assert.assertTrue(connector.setProperty("socket.txBufSize", "8192"));
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "large", new LargeResponseServlet());
+        ctx.addServletMappingDecoded("/large", "large");
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/hello", "hello");
+
+        tomcat.start();
+
+        try (Socket slow = new Socket()) {
+            slow.setReceiveBufferSize(4096);
+            slow.connect(new InetSocketAddress("localhost", getPort()));
+            OutputStream os = slow.getOutputStream();
+            os.write(("GET /large HTTP/1.1\r\n" +
+                    "Host: localhost:" + getPort() + "\r\n" +
+                    "Connection: close\r\n" +
+                    "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            os.flush();
+            // Give the container thread time to generate the response
+            Thread.sleep(500);
+
+            // The slow client hasn't read anything yet but the container
+            // thread should be available
+            try (Socket fast = new Socket("localhost", getPort())) {
+                fast.setSoTimeout(5000);
+                OutputStream fos = fast.getOutputStream();
+                fos.write(("GET /hello HTTP/1.1\r\n" +
+                        "Host: localhost:" + getPort() + "\r\n" +
+                        "Connection: close\r\n" +
+                        "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                fos.flush();
+                String response = readAll(fast.getInputStream());
+                Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+                Assert.assertTrue(response, response.endsWith(HelloWorldServlet.RESPONSE_TEXT));
+            }
+
+            String response = readAll(slow.getInputStream());
+            Assert.assertTrue(response.startsWith("HTTP/1.1 200"));
+            // Chunked so the response must end with the last chunk
+            Assert.assertTrue(response.endsWith("\r\n0\r\n\r\n"));
+            Assert.assertTrue(response.length() > LargeResponseServlet.LENGTH);
+        }
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(new ObjectName("*:type=ThreadPool,name=*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+
+        Assert.assertEquals(Long.valueOf(1), mbeanServer.getAttribute(name, "drainCount"));
+        long bytes = ((Long) mbeanServer.getAttribute(name, "drainedBytes")).longValue();
+        Assert.assertTrue(bytes > 0);
+        Assert.assertTrue(bytes < LargeResponseServlet.LENGTH + 8192);
+        long time = ((Long) mbeanServer.getAttribute(name, "drainTime")).longValue();
+        Assert.assertTrue(time > 0);
+    }
+
+
+    @Test
+    public void testDrainResponsesErrorStatus() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        Assume.assumeTrue("This test is only relevant for NIO",
+                connector.getProtocolHandlerClassName().contains("Nio") &&
+                !connector.getProtocolHandlerClassName().contains("Nio2"));
+
+        Assert.assertTrue(connector.setProperty("drainResponses", "true"));
+        Assert.assertTrue(connector.setProperty("maxDrainSize", "1048576"));
+        Assert.assertTrue(connector.setProperty("socket.txBufSize", "8192"));
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        // A 413 response then places the connection in an error state that
+        // still allows the response to be written
+        ctx.setSwallowAbortedUploads(false);
+        Tomcat.addServlet(ctx, "large",
+                new LargeResponseServlet(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE));
+        ctx.addServletMappingDecoded("/large", "large");
+
+        tomcat.start();
+
+        try (Socket slow = new Socket()) {
+            slow.setReceiveBufferSize(4096);
+            slow.connect(new InetSocketAddress("localhost", getPort()));
+            slow.setSoTimeout(10000);
+            OutputStream os = slow.getOutputStream();
+            // The error response closes the connection even though
+            // keep-alive was requested
+            os.write(("GET /large HTTP/1.1\r\n" +
+                    "Host: localhost:" + getPort() + "\r\n" +
+                    "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            os.flush();
+            // Give the container thread time to complete the response
+            Thread.sleep(500);
+
+            // The whole response must be received before the connection is
+            // closed
+            String response = readAll(slow.getInputStream());
+            Assert.assertTrue(response.startsWith("HTTP/1.1 413"));
+            Assert.assertTrue(response.contains("Connection: close"));
+            int bodyStart = response.indexOf("\r\n\r\n") + 4;
+            Assert.assertEquals(LargeResponseServlet.LENGTH, response.length() - bodyStart);
+        }
+    }
+
+
+    private static String readAll(InputStream is) throws IOException {
+        ByteChunk response = new ByteChunk();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = is.read(buf)) > 0) {
+            response.append(buf, 0, n);
+        }
+        return response.toString();
+    }
+
+
+    /*
+     * Reads a single response that has a Content-Length header.
+     */
+    private static String readResponse(InputStream is) throws IOException {
+        StringBuilder response = new StringBuilder();
+        while (response.indexOf("\r\n\r\n") < 0) {
+            int b = is.read();
+            if (b < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            response.append((char) b);
+        }
+        String head = response.toString().toLowerCase(Locale.ENGLISH);
+        int start = head.indexOf("content-length:") + 15;
+        int length = Integer.parseInt(head.substring(start, head.indexOf('\r', start)).trim());
+        for (int i = 0; i < length; i++) {
+            response.append((char) is.read());
+        }
+        return response.toString();
+    }
+
+
+    /*
+     * The first request on a TLS connection is processed as soon as the
+     * handshake completes so, for TLS, a first request is required for the
+     * slow request to be pre-buffered.
+     */
+    private String doSlowRequest(SocketFactory socketFactory, boolean firstRequest, int bodyLength)
+            throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < bodyLength; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+        String head = "POST / HTTP/1.1\r\n" +
+                "Host: localhost:" + getPort() + "\r\n" +
+                "Content-Length: " + bodyLength + "\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+        try (Socket socket = socketFactory.createSocket("localhost", getPort())) {
+            OutputStream os = socket.getOutputStream();
+            InputStream is = socket.getInputStream();
+            if (firstRequest) {
+                os.write(("POST / HTTP/1.1\r\n" +
+                        "Host: localhost:" + getPort() + "\r\n" +
+                        "Content-Length: 0\r\n" +
+                        "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                os.flush();
+                String response = readResponse(is);
+                Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+                // Give the connection time to return to the poller
+                Thread.sleep(500);
+            }
+            os.write(head.getBytes(StandardCharsets.ISO_8859_1));
+            os.flush();
+            Thread.sleep(500);
+            int half = bodyLength / 2;
+            os.write(body.substring(0, half).getBytes(StandardCharsets.ISO_8859_1));
+            os.flush();
+            Thread.sleep(500);
+            os.write(body.substring(half).getBytes(StandardCharsets.ISO_8859_1));
+            os.flush();
+
+            ByteChunk response = new ByteChunk();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                response.append(buf, 0, n);
+            }
+            String result = response.toString();
+            Assert.assertTrue(result, result.startsWith("HTTP/1.1 200"));
+            // The container thread should not have waited for the slow client
+            int timeStart = result.indexOf("time=");
+            long time = Long.parseLong(result.substring(timeStart + 5, result.indexOf(' ', timeStart)));
+            Assert.assertTrue("Body read took [" + time + "] ms", time < 400);
+            return result;
+        }
+    }
+
+
+    private static class LargeResponseServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int LENGTH = 512 * 1024;
+
+        private final int status;
+
+        LargeResponseServlet() {
+            this(HttpServletResponse.SC_OK);
+        }
+
+        LargeResponseServlet(int status) {
+            this.status = status;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setStatus(status);
+            if (status != HttpServletResponse.SC_OK) {
+                // Don't commit the response until the servlet returns so
+                // the connection is closed via the error state
+                resp.setBufferSize(LENGTH * 2);
+            }
+            resp.setContentType("application/octet-stream");
+            OutputStream os = resp.getOutputStream();
+            byte[] buf = new byte[1024];
+            for (int i = 0; i < LENGTH / buf.length; i++) {
+                os.write(buf);
+            }
+        }
+    }
+
+
+    private static class BodyTimingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            long start = System.nanoTime();
+            InputStream is = req.getInputStream();
+            byte[] buf = new byte[1024];
+            int length = 0;
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                length += n;
+            }
+            long time = (System.nanoTime() - start) / 1000000;
+            resp.setContentType("text/plain");
+            resp.getWriter().print("time=" + time + " length=" + length);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRequestPreBuffer {
+
+    private static final String GET = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+
+    @Test
+    public void testNoBody() throws Exception {
+        TesterChannel channel = new TesterChannel("GET / HTTP/1.1\r\n", "Host: localhost\r", "\n\r", "\n");
+        RequestPreBuffer preBuffer = new RequestPreBuffer(1024, 1024);
+
+        for (int i = 0; i < 3; i++) {
+            preBuffer.read(channel, 0);
+            Assert.assertFalse(preBuffer.isReady());
+        }
+        preBuffer.read(channel, 0);
+        Assert.assertTrue(preBuffer.isReady());
+        Assert.assertEquals(GET, drain(preBuffer));
+    }
+
+
+    @Test
+    public void testLeadingBlankLines() throws Exception {
+        TesterChannel channel = new TesterChannel("\r\n", "\r\n", "GET / HTTP/1.1\n", "Host: localhost\n\n");
+        RequestPreBuffer preBuffer = new RequestPreBuffer(1024, 1024);
+
+        for (int i = 0; i < 3; i++) {
+            preBuffer.read(channel, 0);
+            Assert.assertFalse(preBuffer.isReady());
+        }
+        preBuffer.read(channel, 0);
+        Assert.assertTrue(preBuffer.isReady());
+    }
+
+
+    @Test
+    public void testBody() throws Exception {
+        String head = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: 10\r\n\r\n";
+        TesterChannel channel = new TesterChannel(head + "01234", "56789");
+        RequestPreBuffer preBuffer = new RequestPreBuffer(1024, 1024);
+
+        preBuffer.read(channel, 0);
+        Assert.assertFalse(preBuffer.isReady());
+        preBuffer.read(channel, 0);
+        Assert.assertTrue(preBuffer.isReady());
+        Assert.assertFalse(preBuffer.isSpilled());
+        Assert.assertEquals(head + "0123456789", drain(preBuffer));
+    }
+
+
+    @Test
+    public void testBodyTooLarge() throws Exception {
+        TesterChannel channel = new TesterChannel(
+                "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2000\r\n\r\n");
+        RequestPreBuffer preBuffer = new RequestPreBuffer(1024, 1024);
+
+        preBuffer.read(channel, 0);
+        Assert.assertTrue(preBuffer.isReady());
+    }
+
+
+    @Test
+    public void testChunked() throws Exception {
+        TesterChannel channel = new TesterChannel(
+                "POST / HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n");
+        RequestPreBuffer preBuffer = new RequestPreBuffer(1024, 1024);
+
+        preBuffer.read(channel, 0);
+        Assert.assertTrue(preBuffer.isReady());
+    }
+
+
+    @Test
+    public void testExpectContinue() throws Exception {
+        TesterChannel channel = new TesterChannel(
+                "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: 10\r\nExpect: 100-continue\r\n\r\n");
+        RequestPreBuffer preBuffer = new RequestPreBuffer(1024, 1024);
+
+        preBuffer.read(channel, 0);
+        // The client won't send the body until it receives a 100 response
+        Assert.assertTrue(preBuffer.isReady());
+    }
+
+
+    @Test
+    public void testSpill() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+        String head = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length() + "\r\n\r\n";
+        String request = head + body;
+
+        String[] chunks = new String[10];
+        int chunkSize = request.length() / chunks.length + 1;
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = request.substring(i * chunkSize, Math.min(request.length(), (i + 1) * chunkSize));
+        }
+        TesterChannel channel = new TesterChannel(chunks);
+        RequestPreBuffer preBuffer = new RequestPreBuffer(100000, 0);
+
+        while (!preBuffer.isReady()) {
+            Assert.assertTrue(preBuffer.read(channel, 0) > 0);
+        }
+        Assert.assertTrue(preBuffer.isSpilled());
+        Assert.assertEquals(request, drain(preBuffer));
+        preBuffer.close();
+    }
+
+
+    @Test
+    public void testMinReadSize() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+        String head = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length() + "\r\n\r\n";
+        String request = head + body;
+
+        String[] chunks = new String[10];
+        int chunkSize = request.length() / chunks.length + 1;
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = request.substring(i * chunkSize, Math.min(request.length(), (i + 1) * chunkSize));
+        }
+        TesterChannel channel = new TesterChannel(chunks);
+        // Typical application buffer size for TLS
+        channel.minReadSize = 16709;
+        RequestPreBuffer preBuffer = new RequestPreBuffer(100000, 1024);
+
+        while (!preBuffer.isReady()) {
+            Assert.assertTrue(preBuffer.read(channel, channel.minReadSize) > 0);
+        }
+        Assert.assertTrue(preBuffer.isSpilled());
+        Assert.assertEquals(request, drain(preBuffer));
+        preBuffer.close();
+    }
+
+
+    @Test
+    public void testEndOfStream() throws Exception {
+        TesterChannel channel = new TesterChannel("GET / HTTP/1.1\r\n");
+        channel.endOfStream = true;
+        RequestPreBuffer preBuffer = new RequestPreBuffer(1024, 1024);
+
+        Assert.assertTrue(preBuffer.read(channel, 0) > 0);
+        Assert.assertFalse(preBuffer.isReady());
+        Assert.assertEquals(-1, preBuffer.read(channel, 0));
+        Assert.assertTrue(preBuffer.isReady());
+        Assert.assertEquals("GET / HTTP/1.1\r\n", drain(preBuffer));
+    }
+
+
+    private static String drain(RequestPreBuffer preBuffer) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        // Deliberately small to test partial reads
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        int n;
+        while ((n = preBuffer.drain(buffer)) > 0) {
+            buffer.flip();
+            result.write(buffer.array(), 0, n);
+            buffer.clear();
+        }
+        Assert.assertFalse(preBuffer.hasRemaining());
+        return new String(result.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+
+    /*
+     * Returns one of the provided chunks per call to read() and then no data
+     * (or end of stream) for the next call. Like SecureNioChannel, fails if
+     * the destination has less than minReadSize bytes remaining.
+     */
+    private static class TesterChannel implements ReadableByteChannel {
+
+        private final Deque<ByteBuffer> chunks = new ArrayDeque<>();
+        private boolean endOfStream = false;
+        private boolean returnedData = false;
+        private int minReadSize = 0;
+
+        TesterChannel(String... chunks) {
+            for (String chunk : chunks) {
+                this.chunks.add(ByteBuffer.wrap(chunk.getBytes(StandardCharsets.ISO_8859_1)));
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (dst.remaining() < minReadSize) {
+                throw new IOException("Buffer overflow");
+            }
+            if (returnedData) {
+                returnedData = false;
+                return 0;
+            }
+            ByteBuffer chunk = chunks.peek();
+            if (chunk == null) {
+                return endOfStream ? -1 : 0;
+            }
+            int n = Math.min(dst.remaining(), chunk.remaining());
+            ByteBuffer src = chunk.duplicate();
+            src.limit(src.position() + n);
+            dst.put(src);
+            chunk.position(chunk.position() + n);
+            if (!chunk.hasRemaining()) {
+                chunks.poll();
+                returnedData = true;
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // NO-OP
+        }
+    }
+}
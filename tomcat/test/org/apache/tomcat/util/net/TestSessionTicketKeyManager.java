@@ -0,0 +1,141 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSessionTicketKeyManager {
+
+    @Test
+    public void testRotationDisabled() {
+        SSLHostConfig sslHostConfig = new SSLHostConfig();
+        SessionTicketKeyManager manager = sslHostConfig.getSessionTicketKeyManager();
+
+        manager.rotateIfDue(System.currentTimeMillis());
+
+        Assert.assertEquals(0, manager.getKeys().length);
+        Assert.assertEquals(0, sslHostConfig.getSessionTicketKeyRotationCount());
+    }
+
+
+    @Test
+    public void testRotation() {
+        SSLHostConfig sslHostConfig = new SSLHostConfig();
+        sslHostConfig.setSessionTicketKeyRotationInterval(60);
+        sslHostConfig.setSessionTicketKeyOverlap(2);
+        SessionTicketKeyManager manager = sslHostConfig.getSessionTicketKeyManager();
+
+        long now = System.currentTimeMillis();
+        // Initial keys
+        manager.rotateIfDue(now);
+        byte[][] keys1 = manager.getKeys();
+        Assert.assertEquals(1, keys1.length);
+        Assert.assertEquals(SessionTicketKeyManager.KEY_LENGTH, keys1[0].length);
+
+        // Not due
+        manager.rotateIfDue(now + 1000);
+        Assert.assertEquals(1, manager.getRotationCount());
+
+        // Due
+        manager.rotateIfDue(now + 61000);
+        byte[][] keys2 = manager.getKeys();
+        Assert.assertEquals(2, keys2.length);
+        Assert.assertArrayEquals(keys1[0], keys2[1]);
+
+        manager.rotate();
+        manager.rotate();
+        byte[][] keys4 = manager.getKeys();
+        // Current key plus two previous keys
+        Assert.assertEquals(3, keys4.length);
+        Assert.assertEquals(4, sslHostConfig.getSessionTicketKeyRotationCount());
+    }
+
+
+    @Test
+    public void testDistributor() {
+        SSLHostConfig sslHostConfig = new SSLHostConfig();
+        sslHostConfig.setSessionTicketKeyRotationInterval(1);
+        SessionTicketKeyManager manager = sslHostConfig.getSessionTicketKeyManager();
+        TesterDistributor distributor = new TesterDistributor();
+        manager.setDistributor(distributor);
+
+        long now = System.currentTimeMillis();
+        // Initial keys are always generated
+        manager.rotateIfDue(now);
+        Assert.assertEquals(1, distributor.rotated.get());
+
+        // Not the key generator so the keys are not rotated when due
+        manager.rotateIfDue(now + 2000);
+        Assert.assertEquals(1, distributor.rotated.get());
+
+        distributor.generator = true;
+        manager.rotateIfDue(now + 2000);
+        Assert.assertEquals(2, distributor.rotated.get());
+    }
+
+
+    @Test
+    public void testSetKeys() {
+        SSLHostConfig sslHostConfig = new SSLHostConfig();
+        sslHostConfig.setSessionTicketKeyRotationInterval(60);
+        sslHostConfig.setSessionTicketKeyOverlap(1);
+        SessionTicketKeyManager manager = sslHostConfig.getSessionTicketKeyManager();
+
+        byte[][] keys = new byte[3][SessionTicketKeyManager.KEY_LENGTH];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i][0] = (byte) i;
+        }
+        manager.setKeys(keys);
+
+        byte[][] result = manager.getKeys();
+        // Limited by the overlap
+        Assert.assertEquals(2, result.length);
+        Assert.assertArrayEquals(keys[0], result[0]);
+        Assert.assertArrayEquals(keys[1], result[1]);
+
+        // Received keys reset the rotation interval
+        manager.rotateIfDue(System.currentTimeMillis());
+        Assert.assertEquals(1, manager.getRotationCount());
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testSetInvalidKeys() {
+        SSLHostConfig sslHostConfig = new SSLHostConfig();
+        sslHostConfig.getSessionTicketKeyManager().setKeys(new byte[][] { new byte[16] });
+    }
+
+
+    private static class TesterDistributor implements SessionTicketKeyManager.Distributor {
+
+        private volatile boolean generator = false;
+        private final AtomicInteger rotated = new AtomicInteger();
+
+        @Override
+        public boolean isKeyGenerator(SSLHostConfig sslHostConfig) {
+            return generator;
+        }
+
+        @Override
+        public void keysRotated(SSLHostConfig sslHostConfig, byte[][] keys) {
+            rotated.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSocketBufferHandler {
+
+    @Test
+    public void testReleaseWithoutPool() {
+        SocketBufferHandler handler = new SocketBufferHandler(1024, 1024, false);
+        Assert.assertFalse(handler.releaseBuffers());
+        Assert.assertFalse(handler.isReleased());
+    }
+
+
+    @Test
+    public void testReleaseAndReacquire() {
+        SocketBufferPool pool = new SocketBufferPool(-1);
+        SocketBufferHandler handler = new SocketBufferHandler(1024, 2048, false, pool);
+        ByteBuffer readBuffer = handler.getReadBuffer();
+        ByteBuffer writeBuffer = handler.getWriteBuffer();
+
+        Assert.assertTrue(handler.releaseBuffers());
+        Assert.assertTrue(handler.isReleased());
+        Assert.assertFalse(handler.releaseBuffers());
+        Assert.assertEquals(2, pool.getCount());
+        Assert.assertEquals(3072, pool.getSize());
+
+        // Released buffers are empty
+        Assert.assertTrue(handler.isReadBufferEmpty());
+        Assert.assertTrue(handler.isWriteBufferEmpty());
+        Assert.assertTrue(handler.isWriteBufferWritable());
+        Assert.assertTrue(handler.isReleased());
+
+        // Re-acquired from the pool with the original sizes
+        Assert.assertSame(readBuffer, handler.getReadBuffer());
+        Assert.assertSame(writeBuffer, handler.getWriteBuffer());
+        Assert.assertFalse(handler.isReleased());
+        Assert.assertEquals(0, pool.getCount());
+        Assert.assertEquals(0, pool.getSize());
+        Assert.assertEquals(2, pool.getReleaseCount());
+        Assert.assertEquals(2, pool.getReacquireCount());
+        Assert.assertEquals(0, pool.getAllocateCount());
+    }
+
+
+    @Test
+    public void testNoReleaseWithData() {
+        SocketBufferPool pool = new SocketBufferPool(-1);
+        SocketBufferHandler handler = new SocketBufferHandler(1024, 1024, false, pool);
+
+        handler.configureReadBufferForWrite();
+        handler.getReadBuffer().put((byte) 'a');
+        Assert.assertFalse(handler.releaseBuffers());
+
+        handler.configureReadBufferForRead();
+        handler.getReadBuffer().get();
+        handler.configureWriteBufferForWrite();
+        handler.getWriteBuffer().put((byte) 'b');
+        Assert.assertFalse(handler.releaseBuffers());
+
+        handler.configureWriteBufferForRead();
+        handler.getWriteBuffer().get();
+        Assert.assertTrue(handler.releaseBuffers());
+    }
+
+
+    @Test
+    public void testReleaseAfterExpand() {
+        SocketBufferPool pool = new SocketBufferPool(-1);
+        SocketBufferHandler handler = new SocketBufferHandler(1024, 1024, false, pool);
+        handler.expand(4096);
+
+        Assert.assertTrue(handler.releaseBuffers());
+        Assert.assertEquals(8192, pool.getSize());
+        Assert.assertEquals(4096, handler.getReadBuffer().capacity());
+        Assert.assertEquals(4096, handler.getWriteBuffer().capacity());
+    }
+
+
+    @Test
+    public void testPoolLimit() {
+        SocketBufferPool pool = new SocketBufferPool(3000);
+        SocketBufferHandler handler1 = new SocketBufferHandler(1024, 1024, false, pool);
+        SocketBufferHandler handler2 = new SocketBufferHandler(1024, 1024, false, pool);
+
+        Assert.assertTrue(handler1.releaseBuffers());
+        Assert.assertTrue(handler2.releaseBuffers());
+        // Only two of the four buffers fit in the pool
+        Assert.assertEquals(2, pool.getCount());
+        Assert.assertEquals(2048, pool.getSize());
+        Assert.assertEquals(4, pool.getReleaseCount());
+
+        // Buffers that were discarded are allocated when re-acquired
+        handler1.getReadBuffer();
+        handler2.getReadBuffer();
+        Assert.assertEquals(4, pool.getReacquireCount());
+        Assert.assertEquals(2, pool.getAllocateCount());
+
+        pool.clear();
+        Assert.assertEquals(0, pool.getCount());
+        Assert.assertEquals(0, pool.getSize());
+    }
+}
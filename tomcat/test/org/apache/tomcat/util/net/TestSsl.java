@@ -22,7 +22,10 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.util.Set;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.net.ssl.HandshakeCompletedEvent;
 import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.SSLContext;
@@ -39,6 +42,7 @@ import org.apache.catalina.startup.TesterServlet;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.websocket.server.WsContextListener;
 
 /**
@@ -92,6 +96,45 @@ public class TestSsl extends TomcatBaseTest {
     }
 
 
+    @Test
+    public void testHandshakeThreads() throws Exception {
+        TesterSupport.configureClientSsl();
+
+        Tomcat tomcat = getTomcatInstance();
+
+        // Only supported by the JSSE based connectors
+        Assume.assumeTrue(tomcat.getConnector().setProperty("handshakeThreads", "2"));
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "hello", new HelloWorldServlet());
+        root.addServletMappingDecoded("/", "hello");
+
+        TesterSupport.initSsl(tomcat);
+
+        tomcat.start();
+
+        for (int i = 0; i < 5; i++) {
+            ByteChunk res = getUrl("https://localhost:" + getPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(new ObjectName("*:type=ThreadPool,name=*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+
+        long handshakeCount = ((Long) mbeanServer.getAttribute(name, "handshakeCount")).longValue();
+        Assert.assertTrue(handshakeCount > 0);
+        long[] histogram = (long[]) mbeanServer.getAttribute(name, "handshakeTimeHistogram");
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        Assert.assertEquals(handshakeCount, total);
+        Assert.assertEquals(Long.valueOf(0), mbeanServer.getAttribute(name, "handshakeTasksRejected"));
+    }
+
+
     @Test
     public void testRenegotiateWorks() throws Exception {
         Tomcat tomcat = getTomcatInstance();
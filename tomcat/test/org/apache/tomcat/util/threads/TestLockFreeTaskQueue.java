@@ -0,0 +1,164 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLockFreeTaskQueue {
+
+    @Test
+    public void testThreadsCreatedBeforeQueueing() throws Exception {
+        LockFreeTaskQueue queue = new LockFreeTaskQueue();
+        ThreadPoolExecutor executor = createExecutor(queue, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // Core pool size is 0. Tasks must create threads rather
+            // than be queued until the maximum is reached.
+            for (int i = 0; i < 4; i++) {
+                executor.execute(new BlockingTask(release));
+            }
+            Assert.assertEquals(4, executor.getPoolSize());
+            Assert.assertEquals(0, queue.size());
+
+            executor.execute(new BlockingTask(release));
+            Assert.assertEquals(4, executor.getPoolSize());
+            Assert.assertEquals(1, queue.size());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testIdleThreadReused() throws Exception {
+        LockFreeTaskQueue queue = new LockFreeTaskQueue();
+        ThreadPoolExecutor executor = createExecutor(queue, 4);
+        try {
+            for (int i = 0; i < 10; i++) {
+                final CountDownLatch done = new CountDownLatch(1);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        done.countDown();
+                    }
+                });
+                Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+                // Give the worker time to return to the queue
+                long deadline = System.currentTimeMillis() + 10000;
+                while (executor.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+            }
+            // Idle threads are used in preference to creating new ones
+            Assert.assertTrue(executor.getLargestPoolSize() < 4);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testCapacity() throws Exception {
+        LockFreeTaskQueue queue = new LockFreeTaskQueue(2);
+        ThreadPoolExecutor executor = createExecutor(queue, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // Occupies the only thread
+            executor.execute(new BlockingTask(release));
+            // Queued
+            executor.execute(new BlockingTask(release));
+            executor.execute(new BlockingTask(release));
+            Assert.assertEquals(0, queue.remainingCapacity());
+            try {
+                executor.execute(new BlockingTask(release));
+                Assert.fail();
+            } catch (RejectedExecutionException expected) {
+                // Expected
+            }
+        } finally {
+            release.countDown();
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, queue.remainingCapacity());
+    }
+
+
+    @Test
+    public void testDrainToCapacity() throws Exception {
+        LockFreeTaskQueue queue = new LockFreeTaskQueue(5);
+        for (int i = 0; i < 4; i++) {
+            queue.add(new BlockingTask(null));
+        }
+        Assert.assertEquals(1, queue.remainingCapacity());
+
+        List<Runnable> drained = new ArrayList<>();
+        Assert.assertEquals(1, queue.drainTo(drained, 1));
+        Assert.assertEquals(2, queue.remainingCapacity());
+        Assert.assertEquals(3, queue.drainTo(drained));
+        Assert.assertEquals(5, queue.remainingCapacity());
+        Assert.assertEquals(4, drained.size());
+
+        // The capacity must still be enforced
+        for (int i = 0; i < 5; i++) {
+            queue.add(new BlockingTask(null));
+        }
+        Assert.assertEquals(0, queue.remainingCapacity());
+        try {
+            queue.add(new BlockingTask(null));
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+    }
+
+
+    private ThreadPoolExecutor createExecutor(LockFreeTaskQueue queue, int maxThreads) {
+        TaskThreadFactory tf = new TaskThreadFactory("test-exec-", true, Thread.NORM_PRIORITY);
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, queue, tf);
+        queue.setParent(executor);
+        return executor;
+    }
+
+
+    private static class BlockingTask implements Runnable {
+
+        private final CountDownLatch release;
+
+        BlockingTask(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void run() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTimingWheel {
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidTickDuration() {
+        new TimingWheel(0, TimeUnit.MILLISECONDS, 16);
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidWheelSize() {
+        new TimingWheel(1, TimeUnit.MILLISECONDS, 0);
+    }
+
+
+    @Test
+    public void testExpiry() throws Exception {
+        TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 16);
+        AtomicInteger runCount = new AtomicInteger();
+        long start = System.nanoTime();
+        TimingWheel.Timeout timeout =
+                wheel.schedule(new CountingTask(runCount), 5, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(1, wheel.getTimeoutCount());
+
+        while (runCount.get() == 0) {
+            wheel.advance();
+            if (runCount.get() == 0) {
+                Thread.sleep(1);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Assert.assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(5));
+        Assert.assertTrue(timeout.isExpired());
+        Assert.assertFalse(timeout.isCancelled());
+        Assert.assertFalse(timeout.cancel());
+        Assert.assertEquals(0, wheel.getTimeoutCount());
+        Assert.assertEquals(1, wheel.getExpiredCount());
+        Assert.assertTrue(wheel.getAdvanceCount() > 0);
+        Assert.assertTrue(wheel.getMaxAdvanceTime() <= wheel.getAdvanceTime());
+
+        // Only executed once
+        Thread.sleep(5);
+        wheel.advance();
+        Assert.assertEquals(1, runCount.get());
+    }
+
+
+    @Test
+    public void testCancel() throws Exception {
+        TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 16);
+        AtomicInteger runCount = new AtomicInteger();
+
+        // Cancelled before being added to the wheel
+        TimingWheel.Timeout timeout1 =
+                wheel.schedule(new CountingTask(runCount), 1, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(timeout1.cancel());
+        Assert.assertFalse(timeout1.cancel());
+
+        // Cancelled after being added to the wheel
+        TimingWheel.Timeout timeout2 =
+                wheel.schedule(new CountingTask(runCount), 2, TimeUnit.MILLISECONDS);
+        wheel.advance();
+        Assert.assertTrue(timeout2.cancel());
+
+        Assert.assertTrue(timeout1.isCancelled());
+        Assert.assertTrue(timeout2.isCancelled());
+        Assert.assertEquals(0, wheel.getTimeoutCount());
+
+        Thread.sleep(10);
+        Assert.assertEquals(0, wheel.advance());
+        Assert.assertEquals(0, runCount.get());
+        Assert.assertEquals(0, wheel.getExpiredCount());
+    }
+
+
+    @Test
+    public void testMultipleRevolutions() throws Exception {
+        // A revolution of the wheel is 4ms
+        TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 3);
+        AtomicInteger shortCount = new AtomicInteger();
+        AtomicInteger longCount = new AtomicInteger();
+        long start = System.nanoTime();
+        wheel.schedule(new CountingTask(shortCount), 2, TimeUnit.MILLISECONDS);
+        wheel.schedule(new CountingTask(longCount), 50, TimeUnit.MILLISECONDS);
+
+        while (longCount.get() == 0) {
+            wheel.advance();
+            if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50)) {
+                Assert.assertEquals(0, longCount.get());
+            }
+            Thread.sleep(1);
+        }
+
+        Assert.assertEquals(1, shortCount.get());
+        Assert.assertEquals(1, longCount.get());
+        Assert.assertEquals(2, wheel.getExpiredCount());
+        Assert.assertEquals(0, wheel.getTimeoutCount());
+    }
+
+
+    @Test
+    public void testReschedule() throws Exception {
+        final TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 16);
+        final AtomicInteger runCount = new AtomicInteger();
+        // A task that re-schedules itself twice
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (runCount.incrementAndGet() < 3) {
+                    wheel.schedule(this, 1, TimeUnit.MILLISECONDS);
+                }
+            }
+        };
+        wheel.schedule(task, 1, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        while (runCount.get() < 3 &&
+                System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+            wheel.advance();
+            Thread.sleep(1);
+        }
+
+        Assert.assertEquals(3, runCount.get());
+        Assert.assertEquals(3, wheel.getExpiredCount());
+        Assert.assertEquals(0, wheel.getTimeoutCount());
+    }
+
+
+    @Test
+    public void testTaskError() throws Exception {
+        TimingWheel wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 16);
+        AtomicInteger runCount = new AtomicInteger();
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        wheel.schedule(new CountingTask(runCount), 0, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(5);
+        // An exception in one task must not prevent other tasks running
+        Assert.assertEquals(2, wheel.advance());
+        Assert.assertEquals(1, runCount.get());
+    }
+
+
+    private static class CountingTask implements Runnable {
+
+        private final AtomicInteger count;
+
+        CountingTask(AtomicInteger count) {
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            count.incrementAndGet();
+        }
+    }
+}
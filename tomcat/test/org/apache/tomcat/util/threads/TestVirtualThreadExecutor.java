@@ -0,0 +1,138 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.tomcat.util.compat.JreCompat;
+
+public class TestVirtualThreadExecutor {
+
+    @Before
+    public void checkJre() {
+        Assume.assumeTrue(JreCompat.isJre21Available());
+    }
+
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        final int limit = 4;
+        final int tasks = 20;
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test-", limit, Integer.MAX_VALUE);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(tasks);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int r = running.incrementAndGet();
+                    int max = maxRunning.get();
+                    while (r > max && !maxRunning.compareAndSet(max, r)) {
+                        max = maxRunning.get();
+                    }
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        Assert.assertEquals(limit, executor.getActiveCount());
+        Assert.assertEquals(tasks - limit, executor.getQueueSize());
+
+        release.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(maxRunning.get() <= limit);
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(tasks, executor.getCompletedTaskCount());
+        Assert.assertEquals(0, executor.getQueueSize());
+    }
+
+
+    @Test
+    public void testThreadLocalNotShared() throws Exception {
+        final ThreadLocal<Object> threadLocal = new ThreadLocal<>();
+        final AtomicInteger leaked = new AtomicInteger();
+        final int tasks = 10;
+        final CountDownLatch done = new CountDownLatch(tasks);
+        // Only one task at a time so any thread re-use would be visible
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test-", 1, Integer.MAX_VALUE);
+
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (threadLocal.get() != null) {
+                        leaked.incrementAndGet();
+                    }
+                    threadLocal.set(new Object());
+                    done.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, leaked.get());
+        executor.shutdownNow();
+    }
+
+
+    @Test(expected=RejectedExecutionException.class)
+    public void testQueueFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test-", 1, 1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+            }
+        };
+        try {
+            // Runs
+            executor.execute(blocker);
+            // Queued
+            executor.execute(blocker);
+            // Rejected
+            executor.execute(blocker);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the throughput of {@link TaskQueue} and {@link LockFreeTaskQueue}
+ * when used by {@link ThreadPoolExecutor} with varying numbers of submitting
+ * (producer) threads and worker (consumer) threads.
+ */
+public class TesterPerformanceTaskQueue {
+
+    private static final int TASKS_PER_PRODUCER = 500000;
+    private static final int[] PRODUCER_COUNTS = new int[] { 1, 4, 16 };
+    private static final int[] CONSUMER_COUNTS = new int[] { 4, 16, 64 };
+
+
+    @Test
+    public void testTaskQueue() throws Exception {
+        for (int producers : PRODUCER_COUNTS) {
+            for (int consumers : CONSUMER_COUNTS) {
+                long time = doTest(new TaskQueue(), producers, consumers);
+                System.out.println("TaskQueue: producers [" + producers + "], consumers [" +
+                        consumers + "], time [" + time + "]ms");
+            }
+        }
+    }
+
+
+    @Test
+    public void testLockFreeTaskQueue() throws Exception {
+        for (int producers : PRODUCER_COUNTS) {
+            for (int consumers : CONSUMER_COUNTS) {
+                long time = doTest(new LockFreeTaskQueue(), producers, consumers);
+                System.out.println("LockFreeTaskQueue: producers [" + producers + "], consumers [" +
+                        consumers + "], time [" + time + "]ms");
+            }
+        }
+    }
+
+
+    private long doTest(ExecutorTaskQueue queue, int producers, int consumers) throws Exception {
+        TaskThreadFactory tf = new TaskThreadFactory("perf-exec-", true, Thread.NORM_PRIORITY);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                consumers / 4, consumers, 60, TimeUnit.SECONDS, queue, tf);
+        queue.setParent(executor);
+
+        final int taskCount = producers * TASKS_PER_PRODUCER;
+        final CountDownLatch done = new CountDownLatch(taskCount);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < TASKS_PER_PRODUCER; j++) {
+                        executor.execute(task);
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(done.await(60, TimeUnit.SECONDS));
+        long end = System.nanoTime();
+
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        return TimeUnit.NANOSECONDS.toMillis(end - start);
+    }
+}